@@ -0,0 +1,153 @@
+package ci553.happyshop.benchmarks;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import ci553.happyshop.utility.StorageLocation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * BenchmarkHome gives every benchmark its own throw-away shop: a temporary folder holding
+ * the orders folders, the order counter and a Derby database filled with generated products.
+ *
+ * How it works:
+ * StorageLocation and DatabaseRWFactory read their locations once, so the folder is created
+ * the first time get() is called and then used for the rest of the JVM. JMH runs every benchmark
+ * (and every @Param combination) in a new forked JVM, so each one starts from a freshly seeded shop.
+ * When the JVM exits, Derby is shut down and the folder is deleted.
+ *
+ * The application's own data (happyShopDB, orders/, images/) is never touched.
+ */
+
+public class BenchmarkHome {
+    public static final String DB_FOLDER = "happyShopDB";
+    public static final int STOCK_PER_PRODUCT = 1_000_000_000; // so purchaseStocks never runs out during a run
+
+    // Words the generated descriptions are made of, so a keyword search finds a realistic number of products
+    private static final String[] COLOURS = {"Black", "White", "Red", "Blue", "Green", "Silver", "Gold", "Pink"};
+    private static final String[] ITEMS = {"TV", "Radio", "Toaster", "Watch", "Camera", "Speaker", "Kettle",
+            "Headphones", "Lamp", "Charger", "Keyboard", "Mouse", "Monitor", "Printer", "Router", "Tablet"};
+
+    private static Path home;
+
+    /**
+     * Returns the shop folder of this JVM, creating it on first use.
+     * Must be called before any HappyShop class that uses StorageLocation or the Logger is loaded.
+     */
+    public static synchronized Path get() throws IOException {
+        if (home == null) {
+            home = Files.createTempDirectory("happyshop-bench");
+            System.setProperty(StorageLocation.HOME_PROPERTY, home.toString());
+            System.setProperty("derby.stream.error.file", home.resolve("derby.log").toString());
+            // info messages (eg "OrderId was generated") would be measured as well, only warnings are kept
+            if (System.getProperty("happyshop.log.level") == null) {
+                System.setProperty("happyshop.log.level", "WARN");
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(BenchmarkHome::delete, "benchmark-home-cleanup"));
+        }
+        return home;
+    }
+
+    /**
+     * Creates the orders folders and the order counter (starting at 0), like SetOrderFileSystem does.
+     */
+    public static void seedOrderFolders() throws IOException {
+        get();
+        Files.createDirectories(StorageLocation.orderedPath);
+        Files.createDirectories(StorageLocation.progressingPath);
+        Files.createDirectories(StorageLocation.collectedPath);
+        Files.writeString(StorageLocation.orderCounterPath, "0");
+    }
+
+    /**
+     * Creates the Derby database in the shop folder with productCount generated products (ids 0001, 0002, ...)
+     * and points DatabaseRWFactory at it. The stock ledger tables are added by DatabaseRWFactory.getStockLedger().
+     */
+    public static void seedDatabase(int productCount) throws IOException, SQLException {
+        if (productCount > 9999) {
+            throw new IllegalArgumentException("productID has 4 digits, at most 9999 products");
+        }
+        String dbURL = "jdbc:derby:" + get().resolve(DB_FOLDER);
+        try (Connection conn = DriverManager.getConnection(dbURL + ";create=true")) {
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("CREATE TABLE ProductTable(" +
+                        "productID CHAR(4) PRIMARY KEY," +
+                        "description VARCHAR(100)," +
+                        "unitPricePence BIGINT NOT NULL," +
+                        "image VARCHAR(100)," +
+                        "inStock INT," +
+                        "CHECK (inStock >= 0)" +
+                        ")");
+            }
+            String sql = "INSERT INTO ProductTable(productID, description, unitPricePence, image, inStock) " +
+                    "VALUES(?, ?, ?, ?, ?)";
+            try (PreparedStatement insert = conn.prepareStatement(sql)) {
+                for (int i = 1; i <= productCount; i++) {
+                    insert.setString(1, productId(i));
+                    insert.setString(2, description(i));
+                    insert.setLong(3, pricePence(i));
+                    insert.setString(4, productId(i) + ".jpg");
+                    insert.setInt(5, STOCK_PER_PRODUCT);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            conn.commit();
+        }
+        DatabaseRWFactory.dbURL = dbURL;
+    }
+
+    /**
+     * Builds a trolley of size different products (starting at the given product number),
+     * each ordered once or twice, the same shape CustomerModel passes to purchaseStocks and newOrder.
+     */
+    public static ArrayList<Product> trolley(int size, int firstProduct, int productCount) {
+        ArrayList<Product> trolley = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int n = (firstProduct - 1 + i) % productCount + 1;
+            Product product = new Product(productId(n), description(n), productId(n) + ".jpg",
+                    pricePence(n), STOCK_PER_PRODUCT);
+            product.setOrderedQuantity(1 + i % 2);
+            trolley.add(product);
+        }
+        return trolley;
+    }
+
+    public static String productId(int n) {
+        return String.format("%04d", n);
+    }
+
+    // eg "Blue Camera 12", every colour and item word is shared by many products
+    public static String description(int n) {
+        return COLOURS[n % COLOURS.length] + " " + ITEMS[(n / COLOURS.length) % ITEMS.length] + " " + n;
+    }
+
+    private static long pricePence(int n) {
+        return 199 + (n * 37L) % 50_000; // between £1.99 and £501.98
+    }
+
+    private static void delete() {
+        DatabaseRWFactory.shutdown();
+        try {
+            DriverManager.getConnection("jdbc:derby:;shutdown=true"); // releases the database files
+        } catch (SQLException e) {
+            // Derby always reports a successful shutdown as an SQLException (XJ015)
+        }
+        try (Stream<Path> paths = Files.walk(home)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Could not delete " + home + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ci553.happyshop.benchmarks;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import ci553.happyshop.storageAccess.DerbyRW;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the DerbyRW calls made by the customer client: looking up one product by id,
+ * searching by keyword (through the product name index), the search-as-you-type prefix lookup,
+ * and checkout (purchaseStocks, including the stock ledger rows) for trolleys of different sizes.
+ *
+ * DerbyRW is used directly, without the catalogue cache in front of it, so every call reaches the database.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DerbyRWBenchmark {
+
+    @Param({"1000"})
+    public int productCount;
+
+    private DerbyRW derbyRW;
+    private int next; // walks through the products, so lookups are not always for the same row
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        BenchmarkHome.seedDatabase(productCount);
+        derbyRW = new DerbyRW(DatabaseRWFactory.getConnectionPool(),
+                DatabaseRWFactory.getProductNameIndex(), DatabaseRWFactory.getStockLedger());
+    }
+
+    private int nextProduct() {
+        next = next % productCount + 1;
+        return next;
+    }
+
+    @Benchmark
+    public Product searchByProductId() throws Exception {
+        return derbyRW.searchByProductId(BenchmarkHome.productId(nextProduct()));
+    }
+
+    // "Camera" matches one product in 16, a typical customer search
+    @Benchmark
+    public ArrayList<Product> searchProduct() throws Exception {
+        return derbyRW.searchProduct("Camera");
+    }
+
+    @Benchmark
+    public ArrayList<Product> searchByPrefix() throws Exception {
+        return derbyRW.searchByPrefix("Head", 10);
+    }
+
+    // The trolley size is only a parameter of purchaseStocks, the searches are not repeated for every size
+    @State(Scope.Benchmark)
+    public static class Trolley {
+        @Param({"1", "5", "20"})
+        public int trolleySize;
+    }
+
+    @Benchmark
+    public ArrayList<Product> purchaseStocks(Trolley trolley) throws Exception {
+        return derbyRW.purchaseStocks(BenchmarkHome.trolley(trolley.trolleySize, nextProduct(), productCount), null);
+    }
+}
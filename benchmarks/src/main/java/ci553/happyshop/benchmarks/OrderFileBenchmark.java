@@ -0,0 +1,75 @@
+package ci553.happyshop.benchmarks;
+
+import ci553.happyshop.catalogue.Order;
+import ci553.happyshop.orderManagement.OrderCounter;
+import ci553.happyshop.orderManagement.OrderState;
+import ci553.happyshop.storageAccess.OrderFileManager;
+import ci553.happyshop.utility.StorageLocation;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the file work behind every order: taking the next order id (from a block of ids leased from
+ * orders/orderCounter.txt), writing the new order file, and updating and moving it when a picker changes its state.
+ *
+ * updateAndMoveOrderFile moves a fixed set of orders back and forth between orders/ordered and
+ * orders/progressing, so every call rewrites the state line and moves the file, and the folders
+ * do not fill up during the run.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OrderFileBenchmark {
+    private static final int MOVING_ORDERS = 100;
+
+    private String orderDetail;   // the text of an order with 5 products, as written by OrderHub
+    private int nextNewOrderId;   // createOrderFile needs a new id every time
+    private Path orderedPath;
+    private Path progressingPath;
+    private boolean[] isProgressing = new boolean[MOVING_ORDERS + 1]; // where each moving order is now
+    private int nextMovingOrder;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        BenchmarkHome.seedOrderFolders();
+        orderedPath = StorageLocation.orderedPath;
+        progressingPath = StorageLocation.progressingPath;
+        Order order = new Order(1, OrderState.Ordered, "2025-01-01 12:00:00", "benchmark",
+                BenchmarkHome.trolley(5, 1, 100));
+        orderDetail = order.orderDetails();
+        for (int orderId = 1; orderId <= MOVING_ORDERS; orderId++) {
+            OrderFileManager.createOrderFile(orderedPath, orderId, orderDetail);
+        }
+        nextNewOrderId = 1_000_000; // far above the moving orders
+    }
+
+    @Benchmark
+    public int generateOrderId() throws Exception {
+        return OrderCounter.generateOrderId();
+    }
+
+    @Benchmark
+    public void createOrderFile() throws Exception {
+        OrderFileManager.createOrderFile(orderedPath, nextNewOrderId++, orderDetail);
+    }
+
+    @Benchmark
+    public boolean updateAndMoveOrderFile() throws Exception {
+        int orderId = nextMovingOrder % MOVING_ORDERS + 1;
+        nextMovingOrder++;
+        boolean moved;
+        if (isProgressing[orderId]) {
+            moved = OrderFileManager.updateAndMoveOrderFile(orderId, OrderState.Ordered, progressingPath, orderedPath);
+        } else {
+            moved = OrderFileManager.updateAndMoveOrderFile(orderId, OrderState.Progressing, orderedPath, progressingPath);
+        }
+        isProgressing[orderId] = !isProgressing[orderId];
+        return moved;
+    }
+}
@@ -0,0 +1,94 @@
+package ci553.happyshop.benchmarks;
+
+import ci553.happyshop.catalogue.Order;
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.client.orderTracker.OrderTrackerObserver;
+import ci553.happyshop.client.picker.PickerModel;
+import ci553.happyshop.orderManagement.LocalOrderMap;
+import ci553.happyshop.orderManagement.OrderChange;
+import ci553.happyshop.orderManagement.OrderHub;
+import ci553.happyshop.orderManagement.OrderState;
+import ci553.happyshop.storageAccess.OrderFileManager;
+import ci553.happyshop.utility.StorageLocation;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures OrderHub.newOrder (order id, storing the order, and notifying every observer) with
+ * a number of registered order trackers and one picker.
+ *
+ * The trackers do what OrderTracker does without a window: apply each OrderChange to their copy
+ * of the orders and build its text. They run on OrderHub's dispatcher threads, so newOrder only pays for
+ * queueing the change, the trackers' work competes with it for the CPU.
+ * The shop starts with openOrders uncollected orders, loaded by initializeOrderMap as at startup.
+ * Every call adds one more order (nothing collects them during the run), so the map grows slowly,
+ * as it does in a busy shop.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OrderHubBenchmark {
+
+    @Param({"0", "10", "100"})
+    public int observers;
+
+    @Param({"100"})
+    public int openOrders;
+
+    private OrderHub orderHub;
+    private ArrayList<Product> trolley;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        BenchmarkHome.seedOrderFolders();
+        Order order = new Order(1, OrderState.Ordered, "2025-01-01 12:00:00", "benchmark",
+                BenchmarkHome.trolley(5, 1, 100));
+        for (int orderId = 1; orderId <= openOrders; orderId++) {
+            OrderFileManager.createOrderFile(StorageLocation.orderedPath, orderId, order.orderDetails());
+        }
+        Files.writeString(StorageLocation.orderCounterPath, String.valueOf(openOrders));
+
+        orderHub = OrderHub.getOrderHub();
+        for (int i = 0; i < observers; i++) {
+            orderHub.registerOrderTracker(new TrackerWithoutWindow());
+        }
+        new PickerModel().registerWithOrderHub();
+        orderHub.initializeOrderMap();
+        trolley = BenchmarkHome.trolley(5, 1, 100);
+    }
+
+    @Benchmark
+    public Order newOrder() throws Exception {
+        return orderHub.newOrder(trolley, "benchmark");
+    }
+
+    // An OrderTracker without its JavaFX window, it keeps its copy and text up to date like OrderTracker
+    private static class TrackerWithoutWindow implements OrderTrackerObserver {
+        private final LocalOrderMap ordersMap = new LocalOrderMap(false);
+        private String display = "";
+
+        @Override
+        public void setOrderMap(Map<Integer, OrderState> om, long version) {
+            ordersMap.reset(om, version);
+            display = ordersMap.toText(8);
+        }
+
+        @Override
+        public void ordersChanged(List<OrderChange> changes) {
+            if (!ordersMap.applyAll(changes)) {
+                OrderHub.getOrderHub().requestSnapshot(this);
+                return;
+            }
+            display = ordersMap.toText(8);
+        }
+    }
+}
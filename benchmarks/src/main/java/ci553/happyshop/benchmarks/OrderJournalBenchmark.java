@@ -0,0 +1,72 @@
+package ci553.happyshop.benchmarks;
+
+import ci553.happyshop.catalogue.Order;
+import ci553.happyshop.orderManagement.OrderState;
+import ci553.happyshop.storageAccess.OrderJournal;
+import ci553.happyshop.utility.StorageLocation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The same order work as OrderFileBenchmark, done by the OrderJournal that OrderHub uses by default:
+ * appending a new order, appending a state change, and reading an order back with its state filled in.
+ *
+ * changeState moves a fixed set of orders back and forth between Progressing and Collected,
+ * so every call appends one state record.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OrderJournalBenchmark {
+    private static final int MOVING_ORDERS = 100;
+
+    private OrderJournal journal;
+    private String orderDetail;   // the text of an order with 5 products, as written by OrderHub
+    private int nextNewOrderId;   // createOrder needs a new id every time
+    private boolean[] isCollected = new boolean[MOVING_ORDERS + 1];
+    private int nextMovingOrder;
+
+    @Setup(Level.Trial)
+    public void seed() throws Exception {
+        BenchmarkHome.seedOrderFolders();
+        journal = new OrderJournal(StorageLocation.orderJournalPath, OrderJournal.DEFAULT_SEGMENT_SIZE, false);
+        Order order = new Order(1, OrderState.Ordered, "2025-01-01 12:00:00", "benchmark",
+                BenchmarkHome.trolley(5, 1, 100));
+        orderDetail = order.orderDetails();
+        for (int orderId = 1; orderId <= MOVING_ORDERS; orderId++) {
+            journal.createOrder(orderId, orderDetail);
+            journal.changeState(orderId, OrderState.Progressing);
+        }
+        nextNewOrderId = 1_000_000; // far above the moving orders
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        journal.close();
+    }
+
+    @Benchmark
+    public void createOrder() throws Exception {
+        journal.createOrder(nextNewOrderId++, orderDetail);
+    }
+
+    @Benchmark
+    public boolean changeState() throws Exception {
+        int orderId = nextMovingOrder % MOVING_ORDERS + 1;
+        nextMovingOrder++;
+        isCollected[orderId] = !isCollected[orderId];
+        return journal.changeState(orderId, isCollected[orderId] ? OrderState.Collected : OrderState.Progressing);
+    }
+
+    @Benchmark
+    public String readOrder() throws Exception {
+        int orderId = nextMovingOrder % MOVING_ORDERS + 1;
+        nextMovingOrder++;
+        return journal.readOrder(orderId);
+    }
+}
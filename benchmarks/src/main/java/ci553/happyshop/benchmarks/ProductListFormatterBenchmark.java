@@ -0,0 +1,37 @@
+package ci553.happyshop.benchmarks;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.ProductListFormatter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ProductListFormatter.buildString, which the customer client calls every time the trolley changes
+ * and OrderHub calls for every order file. Pure computation, no database or files are needed.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProductListFormatterBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int trolleySize;
+
+    private ArrayList<Product> trolley;
+
+    @Setup(Level.Trial)
+    public void seed() {
+        trolley = BenchmarkHome.trolley(trolleySize, 1, 1000);
+    }
+
+    @Benchmark
+    public String buildString() {
+        return ProductListFormatter.buildString(trolley);
+    }
+}
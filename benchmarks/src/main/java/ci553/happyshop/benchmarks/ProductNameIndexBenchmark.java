@@ -0,0 +1,71 @@
+package ci553.happyshop.benchmarks;
+
+import ci553.happyshop.storageAccess.ProductNameIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one type-ahead keystroke, ProductNameIndex.searchPrefix(text, 10), on a large catalogue held
+ * in memory only (no database), with the prefixes a customer types on the way to "hardrive boxa":
+ * the short ones match a large part of the catalogue and are the expensive ones.
+ *
+ * Budget per keystroke: p99 below 100 microseconds and at most 2 KB allocated (gc.alloc.rate.norm),
+ * at 100k products. Check it with the sample mode and the GC profiler:
+ *     java -jar target/benchmarks.jar ProductNameIndexBenchmark -prof gc
+ * and read the p0.99 lines and the gc.alloc.rate.norm lines (bytes per keystroke).
+ * A larger catalogue can be tried with -p productCount=1000000 (give it about 2 GB of heap).
+ */
+
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class ProductNameIndexBenchmark {
+    // made-up words from these syllables, so every prefix matches a realistic number of words and products
+    private static final String[] SYLLABLES = {"ha", "rd", "ri", "ve", "bo", "xa", "ca", "me", "ra", "to", "as",
+            "te", "wa", "tch", "ra", "dio", "mp", "pla", "yer", "usb", "lo", "ne", "ki", "su", "po", "de", "li", "mo"};
+
+    @Param({"100000"})
+    public int productCount;
+
+    @Param({"h", "ha", "hard", "hardrive", "hardrive b", "hardrive boxa", "h b", "ha bo"})
+    public String text;
+
+    private final ProductNameIndex index = new ProductNameIndex();
+
+    @Setup(Level.Trial)
+    public void seed() {
+        Random random = new Random(42); // the same catalogue in every run
+        Map<String, String> descriptions = new HashMap<>(productCount * 2);
+        for (int i = 1; i <= productCount; i++) {
+            StringBuilder description = new StringBuilder();
+            int words = 2 + random.nextInt(4);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) {
+                    description.append(' ');
+                }
+                int syllables = 2 + random.nextInt(3);
+                for (int s = 0; s < syllables; s++) {
+                    description.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+                }
+            }
+            if (i % 500 == 0) {
+                description.append(" hardrive boxa"); // the product being typed towards
+            }
+            descriptions.put(String.format("%07d", i), description.toString());
+        }
+        index.loadAll(descriptions);
+    }
+
+    @Benchmark
+    public List<String> searchPrefix() {
+        return index.searchPrefix(text, 10);
+    }
+}
@@ -8,10 +8,12 @@ import ci553.happyshop.client.PickerTrackerView;
 import ci553.happyshop.client.emergency.EmergencyExit;
 import ci553.happyshop.client.warehouse.*;
 import ci553.happyshop.orderManagement.OrderHub;
+import ci553.happyshop.storageAccess.AsyncDatabaseRW;
 import ci553.happyshop.storageAccess.DatabaseRW;
 import ci553.happyshop.storageAccess.DatabaseRWFactory;
 import ci553.happyshop.utility.LogoutManager;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 import java.io.IOException;
 
@@ -93,6 +95,7 @@ public class Main extends Application {
         cusController.cusModel = cusModel;
         cusModel.cusView = cusView;
         cusModel.databaseRW = databaseRW;
+        cusModel.asyncDatabaseRW = new AsyncDatabaseRW(databaseRW, Platform::runLater); //results come back on the JavaFX thread
         cusView.start(new Stage());
 
         //RemoveProductNotifier removeProductNotifier = new RemoveProductNotifier();
@@ -148,6 +151,7 @@ public class Main extends Application {
         controller.model = model;
         model.view = view;
         model.databaseRW = databaseRW;
+        model.asyncDatabaseRW = new AsyncDatabaseRW(databaseRW, Platform::runLater); //results come back on the JavaFX thread
         view.start(new Stage());
 
         //create dependent views that need window info
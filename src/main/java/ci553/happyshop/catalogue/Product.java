@@ -1,12 +1,14 @@
 package ci553.happyshop.catalogue;
 
+import ci553.happyshop.utility.Money;
+
 /**
  * The Product class used to hold the information about a product:
  *
  * Fields:
  * - productId: Unique identifier for the product (eg 0001).
  * - description: Textual description of the product.
- * - unitPrice: Price per single unit of the product.
+ * - unitPrice: Price per single unit of the product, in pence (eg 2999 for £29.99), see Money.
  * - orderedQuantity: Quantity involved in a customer's order.
  * - stockQuantity: Quantity currently available in stock.
  */
@@ -15,7 +17,7 @@ public class Product implements Comparable<Product> {
     private String proId;
     private String proDescription;
     private String proImageName;
-    private double unitPrice;
+    private long unitPrice; // in pence, so totals add up exactly
     private int orderedQuantity =1; //The quantity of this product in the customer's order.
     private int stockQuantity;//
 
@@ -24,10 +26,10 @@ public class Product implements Comparable<Product> {
      * @param id Product ID
      * @param des Description of product
      * @param image image name of product, eg 0001.jpg (0001 is product ID)
-     * @param aPrice The price of the product
+     * @param aPrice The price of the product in pence
      * @param stockQuantity The Quantity of the product in stock
      */
-    public Product(String id, String des, String image, double aPrice, int stockQuantity) {
+    public Product(String id, String des, String image, long aPrice, int stockQuantity) {
         proId = id;
         proDescription = des;
         proImageName = image;
@@ -39,7 +41,7 @@ public class Product implements Comparable<Product> {
     public String getProductId() { return proId;}
     public String getProductDescription() { return proDescription;}
     public String getProductImageName() { return proImageName;}
-    public double getUnitPrice() { return unitPrice;}
+    public long getUnitPricePence() { return unitPrice;}
     public int getOrderedQuantity() { return orderedQuantity;}
     public int getStockQuantity() { return stockQuantity;}
 
@@ -58,14 +60,14 @@ public class Product implements Comparable<Product> {
     // Creates a formatted string containing ID, price (with 2 decimal places), stock amount, and description
     // Used in the Warehouse search page to display searched product information
     public String toString() {
-        String productInfo = String.format("Id: %s, £%.2f/uint, stock: %d \n%s",
-                          proId, unitPrice,stockQuantity,proDescription);
+        String productInfo = String.format("Id: %s, £%s/uint, stock: %d \n%s",
+                          proId, Money.format(unitPrice),stockQuantity,proDescription);
         return productInfo;
     }
 
     /** alternative constructors retained for possible future use.
      *
-    public Product(String id, String des, double aPrice, int orderedQuantity, int stockQuantity) {
+    public Product(String id, String des, long aPrice, int orderedQuantity, int stockQuantity) {
         proId = id;
         proDescription = des;
         unitPrice = aPrice;
@@ -73,7 +75,7 @@ public class Product implements Comparable<Product> {
         this.stockQuantity = stockQuantity;
     }
 
-    public Product(String id, String des, double aPrice, int orderedQuantity) {
+    public Product(String id, String des, long aPrice, int orderedQuantity) {
         proId = id;
         proDescription = des;
         unitPrice = aPrice;
@@ -4,9 +4,13 @@ import ci553.happyshop.client.admin.CustomerTestPage;
 import ci553.happyshop.client.picker.PickerController;
 import ci553.happyshop.client.picker.PickerModel;
 import ci553.happyshop.client.orderTracker.OrderTrackerObserver;
+import ci553.happyshop.orderManagement.LocalOrderMap;
+import ci553.happyshop.orderManagement.OrderChange;
+import ci553.happyshop.orderManagement.OrderHub;
 import ci553.happyshop.orderManagement.OrderState;
 import ci553.happyshop.utility.UIStyle;
 import ci553.happyshop.utility.WinPosManager;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -14,8 +18,8 @@ import javafx.scene.control.*;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 public class PickerTrackerView implements OrderTrackerObserver {
     private final int WIDTH = UIStyle.pickerWinWidth;
@@ -27,6 +31,7 @@ public class PickerTrackerView implements OrderTrackerObserver {
     private TextArea taOrderDetail = new TextArea();
     private Label laDetailRootTitle;
     private TabPane tabPane;
+    private final LocalOrderMap orderMap = new LocalOrderMap(false); // the orders shown in the Order Map tab
     private Tab tabOrderMap;
     private Tab tabOrderDetail;
 
@@ -122,13 +127,23 @@ public class PickerTrackerView implements OrderTrackerObserver {
     }
 
     @Override
-    public void setOrderMap(TreeMap<Integer, OrderState> om) {
-        StringBuilder sb = new StringBuilder();
-        for (Map.Entry<Integer, OrderState> entry : om.entrySet()) {
-            int orderId = entry.getKey();
-            OrderState orderState = entry.getValue();
-            sb.append(orderId).append("        ").append(orderState).append("\n");
+    public void setOrderMap(Map<Integer, OrderState> om, long version) {
+        orderMap.reset(om, version);
+        showOrderMap();
+    }
+
+    @Override
+    public void ordersChanged(List<OrderChange> changes) {
+        if (!orderMap.applyAll(changes)) {
+            OrderHub.getOrderHub().requestSnapshot(this); // a change was missed
+            return;
         }
-        taOrderMap.setText(sb.toString());
+        showOrderMap();
+    }
+
+    // called by OrderHub's dispatcher threads, the TextArea is changed on the JavaFX thread
+    private void showOrderMap() {
+        String text = orderMap.toText(8);
+        Platform.runLater(() -> taOrderMap.setText(text));
     }
 }
@@ -11,6 +11,9 @@ public class CustomerController {
             case "Search":
                 cusModel.search();
                 break;
+            case "Suggest": // a keystroke in the ID field
+                cusModel.suggest();
+                break;
             case "Add to Trolley":
                 cusModel.addToTrolley();
                 break;
@@ -2,16 +2,20 @@ package ci553.happyshop.client.customer;
 
 import ci553.happyshop.catalogue.Order;
 import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.storageAccess.AsyncDatabaseRW;
 import ci553.happyshop.storageAccess.DatabaseRW;
+import ci553.happyshop.orderManagement.OrderCounter;
 import ci553.happyshop.orderManagement.OrderHub;
+import ci553.happyshop.orderManagement.StockReservations;
 import ci553.happyshop.utility.StorageLocation;
 import ci553.happyshop.utility.ProductListFormatter;
 import ci553.happyshop.client.auth.SessionManager;
+import ci553.happyshop.utility.Logger;
+import ci553.happyshop.utility.LogoutManager;
+import ci553.happyshop.utility.Money;
 
-import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
@@ -22,11 +26,14 @@ import java.util.Map;
  * or create a subclass of CustomerModel and override specific methods where appropriate.
  */
 public class CustomerModel {
+    private static final Logger log = Logger.getLogger(CustomerModel.class);
     public CustomerView cusView;
     public DatabaseRW databaseRW; //Interface type, not specific implementation
                                   //Benefits: Flexibility: Easily change the database implementation.
+    public AsyncDatabaseRW asyncDatabaseRW; //runs databaseRW calls in the background, so the window never freezes
 
     private Product theProduct =null; // product found from search
+    private long theProductSoldCount = 0; // StockReservations.getSoldCount of theProduct, taken before its stock was read
     private ArrayList<Product> trolley =  new ArrayList<>(); // a list of products in trolley
 
     // Four UI elements to be passed to CustomerView for display updates.
@@ -35,36 +42,115 @@ public class CustomerModel {
     private String displayTaTrolley = "";                                // Text area content showing current trolley items (Trolley Page)
     private String displayTaReceipt = "";                                // Text area content showing receipt after checkout (Receipt Page)
 
-    //SELECT productID, description, image, unitPrice,inStock quantity
-    void search() throws SQLException {
+    private static final int SUGGESTION_LIMIT = 8; // type-ahead suggestions shown under the ID field
+
+    // The database is called in the background (asyncDatabaseRW), the answer arrives later on the JavaFX thread.
+    // Searches are numbered so that an answer to an older search never replaces a newer one.
+    private int searchCount = 0;
+    private int suggestCount = 0;
+    private boolean checkoutInProgress = false; // the trolley must not change while its stock is being purchased
+
+    // The stock held for the products in this trolley, so other customers can not take it before checkout.
+    // Opened when the first product is added, see StockReservations.
+    private StockReservations.Session reservations;
+
+    //SELECT productID, description, image, unitPricePence,inStock quantity
+    void search() {
         String productId = cusView.tfId.getText().trim();
+        int thisSearch = ++searchCount;
+        keepReservations(); // the customer is still shopping
         if(!productId.isEmpty()){
-            theProduct = databaseRW.searchByProductId(productId); //search database
-            if(theProduct != null && theProduct.getStockQuantity()>0){
-                double unitPrice = theProduct.getUnitPrice();
-                String description = theProduct.getProductDescription();
-                int stock = theProduct.getStockQuantity();
-
-                String baseInfo = String.format("Product_Id: %s\n%s,\nPrice: £%.2f", productId, description, unitPrice);
-                String quantityInfo = stock < 100 ? String.format("\n%d units left.", stock) : "";
-                displayLaSearchResult = baseInfo + quantityInfo;
-                System.out.println(displayLaSearchResult);
-            }
-            else{
-                theProduct=null;
-                displayLaSearchResult = "No Product was found with ID " + productId;
-                System.out.println("No Product was found with ID " + productId);
-            }
+            theProduct = null;
+            displayLaSearchResult = "Searching for product " + productId + " ..."; //pending state until the database answers
+            updateView();
+            // taken before the stock is read, so the units sold here from now on are never counted as in stock
+            long soldCount = StockReservations.getStockReservations().getSoldCount(productId);
+            asyncDatabaseRW.searchByProductId(productId).whenComplete((product, error) -> {
+                if (thisSearch != searchCount) {
+                    return; // a newer search has been started meanwhile
+                }
+                if (error != null) {
+                    theProduct = null;
+                    displayLaSearchResult = "Search failed, please try again.";
+                    log.warn("Database error, search by ID {}: {}", productId, error.getMessage());
+                } else {
+                    theProductSoldCount = soldCount;
+                    showSearchResult(productId, product);
+                }
+                updateView();
+            });
+            return;
         }else{
             theProduct=null;
             displayLaSearchResult = "Please type ProductID";
-            System.out.println("Please type ProductID.");
+            log.debug("Please type ProductID.");
         }
         updateView();
     }
 
+    //builds the search result message for the product found (or not found) by search()
+    private void showSearchResult(String productId, Product product) {
+        theProduct = product;
+        if(theProduct != null && theProduct.getStockQuantity()>0){
+            long unitPrice = theProduct.getUnitPricePence();
+            String description = theProduct.getProductDescription();
+            int stock = theProduct.getStockQuantity();
+
+            String baseInfo = String.format("Product_Id: %s\n%s,\nPrice: £%s", productId, description, Money.format(unitPrice));
+            String quantityInfo = stock < 100 ? String.format("\n%d units left.", stock) : "";
+            displayLaSearchResult = baseInfo + quantityInfo;
+            log.debug("{}", displayLaSearchResult);
+        }
+        else{
+            theProduct=null;
+            displayLaSearchResult = "No Product was found with ID " + productId;
+            log.debug("No Product was found with ID {}", productId);
+        }
+    }
+
+    //called on every keystroke in the ID field
+    //suggests the products whose ID or a word of whose name starts with the text, eg "0" or "usb"
+    void suggest() {
+        String text = cusView.tfId.getText().trim();
+        int thisSuggest = ++suggestCount;
+        if (text.isEmpty()) {
+            cusView.updateSuggestions(new ArrayList<>());
+            return;
+        }
+        asyncDatabaseRW.searchByPrefix(text, SUGGESTION_LIMIT).whenComplete((products, error) -> {
+            if (thisSuggest != suggestCount) {
+                return; // the customer has typed more since, a newer answer is on its way
+            }
+            ArrayList<String> suggestions = new ArrayList<>(); // eg "0007  USB2.0 Drive 32GB"
+            if (error != null) {
+                log.warn("Database error, suggestions for {}: {}", text, error.getMessage());
+            } else {
+                for (Product product : products) {
+                    suggestions.add(product.getProductId() + "  " + product.getProductDescription());
+                }
+            }
+            cusView.updateSuggestions(suggestions);
+        });
+    }
+
     void addToTrolley(){
-        if(theProduct!= null){
+        if(checkoutInProgress){
+            displayLaSearchResult = "Please wait, your order is being processed.";
+        }
+        else if(theProduct!= null){
+            emptyTrolleyIfExpired();
+            // hold the units before they go into the trolley, so they are still there at checkout
+            if (!reservations().reserve(theProduct.getProductId(), theProduct.getOrderedQuantity(),
+                    theProduct.getStockQuantity(), theProductSoldCount)) {
+                int available = StockReservations.getStockReservations()
+                        .getAvailable(theProduct.getProductId(), theProduct.getStockQuantity(), theProductSoldCount);
+                displayLaSearchResult = String.format("Sorry, %s can not be added, %s sold or in other customers' trolleys.",
+                        theProduct.getProductDescription(),
+                        available == 0 ? "all units are" : "only " + available + " more are free, the rest are");
+                displayTaReceipt = "";
+                updateView();
+                return;
+            }
 
             // trolley.add(theProduct) — Product is appended to the end of the trolley.
             // To keep the trolley organized, add code here or call a method that:
@@ -76,63 +162,107 @@ public class CustomerModel {
         }
         else{
             displayLaSearchResult = "Please search for an available product before adding it to the trolley";
-            System.out.println("must search and get an available product before add to trolley");
+            log.debug("must search and get an available product before add to trolley");
         }
         displayTaReceipt=""; // Clear receipt to switch back to trolleyPage (receipt shows only when not empty)
         updateView();
-    }    void checkOut() throws IOException, SQLException {
+    }
+
+    void checkOut() {
+        if(checkoutInProgress){
+            return; // pressed again while the first checkout is still running
+        }
+        if(emptyTrolleyIfExpired()){
+            updateView(); // the stock is no longer held, the customer has to fill the trolley again
+            return;
+        }
         if(!trolley.isEmpty()){
+            // The stock of every product in the trolley is reserved for this customer (see addToTrolley),
+            // so purchaseStocks normally succeeds, it only fails if the warehouse or another shop process
+            // has reduced the stock meanwhile.
             // Group the products in the trolley by productId to optimize stock checking
             // Check the database for sufficient stock for all products in the trolley.
             // If any products are insufficient, the update will be rolled back.
             // If all products are sufficient, the database will be updated, and insufficientProducts will be empty.
             // Note: If the trolley is already organized (merged and sorted), grouping is unnecessary.
             ArrayList<Product> groupedTrolley= groupProductsById(trolley);
-            ArrayList<Product> insufficientProducts= databaseRW.purchaseStocks(groupedTrolley);
-
-            if(insufficientProducts.isEmpty()){ // If stock is sufficient for all products
-                //get OrderHub and tell it to make a new Order
-                OrderHub orderHub =OrderHub.getOrderHub();
-                // Get the currently logged-in customer's username
-                String customerUsername = SessionManager.getInstance().getCurrentUser();
-                Order theOrder = orderHub.newOrder(trolley, customerUsername);
-                trolley.clear();
-                displayTaTrolley ="";
-                displayTaReceipt = String.format(
-                        "Order_ID: %s\nOrdered_Date_Time: %s\n%s",
-                        theOrder.getOrderId(),
-                        theOrder.getOrderedDateTime(),
-                        ProductListFormatter.buildString(theOrder.getProductList())
-                );
-                System.out.println(displayTaReceipt);
-            }
-            else{ // Some products have insufficient stock — build an error message to inform the customer
-                StringBuilder errorMsg = new StringBuilder();
-                for(Product p : insufficientProducts){
-                    errorMsg.append("\u2022 "+ p.getProductId()).append(", ")
-                            .append(p.getProductDescription()).append(" (Only ")
-                            .append(p.getStockQuantity()).append(" available, ")
-                            .append(p.getOrderedQuantity()).append(" requested)\n");
+            checkoutInProgress = true;
+            displayLaSearchResult = "Processing your order, please wait ..."; //pending state until the database answers
+            updateView();
+
+            // The purchase and, if every product was in stock, the new order (its ID and order file) are made
+            // in the background as one task, only the result is shown on the JavaFX thread.
+            // The trolley can not change meanwhile (checkoutInProgress), the copy is what the order is made from.
+            ArrayList<Product> orderedProducts = new ArrayList<>(trolley);
+            String customerUsername = SessionManager.getInstance().getCurrentUser();
+            // The orderId is leased first so the stock ledger can record which order each sale was for;
+            // if the purchase fails the ID is simply not used (order IDs may have gaps, see OrderCounter).
+            asyncDatabaseRW.runInBackground(() -> {
+                int orderId = OrderCounter.generateOrderId();
+                ArrayList<Product> insufficientProducts = databaseRW.purchaseStocks(groupedTrolley, orderId);
+                Order theOrder = null;
+                if (insufficientProducts.isEmpty()) {
+                    theOrder = OrderHub.getOrderHub().newOrder(orderId, orderedProducts, customerUsername);
                 }
-                theProduct=null;
-
-                //TODO
-                // Add the following logic here:
-                // 1. Remove products with insufficient stock from the trolley.
-                // 2. Trigger a message window to notify the customer about the insufficient stock, rather than directly changing displayLaSearchResult.
-                //You can use the provided RemoveProductNotifier class and its showRemovalMsg method for this purpose.
-                //remember close the message window where appropriate (using method closeNotifierWindow() of RemoveProductNotifier class)
-                displayLaSearchResult = "Checkout failed due to insufficient stock for the following products:\n" + errorMsg.toString();
-                System.out.println("stock is not enough");
-            }
+                return new CheckoutResult(insufficientProducts, theOrder);
+            }).whenComplete((result, error) -> {
+                checkoutInProgress = false;
+                if (error != null) {
+                    displayLaSearchResult = "Checkout failed, please try again.";
+                    log.error("Checkout failed: {}", error.getMessage());
+                } else {
+                    finishCheckOut(result);
+                }
+                updateView();
+            });
+            return;
         }
         else{
             displayTaTrolley = "Your trolley is empty";
-            System.out.println("Your trolley is empty");
+            log.debug("Your trolley is empty");
         }
         updateView();
     }
 
+    //called on the JavaFX thread once the checkout has finished in the background:
+    //shows the receipt if the order was made, otherwise tells the customer what was missing
+    private void finishCheckOut(CheckoutResult result) {
+        ArrayList<Product> insufficientProducts = result.insufficientProducts;
+        if(insufficientProducts.isEmpty()){ // If stock is sufficient for all products
+            displayLaSearchResult = "Thank you for your order!";
+            reservations().confirm(); // the units have left the stock, they no longer need to be held
+            Order theOrder = result.order;
+            trolley.clear();
+            displayTaTrolley ="";
+            displayTaReceipt = String.format(
+                    "Order_ID: %s\nOrdered_Date_Time: %s\n%s",
+                    theOrder.getOrderId(),
+                    theOrder.getOrderedDateTime(),
+                    ProductListFormatter.buildString(theOrder.getProductList())
+            );
+            log.info("{}", displayTaReceipt);
+        }
+        else{ // Some products have insufficient stock — build an error message to inform the customer
+            StringBuilder errorMsg = new StringBuilder();
+            for(Product p : insufficientProducts){
+                errorMsg.append("\u2022 "+ p.getProductId()).append(", ")
+                        .append(p.getProductDescription()).append(" (Only ")
+                        .append(p.getStockQuantity()).append(" available, ")
+                        .append(p.getOrderedQuantity()).append(" requested)\n");
+            }
+            theProduct=null;
+
+            //TODO
+            // Add the following logic here:
+            // 1. Remove products with insufficient stock from the trolley.
+            // 2. Trigger a message window to notify the customer about the insufficient stock, rather than directly changing displayLaSearchResult.
+            //You can use the provided RemoveProductNotifier class and its showRemovalMsg method for this purpose.
+            //remember close the message window where appropriate (using method closeNotifierWindow() of RemoveProductNotifier class)
+            displayLaSearchResult = "Checkout failed due to insufficient stock for the following products:\n" + errorMsg.toString();
+            log.info("stock is not enough");
+        }
+    }
+
     /**
      * Groups products by their productId to optimize database queries and updates.
      * By grouping products, we can check the stock for a given `productId` once, rather than repeatedly
@@ -147,21 +277,63 @@ public class CustomerModel {
             } else {
                 // Make a shallow copy to avoid modifying the original
                 grouped.put(id,new Product(p.getProductId(),p.getProductDescription(),
-                        p.getProductImageName(),p.getUnitPrice(),p.getStockQuantity()));
+                        p.getProductImageName(),p.getUnitPricePence(),p.getStockQuantity()));
             }
         }
         return new ArrayList<>(grouped.values());
     }
 
     void cancel(){
+        if(checkoutInProgress){
+            displayLaSearchResult = "Please wait, your order is being processed.";
+            updateView();
+            return;
+        }
         trolley.clear();
         displayTaTrolley="";
+        releaseReservations();
         updateView();
     }
     void closeReceipt(){
         displayTaReceipt="";
     }
 
+    // Opens this customer's reservation session on first use, and gives its stock back when they log out.
+    private StockReservations.Session reservations() {
+        if (reservations == null) {
+            String customer = SessionManager.getInstance().getCurrentUser();
+            reservations = StockReservations.getStockReservations().openSession(customer == null ? "customer" : customer);
+            LogoutManager.getInstance().addLogoutListener(this::releaseReservations);
+        }
+        return reservations;
+    }
+
+    // Gives back the stock held for this trolley (cancel, logout).
+    void releaseReservations() {
+        if (reservations != null) {
+            reservations.releaseAll();
+        }
+    }
+
+    // Any click in the window restarts the idle timeout of the reservations.
+    private void keepReservations() {
+        if (reservations != null) {
+            reservations.touch();
+        }
+    }
+
+    // If the trolley was left alone for too long its stock has been given back, so the trolley is emptied.
+    private boolean emptyTrolleyIfExpired() {
+        if (reservations == null || !reservations.checkExpired()) {
+            return false;
+        }
+        trolley.clear();
+        displayTaTrolley = "";
+        displayLaSearchResult = "Your trolley was emptied because it was left alone for too long, please add the products again.";
+        log.info("Trolley emptied, its reservations expired");
+        return true;
+    }
+
     void updateView() {
         if(theProduct != null){
             imageName = theProduct.getProductImageName();
@@ -169,7 +341,7 @@ public class CustomerModel {
             // Get the full absolute path to the image
             Path imageFullPath = Paths.get(relativeImageUrl).toAbsolutePath();
             imageName = imageFullPath.toUri().toString(); //get the image full Uri then convert to String
-            System.out.println("Image absolute path: " + imageFullPath); // Debugging to ensure path is correct
+            log.debug("Image absolute path: {}", imageFullPath); // Debugging to ensure path is correct
         }
         else{
             imageName = "imageHolder.jpg";
@@ -184,4 +356,16 @@ public class CustomerModel {
     public ArrayList<Product> getTrolley() {
         return trolley;
     }
+
+    // What the background part of a checkout hands back to the JavaFX thread:
+    // the products that were short of stock, or the new order if there were none.
+    private static class CheckoutResult {
+        private final ArrayList<Product> insufficientProducts;
+        private final Order order; // null if some products were short of stock
+
+        private CheckoutResult(ArrayList<Product> insufficientProducts, Order order) {
+            this.insufficientProducts = insufficientProducts;
+            this.order = order;
+        }
+    }
 }
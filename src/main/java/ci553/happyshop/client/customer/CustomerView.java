@@ -1,10 +1,12 @@
 package ci553.happyshop.client.customer;
 
+import ci553.happyshop.utility.Logger;
 import ci553.happyshop.utility.UIStyle;
 import ci553.happyshop.utility.WinPosManager;
 import ci553.happyshop.utility.WindowBounds;
 import javafx.event.ActionEvent;
 import javafx.geometry.Pos;
+import javafx.geometry.Side;
 import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
@@ -17,6 +19,7 @@ import javafx.stage.Stage;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 
 /**
  * The CustomerView is separated into two sections by a line :
@@ -27,6 +30,7 @@ import java.sql.SQLException;
  */
 
 public class CustomerView  {
+    private static final Logger log = Logger.getLogger(CustomerView.class);
     public CustomerController cusController;
 
     private final int WIDTH = UIStyle.customerWinWidth;
@@ -40,6 +44,8 @@ public class CustomerView  {
 
     TextField tfId; //for user input on the search page. Made accessible so it can be accessed or modified by CustomerModel
     TextField tfName; //for user input on the search page. Made accessible so it can be accessed by CustomerModel
+    private ContextMenu cmSuggestions; //type-ahead suggestions dropping down under tfId
+    private boolean choosingSuggestion = false; //true while tfId is filled in from a chosen suggestion
 
     //four controllers needs updating when program going on
     private ImageView ivProduct; //image area in searchPage
@@ -105,6 +111,13 @@ public class CustomerView  {
         tfId = new TextField();
         tfId.setPromptText("eg. 0001");
         tfId.setStyle("-fx-font-size: 14px; -fx-padding: 8px; -fx-border-color: #BDC3C7; -fx-border-width: 1px; -fx-border-radius: 5px; -fx-background-radius: 5px;");
+        //type-ahead: ask for suggestions on every keystroke, choosing one fills in the ID and searches it
+        cmSuggestions = new ContextMenu();
+        tfId.textProperty().addListener((observable, oldText, newText) -> {
+            if (!choosingSuggestion) {
+                doActionQuietly("Suggest");
+            }
+        });
         HBox hbId = new HBox(10, laId, tfId);
         hbId.setAlignment(Pos.CENTER_LEFT);
 
@@ -369,6 +382,40 @@ public class CustomerView  {
     }
 
 
+    //shows the suggestions ("ID  description") under tfId, or hides the list when there are none
+    void updateSuggestions(ArrayList<String> suggestions) {
+        cmSuggestions.getItems().clear();
+        for (String suggestion : suggestions) {
+            MenuItem item = new MenuItem(suggestion);
+            String productId = suggestion.split(" ", 2)[0];
+            item.setOnAction(e -> chooseSuggestion(productId));
+            cmSuggestions.getItems().add(item);
+        }
+        if (suggestions.isEmpty()) {
+            cmSuggestions.hide();
+        } else if (!cmSuggestions.isShowing() && tfId.getScene() != null) {
+            cmSuggestions.show(tfId, Side.BOTTOM, 0, 0);
+        }
+    }
+
+    private void chooseSuggestion(String productId) {
+        choosingSuggestion = true; // filling in the ID should not ask for new suggestions
+        tfId.setText(productId);
+        choosingSuggestion = false;
+        cmSuggestions.hide();
+        doActionQuietly("Search");
+    }
+
+    private void doActionQuietly(String action) {
+        try {
+            cusController.doAction(action);
+        } catch (SQLException e) {
+            log.error("Customer action {} failed", action, e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void update(String imageName, String searchResult, String trolley, String receipt) {
 
         ivProduct.setImage(new Image(imageName));
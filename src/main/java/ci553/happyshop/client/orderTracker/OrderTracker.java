@@ -1,9 +1,12 @@
 package ci553.happyshop.client.orderTracker;
 
+import ci553.happyshop.orderManagement.LocalOrderMap;
+import ci553.happyshop.orderManagement.OrderChange;
 import ci553.happyshop.orderManagement.OrderHub;
 import ci553.happyshop.orderManagement.OrderState;
 import ci553.happyshop.utility.UIStyle;
 import ci553.happyshop.utility.WinPosManager;
+import javafx.application.Platform;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.Label;
@@ -11,21 +14,22 @@ import javafx.scene.control.TextArea;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * OrderTracker class is for tracking orders and their states.
  * It displays an ordersMap(a list of orders with their associated states) in a TextArea.
- * The ordersMap data is received from the OrderHub.
+ * The ordersMap data is received from the OrderHub: a full snapshot when it registers, then one OrderChange
+ * at a time, applied to the tracker's own copy.
  */
 
 public class OrderTracker implements OrderTrackerObserver {
     private final int WIDTH = UIStyle.trackerWinWidth;
     private final int HEIGHT = UIStyle.trackerWinHeight;
 
-    // TreeMap (orderID,state) holding order IDs and their corresponding states.
-    private static final TreeMap<Integer, OrderState> ordersMap = new TreeMap<>();
+    // This tracker's copy of the orders (orderID,state), kept up to date with OrderHub's changes.
+    private final LocalOrderMap ordersMap = new LocalOrderMap(false);
     private final TextArea taDisplay; //area to show all orderId and their state on the GUI
 
      //Constructor initializes the UI, a title Label, and a TextArea for displaying the order details.
@@ -62,26 +66,32 @@ public class OrderTracker implements OrderTrackerObserver {
 
     /**
      * Sets the order map with new data and refreshes the display.
-     * This method is called by OrderHub when order states are updated.
+     * This method is called by OrderHub when the tracker registers, or when it missed a change.
      */
     @Override
-    public void setOrderMap(TreeMap<Integer, OrderState> om) {
-        ordersMap.clear(); // Clears the current map to replace it with the new data.
-        ordersMap.putAll(om);// Adds all new order data to the map.
+    public void setOrderMap(Map<Integer, OrderState> om, long version) {
+        ordersMap.reset(om, version); // Replaces the current copy with the new data.
         displayOrderMap();// Updates the display with the new order map.
     }
 
-     //Displays the current order map in the TextArea.
-     //Iterates over the ordersMap and formats each order ID and state for display.
-    private void displayOrderMap() {
-        StringBuilder sb = new StringBuilder();
-        for(Map.Entry<Integer, OrderState> entry : ordersMap.entrySet()) {
-            int orderId = entry.getKey();
-            OrderState orderState = entry.getValue();
-            sb.append(orderId).append(" ".repeat(5)).append(orderState).append("\n");
+    /**
+     * Applies the changes to the copy and refreshes the display once.
+     * This method is called by OrderHub when orders are added, change state or are removed.
+     */
+    @Override
+    public void ordersChanged(List<OrderChange> changes) {
+        if (!ordersMap.applyAll(changes)) {
+            OrderHub.getOrderHub().requestSnapshot(this); // a change was missed
+            return;
         }
-        String textDisplay = sb.toString();
-        taDisplay.setText(textDisplay);
+        displayOrderMap();
+    }
+
+     //Displays the current order map in the TextArea, one order ID and state per line.
+     //The text is built on the calling (dispatcher) thread, the TextArea is changed on the JavaFX thread.
+    private void displayOrderMap() {
+        String textDisplay = ordersMap.toText(5);
+        Platform.runLater(() -> taDisplay.setText(textDisplay));
     }
 
 }
@@ -1,8 +1,24 @@
 package ci553.happyshop.client.orderTracker;
 
+import ci553.happyshop.orderManagement.OrderChange;
 import ci553.happyshop.orderManagement.OrderState;
-import java.util.TreeMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * An observer of OrderHub's orders (OrderTracker, PickerModel, ...).
+ *
+ * OrderHub sends a full snapshot of the orders when the observer registers, and after that only the changes.
+ * If an observer finds it missed a change (the version of a change is not the next one, see LocalOrderMap),
+ * it calls OrderHub.requestSnapshot(this) to get a new snapshot.
+ *
+ * Both methods are called by OrderHub's OrderEventDispatcher threads (one at a time for each observer),
+ * never by the thread that changed the order, so screen updates must go through Platform.runLater.
+ */
 public interface OrderTrackerObserver {
-    void setOrderMap(TreeMap<Integer, OrderState> om);
+    // All orders, in orderId order, at the given version of the order map (a read-only view, shared with other observers).
+    void setOrderMap(Map<Integer, OrderState> om, long version);
+
+    // The changes to the orders since the last update, oldest first (several changes are coalesced into one call).
+    void ordersChanged(List<OrderChange> changes);
 }
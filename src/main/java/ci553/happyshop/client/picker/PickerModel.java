@@ -1,12 +1,16 @@
 package ci553.happyshop.client.picker;
 
+import ci553.happyshop.client.orderTracker.OrderTrackerObserver;
+import ci553.happyshop.orderManagement.LocalOrderMap;
+import ci553.happyshop.orderManagement.OrderChange;
 import ci553.happyshop.orderManagement.OrderHub;
 import ci553.happyshop.orderManagement.OrderState;
 
+import javafx.application.Platform;
+
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
 /**
  * PickerModel represents the logic order picker.
@@ -15,15 +19,16 @@ import java.util.TreeSet;
  * 2. Notifying PickerView to Updates user interface.
  *
  * 1. Observing OrderHub.
- * PickerModel is an observer of  OrderHub, receiving orderMap from OrderHub.
+ * PickerModel is an observer of  OrderHub, receiving orderMap from OrderHub
+ * (a snapshot when it registers, then every OrderChange, see LocalOrderMap).
  * When a picker claims a task, PickerModel:
- * - Retrieves the first unlocked order from the orderMap.
- * - Locks the selected order to prevent other pickers from accessing it.
- * - Notifies OrderHub to update the orderMap, and begin preparation of the order.
+ * - Asks OrderHub to change the oldest Ordered order to Progressing, only if it is still Ordered
+ *   (a compare-and-set). If another picker took it first, the next Ordered order is tried.
+ *   The order whose change succeeded is this picker's, no other picker can take it.
+ * - Begins preparation of the order.
  *
  * Once the order is collected by the customer, PickerModel:
- * - Unlocks the order.
- * - Notifies OrderHub to update the orderMap.
+ * - Asks OrderHub to change the order from Progressing to Collected.
  * - Begins the next task if available.
  *
  * All changes in order state are centralized through OrderHub to ensure synchronization.
@@ -39,17 +44,16 @@ import java.util.TreeSet;
  * in response to centralized changes made by the OrderHub.
  */
 
-public class PickerModel {
+public class PickerModel implements OrderTrackerObserver {
     public ci553.happyshop.client.PickerTrackerView pickerTrackerView;
     private OrderHub orderHub = OrderHub.getOrderHub();
 
     //two elements that need to be passed to PickerView for updating.
-    private String displayTaOrderMap="";
-    private String displayTaOrderDetail ="";
+    private volatile String displayTaOrderMap=""; // written by the dispatcher and JavaFX threads
+    private volatile String displayTaOrderDetail ="";
 
-    // TreeMap (orderID,state) holding order IDs and their corresponding states.
-    private static TreeMap<Integer, OrderState> orderMap = new TreeMap<>();
-    private static TreeSet<Integer> lockedOrderIds = new TreeSet<>(); // Track locked orders by orderId
+    // This picker's copy of the orders (orderID,state) in the Ordered and Progressing states.
+    private final LocalOrderMap orderMap = new LocalOrderMap(true);
 
     private int theOrderId=0; //Order ID assigned to a picker;
                               // 0 means no order is currently assigned.
@@ -57,52 +61,31 @@ public class PickerModel {
     public PickerView pickerView;
 
     /**
-     * Attempts to find an unlocked order for this picker and mark it as progressing.
-     * The order will be locked to prevent other pickers from accessing it.
-     * Only the first unlocked order found will be processed.
+     * Takes the oldest Ordered order for this picker and marks it as progressing.
+     * The Ordered orders are read from OrderHub rather than this picker's copy, which may be a little behind,
+     * and changeOrderState only succeeds for the one picker that changes the order first.
      */
     public void doProgressing() throws IOException {
-        for (Map.Entry<Integer, OrderState> entry : orderMap.entrySet()) {
-            int orderId = entry.getKey();
-            if (!isOrderLocked(orderId)) { // Find the first unlocked order
-                lockOrder(orderId);// Lock the order to prevent other pickers from taking it
+        for (int orderId : orderHub.getOrderIds(OrderState.Ordered)) {
+            if (orderHub.changeOrderState(orderId, OrderState.Ordered, OrderState.Progressing)) {
                 theOrderId = orderId; // Save the assigned orderId to this picker and update its state
                 theOrderState = OrderState.Progressing;
-                notifyOrderHub();// Notify the OrderHub about the state change
+                // Read the order details for displaying in the pickerView
+                displayTaOrderDetail = orderHub.getOrderDetailForPicker(orderId);
                 updatePickerView(); // Refresh picker view
                 return; // Exit after handling one order
             }
+            // another picker took this order first, try the next one
         }
     }
 
-    // Lock an order
-    private boolean lockOrder(int orderId) {
-        if (lockedOrderIds.contains(orderId)) {
-            return false; // Order is already locked
-        } else {
-            lockedOrderIds.add(orderId);
-            return true; // Successfully locked the order
-        }
-    }
-
-    // Unlock an order
-    private void unlockOrder(int orderId) {
-        lockedOrderIds.remove(orderId);
-    }
-
-    // Check if an order is locked
-    private boolean isOrderLocked(int orderId) {
-        return lockedOrderIds.contains(orderId);
-    }
-
     public void doCollected() throws IOException {
-        if(theOrderId!=0 && isOrderLocked(theOrderId)){
+        if(theOrderId!=0){
+            orderHub.changeOrderState(theOrderId, OrderState.Progressing, OrderState.Collected);
             theOrderState = OrderState.Collected;
-            notifyOrderHub(); // Notify the OrderHub about the state change
             displayTaOrderDetail = "";
             updatePickerView(); // update picker view
             theOrderId=0;  //reset to no order is with the picker
-            unlockOrder(theOrderId);//remove the order from locked orderId set
         }
     }
 
@@ -113,23 +96,20 @@ public class PickerModel {
         orderHub.registerPickerModel(this);
     }
 
-    //Notifies the OrderHub of a change in the order state.
-    //If the order is moving to the 'Progressing' state, asks OrderHub to read the order detail
-    // from the file system for displaying in the pickerView.
-    private void notifyOrderHub() throws IOException {
-        orderHub.changeOrderStateMoveFile(theOrderId, theOrderState);
-        if (theOrderState == OrderState.Progressing) {
-            // Read order file, ie. order details
-            displayTaOrderDetail = orderHub.getOrderDetailForPicker(theOrderId);
-        }
+    // Observer update for picker models: the orders to show, when registering or after a missed change
+    @Override
+    public void setOrderMap(Map<Integer, OrderState> om, long version) {
+        orderMap.reset(om, version);
+        displayTaOrderMap = buildOrderMapString();
+        updatePickerView();
     }
 
-    // Observer update for picker models
-    public void setOrderMap(TreeMap<Integer,OrderState> om) {
-        // Defensive copy for thread safety
-        synchronized (PickerModel.class) {
-            orderMap.clear();
-            orderMap.putAll(om);
+    // Observer update for picker models: the latest changes, a collected order is dropped from the copy
+    @Override
+    public void ordersChanged(List<OrderChange> changes) {
+        if (!orderMap.applyAll(changes)) {
+            orderHub.requestSnapshot(this); // a change was missed
+            return;
         }
         displayTaOrderMap = buildOrderMapString();
         updatePickerView();
@@ -138,19 +118,20 @@ public class PickerModel {
     //Builds a formatted string representing the current order map.
     //Each line contains the order ID followed by its state, aligned with spacing.
     private String buildOrderMapString() {
-        StringBuilder sb = new StringBuilder();
-        for(Map.Entry<Integer, OrderState> entry : orderMap.entrySet()) {
-            int orderId = entry.getKey();
-            OrderState orderState = entry.getValue();
-            sb.append(orderId).append(" ".repeat(8)).append(orderState).append("\n");
-        }
-        return sb.toString();
+        return orderMap.toText(8);
     }
 
+    // Shows the order map and order detail, on the JavaFX thread (order updates come from OrderHub's dispatcher threads)
     private void updatePickerView()
     {
         if (pickerTrackerView != null) {
-            pickerTrackerView.update(displayTaOrderMap, displayTaOrderDetail);
+            String orderMapText = displayTaOrderMap;
+            String orderDetailText = displayTaOrderDetail;
+            if (Platform.isFxApplicationThread()) {
+                pickerTrackerView.update(orderMapText, orderDetailText);
+            } else {
+                Platform.runLater(() -> pickerTrackerView.update(orderMapText, orderDetailText));
+            }
         }
     }
 
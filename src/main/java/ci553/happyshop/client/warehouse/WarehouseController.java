@@ -11,6 +11,12 @@ public class WarehouseController {
             case "🔍":
                 model.doSearch();
                 break;
+            case "Suggest": // a keystroke in the search field
+                model.doSuggest();
+                break;
+            case "LoadMore": // the product list was scrolled to its last row
+                model.doLoadMore();
+                break;
             case "Edit":
                 model.doEdit();
                 break;
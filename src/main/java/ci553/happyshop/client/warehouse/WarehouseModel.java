@@ -1,10 +1,15 @@
 package ci553.happyshop.client.warehouse;
 
 import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.storageAccess.AsyncDatabaseRW;
 import ci553.happyshop.storageAccess.DatabaseRW;
 import ci553.happyshop.storageAccess.DerbyRW;
 import ci553.happyshop.storageAccess.ImageFileManager;
+import ci553.happyshop.storageAccess.ProductPage;
+import ci553.happyshop.utility.ProductValidator;
 import ci553.happyshop.utility.StorageLocation;
+import ci553.happyshop.utility.Logger;
+import ci553.happyshop.utility.Money;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -15,14 +20,27 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 
 public class WarehouseModel {
+    private static final Logger log = Logger.getLogger(WarehouseModel.class);
     public WarehouseView view;
     public DatabaseRW databaseRW; //Interface type, not specific implementation
                          //Benefits: Flexibility: Easily change the database implementation.
+    public AsyncDatabaseRW asyncDatabaseRW; //runs databaseRW calls in the background, so the window never freezes
 
     private ArrayList<Product> productList = new ArrayList<>(); // search results fetched from the database
     private Product theSelectedPro; // the product selected from the ListView before the user edits or deletes
     private String theNewProId;
 
+    private static final int SUGGESTION_LIMIT = 50; // products listed while the keyword is being typed
+    private static final int PAGE_SIZE = 50;        // products fetched per page of a search, more are loaded on scroll
+    private String searchKeyword = "";              // keyword of the last search, used to fetch its next page
+    private String nextPageToken = null;            // continuation token of the next page, null if all are loaded
+    private ArrayList<Product> lastPage = new ArrayList<>(); // the page fetched by the last doLoadMore
+
+    // Searches run in the background (asyncDatabaseRW) and answer later on the JavaFX thread.
+    // Every request that refills the product list gets a number, only the answer to the latest one is shown.
+    private int listRequestCount = 0;
+    private boolean deleteInProgress = false;
+
     //information used to update editProduct child in WarehouseView
     String displayIdEdit="";
     String displayPriceEdit="";
@@ -44,6 +62,7 @@ public class WarehouseModel {
     private enum UpdateForAction{
         //actions in Search Page
         BtnSearch,  //actually its updating the Observable ProductList
+        LoadMore,   //scrolled to the end of the product list, append the next page
         BtnEdit,
         BtnDelete,
 
@@ -60,47 +79,130 @@ public class WarehouseModel {
         ShowInputErrorMsg
     }
 
-    void doSearch() throws SQLException {
+    //fetches the first page of results only, the list view asks for more when it is scrolled to the end
+    void doSearch() {
         String keyword = view.tfSearchKeyword.getText().trim();
+        int thisRequest = ++listRequestCount;
+        nextPageToken = null;
         if (!keyword.equals("")) {
-            productList = databaseRW.searchProduct(keyword);
+            view.showSearchPending("Searching for " + keyword + " ..."); //pending state until the database answers
+            asyncDatabaseRW.searchProductPage(keyword, PAGE_SIZE, null).whenComplete((page, error) -> {
+                if (thisRequest != listRequestCount) {
+                    return; // a newer search has been started meanwhile
+                }
+                if (error != null) {
+                    searchFailed(keyword, error);
+                    return;
+                }
+                productList = page.getProducts();
+                searchKeyword = keyword;
+                nextPageToken = page.getContinuationToken();
+                updateView(UpdateForAction.BtnSearch);
+            });
         }
         else{
             productList.clear();
-            System.out.println("please type product ID or name to search");
+            log.debug("please type product ID or name to search");
+            updateView(UpdateForAction.BtnSearch);
         }
-        updateView(UpdateForAction.BtnSearch);
     }
 
-    void doDelete() throws SQLException, IOException {
-        System.out.println("delete gets called in model");
-        Product pro  = view.obrLvProducts.getSelectionModel().getSelectedItem();
-        if (pro != null ) {
-            theSelectedPro = pro;
-            productList.remove(theSelectedPro); //remove the product from product List
+    //called by the list view when its last row is shown, fetches the next page of the last search
+    void doLoadMore() {
+        if (nextPageToken == null) {
+            return; // all pages are already loaded
+        }
+        int thisRequest = listRequestCount; // a new search makes this page out of date
+        asyncDatabaseRW.searchProductPage(searchKeyword, PAGE_SIZE, nextPageToken).whenComplete((page, error) -> {
+            if (thisRequest != listRequestCount) {
+                return;
+            }
+            if (error != null) {
+                searchFailed(searchKeyword, error);
+                return;
+            }
+            nextPageToken = page.getContinuationToken();
+            lastPage = page.getProducts();
+            productList.addAll(lastPage);
+            updateView(UpdateForAction.LoadMore);
+        });
+    }
 
-            //update databse: delete the product from database
-            databaseRW.deleteProduct(theSelectedPro.getProductId());
+    //called on every keystroke in the search field, lists the products whose ID or name starts with the text
+    //pressing enter or the search button still runs the full search (doSearch)
+    void doSuggest() {
+        String keyword = view.tfSearchKeyword.getText().trim();
+        int thisRequest = ++listRequestCount;
+        nextPageToken = null; // suggestions are a single short list, there is nothing to page
+        if (!keyword.equals("")) {
+            asyncDatabaseRW.searchByPrefix(keyword, SUGGESTION_LIMIT).whenComplete((products, error) -> {
+                if (thisRequest != listRequestCount) {
+                    return; // more has been typed since, a newer answer is on its way
+                }
+                if (error != null) {
+                    searchFailed(keyword, error);
+                    return;
+                }
+                productList = products;
+                updateView(UpdateForAction.BtnSearch);
+            });
+        }
+        else{
+            productList.clear();
+            updateView(UpdateForAction.BtnSearch);
+        }
+    }
 
-            //delete the image from imageFolder "images/"
-            String imageName = theSelectedPro.getProductImageName(); //eg 0011.jpg;
-            ImageFileManager.deleteImageFile(StorageLocation.imageFolder, imageName);
+    private void searchFailed(String keyword, Throwable error) {
+        log.warn("Database error, search for {}: {}", keyword, error.getMessage());
+        view.showSearchPending("Search failed, please try again.");
+    }
 
-            updateView(UpdateForAction.BtnDelete);
-            theSelectedPro = null;
+    void doDelete() {
+        log.debug("delete gets called in model");
+        Product pro  = view.obrLvProducts.getSelectionModel().getSelectedItem();
+        if (deleteInProgress) {
+            log.debug("Please wait, the last delete is still in progress");
+        }
+        else if (pro != null ) {
+            deleteInProgress = true;
+            view.showSearchPending("Deleting " + pro.getProductId() + " ..."); //pending state until the database answers
+
+            //update databse: delete the product from database, in the background
+            asyncDatabaseRW.deleteProduct(pro.getProductId()).whenComplete((ignored, error) -> {
+                deleteInProgress = false;
+                if (error != null) {
+                    log.error("Database error, delete {}: {}", pro.getProductId(), error.getMessage());
+                    view.showSearchPending("Deleting " + pro.getProductId() + " failed, please try again.");
+                    return;
+                }
+                theSelectedPro = pro;
+                productList.remove(theSelectedPro); //remove the product from product List
+
+                //delete the image from imageFolder "images/"
+                String imageName = theSelectedPro.getProductImageName(); //eg 0011.jpg;
+                try {
+                    ImageFileManager.deleteImageFile(StorageLocation.imageFolder, imageName);
+                } catch (IOException e) {
+                    log.warn("Could not delete image {}: {}", imageName, e.getMessage());
+                }
+
+                updateView(UpdateForAction.BtnDelete);
+                theSelectedPro = null;
+            });
         }
         else{
-            System.out.println("No product was selected");
+            log.debug("No product was selected");
         }
     }
 
     void doEdit() {
-        System.out.println("Edit gets called in model");
+        log.debug("Edit gets called in model");
         Product pro = view.obrLvProducts.getSelectionModel().getSelectedItem();
         if (pro != null) {
             theSelectedPro = pro;
             displayIdEdit = theSelectedPro.getProductId();
-            displayPriceEdit = String.format("%.2f", theSelectedPro.getUnitPrice());
+            displayPriceEdit = Money.format(theSelectedPro.getUnitPricePence());
             displayStockEdit = String.valueOf (theSelectedPro.getStockQuantity());
             displayDescriptionEdit = theSelectedPro.getProductDescription();
 
@@ -108,11 +210,11 @@ public class WarehouseModel {
             Path imageFullPath = Paths.get(relativeImageUri).toAbsolutePath();
             displayImageUrlEdit = imageFullPath.toUri().toString();//build the full path Uri
 
-            System.out.println("get new pro image name: " + displayImageUrlEdit);
+            log.debug("get new pro image name: {}", displayImageUrlEdit);
             updateView(UpdateForAction.BtnEdit);
         }
         else{
-            System.out.println("No product was selected");
+            log.debug("No product was selected");
         }
 
     }
@@ -137,10 +239,10 @@ public class WarehouseModel {
     }
 
     private void doSubmitEdit() throws IOException, SQLException {
-        System.out.println("ok edit is called");
+        log.debug("ok edit is called");
         if(theSelectedPro!=null) {
             String id=theSelectedPro.getProductId();
-            System.out.println("theSelectedPro " + id); //debug purpose
+            log.debug("theSelectedPro {}", id); //debug purpose
             String imageName = theSelectedPro.getProductImageName();
 
             String textPrice =view.tfPriceEdit.getText().trim();
@@ -159,7 +261,7 @@ public class WarehouseModel {
                 updateView(UpdateForAction.ShowInputErrorMsg);
             }
             else{
-                double price = Double.parseDouble(textPrice);
+                long price = Money.parsePence(textPrice); // exact, already checked by the validator
                 int stock= Integer.parseInt(textStock);
                 //update datbase
                 databaseRW.updateProduct(id,description,price,imageName,stock);
@@ -169,7 +271,7 @@ public class WarehouseModel {
             }
         }
         else{
-            System.out.println("No Product Selected");
+            log.debug("No Product Selected");
         }
     }
 
@@ -213,7 +315,7 @@ public class WarehouseModel {
     }
 
     private void doSubmitNew() throws SQLException, IOException {
-        System.out.println("Adding new Pro in model");
+        log.debug("Adding new Pro in model");
 
         //all info(input from user) about the new product
         theNewProId = view.tfIdNewPro.getText().trim();
@@ -229,11 +331,11 @@ public class WarehouseModel {
             //copy the user selected image to project image folder and using productId as image name
             //and get the image extension from the source image, we write this name to database
             String imageNameWithExtension = ImageFileManager.copyFileToDestination(view.imageUriNewPro, StorageLocation.imageFolder,theNewProId);
-            double price = Double.parseDouble(textPrice);
+            long price = Money.parsePence(textPrice); // in pence
             int stock = Integer.parseInt(textStock);
 
-            //insertNewProduct to databse (String id, String des,double price,String image,int stock)
-            //a record in databse looks like ('0001', '40 inch TV', 269.00,'0001TV.jpg',100)"
+            //insertNewProduct to databse (String id, String des,long pricePence,String image,int stock)
+            //a record in databse looks like ('0001', '40 inch TV', '0001TV.jpg', 100, 26900)
             databaseRW.insertNewProduct(theNewProId,description,price,imageNameWithExtension,stock);
             updateView(UpdateForAction.BtnSummitNew);
             theNewProId = null;
@@ -243,44 +345,14 @@ public class WarehouseModel {
     private  boolean validateInputEditChild(String txPrice, String txStock,
                                          String description) throws SQLException {
 
-        StringBuilder errorMessage = new StringBuilder();
-
-        // Validate Price (must be a positive number, and two digitals )
-        try {
-            double price = Double.parseDouble(txPrice);
-
-            // Validate: Ensure at most two decimal places
-            if (!txPrice.matches("^[0-9]+(\\.[0-9]{0,2})?$")) {
-                errorMessage.append("\u2022 Price can have at most two decimal places.\n");
-            }
-
-            if (price <= 0) {
-                errorMessage.append("\u2022 Price must be a positive number.\n");
-            }
-
-        } catch (NumberFormatException e) {
-            errorMessage.append("\u2022 Invalid price format.\n");
-        }
+        StringBuilder errorMessage = new StringBuilder(ProductValidator.validateEditProduct(txPrice, txStock, description));
 
         // Validate if there is unperformed stock changeBy:
         if(!view.tfChangeByEdit.getText().trim().isEmpty()){
-            errorMessage.append("\u2022 Change stock by not applied.\n");
-        }
-
-        // Validate Stock Quantity (must be a non-negative integer)
-        try {
-            int stock = Integer.parseInt(txStock);
-            if (stock < 0) {
-                errorMessage.append("\u2022 Stock quantity cannot be negative.\n");
-            }
-        } catch (NumberFormatException e) {
-            errorMessage.append("\u2022 Invalid stock quantity format.\n");
+            if (errorMessage.length() > 0) errorMessage.append("\n");
+            errorMessage.append("\u2022 Change stock by not applied.");
         }
 
-        // Validate Description
-        if (description.isEmpty())
-            errorMessage.append("\u2022 Product description cannot be empty.");
-
         // Show Alert if there are errors
         if (errorMessage.length() > 0) {
             displayInputErrorMsg = errorMessage.toString();
@@ -292,54 +364,13 @@ public class WarehouseModel {
     private  boolean validateInputNewProChild(String id, String txPrice, String txStock,
                                    String description, String imageUri) throws SQLException {
 
-        StringBuilder errorMessage = new StringBuilder();
-        // Validate Id (must be exactly 4 digits)
-        if (id == null || !id.matches("\\d{4}"))
-            errorMessage.append("\u2022 Product ID must be exactly 4 digits.\n");
-
-        //check Id is unique
-        if(!databaseRW.isProIdAvailable(id))
-            errorMessage.append("\u2022 Product ID " + id + " is not available.\n");
-
-        // Validate Price (must be a positive number, and two digitals )
-        try {
-            double price = Double.parseDouble(txPrice);
-
-            // Validate: Ensure at most two decimal places
-            if (!txPrice.matches("^[0-9]+(\\.[0-9]{0,2})?$")) {
-                errorMessage.append("\u2022 Price can have at most two decimal places.\n");
-            }
-
-            if (price <= 0) {
-                errorMessage.append("\u2022 Price must be a positive number.\n");
-            }
-
-        } catch (NumberFormatException e) {
-            errorMessage.append("\u2022 Invalid price format.\n");
-        }
-
-
-        // Validate Stock Quantity (must be a non-negative integer)
-        try {
-            int stock = Integer.parseInt(txStock);
-            if (stock < 0) {
-                errorMessage.append("\u2022 Stock quantity cannot be negative.\n");
-            }
-        } catch (NumberFormatException e) {
-            errorMessage.append("\u2022 Invalid stock quantity format.\n");
-        }
-
-        // Validate Description
-        if (description.isEmpty())
-            errorMessage.append("\u2022 Product description cannot be empty.\n");
-
-        // Validate Image Path
-        if (imageUri == null )
-            errorMessage.append("\u2022 An image must be selected.");
+        //the rules are shared with the bulk catalogue import (ProductCsvImporter)
+        String errorMessage = ProductValidator.validateNewProduct(id, databaseRW.isProIdAvailable(id),
+                txPrice, txStock, description, imageUri);
 
         // Show Alert if there are errors
         if (errorMessage.length() > 0) {
-            displayInputErrorMsg = errorMessage.toString();
+            displayInputErrorMsg = errorMessage;
             return false;
         }
         return true;
@@ -349,13 +380,16 @@ public class WarehouseModel {
     private void updateView(UpdateForAction updateFor){
         switch (updateFor) {
             case UpdateForAction.BtnSearch:
-                view.updateObservableProductList(productList);
+                view.updateObservableProductList(productList, nextPageToken != null);
+                break;
+            case UpdateForAction.LoadMore:
+                view.appendToObservableProductList(lastPage, nextPageToken != null);
                 break;
             case UpdateForAction.BtnEdit:
                 view.updateEditProductChild(displayIdEdit,displayPriceEdit,displayStockEdit,displayDescriptionEdit,displayImageUrlEdit);
                 break;
             case UpdateForAction.BtnDelete:
-                view.updateObservableProductList(productList); //update search page in view
+                view.updateObservableProductList(productList, nextPageToken != null); //update search page in view
                 showManageStockHistory(ManageProductType.Deleted);
                 view.resetEditChild();
                 alertSimulator.closeAlertSimulatorWindow();//close AlertSimulatorWindow if exists
@@ -5,6 +5,7 @@ import ci553.happyshop.utility.StorageLocation;
 import ci553.happyshop.utility.UIStyle;
 import ci553.happyshop.utility.WinPosManager;
 import ci553.happyshop.utility.WindowBounds;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
@@ -78,6 +79,7 @@ public class WarehouseView  {
     TextField tfSearchKeyword; //user typing in it
     private Label laSearchSummary; //eg. the lable shows "3 products found" after search
     private ObservableList<Product> obeProductList; //observable product list
+    private boolean moreProductsAvailable = false; //the last search has more pages, loaded when the list is scrolled to the end
     ListView<Product> obrLvProducts; //A ListView observes the product list
 
     //ProductFormPage:has two children at a time,
@@ -170,6 +172,14 @@ public class WarehouseView  {
                 throw new RuntimeException(e);
             }
         });
+        //type-ahead: the product list is refreshed with the best matches on every keystroke
+        tfSearchKeyword.textProperty().addListener((observable, oldText, newText) -> {
+            try {
+                controller.process("Suggest");
+            } catch (SQLException | IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
         Button btnSearch = new Button("🔍");
         btnSearch.setOnAction(this::buttonClick);
         btnSearch.setStyle("-fx-background-color: #3498DB; -fx-text-fill: white; -fx-font-weight: bold; -fx-font-size: 14px; -fx-padding: 10px 16px; -fx-background-radius: 5px; -fx-cursor: hand;");
@@ -245,6 +255,19 @@ public class WarehouseView  {
                     Label laProToString = new Label(product.toString()); // Create a label for product details
                     HBox hbox = new HBox(10, ivPro, laProToString); // Put ImageView and label in a horizontal layout
                     setGraphic(hbox);  // Set the whole row content
+
+                    // the last loaded row is on screen: fetch the next page of the search
+                    // (after this layout pass, the list must not change while its cells are being updated)
+                    if (moreProductsAvailable && getIndex() == obeProductList.size() - 1) {
+                        moreProductsAvailable = false; // ask only once per page
+                        Platform.runLater(() -> {
+                            try {
+                                controller.process("LoadMore");
+                            } catch (SQLException | IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        });
+                    }
                 }
             }
         });
@@ -523,15 +546,30 @@ public class WarehouseView  {
     }
 
     //update the product listVew of serachPage
-    void updateObservableProductList( ArrayList<Product> productList) {
+    //morePages: the search has more results, they are fetched when the list is scrolled to the end
+    void updateObservableProductList( ArrayList<Product> productList, boolean morePages) {
         int proCounter = productList.size();
         System.out.println(proCounter);
-        laSearchSummary.setText(proCounter + " products found");
+        moreProductsAvailable = morePages;
+        laSearchSummary.setText(proCounter + (morePages ? "+" : "") + " products found");
         laSearchSummary.setVisible(true);
         obeProductList.clear();
         obeProductList.addAll(productList);
     }
 
+    //shows a short status in place of the search summary, eg while a search or delete is running
+    void showSearchPending(String message) {
+        laSearchSummary.setText(message);
+        laSearchSummary.setVisible(true);
+    }
+
+    //add the next page of results to the end of the product listVew, keeping the scroll position
+    void appendToObservableProductList(ArrayList<Product> page, boolean morePages) {
+        moreProductsAvailable = morePages;
+        obeProductList.addAll(page);
+        laSearchSummary.setText(obeProductList.size() + (morePages ? "+" : "") + " products found");
+    }
+
     void updateBtnAddSub(String stock){
         tfStockEdit.setText(stock);
         tfChangeByEdit.clear();
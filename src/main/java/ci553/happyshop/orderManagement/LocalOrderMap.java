@@ -0,0 +1,122 @@
+package ci553.happyshop.orderManagement;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An observer's own copy of OrderHub's orders (orderId -> state), kept up to date with OrderChanges.
+ *
+ * How an observer uses it:
+ *     setOrderMap(snapshot, version)  ->  localOrderMap.reset(snapshot, version)
+ *     ordersChanged(changes)          ->  if (!localOrderMap.applyAll(changes)) ask OrderHub for a snapshot
+ *
+ * apply() checks the version of every change:
+ * - one more than the version of the copy: the change is applied, O(log n) instead of copying every order.
+ * - not newer than the copy: the change is already in it (it came with a later snapshot), and is ignored.
+ * - more than one ahead: an earlier change has not arrived yet. OrderHub's orders are changed by several threads
+ *   at the same time, so changes can be queued a little out of version order. The change is kept until the
+ *   ones before it arrive, and then applied with them. If more than MAX_PENDING changes are waiting,
+ *   the missing change is taken to be lost: apply() returns false and the copy must be replaced by a snapshot.
+ *
+ * A picker does not show collected orders, its LocalOrderMap is made with dropCollected so that an order
+ * moving to Collected is removed from the copy.
+ */
+
+public class LocalOrderMap {
+    private static final int MAX_PENDING = 1000;
+
+    private final TreeMap<Integer, OrderState> orders = new TreeMap<>();
+    private final TreeMap<Long, OrderChange> pending = new TreeMap<>(); // arrived before an earlier change, by version
+    private final boolean dropCollected;
+    private long version = -1; // no snapshot yet, every change waits for it
+
+    public LocalOrderMap(boolean dropCollected) {
+        this.dropCollected = dropCollected;
+    }
+
+    // Replaces the copy with a full snapshot from OrderHub.
+    public synchronized void reset(Map<Integer, OrderState> snapshot, long snapshotVersion) {
+        orders.clear();
+        for (Map.Entry<Integer, OrderState> entry : snapshot.entrySet()) {
+            if (!(dropCollected && entry.getValue() == OrderState.Collected)) {
+                orders.put(entry.getKey(), entry.getValue());
+            }
+        }
+        version = snapshotVersion;
+        pending.headMap(snapshotVersion, true).clear(); // already in the snapshot
+        applyPending();
+    }
+
+    /**
+     * Applies one change.
+     *
+     * @return false if changes were missed before this one, the observer then needs a new snapshot
+     */
+    public synchronized boolean apply(OrderChange change) {
+        if (change.getVersion() <= version) {
+            return true; // already in the copy
+        }
+        pending.put(change.getVersion(), change);
+        applyPending();
+        if (pending.size() > MAX_PENDING) {
+            pending.clear();
+            return false;
+        }
+        return true;
+    }
+
+    // Applies the waiting changes that follow on from the version of the copy
+    private void applyPending() {
+        while (!pending.isEmpty() && pending.firstKey() == version + 1) {
+            applyNext(pending.pollFirstEntry().getValue());
+        }
+    }
+
+    private void applyNext(OrderChange change) {
+        OrderState newState = change.getNewState();
+        if (newState == null || (dropCollected && newState == OrderState.Collected)) {
+            orders.remove(change.getOrderId());
+        } else {
+            orders.put(change.getOrderId(), newState);
+        }
+        version = change.getVersion();
+    }
+
+    /**
+     * Applies the changes in order, stops when changes were missed.
+     *
+     * @return false if changes were missed, the observer then needs a new snapshot
+     */
+    public synchronized boolean applyAll(List<OrderChange> changes) {
+        for (OrderChange change : changes) {
+            if (!apply(change)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    // A copy of the orders, eg for building the text of a view
+    public synchronized TreeMap<Integer, OrderState> getOrders() {
+        return new TreeMap<>(orders);
+    }
+
+    /**
+     * The orders as lines of "orderId<spaces>state", as shown by the OrderTracker and picker windows.
+     *
+     * @param gap the number of spaces between the order ID and its state
+     */
+    public synchronized String toText(int gap) {
+        StringBuilder sb = new StringBuilder(orders.size() * 24);
+        String spaces = " ".repeat(gap);
+        for (Map.Entry<Integer, OrderState> entry : orders.entrySet()) {
+            sb.append(entry.getKey()).append(spaces).append(entry.getValue()).append("\n");
+        }
+        return sb.toString();
+    }
+}
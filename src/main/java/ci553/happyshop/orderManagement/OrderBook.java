@@ -0,0 +1,336 @@
+package ci553.happyshop.orderManagement;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable copy of OrderHub's orders (orderId -> state) at one version: the version, the number of
+ * orders in each state, all orders in a balanced search tree (an AVL tree) sorted by orderId, and for every
+ * state a second tree with only the orders in that state (the per-state index).
+ *
+ * Nothing in an OrderBook ever changes. with() makes the next version by copying only the nodes on the path
+ * from the root to the changed order (about 20 for a million orders) and sharing every other node with
+ * the version before, so a change costs O(log n) and no reader of an older version is ever disturbed.
+ * A change also takes the order out of its old state's tree and puts it into its new state's tree, the same way.
+ * orderIds(state) and ordersIn(...) therefore only walk the orders in the states asked for, eg the pickers'
+ * few open orders and not the thousands already collected.
+ *
+ * OrderHub keeps the current OrderBook in an AtomicReference:
+ * - a reader takes the current book and reads it as long as it likes, without a lock, without waiting
+ *   for any writer and without copying anything, and everything it reads is from the same version;
+ * - a writer builds the next book from the current one and publishes it with a compare-and-set,
+ *   which fails (and the writer starts again from the new current book) if another change was published first.
+ *
+ * orders() and ordersIn() are read-only Map views of the book, in orderId order, eg for an observer's snapshot.
+ */
+
+final class OrderBook {
+    static final OrderBook EMPTY = new OrderBook(null, new Node[OrderState.values().length], 0,
+            new int[OrderState.values().length]);
+
+    private final Node root;      // all orders
+    private final Node[] byState; // the orders in each state, by OrderState ordinal
+    private final long version;
+    private final int[] counts;   // the number of orders in each state, by OrderState ordinal
+
+    private OrderBook(Node root, Node[] byState, long version, int[] counts) {
+        this.root = root;
+        this.byState = byState;
+        this.version = version;
+        this.counts = counts;
+    }
+
+    // The version of the orders, 0 for the empty book; every change adds one.
+    long version() {
+        return version;
+    }
+
+    // The state of the order, null if it is not in the book
+    OrderState get(int orderId) {
+        Node node = root;
+        while (node != null) {
+            if (orderId < node.orderId) {
+                node = node.left;
+            } else if (orderId > node.orderId) {
+                node = node.right;
+            } else {
+                return node.state;
+            }
+        }
+        return null;
+    }
+
+    int count(OrderState state) {
+        return counts[state.ordinal()];
+    }
+
+    /**
+     * The next version of the book, with the order in newState (a new order if it was not in the book),
+     * or without the order if newState is null. This book is not changed.
+     */
+    OrderBook with(int orderId, OrderState newState) {
+        OrderState oldState = get(orderId);
+        int[] newCounts = counts.clone();
+        Node[] newByState = byState.clone();
+        if (oldState != null) {
+            newCounts[oldState.ordinal()]--;
+            newByState[oldState.ordinal()] = remove(byState[oldState.ordinal()], orderId);
+        }
+        if (newState != null) {
+            newCounts[newState.ordinal()]++;
+            newByState[newState.ordinal()] = put(newByState[newState.ordinal()], orderId, newState);
+        }
+        Node newRoot = newState == null ? remove(root, orderId) : put(root, orderId, newState);
+        return new OrderBook(newRoot, newByState, version + 1, newCounts);
+    }
+
+    // The IDs of the orders in the state, lowest first, from the state's own tree
+    List<Integer> orderIds(OrderState state) {
+        ArrayList<Integer> orderIds = new ArrayList<>(count(state));
+        for (Iterator<Node> nodes = new NodeIterator(byState[state.ordinal()]); nodes.hasNext(); ) {
+            orderIds.add(nodes.next().orderId);
+        }
+        return orderIds;
+    }
+
+    // All orders, a read-only view in orderId order
+    Map<Integer, OrderState> orders() {
+        return new View(EnumSet.allOf(OrderState.class));
+    }
+
+    // The orders in the given states only, a read-only view in orderId order
+    Map<Integer, OrderState> ordersIn(OrderState first, OrderState... rest) {
+        return new View(EnumSet.of(first, rest));
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // the AVL tree, every method returns new nodes and leaves the nodes it was given unchanged
+
+    private static Node put(Node node, int orderId, OrderState state) {
+        if (node == null) {
+            return new Node(orderId, state, null, null);
+        }
+        if (orderId < node.orderId) {
+            return balance(node.orderId, node.state, put(node.left, orderId, state), node.right);
+        }
+        if (orderId > node.orderId) {
+            return balance(node.orderId, node.state, node.left, put(node.right, orderId, state));
+        }
+        return new Node(orderId, state, node.left, node.right);
+    }
+
+    private static Node remove(Node node, int orderId) {
+        if (node == null) {
+            return null;
+        }
+        if (orderId < node.orderId) {
+            return balance(node.orderId, node.state, remove(node.left, orderId), node.right);
+        }
+        if (orderId > node.orderId) {
+            return balance(node.orderId, node.state, node.left, remove(node.right, orderId));
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node next = node.right; // the lowest order after this one takes its place
+        while (next.left != null) {
+            next = next.left;
+        }
+        return balance(next.orderId, next.state, node.left, remove(node.right, next.orderId));
+    }
+
+    // A node with the given children, rotated if one side is more than one level deeper than the other
+    private static Node balance(int orderId, OrderState state, Node left, Node right) {
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+        if (leftHeight > rightHeight + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node(left.orderId, left.state, left.left, new Node(orderId, state, left.right, right));
+            }
+            Node middle = left.right;
+            return new Node(middle.orderId, middle.state,
+                    new Node(left.orderId, left.state, left.left, middle.left),
+                    new Node(orderId, state, middle.right, right));
+        }
+        if (rightHeight > leftHeight + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node(right.orderId, right.state, new Node(orderId, state, left, right.left), right.right);
+            }
+            Node middle = right.left;
+            return new Node(middle.orderId, middle.state,
+                    new Node(orderId, state, left, middle.left),
+                    new Node(right.orderId, right.state, middle.right, right.right));
+        }
+        return new Node(orderId, state, left, right);
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static final class Node {
+        final int orderId;
+        final OrderState state;
+        final Node left;
+        final Node right;
+        final int height;
+
+        Node(int orderId, OrderState state, Node left, Node right) {
+            this.orderId = orderId;
+            this.state = state;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(height(left), height(right));
+        }
+    }
+
+    // Walks one tree in orderId order
+    private static final class NodeIterator implements Iterator<Node> {
+        private final ArrayDeque<Node> path = new ArrayDeque<>(); // the nodes still to visit on the way down
+
+        NodeIterator(Node root) {
+            pushLeft(root);
+        }
+
+        private void pushLeft(Node node) {
+            for (; node != null; node = node.left) {
+                path.push(node);
+            }
+        }
+
+        Node peek() {
+            return path.peek();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public Node next() {
+            if (path.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node node = path.pop();
+            pushLeft(node.right);
+            return node;
+        }
+    }
+
+    // Walks the trees of some states together in orderId order, always taking the lowest next order of any of them
+    private static final class MergingIterator implements Iterator<Node> {
+        private final NodeIterator[] parts;
+
+        MergingIterator(NodeIterator[] parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public boolean hasNext() {
+            for (NodeIterator part : parts) {
+                if (part.hasNext()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Node next() {
+            NodeIterator lowest = null;
+            for (NodeIterator part : parts) {
+                if (part.hasNext() && (lowest == null || part.peek().orderId < lowest.peek().orderId)) {
+                    lowest = part;
+                }
+            }
+            if (lowest == null) {
+                throw new NoSuchElementException();
+            }
+            return lowest.next();
+        }
+    }
+
+    // The orders in the states in orderId order: the tree of all orders, or the trees of the states merged
+    private Iterator<Node> nodesIn(EnumSet<OrderState> states) {
+        if (states.size() == OrderState.values().length) {
+            return new NodeIterator(root);
+        }
+        if (states.size() == 1) {
+            return new NodeIterator(byState[states.iterator().next().ordinal()]);
+        }
+        NodeIterator[] parts = new NodeIterator[states.size()];
+        int i = 0;
+        for (OrderState state : states) {
+            parts[i++] = new NodeIterator(byState[state.ordinal()]);
+        }
+        return new MergingIterator(parts);
+    }
+
+    // A read-only Map of the orders of this book in the given states
+    private final class View extends AbstractMap<Integer, OrderState> {
+        private final EnumSet<OrderState> states;
+
+        View(EnumSet<OrderState> states) {
+            this.states = states;
+        }
+
+        @Override
+        public OrderState get(Object key) {
+            OrderState state = key instanceof Integer orderId ? OrderBook.this.get(orderId) : null;
+            return state != null && states.contains(state) ? state : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (OrderState state : states) {
+                size += count(state);
+            }
+            return size;
+        }
+
+        @Override
+        public Set<Entry<Integer, OrderState>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<Integer, OrderState>> iterator() {
+                    Iterator<Node> nodes = nodesIn(states);
+                    return new Iterator<>() {
+                        @Override
+                        public boolean hasNext() {
+                            return nodes.hasNext();
+                        }
+
+                        @Override
+                        public Entry<Integer, OrderState> next() {
+                            Node node = nodes.next();
+                            return new SimpleImmutableEntry<>(node.orderId, node.state);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return View.this.size();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package ci553.happyshop.orderManagement;
+
+/**
+ * One change to OrderHub's orders, sent to the observers (OrderTracker, PickerModel, ...) instead of the
+ * whole order map:
+ *     a new order:              oldState null,      newState Ordered
+ *     a state change:           oldState Ordered,   newState Progressing (or Progressing -> Collected)
+ *     a collected order leaves: oldState Collected, newState null
+ *
+ * Every change has the next version number of the order map, 1, 2, 3, ... An observer that receives a change
+ * whose version is not one more than the last one it applied has missed a change (see LocalOrderMap),
+ * and asks OrderHub for a full snapshot.
+ */
+
+public class OrderChange {
+    private final int orderId;
+    private final OrderState oldState; // null for a new order
+    private final OrderState newState; // null when the order is removed
+    private final long version;        // the order map's version after this change
+
+    public OrderChange(int orderId, OrderState oldState, OrderState newState, long version) {
+        this.orderId = orderId;
+        this.oldState = oldState;
+        this.newState = newState;
+        this.version = version;
+    }
+
+    public int getOrderId() { return orderId; }
+    public OrderState getOldState() { return oldState; }
+    public OrderState getNewState() { return newState; }
+    public long getVersion() { return version; }
+
+    @Override
+    public String toString() {
+        return String.format("v%d order %d: %s -> %s", version, orderId,
+                oldState == null ? "new" : oldState, newState == null ? "removed" : newState);
+    }
+}
@@ -1,6 +1,7 @@
 package ci553.happyshop.orderManagement;
 
 import ci553.happyshop.utility.StorageLocation;
+import ci553.happyshop.utility.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -8,18 +9,28 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * OrderCounter is responsible for generating unique, sequential orderIDs for new orders.
+ * OrderCounter is responsible for generating unique orderIDs for new orders.
  *
  * <p>This class manages a persistent counter stored in an external text file:(ie,"orders/orderCounter.txt").
- * On first use, it creates the file and starts the counter at 1.
- * For subsequent calls, it reads the current number, increments it by 1, writes the updated value
- * back to the file, and returns the new order ID.</p>
+ * The file holds the high-water mark: the highest orderID that has been handed out, or set aside to be
+ * handed out, by any HappyShop process. Every orderID up to it is taken.</p>
  *
- * <p>File access is synchronized using a file lock to ensure safe operation in a multi-threaded
- * or multi-process environment. The method is simple to use by OrderHub
- * or any component that needs to generate order numbers.</p>
+ * <p>Block leasing:
+ * Opening, locking and rewriting the file for every checkout is slow and makes all processes wait for each other.
+ * Instead, a process takes a block of IDs at a time (1000 by default, -Dhappyshop.orderIds.blockSize):
+ * under the file lock it reads the mark, writes mark + blockSize and flushes it to disk. The IDs of the block,
+ * mark+1 to mark+blockSize, then belong to this process only, and are handed out from memory with an AtomicLong,
+ * with no file access and no lock. The file is only touched again when the block is used up.</p>
+ *
+ * <p>What this means:
+ *  - Several processes can make orders at the same time, each from its own block, so IDs are never duplicated.
+ *  - The mark is on disk before any ID of the block is used, so after a crash (or a restart) the next block starts
+ *    above every ID that may have been used: an ID is never reissued.
+ *  - The IDs a process did not use before it stopped are skipped, and with several processes the IDs are
+ *    unique but not in the order the orders were made. Order IDs have gaps, which is fine for an ID.</p>
  *
  * <p>FileChannel allows exclusive locking of files or specific regions of files,
  * which prevents other threads or processes from accessing the file simultaneously,
@@ -31,11 +42,32 @@ import java.nio.channels.FileLock;
  */
 
 public class OrderCounter {
+    private static final Logger log = Logger.getLogger(OrderCounter.class);
+    public static final String BLOCK_SIZE_PROPERTY = "happyshop.orderIds.blockSize";
+    private static final int BLOCK_SIZE = Math.max(1, Integer.getInteger(BLOCK_SIZE_PROPERTY, 1000));
+
+    private static volatile Block block = new Block(1, 0); // empty, the first call leases a block
+    private static final Object leaseLock = new Object();
 
     public static int generateOrderId() throws IOException {
-        Path path = StorageLocation.orderCounterPath;
+        while (true) {
+            Block current = block;
+            long id = current.next.getAndIncrement();
+            if (id <= current.last) {
+                return (int) id;
+            }
+            // the block is used up, one thread leases the next one, the others wait for it and then retry
+            synchronized (leaseLock) {
+                if (block == current) {
+                    block = leaseBlock(StorageLocation.orderCounterPath, BLOCK_SIZE);
+                }
+            }
+        }
+    }
 
-        // Lock and increment the ID
+    // Reserves the next blockSize IDs in the counter file, under its file lock.
+    static Block leaseBlock(Path path, int blockSize) throws IOException {
+        // Lock, read the mark and move it up by one block
         try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
              FileLock lock = channel.lock()) {
 
@@ -52,16 +84,33 @@ public class OrderCounter {
 
             //Gets the raw byte array from the buffer so you can convert it to a string or number.
             String content = new String(buffer.array()).trim();
-            int currentId = Integer.parseInt(content);
-            int newId = currentId + 1;
+            long highWaterMark = Long.parseLong(content);
+            long newMark = Math.min(highWaterMark + blockSize, Integer.MAX_VALUE);
+            if (newMark <= highWaterMark) {
+                throw new IOException("No order IDs left, the counter is at " + highWaterMark);
+            }
 
-            channel.position(0); // Move to the start of the file
-            channel.truncate(0); // Clear all content in the file (file size becomes 0)
             //This wraps an existing byte array into a buffer — so you can write it with channel.write().
-            channel.write(ByteBuffer.wrap(String.valueOf(newId).getBytes()));
+            //The new mark is written over the old one first and the file is cut to its length after,
+            //so a crash in between never leaves an empty file (the mark only grows, it is never shorter).
+            byte[] markBytes = String.valueOf(newMark).getBytes();
+            channel.write(ByteBuffer.wrap(markBytes), 0);
+            channel.truncate(markBytes.length); // drop whatever was after the old number, eg a newline
+            channel.force(false); // on disk before any ID of the block is used, so a crash never reissues one
+
+            log.info("Order IDs {} to {} leased", highWaterMark + 1, newMark);
+            return new Block(highWaterMark + 1, newMark);
+        }
+    }
+
+    // A leased block of IDs, next is the next one to hand out
+    static class Block {
+        final AtomicLong next;
+        final long last;
 
-            System.out.println("OrderId was generated for now: " + newId);
-            return newId;
+        Block(long first, long last) {
+            this.next = new AtomicLong(first);
+            this.last = last;
         }
     }
 }
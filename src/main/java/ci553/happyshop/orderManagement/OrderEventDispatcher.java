@@ -0,0 +1,254 @@
+package ci553.happyshop.orderManagement;
+
+import ci553.happyshop.client.orderTracker.OrderTrackerObserver;
+import ci553.happyshop.utility.LatencyHistogram;
+import ci553.happyshop.utility.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OrderEventDispatcher delivers OrderHub's changes to the observers on its own threads, so the thread that
+ * changed an order (a customer's checkout on the JavaFX thread, a picker, the collected-order timer) never waits
+ * for the observers, however many trackers are open and however slow they are.
+ *
+ * How it works:
+ * - Every observer has its own bounded queue (-Dhappyshop.orderEvents.queueSize, default 1024 changes).
+ *   publish() only puts the change in each queue, it never blocks.
+ * - An observer with changes in its queue is handed to a dispatcher thread, which takes ALL the changes
+ *   waiting in the queue and delivers them in one ordersChanged(list) call. A burst of orders that arrives
+ *   while the observer is busy is coalesced into one update, and so one re-render, instead of one per order.
+ * - An observer is only ever called by one dispatcher thread at a time, with the changes in the order they were
+ *   published. Changes made by several threads at the same time may be published a little out of version order,
+ *   the observer's LocalOrderMap puts them back in order.
+ * - Back-pressure: if an observer falls so far behind that its queue is full, its queued changes are dropped
+ *   and it gets one full snapshot instead (the snapshot is sent the same way at registration, and when an
+ *   observer asks for one).
+ * Observers run on the dispatcher threads, so JavaFX observers hand their screen updates to Platform.runLater.
+ *
+ * For every observer it counts the changes published, delivered, coalesced and dropped, the snapshots sent,
+ * the deepest its queue has been, and the lag from publishing a change to delivering it (toString, getStats).
+ */
+
+public class OrderEventDispatcher {
+    private static final Logger log = Logger.getLogger(OrderEventDispatcher.class);
+    public static final String QUEUE_SIZE_PROPERTY = "happyshop.orderEvents.queueSize";
+
+    private final int queueCapacity;
+    private final ExecutorService executor;
+    private final CopyOnWriteArrayList<ObserverQueue> queues = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param threadName    the name of the dispatcher threads (with a number after it)
+     * @param threads       the number of dispatcher threads, observers are delivered to in parallel
+     * @param queueCapacity the changes an observer can fall behind before it gets a snapshot instead
+     */
+    public OrderEventDispatcher(String threadName, int threads, int queueCapacity) {
+        if (threads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("threads and queueCapacity must be positive: " + threads + ", " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, threadName + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true); // never keeps the application running
+            return thread;
+        });
+    }
+
+    /**
+     * Adds an observer. Its first delivery is a snapshot.
+     *
+     * @param sendSnapshot sends the observer a full snapshot (setOrderMap), run on a dispatcher thread
+     */
+    public void register(OrderTrackerObserver observer, Runnable sendSnapshot) {
+        ObserverQueue queue = new ObserverQueue(observer, sendSnapshot, queueCapacity);
+        queues.add(queue);
+        queue.schedule();
+    }
+
+    // Queues the change for every observer, never blocks. Called by any thread that changed an order.
+    public void publish(OrderChange change) {
+        for (ObserverQueue queue : queues) {
+            queue.offer(change);
+        }
+    }
+
+    // The observer gets a full snapshot as its next delivery, eg because it missed a change.
+    public void requestSnapshot(OrderTrackerObserver observer) {
+        for (ObserverQueue queue : queues) {
+            if (queue.observer == observer) {
+                queue.needsSnapshot = true;
+                queue.schedule();
+            }
+        }
+    }
+
+    public List<ObserverStats> getStats() {
+        List<ObserverStats> stats = new ArrayList<>();
+        for (ObserverQueue queue : queues) {
+            stats.add(queue.stats());
+        }
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("OrderEventDispatcher, " + queues.size() + " observers");
+        for (ObserverStats stats : getStats()) {
+            sb.append("\n  ").append(stats);
+        }
+        return sb.toString();
+    }
+
+    // A change waiting in an observer's queue, and when it was published
+    private static class QueuedChange {
+        final OrderChange change;
+        final long publishedAt; // System.nanoTime()
+
+        QueuedChange(OrderChange change, long publishedAt) {
+            this.change = change;
+            this.publishedAt = publishedAt;
+        }
+    }
+
+    /**
+     * The queue of one observer. It is scheduled on the executor when it has something to deliver,
+     * and never twice at the same time, so the observer is called by one thread at a time.
+     */
+    private class ObserverQueue implements Runnable {
+        final OrderTrackerObserver observer;
+        final Runnable sendSnapshot;
+        final ArrayBlockingQueue<QueuedChange> queue;
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+        volatile boolean needsSnapshot = true; // the first delivery is a snapshot
+
+        final AtomicLong published = new AtomicLong();
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong deliveries = new AtomicLong(); // ordersChanged calls, each with one or more changes
+        final AtomicLong dropped = new AtomicLong();    // changes thrown away because the queue was full
+        final AtomicLong snapshots = new AtomicLong();
+        final AtomicInteger maxDepth = new AtomicInteger();
+        final LatencyHistogram lag = new LatencyHistogram(); // from publish to delivery
+
+        ObserverQueue(OrderTrackerObserver observer, Runnable sendSnapshot, int capacity) {
+            this.observer = observer;
+            this.sendSnapshot = sendSnapshot;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void offer(OrderChange change) {
+            published.incrementAndGet();
+            if (!queue.offer(new QueuedChange(change, System.nanoTime()))) {
+                // the observer is too far behind: drop its backlog, a snapshot has all of it
+                int backlog = queue.size();
+                queue.clear();
+                dropped.addAndGet(backlog + 1);
+                needsSnapshot = true;
+                log.warn("{} is {} changes behind, it gets a snapshot instead", observer.getClass().getSimpleName(), backlog);
+            }
+            maxDepth.accumulateAndGet(queue.size(), Math::max);
+            schedule();
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (needsSnapshot) {
+                    needsSnapshot = false;
+                    snapshots.incrementAndGet();
+                    // changes still queued after the snapshot are either in it (ignored by the observer) or newer
+                    sendSnapshot.run();
+                }
+                ArrayList<QueuedChange> batch = new ArrayList<>(queue.size());
+                queue.drainTo(batch);
+                if (!batch.isEmpty()) {
+                    long now = System.nanoTime();
+                    List<OrderChange> changes = new ArrayList<>(batch.size());
+                    for (QueuedChange queued : batch) {
+                        changes.add(queued.change);
+                        lag.record(now - queued.publishedAt);
+                    }
+                    observer.ordersChanged(changes);
+                    delivered.addAndGet(changes.size());
+                    deliveries.incrementAndGet();
+                }
+            } catch (RuntimeException e) {
+                log.error("Order update of {} failed", observer.getClass().getSimpleName(), e);
+            } finally {
+                scheduled.set(false);
+                if (needsSnapshot || !queue.isEmpty()) {
+                    schedule(); // something arrived while delivering
+                }
+            }
+        }
+
+        ObserverStats stats() {
+            return new ObserverStats(observer.getClass().getSimpleName(), published.get(), delivered.get(),
+                    deliveries.get(), dropped.get(), snapshots.get(), queue.size(), maxDepth.get(), lag.snapshot());
+        }
+    }
+
+    /**
+     * The counters of one observer at one moment.
+     */
+    public static class ObserverStats {
+        private final String observer;
+        private final long published;
+        private final long delivered;
+        private final long deliveries;
+        private final long dropped;
+        private final long snapshots;
+        private final int queueDepth;
+        private final int maxQueueDepth;
+        private final LatencyHistogram.Snapshot lag;
+
+        private ObserverStats(String observer, long published, long delivered, long deliveries, long dropped,
+                              long snapshots, int queueDepth, int maxQueueDepth, LatencyHistogram.Snapshot lag) {
+            this.observer = observer;
+            this.published = published;
+            this.delivered = delivered;
+            this.deliveries = deliveries;
+            this.dropped = dropped;
+            this.snapshots = snapshots;
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.lag = lag;
+        }
+
+        public String getObserver() { return observer; }
+        public long getPublished() { return published; }
+        public long getDelivered() { return delivered; }
+        public long getDeliveries() { return deliveries; }
+        public long getCoalesced() { return delivered - deliveries; } // changes that did not need their own update
+        public long getDropped() { return dropped; }
+        public long getSnapshots() { return snapshots; }
+        public int getQueueDepth() { return queueDepth; }
+        public int getMaxQueueDepth() { return maxQueueDepth; }
+        public LatencyHistogram.Snapshot getLag() { return lag; }
+
+        @Override
+        public String toString() {
+            return String.format("%s published=%d delivered=%d in %d updates (coalesced=%d) dropped=%d snapshots=%d "
+                            + "queue=%d (max %d) lag p50=%s p99=%s max=%s",
+                    observer, published, delivered, deliveries, getCoalesced(), dropped, snapshots,
+                    queueDepth, maxQueueDepth,
+                    LatencyHistogram.formatDuration(lag.getValueAtPercentile(50)),
+                    LatencyHistogram.formatDuration(lag.getValueAtPercentile(99)),
+                    LatencyHistogram.formatDuration(lag.getMaxNanos()));
+        }
+    }
+}
@@ -4,12 +4,13 @@ import ci553.happyshop.catalogue.Order;
 import ci553.happyshop.catalogue.Product;
 import ci553.happyshop.client.orderTracker.OrderTrackerObserver;
 import ci553.happyshop.client.picker.PickerModel;
-import ci553.happyshop.storageAccess.OrderFileManager;
+import ci553.happyshop.storageAccess.FileOrderStore;
+import ci553.happyshop.storageAccess.OrderJournal;
+import ci553.happyshop.storageAccess.OrderStore;
 import ci553.happyshop.utility.StorageLocation;
+import ci553.happyshop.utility.Logger;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
@@ -17,10 +18,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * <p>{@code OrderHub} serves as the heart of the ordering system.
@@ -30,40 +32,75 @@ import java.util.stream.Stream;
  * <p> It is the central coordinator responsible for managing all orders. It handles:
  *   Creating and tracking orders
  *   Maintaining and updating the internal order map, <OrderId, OrderState>
- *   Delegating file-related operations (e.g., updating state and moving files) to OrderFileManager class
+ *   Delegating storage (writing new orders, recording state changes, reading orders) to an OrderStore
  *   Loading orders in the "ordered" and "progressing" states from storage during system startup
  *
+ * <p> The OrderStore is chosen by -Dhappyshop.orders.store:
+ *   journal (default): the OrderJournal in orders/journal, which also imports the old order files
+ *   files: one text file per order in orders/ordered, progressing and collected (FileOrderStore)
+ * If the journal can not be opened (eg another HappyShop process is using it), OrderHub fails with an
+ * IllegalStateException: using the order files instead would split the orders between the two processes.
+ *
  * <p> OrderHub also follows the Observer pattern: it notifies registered observers such as OrderTracker
- * and PickerModel whenever the order data changes, keeping the UI and business logic in sync.</p>
+ * and PickerModel whenever the order data changes, keeping the UI and business logic in sync.
+ * An observer gets a full snapshot of the orders when it registers; after that it only gets an OrderChange
+ * (orderId, old state, new state, version) for every change, and applies it to its own copy (LocalOrderMap).
+ * A change is O(1) per observer, whatever the number of orders. An observer that finds it missed a change
+ * (a gap in the versions) asks for a new snapshot with requestSnapshot.
+ * The observers are called by an OrderEventDispatcher on its own threads, never by the thread that changed
+ * the order, and the changes that arrive while an observer is busy are delivered to it in one update.</p>
+ *
+ * <p> Thread safety, without a lock and without anyone waiting for anyone:
+ *   The orders are an immutable OrderBook (orderId -> state, its version and the number of orders in each state)
+ *   held in an AtomicReference. A change builds the next book from the current one (O(log n), the rest of the
+ *   book is shared) and publishes it with compareAndSet; if another change was published first it starts again
+ *   from the new book. So the expected state is checked and the new state and version are set in one atomic step:
+ *   two pickers can never both take the same order, and the versions are in the order the changes were made.
+ *   A thread that is stopped halfway through a change holds nothing up, its compareAndSet simply fails later.
+ *   Only the changes in OrderState.canMoveTo (Ordered -> Progressing -> Collected) are accepted,
+ *   eg Collected -> Progressing is rejected.
+ *   Readers take the current book and read it directly: it is already a snapshot at exactly one version,
+ *   nothing is copied, and the observers are given read-only views of it.</p>
  *
  * <p>As the heart of the ordering system, OrderHub connects customers, pickers, and tracker,
  * managementing logic into a unified workflow.</p>
  */
 
 public class OrderHub  {
+    private static final Logger log = Logger.getLogger(OrderHub.class);
+    public static final String ORDER_STORE_PROPERTY = "happyshop.orders.store";
     private static OrderHub orderHub; //singleton instance
 
-    private final Path orderedPath = StorageLocation.orderedPath;
-    private final Path progressingPath = StorageLocation.progressingPath;
-    private final Path collectedPath = StorageLocation.collectedPath;
+    private final OrderStore orderStore = openOrderStore();
 
-    private TreeMap<Integer,OrderState> orderMap = new TreeMap<>();
+    // The orders now, replaced (never changed) by every change, see OrderBook
+    private final AtomicReference<OrderBook> orderMap = new AtomicReference<>(OrderBook.EMPTY);
 
     /**
      * Two Lists to hold all registered OrderTrackerObserver and PickerModel observers.
      * These observers are notified whenever the orderMap is updated,
-     * but each observer is only notified of the parts of the orderMap that are relevant to them.
+     * but each observer's snapshot only has the parts of the orderMap that are relevant to them.
      * - OrderTrackers will be notified of the full orderMap, including all orders (ordered, progressing, collected),
      *   but collected orders are shown for a limited time (10 seconds).
      * - PickerModels will be notified only of orders in the "ordered" or "progressing" states, filtering out collected orders.
+     *   They get every OrderChange too, and drop an order from their copy when it is collected.
      */
-    private ArrayList<OrderTrackerObserver> orderTrackerList = new ArrayList<>();
-    private ArrayList<PickerModel> pickerModelList = new ArrayList<>();
+    private final CopyOnWriteArrayList<OrderTrackerObserver> orderTrackerList = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<PickerModel> pickerModelList = new CopyOnWriteArrayList<>();
 
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
+    // Delivers the snapshots and changes to the observers on its own threads, see OrderEventDispatcher
+    private final OrderEventDispatcher dispatcher = new OrderEventDispatcher("happyshop-order-events", 2,
+            Integer.getInteger(OrderEventDispatcher.QUEUE_SIZE_PROPERTY, 1024));
+
     //Singleton pattern
-    private OrderHub() {}
+    private OrderHub() {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            orderStore.close();
+            log.info("{}", dispatcher);
+        }, "happyshop-orders-shutdown"));
+    }
     public static OrderHub getOrderHub() {
         if (orderHub == null)
             orderHub = new OrderHub();
@@ -71,100 +108,154 @@ public class OrderHub  {
     }    //Creates a new order using the provided list of products.
     //and also notify picker and orderTracker
     public Order newOrder(ArrayList<Product> trolley, String customerUsername) throws IOException, SQLException {
-        int orderId = OrderCounter.generateOrderId(); //get unique orderId
+        return newOrder(OrderCounter.generateOrderId(), trolley, customerUsername); //get unique orderId
+    }
+
+    //Creates a new order with an orderId leased beforehand (OrderCounter.generateOrderId),
+    //eg by a checkout that passed it to purchaseStocks so the stock ledger knows which order each sale was for
+    public Order newOrder(int orderId, ArrayList<Product> trolley, String customerUsername) throws IOException, SQLException {
         String orderedDateTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
         //make an Order Object: id, Ordered_state, orderedDateTime, customerUsername, and productsList(trolley)
         Order theOrder = new Order(orderId,OrderState.Ordered,orderedDateTime,customerUsername,trolley);
 
-        //write order details to file for the orderId in orderedPath (ie. orders/ordered)
+        //store the order details (in the journal, or a file in orders/ordered)
         String orderDetail = theOrder.orderDetails();
-        Path path = orderedPath;
-        OrderFileManager.createOrderFile(path, orderId, orderDetail);
+        orderStore.createOrder(orderId, orderDetail);
 
-        orderMap.put(orderId, theOrder.getState()); //add the order to orderMap,state is Ordered initially
-        notifyOrderTrackers(); //notify OrderTrackers
-        notifyPickerModels();//notify pickers
-        
+        //add the order to orderMap, state is Ordered initially, and notify OrderTrackers and pickers
+        if (!changeOrderMap(orderId, null, theOrder.getState())) {
+            log.warn("Order {} is already in the orderMap", orderId); // never happens, order IDs are unique
+        }
         return theOrder;
     }
 
-    //Registers an OrderTrackerObserver to receive updates about changes.
+    //Registers an OrderTrackerObserver to receive updates about changes, it is sent the current orderMap first.
     public void registerOrderTracker(OrderTrackerObserver orderTracker){
         orderTrackerList.add(orderTracker);
+        dispatcher.register(orderTracker, () -> sendTrackerSnapshot(orderTracker));
     }
-     //Notifies all registered observer_OrderTrackers to update and display the latest orderMap.
+     //Sends the full orderMap to all registered observer_OrderTrackers, eg after loading the orders at startup.
     public void notifyOrderTrackers(){
         for(OrderTrackerObserver orderTracker : orderTrackerList){
-            orderTracker.setOrderMap(orderMap);
+            dispatcher.requestSnapshot(orderTracker);
         }
     }
 
-    //Registers a PickerModel to receive updates about changes.
+    //Registers a PickerModel to receive updates about changes, it is sent the orders it shows first.
     public void registerPickerModel(PickerModel pickerModel){
-        synchronized (pickerModelList) {
-            pickerModelList.add(pickerModel);
-        }
+        pickerModelList.add(pickerModel);
+        dispatcher.register(pickerModel, () -> sendPickerSnapshot(pickerModel));
     }
 
-    //notify all pickers to show orderMap (only ordered and progressing states orders)
+    //Sends all pickers the orders they show (only ordered and progressing states orders)
     public void notifyPickerModels(){
-        // Use local variables and avoid unnecessary clearing
-        TreeMap<Integer,OrderState> orderMapForPicker = new TreeMap<>();
-        TreeMap<Integer,OrderState> progressingOrderMapLocal = filterOrdersByState(OrderState.Progressing);
-        TreeMap<Integer,OrderState> orderedOrderMapLocal = filterOrdersByState(OrderState.Ordered);
-        orderMapForPicker.putAll(progressingOrderMapLocal);
-        orderMapForPicker.putAll(orderedOrderMapLocal);
-        // Defensive copy for thread safety
-        ArrayList<PickerModel> pickersSnapshot;
-        synchronized (pickerModelList) {
-            pickersSnapshot = new ArrayList<>(pickerModelList);
+        for(PickerModel pickerModel : pickerModelList){
+            dispatcher.requestSnapshot(pickerModel);
         }
-        for(PickerModel pickerModel : pickersSnapshot){
-            if (pickerModel != null) {
-                pickerModel.setOrderMap(orderMapForPicker);
+    }
+
+    /**
+     * Sends the observer a new snapshot of the orders (on a dispatcher thread, as its next update),
+     * called by an observer that missed a change.
+     */
+    public void requestSnapshot(OrderTrackerObserver observer) {
+        dispatcher.requestSnapshot(observer);
+        log.debug("Snapshot requested by {}", observer);
+    }
+
+    // How far behind each observer is, and how many changes were coalesced or dropped, see OrderEventDispatcher
+    public List<OrderEventDispatcher.ObserverStats> getObserverStats() {
+        return dispatcher.getStats();
+    }
+
+    // All orders at the current version, a read-only view in orderId order that later changes do not affect
+    public Map<Integer, OrderState> getOrders() {
+        return orderMap.get().orders();
+    }
+
+    private void sendTrackerSnapshot(OrderTrackerObserver orderTracker) {
+        OrderBook orders = orderMap.get();
+        orderTracker.setOrderMap(orders.orders(), orders.version());
+    }
+
+    // The pickers only show the ordered and progressing states orders
+    private void sendPickerSnapshot(PickerModel pickerModel) {
+        OrderBook orders = orderMap.get();
+        pickerModel.setOrderMap(orders.ordersIn(OrderState.Ordered, OrderState.Progressing), orders.version());
+    }
+
+    // The number of orders in the state, eg for showing how many orders are waiting
+    public int getOrderCount(OrderState state) {
+        return orderMap.get().count(state);
+    }
+
+    // The IDs of the orders in the state, oldest (lowest ID) first
+    public List<Integer> getOrderIds(OrderState state) {
+        return orderMap.get().orderIds(state);
+    }
+
+    /**
+     * Changes one order in the orderMap with a compare-and-set and tells the observers.
+     * A new order has no expectedState, a removed order no newState.
+     *
+     * @return false if the order was not in expectedState (another thread changed it first), nothing is changed then
+     */
+    private boolean changeOrderMap(int orderId, OrderState expectedState, OrderState newState) {
+        while (true) {
+            OrderBook current = orderMap.get();
+            if (current.get(orderId) != expectedState) {
+                return false;
+            }
+            OrderBook next = current.with(orderId, newState);
+            if (orderMap.compareAndSet(current, next)) {
+                // changes may be queued a little out of version order, observers put them back in order
+                dispatcher.publish(new OrderChange(orderId, expectedState, newState, next.version()));
+                return true;
             }
+            // another change was published first, check the order again in the new book
         }
     }
 
-    // Filters orderMap that match the specified state, a helper class used by notifyPickerModel()
-    private TreeMap<Integer, OrderState> filterOrdersByState(OrderState state) {
-        TreeMap<Integer, OrderState> filteredOrderMap = new TreeMap<>();
-        // Defensive copy for thread safety
-        Map<Integer, OrderState> orderMapSnapshot;
-        synchronized (orderMap) {
-            orderMapSnapshot = new TreeMap<>(orderMap);
+    /**
+     * Changes the state of the order from expectedState to newState, if it is in expectedState now
+     * (a compare-and-set, eg a picker taking an Ordered order), and records the change in the OrderStore
+     * (a journal record, or the order file updated and moved to the folder of the new state).
+     *
+     * @return false if the order is not in expectedState (eg another picker took it first),
+     *         or the change is not allowed (see OrderState.canMoveTo)
+     */
+    public boolean changeOrderState(int orderId, OrderState expectedState, OrderState newState) throws IOException {
+        if (!expectedState.canMoveTo(newState)) {
+            log.warn("Order {} can not change {}", orderId, expectedState + " -> " + newState);
+            return false;
         }
-        for (Map.Entry<Integer, OrderState> entry : orderMapSnapshot.entrySet()) {
-            if (entry.getValue() == state) {
-                filteredOrderMap.put(entry.getKey(), entry.getValue());
-            }
+        if (!changeOrderMap(orderId, expectedState, newState)) {
+            return false;
+        }
+        //record the new state in the OrderStore
+        orderStore.changeState(orderId, newState);
+        if (newState == OrderState.Collected) {
+            removeCollectedOrder(orderId); //Scheduled removal
         }
-        return filteredOrderMap;
+        return true;
     }
 
-    //Changes the state of the specified order, updates its file, and moves it to the appropriate folder.
-    //trigger by PickerModel
-    public void changeOrderStateMoveFile(int orderId, OrderState newState) throws IOException {
-        synchronized (orderMap) {
-            if(orderMap.containsKey(orderId) && !orderMap.get(orderId).equals(newState)) {
-                //change orderState in OrderMap, notify OrderTrackers and pickers
-                orderMap.put(orderId, newState);
+    //Changes the state of the specified order, whatever its state is now, if the change is allowed.
+    //returns false if the order is not found, already in newState, or can not change to it (eg Collected -> Progressing)
+    public boolean changeOrderStateMoveFile(int orderId, OrderState newState) throws IOException {
+        while (true) {
+            OrderState currentState = stateOf(orderId);
+            if (currentState == null || currentState == newState) {
+                return false;
             }
-        }
-        notifyOrderTrackers();
-        notifyPickerModels();
-        //change orderState in order file and move the file to new state folder
-        switch(newState){
-            case OrderState.Progressing:
-                OrderFileManager.updateAndMoveOrderFile(orderId, newState,orderedPath,progressingPath);
-                break;
-            case OrderState.Collected:
-                OrderFileManager.updateAndMoveOrderFile(orderId, newState,progressingPath,collectedPath);
-                removeCollectedOrder(orderId); //Scheduled removal
-                break;
-            case OrderState.Ordered:
-                // No file move needed, but case is required for completeness
-                break;
+            if (!currentState.canMoveTo(newState)) {
+                log.warn("Order {} can not change {}", orderId, currentState + " -> " + newState);
+                return false;
+            }
+            if (changeOrderState(orderId, currentState, newState)) {
+                return true;
+            }
+            // another thread changed the order in between, look at its new state
         }
     }
 
@@ -177,85 +268,74 @@ public class OrderHub  {
      * The 10-second delay gives enough time for any final updates, and providing a short window for review of completed orders.
      */
     private void removeCollectedOrder(int orderId) {
-        if (orderMap.containsKey(orderId)) {
+        if (stateOf(orderId) != null) {
             // Schedule removal after a few seconds
             scheduler.schedule(() -> {
-                synchronized (orderMap) {
-                    orderMap.remove(orderId); //remove collected order
+                if (!changeOrderMap(orderId, OrderState.Collected, null)) { //remove collected order
+                    return;
                 }
-                System.out.println("Order " + orderId + " removed from tracker and OrdersMap.");
-                notifyOrderTrackers();
+                log.info("Order {} removed from tracker and OrdersMap.", orderId);
             }, 10, TimeUnit.SECONDS );
         }
     }
 
+    // The state of the order now, null if it is not in the orderMap
+    private OrderState stateOf(int orderId) {
+        return orderMap.get().get(orderId);
+    }
+
     // Reads details of an order for display in the picker once they started preparing the order.
     public String  getOrderDetailForPicker(int orderId) throws IOException {
-        OrderState state;
-        synchronized (orderMap) {
-            state = orderMap.get(orderId);
-        }
-        if(state.equals(OrderState.Progressing)) {
-            return OrderFileManager.readOrderFile(progressingPath,orderId);
+        if(stateOf(orderId) == OrderState.Progressing) {
+            return orderStore.readOrder(orderId);
         }else{
             return "the fuction is only for picker";
         }
     }
 
-    //Initializes the internal order map by loading the uncollected orders from the file system.
+    //Initializes the internal order map by loading the uncollected orders from the OrderStore.
     // Called during system startup by the Main class.
     public void initializeOrderMap(){
-        ArrayList<Integer> orderedIds = orderIdsLoader(orderedPath);
-        ArrayList<Integer> progressingIds = orderIdsLoader(progressingPath);
-        if(orderedIds.size()>0){
-            for(Integer orderId : orderedIds){
-                orderMap.put(orderId, OrderState.Ordered);
-            }
+        TreeMap<Integer, OrderState> openOrders;
+        try {
+            openOrders = orderStore.loadOpenOrders();
+        } catch (IOException e) {
+            log.error("Error loading the orders, {}", e.getMessage());
+            openOrders = new TreeMap<>();
         }
-        if(progressingIds.size()>0){
-            for(Integer orderId : progressingIds){
-                orderMap.put(orderId, OrderState.Progressing);
-            }
+        for (Map.Entry<Integer, OrderState> order : openOrders.entrySet()) {
+            changeOrderMap(order.getKey(), null, order.getValue());
         }
+        // observers that registered before also get a new snapshot, the changes it already has are ignored by them
         notifyOrderTrackers();
         notifyPickerModels();
-        System.out.println("orderMap initilized. "+ orderMap.size() + " orders in total, including:");
-        System.out.println( orderedIds.size() + " Ordered orders, " +progressingIds.size() + " Progressing orders " );
+        log.info("orderMap initilized. {} orders in total, including: {} Ordered orders, {} Progressing orders",
+                openOrders.size(), getOrderCount(OrderState.Ordered), getOrderCount(OrderState.Progressing));
     }
 
-    // Loads a list of order IDs from the specified directory.
-    // Used internally by initializeOrderMap().
-    private ArrayList<Integer> orderIdsLoader(Path dir) {
-        ArrayList<Integer> orderIds = new ArrayList<>();
-
-        if (Files.exists(dir) && Files.isDirectory(dir)) {
-            try (Stream<Path> fileStream = Files.list(dir)) {
-                // Process the stream without checking it separately
-                List<Path> files = fileStream.filter(Files::isRegularFile).toList();
-
-                if (files.isEmpty()) {
-                    System.out.println(dir + " is empty");
-                } else {
-                    for (Path file : files) {
-                        String fileName = file.getFileName().toString();
-                        if (fileName.endsWith(".txt")) { // Ensure it's a .txt file
-                            try {
-                                int orderId = Integer.parseInt(fileName.substring(0, fileName.lastIndexOf('.')));
-                                orderIds.add(orderId);
-                                System.out.println(orderId);
-                            } catch (NumberFormatException e) {
-                                System.out.println("Invalid file name: " + fileName);
-                            }
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                System.out.println("Error reading " + dir + ", " + e.getMessage());
+    // Opens the OrderStore selected by -Dhappyshop.orders.store (journal or files).
+    private static OrderStore openOrderStore() {
+        FileOrderStore files = new FileOrderStore(StorageLocation.orderedPath,
+                StorageLocation.progressingPath, StorageLocation.collectedPath);
+        String store = System.getProperty(ORDER_STORE_PROPERTY, "journal");
+        if (store.equalsIgnoreCase("files")) {
+            log.info("Orders are kept in order files");
+            return files;
+        }
+        if (!store.equalsIgnoreCase("journal")) {
+            log.warn("Unknown {} '{}', using the journal", ORDER_STORE_PROPERTY, store);
+        }
+        OrderJournal journal = null;
+        try {
+            journal = new OrderJournal(StorageLocation.orderJournalPath, OrderJournal.DEFAULT_SEGMENT_SIZE, false);
+            journal.importFrom(files); // orders written as files before the journal, or by a process using files
+            log.info("Orders are kept in {}", journal);
+            return journal;
+        } catch (IOException e) {
+            if (journal != null) {
+                journal.close();
             }
-        } else {
-            System.out.println(dir + " does not exist.");
+            throw new IllegalStateException("Could not open the order journal: " + e.getMessage(), e);
         }
-        return orderIds;
     }
-
 }
@@ -11,10 +11,22 @@ package ci553.happyshop.orderManagement;
  * Using an enum provides a type-safe and readable way to represent a fixed set of constant values,
  * which improves code clarity, reduces errors from invalid strings or integers,
  * and makes state management more explicit and maintainable across the system.
+ *
+ * An order only moves forward: Ordered -> Progressing -> Collected (see canMoveTo).
+ * OrderHub rejects every other change, eg Collected -> Progressing.
  */
 
 public enum OrderState {
     Ordered,
     Progressing,
-    Collected
+    Collected;
+
+    // The legal state changes: a picker takes an Ordered order, and the customer collects a Progressing one.
+    public boolean canMoveTo(OrderState next) {
+        return switch (this) {
+            case Ordered -> next == Progressing;
+            case Progressing -> next == Collected;
+            case Collected -> false; // a collected order never changes again
+        };
+    }
 }
@@ -0,0 +1,244 @@
+package ci553.happyshop.orderManagement;
+
+import ci553.happyshop.utility.HashedTimingWheel;
+import ci553.happyshop.utility.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * StockReservations holds stock for the products in customers' trolleys, so that two customers can not
+ * both put the last unit of a product in their trolley and then find out at checkout that one of them is too late.
+ *
+ * How it is used (by CustomerModel):
+ * - Every customer window opens a Session.
+ * - search takes getSoldCount(productId) before it reads the product's stock from the database.
+ * - addToTrolley reserves the units with session.reserve(...). It fails if the stock the customer saw,
+ *   minus the units sold here since it was read, minus the units already reserved by other customers,
+ *   is not enough. Nothing is added to the trolley then.
+ * - cancel and logout give the units back with session.releaseAll().
+ * - A checkout that succeeded calls session.confirm(): the units have now left the stock in the database,
+ *   so the reservations are dropped and the units are added to the product's sold count. A customer who
+ *   still has a search result from before the sale can therefore not reserve the sold units again;
+ *   a new search reads the lower stock together with the new sold count.
+ * - A session without any activity for the idle timeout expires: its units are given back and
+ *   session.checkExpired() returns true (once), so the customer's trolley can be emptied on their next click.
+ *   The timeout is -Dhappyshop.reservation.idleMinutes (default 15).
+ *
+ * Reservations are only held in memory, for the customers of this process (all windows of one HappyShop).
+ * purchaseStocks still only reduces a stock that is high enough, so the database stays correct
+ * even if another process sells the same units.
+ *
+ * The idle timeouts are run by a HashedTimingWheel: every click moves a session's timeout,
+ * which is O(1) however many sessions are open.
+ *
+ * Singleton, like OrderHub.
+ */
+
+public class StockReservations {
+    private static final Logger log = Logger.getLogger(StockReservations.class);
+    public static final String IDLE_TIMEOUT_PROPERTY = "happyshop.reservation.idleMinutes";
+
+    private static StockReservations stockReservations; //singleton instance
+
+    private final long idleTimeoutMillis;
+    private final HashedTimingWheel expiryWheel;
+    private final HashMap<String, Integer> reservedByProduct = new HashMap<>(); // productID -> units reserved by all sessions, guarded by this
+    private final HashMap<String, Long> soldByProduct = new HashMap<>(); // productID -> units sold by confirm() so far, guarded by this
+    private final AtomicLong sessionCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong refusedCount = new AtomicLong(); // reservations that failed because others held the stock
+
+    /**
+     * @param idleTimeoutMillis how long a session keeps its reservations without any activity
+     * @param tickMillis        the precision of the timeouts (a session expires up to one tick late)
+     */
+    public StockReservations(long idleTimeoutMillis, long tickMillis) {
+        if (idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("idleTimeoutMillis must be positive: " + idleTimeoutMillis);
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        // 512 buckets: one turn of the wheel covers 51 seconds at the default tick, longer timeouts wait some rounds
+        this.expiryWheel = new HashedTimingWheel("happyshop-reservation-expiry", tickMillis, 512);
+    }
+
+    //Singleton pattern, the idle timeout is read from -Dhappyshop.reservation.idleMinutes (default 15 minutes)
+    public static synchronized StockReservations getStockReservations() {
+        if (stockReservations == null) {
+            long idleMinutes = Long.getLong(IDLE_TIMEOUT_PROPERTY, 15);
+            stockReservations = new StockReservations(TimeUnit.MINUTES.toMillis(idleMinutes), 100);
+        }
+        return stockReservations;
+    }
+
+    public Session openSession(String customerName) {
+        sessionCount.incrementAndGet();
+        return new Session(customerName);
+    }
+
+    // The units of the product that are in customers' trolleys but not sold yet.
+    public synchronized int getReserved(String productId) {
+        return reservedByProduct.getOrDefault(productId, 0);
+    }
+
+    /**
+     * The units of the product sold by confirmed checkouts of this process so far, it only grows.
+     * Taken before the stock is read from the database, and handed to reserve() with that stock.
+     */
+    public synchronized long getSoldCount(String productId) {
+        return soldByProduct.getOrDefault(productId, 0L);
+    }
+
+    /**
+     * The units that can still be put in a trolley: the stock (as the customer last saw it),
+     * minus the units sold since then, minus the units already in trolleys.
+     *
+     * @param soldCountWhenRead getSoldCount(productId) taken before inStock was read
+     */
+    public synchronized int getAvailable(String productId, int inStock, long soldCountWhenRead) {
+        return (int) Math.max(0, stockNow(productId, inStock, soldCountWhenRead) - getReserved(productId));
+    }
+
+    // The stock as it was read, minus the units sold here since. A sale that is confirmed after the sold count was
+    // taken but was already in the stock read is subtracted twice, which only refuses too much until the next search.
+    private long stockNow(String productId, int inStock, long soldCountWhenRead) {
+        // guarded by this
+        return inStock - Math.max(0, getSoldCount(productId) - soldCountWhenRead);
+    }
+
+    public long getPendingTimeoutCount() { return expiryWheel.getPendingCount(); }
+    public long getExpiredCount() { return expiredCount.get(); }
+    public long getRefusedCount() { return refusedCount.get(); }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("StockReservations[products held: %d, sessions opened: %d, active timeouts: %d, expired: %d, refused: %d]",
+                reservedByProduct.size(), sessionCount.get(), getPendingTimeoutCount(), getExpiredCount(), getRefusedCount());
+    }
+
+    private void addReserved(String productId, int units) {
+        // guarded by this
+        int total = reservedByProduct.getOrDefault(productId, 0) + units;
+        if (total > 0) {
+            reservedByProduct.put(productId, total);
+        } else {
+            reservedByProduct.remove(productId);
+        }
+    }
+
+    /**
+     * The reservations of one customer window.
+     * All methods are synchronized on the StockReservations, so the totals are always consistent.
+     */
+    public class Session {
+        private final String customerName;
+        private final HashMap<String, Integer> reserved = new HashMap<>(); // productID -> units held by this session
+        private HashedTimingWheel.Timeout idleTimeout;                    // null while nothing is reserved
+        private long touchCount = 0; // a timeout that fires after a later touch() is out of date and ignored
+        private boolean expired = false;
+
+        private Session(String customerName) {
+            this.customerName = customerName;
+        }
+
+        /**
+         * Reserves units of the product for this session.
+         *
+         * @param inStock           the stock of the product as the customer saw it (eg from the search result)
+         * @param soldCountWhenRead getSoldCount(productId) taken before inStock was read
+         * @return true if reserved, false if the units sold since, or the other customers' reservations, leave too few units
+         */
+        public boolean reserve(String productId, int units, int inStock, long soldCountWhenRead) {
+            synchronized (StockReservations.this) {
+                int alreadyMine = reserved.getOrDefault(productId, 0);
+                int heldByOthers = StockReservations.this.getReserved(productId) - alreadyMine;
+                long stock = stockNow(productId, inStock, soldCountWhenRead);
+                if (stock - heldByOthers < alreadyMine + units) {
+                    refusedCount.incrementAndGet();
+                    log.debug("{} could not reserve {} x {}, {} in stock and {} in other trolleys",
+                            customerName, units, productId, stock, heldByOthers);
+                    return false;
+                }
+                reserved.put(productId, alreadyMine + units);
+                addReserved(productId, units);
+                touch();
+                return true;
+            }
+        }
+
+        // Keeps the reservations for another idle timeout, eg when the customer does something else in the window.
+        public void touch() {
+            synchronized (StockReservations.this) {
+                if (idleTimeout != null) {
+                    idleTimeout.cancel();
+                    idleTimeout = null;
+                }
+                long thisTouch = ++touchCount;
+                if (!reserved.isEmpty()) {
+                    idleTimeout = expiryWheel.schedule(() -> expire(thisTouch), idleTimeoutMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        // Gives back every unit held by this session (cancel, logout).
+        public void releaseAll() {
+            synchronized (StockReservations.this) {
+                for (Map.Entry<String, Integer> entry : reserved.entrySet()) {
+                    addReserved(entry.getKey(), -entry.getValue());
+                }
+                reserved.clear();
+                if (idleTimeout != null) {
+                    idleTimeout.cancel();
+                    idleTimeout = null;
+                }
+            }
+        }
+
+        /**
+         * Called after a successful checkout: the units have been taken from the stock in the database,
+         * so they no longer need to be held, and count as sold for the stock other customers saw before.
+         */
+        public void confirm() {
+            synchronized (StockReservations.this) {
+                for (Map.Entry<String, Integer> entry : reserved.entrySet()) {
+                    soldByProduct.merge(entry.getKey(), (long) entry.getValue(), Long::sum);
+                }
+                releaseAll();
+            }
+        }
+
+        // True (once) if the reservations were released because the session was idle for too long.
+        public boolean checkExpired() {
+            synchronized (StockReservations.this) {
+                boolean wasExpired = expired;
+                expired = false;
+                return wasExpired;
+            }
+        }
+
+        // The units of the product held by this session
+        public int getHeld(String productId) {
+            synchronized (StockReservations.this) {
+                return reserved.getOrDefault(productId, 0);
+            }
+        }
+
+        // run by the expiry wheel
+        private void expire(long touch) {
+            synchronized (StockReservations.this) {
+                if (touch != touchCount || reserved.isEmpty()) {
+                    return; // the customer did something while this timeout was firing
+                }
+                // reserved.toString() now, the log message is written later by another thread
+                log.info("Reservations of {} expired after {} seconds without activity: {}",
+                        customerName, idleTimeoutMillis / 1000, reserved.toString());
+                idleTimeout = null; // it has fired, there is nothing to cancel
+                releaseAll();
+                expired = true;
+                expiredCount.incrementAndGet();
+            }
+        }
+    }
+}
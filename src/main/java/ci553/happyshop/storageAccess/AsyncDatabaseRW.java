@@ -0,0 +1,128 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * AsyncDatabaseRW runs DatabaseRW calls in the background and hands back CompletableFutures.
+ *
+ * Why:
+ * The models call the database from button handlers, ie on the JavaFX Application Thread.
+ * While a call waits for Derby (eg a checkout commit), that thread can not redraw anything,
+ * and because every window of the application shares it, ALL windows freeze.
+ *
+ * How it works:
+ * - Each call runs on its own virtual thread. Virtual threads are cheap, so there is no thread pool
+ *   to size; the connection pool still limits how many calls use the database at the same time.
+ * - The result (or the error) is delivered through the callback executor. The clients pass
+ *   Platform::runLater, so the code in thenAccept / whenComplete runs on the JavaFX thread
+ *   and may update the UI directly.
+ *
+ * Example Usage (in a model):
+ *     displayLaSearchResult = "Searching...";   // show a pending state straight away
+ *     updateView();
+ *     asyncDatabaseRW.searchByProductId(id).whenComplete((product, error) -> {
+ *         ... runs on the JavaFX thread once the database has answered ...
+ *     });
+ *
+ * The wrapped DatabaseRW is unchanged and can still be called directly, eg by setup tools.
+ */
+
+public class AsyncDatabaseRW {
+    // one virtual thread per call, shared by every AsyncDatabaseRW of the application
+    private static final ExecutorService databaseExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final DatabaseRW databaseRW;
+    private final Executor callbackExecutor;
+
+    /**
+     * @param databaseRW       the DatabaseRW that does the actual work
+     * @param callbackExecutor where results are delivered, eg Platform::runLater for the JavaFX thread
+     */
+    public AsyncDatabaseRW(DatabaseRW databaseRW, Executor callbackExecutor) {
+        this.databaseRW = databaseRW;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    public DatabaseRW getDatabaseRW() {
+        return databaseRW;
+    }
+
+    public CompletableFuture<ArrayList<Product>> searchProduct(String keyword) {
+        return submit(() -> databaseRW.searchProduct(keyword));
+    }
+
+    public CompletableFuture<ProductPage> searchProductPage(String keyword, int pageSize, String continuationToken) {
+        return submit(() -> databaseRW.searchProductPage(keyword, pageSize, continuationToken));
+    }
+
+    public CompletableFuture<Product> searchByProductId(String productId) {
+        return submit(() -> databaseRW.searchByProductId(productId));
+    }
+
+    public CompletableFuture<ArrayList<Product>> searchByPrefix(String prefix, int limit) {
+        return submit(() -> databaseRW.searchByPrefix(prefix, limit));
+    }
+
+    public CompletableFuture<ArrayList<Product>> purchaseStocks(ArrayList<Product> proList, Integer orderId) {
+        return submit(() -> databaseRW.purchaseStocks(proList, orderId));
+    }
+
+    public CompletableFuture<Void> updateProduct(String id, String des, long pricePence, String imageName, int stock) {
+        return submit(() -> {
+            databaseRW.updateProduct(id, des, pricePence, imageName, stock);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteProduct(String id) {
+        return submit(() -> {
+            databaseRW.deleteProduct(id);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> insertNewProduct(String id, String des, long pricePence, String image, int stock) {
+        return submit(() -> {
+            databaseRW.insertNewProduct(id, des, pricePence, image, stock);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Boolean> isProIdAvailable(String productId) {
+        return submit(() -> databaseRW.isProIdAvailable(productId));
+    }
+
+    /**
+     * Runs several blocking steps as one background task, eg purchaseStocks followed by creating the order
+     * file, so the JavaFX thread only sees the final result. Like the calls above, the result (or the error
+     * of the first step that failed) is delivered through the callback executor.
+     */
+    public <T> CompletableFuture<T> runInBackground(DatabaseCall<T> call) {
+        return submit(call);
+    }
+
+    // Runs the call on a virtual thread and completes the future through the callback executor.
+    private <T> CompletableFuture<T> submit(DatabaseCall<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        databaseExecutor.execute(() -> {
+            try {
+                T value = call.run();
+                callbackExecutor.execute(() -> result.complete(value));
+            } catch (Throwable e) {
+                callbackExecutor.execute(() -> result.completeExceptionally(e));
+            }
+        });
+        return result;
+    }
+
+    // A DatabaseRW call that returns a value and may throw an SQLException (or any other exception).
+    public interface DatabaseCall<T> {
+        T run() throws Exception;
+    }
+}
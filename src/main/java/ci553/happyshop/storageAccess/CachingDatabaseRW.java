@@ -0,0 +1,306 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * CachingDatabaseRW is a read-through cache in front of any other DatabaseRW (the Decorator pattern).
+ *
+ * Customers search the same few hundred products again and again, so instead of asking
+ * the database every time, the results of searchByProductId and searchProduct are kept in memory.
+ *
+ * How it works:
+ * - Product cache: productID -> Product (or "not found"). Bounded by maxEntries, the least recently
+ *   used entry is evicted first (LRU), and an entry older than ttlMillis is treated as expired.
+ * - Search cache: keyword -> the list of matching productIDs (not the products themselves).
+ *   A cached search is answered from the product cache when every one of its products is still there,
+ *   so a purchase only has to invalidate the products it changed, not every search that mentions them.
+ *   If any of them was invalidated (or evicted), the search is run again as one query, never one per product.
+ *   Every call counts as exactly one hit or one miss.
+ *   Type-ahead searches (searchByPrefix) share this cache under their own key, eg "usb" with limit 8,
+ *   so typing the same first letters again does not touch the database at all.
+ *
+ * Paged and streamed searches (searchProductPage, streamProducts) are passed straight through:
+ * they are used for browsing large results, which would only push the popular products out of the cache.
+ *
+ * Invalidation (every write goes through the wrapped DatabaseRW first):
+ * - purchaseStocks:   the purchased products are removed from the product cache.
+ * - updateProduct:    the product is removed, and the search cache is cleared (the description may have changed).
+ * - deleteProduct:    same as updateProduct.
+ * - insertNewProduct: same as updateProduct (this also drops a cached "not found" for the new ID).
+ *
+ * Callers always receive copies of the cached products, so changing a returned Product
+ * (eg its ordered quantity in a trolley) can never change what is in the cache.
+ *
+ * A value loaded from the database is only stored if no invalidation happened while it was being loaded
+ * (checked with a generation counter), so a slow read can never put back data that a write has just replaced.
+ *
+ * The cache only sees writes made through itself, so DatabaseRWFactory shares one
+ * CachingDatabaseRW between all clients of the application.
+ */
+
+public class CachingDatabaseRW implements DatabaseRW {
+    private final DatabaseRW delegate;
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    // accessOrder = true keeps the entries in least-recently-used order, the eldest is evicted first
+    private final LinkedHashMap<String, CacheEntry<Product>> productCache;
+    private final LinkedHashMap<String, CacheEntry<ArrayList<String>>> searchCache;
+    private long generation = 0; // incremented by every invalidation, guarded by this
+
+    // statistics
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);    // removed because the cache was full
+    private final AtomicLong expirations = new AtomicLong(0);  // removed because the entry was too old
+    private final AtomicLong invalidations = new AtomicLong(0);
+
+    /**
+     * @param delegate   the DatabaseRW that actually reads and writes the data, eg DerbyRW
+     * @param maxEntries the maximum number of products (and, separately, keyword searches) kept in memory
+     * @param ttlMillis  how long a cached entry stays valid
+     */
+    public CachingDatabaseRW(DatabaseRW delegate, int maxEntries, long ttlMillis) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.productCache = newLruMap();
+        this.searchCache = newLruMap();
+    }
+
+    private <V> LinkedHashMap<String, CacheEntry<V>> newLruMap() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<V>> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public Product searchByProductId(String productId) throws SQLException {
+        CacheEntry<Product> entry;
+        long loadGeneration;
+        synchronized (this) {
+            entry = getValid(productCache, productId);
+            loadGeneration = generation;
+        }
+        if (entry != null) {
+            hits.incrementAndGet();
+            return copyOf(entry.value);
+        }
+
+        misses.incrementAndGet();
+        Product product = delegate.searchByProductId(productId);
+        synchronized (this) {
+            if (generation == loadGeneration) { // nothing was invalidated while we were reading
+                productCache.put(productId, new CacheEntry<>(copyOf(product))); // null is cached as "not found"
+            }
+        }
+        return copyOf(product);
+    }
+
+    @Override
+    public ArrayList<Product> searchProduct(String keyword) throws SQLException {
+        return cachedSearch(keyword, () -> delegate.searchProduct(keyword));
+    }
+
+    @Override
+    public ProductPage searchProductPage(String keyword, int pageSize, String continuationToken) throws SQLException {
+        return delegate.searchProductPage(keyword, pageSize, continuationToken);
+    }
+
+    @Override
+    public Stream<Product> streamProducts(String keyword) throws SQLException {
+        return delegate.streamProducts(keyword);
+    }
+
+    @Override
+    public ArrayList<Product> searchByPrefix(String prefix, int limit) throws SQLException {
+        if (prefix == null || prefix.isBlank() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        // '\0' never appears in typed text, so these keys can not clash with searchProduct keywords
+        String cacheKey = "\0prefix:" + limit + ":" + prefix.trim();
+        return cachedSearch(cacheKey, () -> delegate.searchByPrefix(prefix, limit));
+    }
+
+    // Answers a search from the search and product caches, or runs it (one query) and caches the IDs it returned.
+    private ArrayList<Product> cachedSearch(String cacheKey, SearchLoader loader) throws SQLException {
+        ArrayList<Product> cached = null;
+        long loadGeneration;
+        synchronized (this) {
+            CacheEntry<ArrayList<String>> entry = getValid(searchCache, cacheKey);
+            if (entry != null) {
+                cached = cachedProducts(entry.value); // null if a product was invalidated, then it is a miss
+            }
+            loadGeneration = generation;
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        misses.incrementAndGet();
+        ArrayList<Product> productList = loader.load();
+        ArrayList<String> productIds = new ArrayList<>();
+        synchronized (this) {
+            if (generation == loadGeneration) { // nothing was invalidated while we were reading
+                for (Product product : productList) {
+                    productIds.add(product.getProductId());
+                    productCache.put(product.getProductId(), new CacheEntry<>(copyOf(product)));
+                }
+                searchCache.put(cacheKey, new CacheEntry<>(productIds));
+            }
+        }
+        return productList;
+    }
+
+    // Copies of the products with the given IDs from the product cache, or null if any of them is not cached (guarded by this)
+    private ArrayList<Product> cachedProducts(ArrayList<String> productIds) {
+        ArrayList<Product> productList = new ArrayList<>(productIds.size());
+        for (String productId : productIds) {
+            CacheEntry<Product> entry = getValid(productCache, productId);
+            if (entry == null || entry.value == null) {
+                return null;
+            }
+            productList.add(copyOf(entry.value));
+        }
+        return productList;
+    }
+
+    @Override
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList, Integer orderId) throws SQLException {
+        try {
+            return delegate.purchaseStocks(proList, orderId);
+        } finally {
+            // stock levels may have changed (or a concurrent change was noticed), drop these products
+            synchronized (this) {
+                for (Product product : proList) {
+                    invalidate(product.getProductId());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void updateProduct(String id, String des, long pricePence, String imageName, int stock) throws SQLException {
+        try {
+            delegate.updateProduct(id, des, pricePence, imageName, stock);
+        } finally {
+            invalidateProductAndSearches(id);
+        }
+    }
+
+    @Override
+    public void deleteProduct(String id) throws SQLException {
+        try {
+            delegate.deleteProduct(id);
+        } finally {
+            invalidateProductAndSearches(id);
+        }
+    }
+
+    @Override
+    public void insertNewProduct(String id, String des, long pricePence, String image, int stock) throws SQLException {
+        try {
+            delegate.insertNewProduct(id, des, pricePence, image, stock);
+        } finally {
+            invalidateProductAndSearches(id);
+        }
+    }
+
+    @Override
+    public boolean isProIdAvailable(String productId) throws SQLException {
+        return delegate.isProIdAvailable(productId); // always asked live, it guards inserts
+    }
+
+    // Removes all cached entries, eg after the database has been reset.
+    public synchronized void clear() {
+        generation++;
+        productCache.clear();
+        searchCache.clear();
+    }
+
+    private synchronized void invalidateProductAndSearches(String productId) {
+        invalidate(productId);
+        searchCache.clear();
+    }
+
+    private void invalidate(String productId) {
+        generation++;
+        if (productCache.remove(productId) != null) {
+            invalidations.incrementAndGet();
+        }
+    }
+
+    // Returns the entry if it exists and has not expired, an expired entry is removed.
+    private <V> CacheEntry<V> getValid(LinkedHashMap<String, CacheEntry<V>> cache, String key) {
+        CacheEntry<V> entry = cache.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.createdAt > ttlMillis) {
+            cache.remove(key);
+            expirations.incrementAndGet();
+            return null;
+        }
+        return entry;
+    }
+
+    private static Product copyOf(Product p) {
+        if (p == null) {
+            return null;
+        }
+        return new Product(p.getProductId(), p.getProductDescription(), p.getProductImageName(),
+                p.getUnitPricePence(), p.getStockQuantity());
+    }
+
+    // a set of getter methods for cache statistics
+    public long getHitCount() { return hits.get(); }
+    public long getMissCount() { return misses.get(); }
+    public long getEvictionCount() { return evictions.get(); }
+    public long getExpirationCount() { return expirations.get(); }
+    public long getInvalidationCount() { return invalidations.get(); }
+
+    public double getHitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    @Override
+    // A one-line summary of the cache statistics, eg for printing to the console
+    public synchronized String toString() {
+        return String.format("CachingDatabaseRW[products: %d, searches: %d, max: %d, ttl: %dms, " +
+                        "hit ratio: %.1f%%, hits: %d, misses: %d, evictions: %d, expirations: %d, invalidations: %d]",
+                productCache.size(), searchCache.size(), maxEntries, ttlMillis,
+                getHitRatio() * 100, getHitCount(), getMissCount(), getEvictionCount(),
+                getExpirationCount(), getInvalidationCount());
+    }
+
+    // A search on the wrapped DatabaseRW, run on a cache miss.
+    private interface SearchLoader {
+        ArrayList<Product> load() throws SQLException;
+    }
+
+    // A cached value together with the time it was stored.
+    private static class CacheEntry<V> {
+        private final V value;
+        private final long createdAt = System.currentTimeMillis();
+
+        private CacheEntry(V value) {
+            this.value = value;
+        }
+    }
+}
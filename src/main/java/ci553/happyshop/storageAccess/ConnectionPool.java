@@ -0,0 +1,265 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.utility.Logger;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small, bounded pool of JDBC connections shared by every DatabaseRW instance.
+ *
+ * Opening a Derby connection is expensive compared with running a simple query,
+ * so instead of calling DriverManager.getConnection() for every search or checkout,
+ * DerbyRW borrows a connection from this pool and gives it back when it is done.
+ *
+ * Behaviour:
+ * - At most {@code maxSize} connections are ever open at the same time.
+ * - A connection that has been idle for more than a second is validated (Connection.isValid)
+ *   before it is handed out, broken connections are discarded and replaced.
+ *   Connections used a moment ago are not checked again: with the Network Server, isValid is
+ *   a round trip to the server and would double the cost of every short query.
+ *   A connection that breaks while in use (eg the server restarts) is replaced once it is checked.
+ * - If all connections are in use, the caller waits up to {@code maxWaitMillis};
+ *   after that an SQLException is thrown instead of blocking forever.
+ * - When a connection is returned, any unfinished transaction is rolled back and
+ *   auto-commit is switched back on, so the next borrower always gets a clean connection.
+ *
+ * Each pooled connection also keeps an LRU cache of PreparedStatements (see PooledConnection),
+ * so repeated catalogue queries skip parsing and compiling the SQL.
+ *
+ * Statistics (active, idle, total and maximum wait time, statement cache hits and misses)
+ * are kept so that the pool can be monitored at busy times.
+ *
+ * The pool is owned by DatabaseRWFactory, use DatabaseRWFactory.getConnectionPool() to get it.
+ */
+
+public class ConnectionPool {
+    private static final Logger log = Logger.getLogger(ConnectionPool.class);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long VALIDATE_AFTER_IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final String dbURL;
+    private final int maxSize;
+    private final long maxWaitMillis;
+    private final int statementCacheSize;
+
+    private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+    private final AtomicInteger openCount = new AtomicInteger(0);   // idle + active connections
+    private final AtomicInteger activeCount = new AtomicInteger(0); // connections currently borrowed
+
+    // statistics
+    private final AtomicLong borrowCount = new AtomicLong(0);
+    private final AtomicLong totalWaitNanos = new AtomicLong(0);
+    private final AtomicLong maxWaitNanos = new AtomicLong(0);
+    private final AtomicLong timeoutCount = new AtomicLong(0);
+    private final AtomicLong discardedCount = new AtomicLong(0);
+    private final AtomicLong statementHits = new AtomicLong(0);
+    private final AtomicLong statementMisses = new AtomicLong(0);
+    private final AtomicLong statementEvictions = new AtomicLong(0);
+
+    /**
+     * @param dbURL         the JDBC URL, eg jdbc:derby:happyShopDB
+     * @param maxSize       the maximum number of open connections
+     * @param maxWaitMillis how long a caller waits for a free connection before giving up
+     * @param statementCacheSize the maximum number of cached PreparedStatements per connection
+     */
+    public ConnectionPool(String dbURL, int maxSize, long maxWaitMillis, int statementCacheSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        if (statementCacheSize <= 0) {
+            throw new IllegalArgumentException("statementCacheSize must be positive: " + statementCacheSize);
+        }
+        this.dbURL = dbURL;
+        this.maxSize = maxSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Borrows a connection from the pool. Use it in a try-with-resources block,
+     * closing the PooledConnection returns it to the pool (the real connection stays open).
+     *
+     * @throws SQLException if no connection became free within maxWaitMillis,
+     *                      or a new connection could not be opened
+     */
+    public PooledConnection borrow() throws SQLException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+
+        while (true) {
+            PooledConnection pooled = idleConnections.pollFirst(); // most recently used first, it's "warm"
+
+            if (pooled == null && tryReserveSlot()) {
+                try {
+                    pooled = new PooledConnection(DriverManager.getConnection(dbURL), this, statementCacheSize);
+                } catch (SQLException e) {
+                    openCount.decrementAndGet(); // give the slot back
+                    throw e;
+                }
+            }
+
+            if (pooled == null) { // pool is full, wait for a connection to be returned
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    timeoutCount.incrementAndGet();
+                    throw new SQLException("Timed out after " + maxWaitMillis + "ms waiting for a database connection "
+                            + "(active: " + getActiveCount() + ", max: " + maxSize + ")");
+                }
+                try {
+                    // wait in short slices so that a slot freed by a discarded connection is noticed
+                    long slice = Math.min(remaining, WAIT_SLICE_NANOS);
+                    pooled = idleConnections.pollFirst(slice, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while waiting for a database connection", e);
+                }
+                if (pooled == null) {
+                    continue; // loop round, a slot may have been freed by a discarded connection
+                }
+            }
+
+            // validate on checkout (if it was idle for a while), a broken connection is thrown away and we try again
+            if (pooled.getIdleNanos() > VALIDATE_AFTER_IDLE_NANOS && !isUsable(pooled)) {
+                discard(pooled);
+                continue;
+            }
+
+            pooled.markBorrowed();
+            activeCount.incrementAndGet();
+            recordWait(System.nanoTime() - start);
+            return pooled;
+        }
+    }
+
+    // Called by PooledConnection.close(): reset the connection and put it back into the idle queue.
+    void giveBack(PooledConnection pooled) {
+        activeCount.decrementAndGet();
+        try {
+            Connection conn = pooled.getConnection();
+            if (conn.isClosed()) {
+                discard(pooled);
+                return;
+            }
+            if (!conn.getAutoCommit()) {
+                conn.rollback(); // never leak an unfinished transaction to the next borrower
+                conn.setAutoCommit(true);
+            }
+            pooled.markReturned();
+            idleConnections.offerFirst(pooled);
+        } catch (SQLException e) {
+            log.warn("Discarding broken pooled connection: {}", e.getMessage());
+            discard(pooled);
+        }
+    }
+
+    /**
+     * Health check: borrows a connection and runs a trivial query on it.
+     * Returns false (and logs why) if the database can not be reached, eg the Network Server is down.
+     * Broken idle connections found on the way are discarded, so the pool recovers once the database is back.
+     */
+    public boolean isHealthy() {
+        try (PooledConnection pooled = borrow()) {
+            PreparedStatement stmt = pooled.prepareStatement("VALUES 1"); // cached, do not close
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        } catch (SQLException e) {
+            log.warn("Database health check failed for {}: {}", dbURL, e.getMessage());
+            return false;
+        }
+    }
+
+    // Closes all idle connections, eg when the application shuts down.
+    public void closeIdleConnections() {
+        PooledConnection pooled;
+        while ((pooled = idleConnections.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    private boolean tryReserveSlot() {
+        while (true) {
+            int open = openCount.get();
+            if (open >= maxSize) {
+                return false;
+            }
+            if (openCount.compareAndSet(open, open + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        try {
+            return pooled.getConnection().isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        openCount.decrementAndGet();
+        discardedCount.incrementAndGet();
+        try {
+            pooled.closePhysically();
+        } catch (SQLException e) {
+            log.warn("Error closing discarded connection: {}", e.getMessage());
+        }
+    }
+
+    // statement cache counters, updated by PooledConnection
+    void recordStatementHit() { statementHits.incrementAndGet(); }
+    void recordStatementMiss() { statementMisses.incrementAndGet(); }
+    void recordStatementEviction() { statementEvictions.incrementAndGet(); }
+
+    private void recordWait(long waitNanos) {
+        borrowCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    // a set of getter methods for pool statistics
+    public String getDbURL() { return dbURL; }
+    public int getMaxSize() { return maxSize; }
+    public int getActiveCount() { return activeCount.get(); }
+    public int getIdleCount() { return idleConnections.size(); }
+    public long getBorrowCount() { return borrowCount.get(); }
+    public long getTimeoutCount() { return timeoutCount.get(); }
+    public long getDiscardedCount() { return discardedCount.get(); }
+    public double getTotalWaitMillis() { return totalWaitNanos.get() / 1_000_000.0; }
+    public double getMaxWaitMillis() { return maxWaitNanos.get() / 1_000_000.0; }
+
+    public long getStatementCacheHits() { return statementHits.get(); }
+    public long getStatementCacheMisses() { return statementMisses.get(); }
+    public long getStatementCacheEvictions() { return statementEvictions.get(); }
+
+    public double getStatementCacheHitRatio() {
+        long total = statementHits.get() + statementMisses.get();
+        return total == 0 ? 0 : (double) statementHits.get() / total;
+    }
+
+    public double getAverageWaitMillis() {
+        long borrows = borrowCount.get();
+        return borrows == 0 ? 0 : getTotalWaitMillis() / borrows;
+    }
+
+    @Override
+    // A one-line summary of the pool statistics, eg for printing to the console
+    public String toString() {
+        return String.format("ConnectionPool[active: %d, idle: %d, max: %d, borrows: %d, " +
+                        "avg wait: %.3fms, max wait: %.3fms, timeouts: %d, discarded: %d, " +
+                        "statement cache hits: %d, misses: %d, evictions: %d]",
+                getActiveCount(), getIdleCount(), maxSize, getBorrowCount(),
+                getAverageWaitMillis(), getMaxWaitMillis(), getTimeoutCount(), getDiscardedCount(),
+                getStatementCacheHits(), getStatementCacheMisses(), getStatementCacheEvictions());
+    }
+}
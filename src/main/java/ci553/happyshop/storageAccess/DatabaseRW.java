@@ -4,6 +4,7 @@ import ci553.happyshop.catalogue.Product;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.stream.Stream;
 
 /**
  * The DatabaseRW interface defines the contract for interacting with the product database.
@@ -37,6 +38,28 @@ public interface DatabaseRW {
      */
     ArrayList<Product> searchProduct(String keyword) throws SQLException;
 
+    /**
+     * One page of searchProduct(keyword), sorted by product ID (keyset pagination).
+     * A keyword that is an exact product ID gives a single page with that product.
+     *
+     * @param keyword           the keyword to search for
+     * @param pageSize          the maximum number of products on the page
+     * @param continuationToken null for the first page, otherwise the token of the previous page
+     * @return the page, its continuation token is null if there are no more matches
+     */
+    ProductPage searchProductPage(String keyword, int pageSize, String continuationToken) throws SQLException;
+
+    /**
+     * All results of searchProduct(keyword) as a lazy stream, sorted by product ID.
+     * Rows are read from the database only as the stream is consumed, so a large result
+     * is never held in memory at once. The stream may keep a database connection open,
+     * so always close it (try-with-resources); it also closes itself when fully consumed.
+     * A database error while the stream is consumed is thrown as a RuntimeException.
+     *
+     * @param keyword the keyword to search for
+     */
+    Stream<Product> streamProducts(String keyword) throws SQLException;
+
     /**
      * Searches for a product by its unique product ID.
      * @param productId the product ID
@@ -44,6 +67,17 @@ public interface DatabaseRW {
      */
     Product searchByProductId(String productId) throws SQLException;
 
+    /**
+     * Type-ahead search, meant to be called on every keystroke of a search field.
+     * Returns at most {@code limit} products whose ID, or a word of whose description,
+     * starts with the given text. Products matched by ID come first.
+     *
+     * @param prefix the text typed so far
+     * @param limit  the maximum number of products to return
+     * @return the matching products, empty if the text is blank or nothing matches
+     */
+    ArrayList<Product> searchByPrefix(String prefix, int limit) throws SQLException;
+
     /**
      * Attempts to purchase (reduce stocks of) the given list of products.
      * Behavior:
@@ -51,8 +85,10 @@ public interface DatabaseRW {
      * - If any product does not have sufficient stock, no stock is updated and a list of all insufficient products is returned.
      *
      * @param proList the list of products with requested quantities to purchase
+     * @param orderId the order this purchase is for, leased with OrderCounter.generateOrderId before the purchase
+     *                and kept with the sale in the stock ledger; null if it is not for an order (eg a benchmark)
      */
-    ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException;
+    ArrayList<Product> purchaseStocks(ArrayList<Product> proList, Integer orderId) throws SQLException;
 
 
     /**
@@ -60,11 +96,11 @@ public interface DatabaseRW {
      *
      * @param id         the product ID
      * @param des        the new description
-     * @param price      the new price
+     * @param pricePence the new price in pence, eg 2999 for £29.99
      * @param imageName  the new image file name
      * @param stock      the updated stock quantity
      */
-    void updateProduct(String id, String des, double price, String imageName, int stock) throws SQLException;
+    void updateProduct(String id, String des, long pricePence, String imageName, int stock) throws SQLException;
 
 
     // Deletes a product identified by its ID.
@@ -74,11 +110,11 @@ public interface DatabaseRW {
      * Inserts a new product into the database.
      * @param id      the product ID
      * @param des     the product description
-     * @param price   the product price
+     * @param pricePence the product price in pence
      * @param image   the image file name
      * @param stock   the initial stock quantity
      */
-    void insertNewProduct(String id, String des, double price, String image, int stock) throws SQLException;
+    void insertNewProduct(String id, String des, long pricePence, String image, int stock) throws SQLException;
 
     /**
      * Checks whether the given product ID is available for use (i.e., not already in use).
@@ -1,12 +1,29 @@
 package ci553.happyshop.storageAccess;
 
+import ci553.happyshop.utility.Logger;
+import ci553.happyshop.utility.StorageLocation;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
 /**
  * The DatabaseRWFactory class centralizes database configuration and object creation.
  * It acts as a factory pattern to provide flexible instantiation of the DatabaseRW interface.
  *
  * Responsibilities:
  * - Holds the database URL used to connect to the database.
- * - Creates instances of DatabaseRW (e.g., DerbyRW, MySQLRW, SQLiteRW).
+ * - Owns the ConnectionPool that is shared by every DatabaseRW instance,
+ *   and brings an older ProductTable up to date when it is created (see ProductTableMigration).
+ * - Owns the ProductNameIndex (in-memory word index for name searches), built from the database on first use.
+ * - Owns the StockLedger (history of every stock change), creating its tables in older databases on first use.
+ * - Optionally puts a shared read-through catalogue cache (CachingDatabaseRW) in front of the database.
+ *   It is off by default, turn it on with -Dhappyshop.catalogueCache.size=500 (and optionally
+ *   -Dhappyshop.catalogueCache.ttlMillis) or from code with enableCatalogueCache(maxEntries, ttlMillis).
+ * - Measures every DatabaseRW call (InstrumentedDatabaseRW) into one shared DatabaseRWMetrics,
+ *   which is written to the log every metricsDumpIntervalSeconds, see getDatabaseRWMetrics().
+ * - Chooses the deployment: Derby embedded in this process (the default), or Derby's Network Server,
+ *   so that several shop processes (eg customer kiosks and the warehouse console) share one catalogue.
+ * - Creates instances of DatabaseRW (e.g., DerbyRW, LogStructuredRW, MySQLRW, SQLiteRW).
  *
  * Benefits:
  * - Database Abstraction: Keeps the system decoupled from specific database implementations.
@@ -18,17 +35,334 @@ package ci553.happyshop.storageAccess;
  *     DatabaseRW db = DatabaseRWFactory.createDatabaseRW();
  *
  * This hides the actual implementation (e.g., DerbyRW) from the rest of the system.
+ *
+ * Client/server deployment, chosen with system properties before the first database call:
+ *     -Dhappyshop.db.mode=server   this process starts the Network Server and connects to it
+ *     -Dhappyshop.db.mode=client   this process connects to a Network Server started by another process
+ *     -Dhappyshop.db.host=...      the server's address (default localhost)
+ *     -Dhappyshop.db.port=...      the server's port (default 1527)
+ * or from code with useNetworkServer(host, port, startServer).
+ * Start the "server" process first, then any number of "client" processes.
+ * With a shared database, name searches scan the table (the name index only sees this process's writes),
+ * and the catalogue cache, if it is turned on, may show another process's changes up to catalogueCacheTtlMillis
+ * late; checkouts are unaffected, the stock check happens in the database.
+ *
+ * Product store, chosen with -Dhappyshop.store (or productStore) before the first createDatabaseRW():
+ *     derby   the Derby database, as above (the default)
+ *     log     LogStructuredRW, an append-only log file in productLog/, for the busiest tills.
+ *             The first time it is used it is filled with the products of the Derby database.
+ *             It is private to one process, so it can not be combined with the Network Server.
  */
 
 public class DatabaseRWFactory {
+    private static final Logger log = Logger.getLogger(DatabaseRWFactory.class);
+
+    public static String dbName = "happyShopDB";
+    public static String dbURL = "jdbc:derby:" + dbName; //or other database URL in the future (eg MySQLRW or SQLiteRW)
+
+    // Network Server settings, only used when the deployment is "server" or "client"
+    public static final String DB_MODE_PROPERTY = "happyshop.db.mode";
+    public static final String DB_HOST_PROPERTY = "happyshop.db.host";
+    public static final String DB_PORT_PROPERTY = "happyshop.db.port";
+    public static final int DEFAULT_DB_PORT = 1527; // Derby's standard port
+
+    // Product store: "derby" or "log" (LogStructuredRW)
+    public static final String STORE_PROPERTY = "happyshop.store";
+    public static String productStore = System.getProperty(STORE_PROPERTY, "derby");
+    public static boolean logStoreForceWrites = false; // true: every log write is flushed to disk (survives a power cut)
+
+    // Connection pool settings
+    public static int poolMaxSize = 10;            // maximum number of open connections
+    public static long poolMaxWaitMillis = 5000;   // how long a caller waits for a free connection
+    public static int statementCacheSize = 20;     // cached PreparedStatements per pooled connection
 
-    public static String dbURL = "jdbc:derby:happyShopDB"; //or other database URL in the future (eg MySQLRW or SQLiteRW)
+    // Catalogue cache settings, off (0) unless catalogueCacheSize is set, eg -Dhappyshop.catalogueCache.size=500
+    public static final String CATALOGUE_CACHE_SIZE_PROPERTY = "happyshop.catalogueCache.size";
+    public static final String CATALOGUE_CACHE_TTL_PROPERTY = "happyshop.catalogueCache.ttlMillis";
+    public static int catalogueCacheSize = Integer.getInteger(CATALOGUE_CACHE_SIZE_PROPERTY, 0); // maximum number of cached products (and searches)
+    public static long catalogueCacheTtlMillis = Long.getLong(CATALOGUE_CACHE_TTL_PROPERTY, 30_000); // how long a cached product stays valid
+
+    // Stock ledger settings, set stockSnapshotIntervalMinutes to 0 to only take snapshots by calling takeSnapshot()
+    public static long stockSnapshotIntervalMinutes = 15; // how often the ledger snapshot is moved forward
+
+    // Call metrics, set before the first createDatabaseRW() to take effect for all clients
+    public static boolean instrumentDatabase = true;      // false: createDatabaseRW() returns the store unmeasured
+    public static long metricsDumpIntervalSeconds = 300;  // how often the call metrics are logged, 0 for never
+
+    private static ConnectionPool connectionPool; // created on first use, so dbURL can still be changed before that
+    private static CachingDatabaseRW catalogueCache; // shared by all clients, so every write invalidates it
+    private static ProductNameIndex productNameIndex; // shared by all DerbyRW instances, so every write updates it
+    private static StockLedger stockLedger;           // shared by all DerbyRW instances
+    private static boolean stockLedgerFailed = false; // the ledger tables could not be created, do not retry on every call
+    private static DatabaseRWMetrics databaseRWMetrics; // shared by all InstrumentedDatabaseRW instances
+    private static DerbyNetworkServer networkServer;  // only set if this process started the Network Server
+    private static boolean sharedDatabase = false;    // true if other processes may also write to the database
+    private static boolean deploymentConfigured = false;
+    private static LogStructuredRW logStore;          // shared by all clients, only one may use the log folder
+    private static boolean shutdownHookAdded = false;
 
     /**
      * Creates an instance of DatabaseRW (currently returning DerbyRW, but can be modified to return other implementations).
+     * All instances share the same connection pool.
+     * When the catalogue cache is turned on, the one shared CachingDatabaseRW (wrapping a DerbyRW) is used instead.
+     * Unless instrumentDatabase is false, the store is wrapped in an InstrumentedDatabaseRW that times every call.
      */
     public static DatabaseRW createDatabaseRW() {
-        return new DerbyRW(); // or other database implementations in the future (eg MySQLRW or SQLiteRW)
+        DatabaseRW store;
+        if (productStore.equalsIgnoreCase("log")) {
+            store = getLogStructuredRW(); // already in memory, so no catalogue cache in front of it
+        } else if (catalogueCacheSize > 0) {
+            store = getCatalogueCache();
+        } else {
+            store = new DerbyRW(getConnectionPool(), getLocalNameIndex(), getStockLedger()); // or other database implementations in the future (eg MySQLRW or SQLiteRW)
+        }
+        return instrumentDatabase ? new InstrumentedDatabaseRW(store, getDatabaseRWMetrics()) : store;
+    }
+
+    /**
+     * Returns the call metrics of every DatabaseRW created by this factory (latency percentiles, errors, rows),
+     * starting the periodic dump to the log on first use.
+     * eg DatabaseRWFactory.getDatabaseRWMetrics().toString() gives a table of all operations.
+     */
+    public static synchronized DatabaseRWMetrics getDatabaseRWMetrics() {
+        if (databaseRWMetrics == null) {
+            databaseRWMetrics = new DatabaseRWMetrics();
+            databaseRWMetrics.startPeriodicDump(metricsDumpIntervalSeconds);
+            addShutdownHook(); // logs the calls made since the last dump when the application exits
+        }
+        return databaseRWMetrics;
+    }
+
+    /**
+     * Turns the catalogue cache on with the given size limit and time-to-live.
+     * Must be called before the first createDatabaseRW() to take effect for all clients.
+     */
+    public static synchronized void enableCatalogueCache(int maxEntries, long ttlMillis) {
+        catalogueCacheSize = maxEntries;
+        catalogueCacheTtlMillis = ttlMillis;
+        catalogueCache = null; // recreated with the new settings on next use
+    }
+
+    // Turns the catalogue cache off, clients created afterwards talk to the database directly.
+    public static synchronized void disableCatalogueCache() {
+        catalogueCacheSize = 0;
+        catalogueCache = null;
+    }
+
+    // Drops everything held in the shared catalogue cache (if it is in use), eg after a bulk import.
+    public static synchronized void clearCatalogueCache() {
+        if (catalogueCache != null) {
+            catalogueCache.clear();
+        }
+    }
+
+    /**
+     * Returns the product name index shared by all DerbyRW instances.
+     * It is built from ProductTable the first time it is needed (ie when the first client starts).
+     * If building fails, the index stays empty and DerbyRW falls back to scanning the table.
+     */
+    public static synchronized ProductNameIndex getProductNameIndex() {
+        if (productNameIndex == null) {
+            productNameIndex = new ProductNameIndex();
+            try {
+                productNameIndex.load(getConnectionPool());
+            } catch (SQLException e) {
+                log.warn("Product name index could not be built, name searches will scan the table: {}",
+                        e.getMessage());
+            }
+        }
+        return productNameIndex;
+    }
+
+    /**
+     * Returns the stock ledger shared by all DerbyRW instances, or null if it can not be used.
+     * On first use its tables are created if the database does not have them yet,
+     * and the periodic snapshots are started.
+     * If the tables can not be created, the shop keeps working without the ledger (a warning is logged).
+     */
+    public static synchronized StockLedger getStockLedger() {
+        if (stockLedger == null && !stockLedgerFailed) {
+            StockLedger ledger = new StockLedger(getConnectionPool());
+            try {
+                ledger.ensureTables();
+            } catch (SQLException e) {
+                stockLedgerFailed = true;
+                log.warn("Stock ledger could not be set up, stock changes are not recorded: {}", e.getMessage());
+                return null;
+            }
+            ledger.startPeriodicSnapshots(stockSnapshotIntervalMinutes);
+            stockLedger = ledger;
+        }
+        return stockLedger;
+    }
+
+    /**
+     * Returns the log-structured product store shared by all clients, opening it on first use.
+     * An empty store is filled with the products of the Derby database (if it can be reached).
+     */
+    public static synchronized LogStructuredRW getLogStructuredRW() {
+        if (logStore == null) {
+            try {
+                logStore = new LogStructuredRW(StorageLocation.productLogPath, logStoreForceWrites);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not open the product log: " + e.getMessage(), e);
+            }
+            addShutdownHook(); // flushes the log when the application exits
+            if (logStore.size() == 0) {
+                try {
+                    logStore.importFrom(getConnectionPool());
+                } catch (SQLException e) {
+                    log.warn("Product log is empty and the database could not be read: {}", e.getMessage());
+                }
+            }
+        }
+        return logStore;
+    }
+
+    /**
+     * Returns the name index DerbyRW should use, or null if it should search the table instead.
+     * The index only sees the writes made by this process, so when other processes share the database
+     * through the Network Server it would miss their new and changed products, and is not used.
+     */
+    static synchronized ProductNameIndex getLocalNameIndex() {
+        return sharedDatabase ? null : getProductNameIndex();
+    }
+
+    /**
+     * Returns the shared catalogue cache, creating it on first use.
+     * It can also be used to read the cache statistics (hit ratio, evictions), eg getCatalogueCache().toString()
+     */
+    public static synchronized CachingDatabaseRW getCatalogueCache() {
+        if (catalogueCache == null) {
+            int size = catalogueCacheSize > 0 ? catalogueCacheSize : 500; // asked for while off, eg for its statistics
+            catalogueCache = new CachingDatabaseRW(new DerbyRW(getConnectionPool(), getLocalNameIndex(), getStockLedger()), size, catalogueCacheTtlMillis);
+        }
+        return catalogueCache;
+    }
+
+    /**
+     * Returns the connection pool shared by all DatabaseRW instances, creating it on first use.
+     * It can also be used to read the pool statistics, eg DatabaseRWFactory.getConnectionPool().toString()
+     */
+    public static synchronized ConnectionPool getConnectionPool() {
+        if (connectionPool == null) {
+            configureDeployment();
+            connectionPool = new ConnectionPool(dbURL, poolMaxSize, poolMaxWaitMillis, statementCacheSize);
+            try {
+                ProductTableMigration.migratePricesToPence(connectionPool); // older databases hold prices as DOUBLE
+            } catch (SQLException e) {
+                log.error("ProductTable could not be migrated to prices in pence", e);
+            }
+        }
+        return connectionPool;
+    }
+
+    /**
+     * Switches to Derby's Network Server, so that several processes can share the database.
+     * Call it before the first database call, eg at the start of main().
+     *
+     * @param host        the server's address; with startServer, the address it listens on
+     * @param port        the server's port
+     * @param startServer true to start the server in this process (exactly one process does this),
+     *                    false to connect to a server started by another process
+     * @throws SQLException if the server could not be started
+     */
+    public static synchronized void useNetworkServer(String host, int port, boolean startServer) throws SQLException {
+        deploymentConfigured = true; // settings from code win over the system properties
+        if (startServer && networkServer == null) {
+            networkServer = new DerbyNetworkServer(host, port);
+            networkServer.start();
+            addShutdownHook(); // stop the server when this process exits
+        }
+        // a server listening on all interfaces (0.0.0.0) is reached locally through localhost
+        String connectHost = host.equals("0.0.0.0") ? "localhost" : host;
+        dbURL = "jdbc:derby://" + connectHost + ":" + port + "/" + dbName;
+        sharedDatabase = true;
+
+        // anything created for the old URL is dropped, it is recreated on next use
+        if (connectionPool != null) {
+            connectionPool.closeIdleConnections();
+            connectionPool = null;
+        }
+        catalogueCache = null;
+        if (stockLedger != null) {
+            stockLedger.stopPeriodicSnapshots();
+            stockLedger = null;
+        }
+        stockLedgerFailed = false; // tried again on the new database
+        log.info("Using the Derby Network Server: {}", dbURL);
+    }
+
+    /**
+     * Health check of the database: the Network Server (if this process started it) answers a ping,
+     * and a pooled connection can run a query.
+     */
+    public static boolean isDatabaseHealthy() {
+        DerbyNetworkServer server;
+        synchronized (DatabaseRWFactory.class) {
+            server = networkServer;
+        }
+        if (server != null && !server.ping()) {
+            log.warn("Derby Network Server on {}:{} does not answer", server.getHost(), server.getPort());
+            return false;
+        }
+        return getConnectionPool().isHealthy();
+    }
+
+    /**
+     * Stops the stock snapshots, logs the last call metrics, closes the idle pooled connections,
+     * closes the product log (if used) and stops the Network Server if this process started it.
+     */
+    public static synchronized void shutdown() {
+        if (databaseRWMetrics != null) {
+            databaseRWMetrics.stopPeriodicDump();
+            databaseRWMetrics.dump(); // the calls since the last periodic dump
+        }
+        if (stockLedger != null) {
+            stockLedger.stopPeriodicSnapshots();
+        }
+        if (connectionPool != null) {
+            connectionPool.closeIdleConnections();
+        }
+        if (logStore != null) {
+            logStore.close();
+            logStore = null;
+        }
+        if (networkServer != null) {
+            networkServer.shutdown();
+            networkServer = null;
+        }
+    }
+
+    private static void addShutdownHook() {
+        if (!shutdownHookAdded) {
+            shutdownHookAdded = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(DatabaseRWFactory::shutdown, "happyshop-db-shutdown"));
+        }
+    }
+
+    // Applies the happyshop.db.* system properties, once, before the connection pool is created.
+    private static void configureDeployment() {
+        if (deploymentConfigured) {
+            return;
+        }
+        deploymentConfigured = true;
+        String mode = System.getProperty(DB_MODE_PROPERTY, "embedded").trim().toLowerCase();
+        if (mode.equals("embedded")) {
+            return;
+        }
+        String host = System.getProperty(DB_HOST_PROPERTY, "localhost");
+        int port = Integer.getInteger(DB_PORT_PROPERTY, DEFAULT_DB_PORT);
+        try {
+            switch (mode) {
+                case "server" -> useNetworkServer(host, port, true);
+                case "client" -> useNetworkServer(host, port, false);
+                default -> log.warn("Unknown {} \"{}\", using the embedded database", DB_MODE_PROPERTY, mode);
+            }
+        } catch (SQLException e) {
+            // the shop can not work without the shared database, so do not quietly fall back to embedded mode
+            throw new IllegalStateException("Could not start the Derby Network Server: " + e.getMessage(), e);
+        }
     }
 }
 
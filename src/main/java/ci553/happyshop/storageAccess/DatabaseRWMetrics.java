@@ -0,0 +1,181 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.utility.LatencyHistogram;
+import ci553.happyshop.utility.Logger;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DatabaseRWMetrics collects how long every DatabaseRW call takes, how often it fails,
+ * and how many products it returns. It is filled by InstrumentedDatabaseRW.
+ *
+ * Every DatabaseRW method has its own Operation with a LatencyHistogram, so search and checkout
+ * can be compared by percentile (p50, p99, p99.9) instead of only by average,
+ * eg a checkout that is usually 1 ms but 200 ms for one customer in a thousand shows up in p99.9.
+ *
+ * Reading the numbers:
+ *     DatabaseRWMetrics metrics = DatabaseRWFactory.getDatabaseRWMetrics();
+ *     metrics.snapshot(Operation.PURCHASE_STOCKS).getLatency().getValueAtPercentile(99)  // nanoseconds
+ *     metrics.toString()                                                               // a table of all operations
+ * and every DatabaseRWFactory.metricsDumpIntervalSeconds the calls made since the previous dump are written to the log,
+ * eg "purchaseStocks calls=120 errors=0 rows=0 p50=840us p99=3.1ms p99.9=12.6ms max=12.6ms".
+ */
+
+public class DatabaseRWMetrics {
+    private static final Logger log = Logger.getLogger(DatabaseRWMetrics.class);
+
+    // One per DatabaseRW method, named after it in the log
+    public enum Operation {
+        SEARCH_PRODUCT("searchProduct"),
+        SEARCH_PRODUCT_PAGE("searchProductPage"),
+        STREAM_PRODUCTS("streamProducts"),        // the time to open the stream, not to read it
+        SEARCH_BY_PRODUCT_ID("searchByProductId"),
+        SEARCH_BY_PREFIX("searchByPrefix"),
+        PURCHASE_STOCKS("purchaseStocks"),
+        UPDATE_PRODUCT("updateProduct"),
+        DELETE_PRODUCT("deleteProduct"),
+        INSERT_NEW_PRODUCT("insertNewProduct"),
+        IS_PRO_ID_AVAILABLE("isProIdAvailable");
+
+        private final String methodName;
+
+        Operation(String methodName) {
+            this.methodName = methodName;
+        }
+
+        public String getMethodName() { return methodName; }
+    }
+
+    private final EnumMap<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+    private ScheduledExecutorService dumpTimer;      // null unless periodic dumps are running
+    private Map<Operation, OperationSnapshot> lastDump; // what the previous dump saw, guarded by this
+
+    public DatabaseRWMetrics() {
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    // Called by InstrumentedDatabaseRW after every call (also a failed one).
+    void record(Operation operation, long nanos, int rows, boolean failed) {
+        OperationStats operationStats = stats.get(operation);
+        operationStats.latency.record(nanos);
+        operationStats.rows.addAndGet(rows);
+        if (failed) {
+            operationStats.errors.incrementAndGet();
+        }
+    }
+
+    // The numbers of one operation since the application started.
+    public OperationSnapshot snapshot(Operation operation) {
+        OperationStats operationStats = stats.get(operation);
+        return new OperationSnapshot(operation, operationStats.latency.snapshot(),
+                operationStats.errors.get(), operationStats.rows.get());
+    }
+
+    // The numbers of every operation since the application started.
+    public Map<Operation, OperationSnapshot> snapshot() {
+        EnumMap<Operation, OperationSnapshot> all = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            all.put(operation, snapshot(operation));
+        }
+        return all;
+    }
+
+    /**
+     * Writes the calls made since the previous dump to the log every intervalSeconds on a background thread,
+     * until stopPeriodicDump(). Operations that were not called in the interval are left out.
+     */
+    public synchronized void startPeriodicDump(long intervalSeconds) {
+        if (dumpTimer != null || intervalSeconds <= 0) {
+            return;
+        }
+        lastDump = snapshot();
+        dumpTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "happyshop-db-metrics");
+            thread.setDaemon(true); // never keeps the application running
+            return thread;
+        });
+        dumpTimer.scheduleWithFixedDelay(this::dump, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopPeriodicDump() {
+        if (dumpTimer != null) {
+            dumpTimer.shutdownNow();
+            dumpTimer = null;
+        }
+    }
+
+    // Logs the calls made since the previous dump, one line per operation that was called.
+    public synchronized void dump() {
+        Map<Operation, OperationSnapshot> now = snapshot();
+        for (OperationSnapshot current : now.values()) {
+            OperationSnapshot interval = lastDump == null ? current : current.since(lastDump.get(current.getOperation()));
+            if (interval.getCalls() > 0) {
+                log.info("{}", interval);
+            }
+        }
+        lastDump = now;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("DatabaseRW metrics since start:");
+        for (OperationSnapshot snapshot : snapshot().values()) {
+            sb.append("\n  ").append(snapshot);
+        }
+        return sb.toString();
+    }
+
+    // The live counters of one operation
+    private static class OperationStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+    }
+
+    /**
+     * The numbers of one operation at one moment: calls, errors (calls that threw an exception),
+     * rows (products returned) and the latency histogram.
+     */
+    public static class OperationSnapshot {
+        private final Operation operation;
+        private final LatencyHistogram.Snapshot latency;
+        private final long errors;
+        private final long rows;
+
+        OperationSnapshot(Operation operation, LatencyHistogram.Snapshot latency, long errors, long rows) {
+            this.operation = operation;
+            this.latency = latency;
+            this.errors = errors;
+            this.rows = rows;
+        }
+
+        // The calls made after the earlier snapshot of the same operation
+        public OperationSnapshot since(OperationSnapshot earlier) {
+            return new OperationSnapshot(operation, latency.since(earlier.latency),
+                    errors - earlier.errors, rows - earlier.rows);
+        }
+
+        public Operation getOperation() { return operation; }
+        public LatencyHistogram.Snapshot getLatency() { return latency; }
+        public long getCalls() { return latency.getCount(); }
+        public long getErrors() { return errors; }
+        public long getRows() { return rows; }
+
+        @Override
+        public String toString() {
+            return String.format("%s calls=%d errors=%d rows=%d p50=%s p99=%s p99.9=%s max=%s",
+                    operation.getMethodName(), getCalls(), errors, rows,
+                    LatencyHistogram.formatDuration(latency.getValueAtPercentile(50)),
+                    LatencyHistogram.formatDuration(latency.getValueAtPercentile(99)),
+                    LatencyHistogram.formatDuration(latency.getValueAtPercentile(99.9)),
+                    LatencyHistogram.formatDuration(latency.getMaxNanos()));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.utility.Logger;
+
+import org.apache.derby.drda.NetworkServerControl;
+
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.sql.SQLException;
+
+/**
+ * DerbyNetworkServer starts and stops Derby's Network Server inside this JVM.
+ *
+ * Why:
+ * With the default URL (jdbc:derby:happyShopDB) Derby runs embedded, and only one process can open
+ * happyShopDB at a time. Once the Network Server is running, other processes (eg customer kiosks on
+ * other machines) connect to it with a client URL such as jdbc:derby://shop-server:1527/happyShopDB,
+ * and all of them share the one catalogue.
+ *
+ * The server opens the database files itself, relative to this process's working directory,
+ * so start it from the application folder, the same as the embedded mode.
+ *
+ * Example Usage (normally done by DatabaseRWFactory.useNetworkServer):
+ *     DerbyNetworkServer server = new DerbyNetworkServer("localhost", 1527);
+ *     server.start();       // returns once the server answers a ping
+ *     server.ping();        // true while the server is up
+ *     server.shutdown();
+ *
+ * Note: the server accepts connections from any host that can reach the given address.
+ * Bind it to localhost unless other machines really need to connect.
+ */
+
+public class DerbyNetworkServer {
+    private static final Logger log = Logger.getLogger(DerbyNetworkServer.class);
+    private static final long START_TIMEOUT_MILLIS = 10_000; // how long start() waits for the first ping
+    private static final long PING_INTERVAL_MILLIS = 100;
+
+    private final String host;
+    private final int port;
+    private NetworkServerControl serverControl; // null until start() was called
+
+    /**
+     * @param host the address the server listens on, eg localhost or 0.0.0.0 for all network interfaces
+     * @param port the port the server listens on, Derby's default is 1527
+     */
+    public DerbyNetworkServer(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Starts the server and waits until it accepts connections.
+     *
+     * @throws SQLException if the server could not be started, eg the port is already in use
+     */
+    public synchronized void start() throws SQLException {
+        if (serverControl != null) {
+            return; // already started
+        }
+        try {
+            NetworkServerControl control = new NetworkServerControl(InetAddress.getByName(host), port);
+            // the server's own console output (connection messages...) is not needed, errors are reported by ping()
+            control.start(new PrintWriter(PrintWriter.nullWriter()));
+            serverControl = control;
+        } catch (Exception e) {
+            throw new SQLException("Could not start the Derby Network Server on " + host + ":" + port, e);
+        }
+
+        // start() returns straight away, the server is ready once it answers a ping
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (!ping()) {
+            if (System.currentTimeMillis() > deadline) {
+                shutdown();
+                throw new SQLException("The Derby Network Server on " + host + ":" + port
+                        + " did not answer within " + START_TIMEOUT_MILLIS + "ms");
+            }
+            try {
+                Thread.sleep(PING_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while starting the Derby Network Server", e);
+            }
+        }
+        log.info("Derby Network Server started on {}:{}", host, port);
+    }
+
+    /**
+     * Returns true if the server answers a ping, ie it is up and accepting connections.
+     */
+    public synchronized boolean ping() {
+        if (serverControl == null) {
+            return false;
+        }
+        try {
+            serverControl.ping();
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stops the server. Every client connection to it is closed.
+     */
+    public synchronized void shutdown() {
+        if (serverControl == null) {
+            return;
+        }
+        try {
+            serverControl.shutdown();
+            log.info("Derby Network Server on {}:{} stopped", host, port);
+        } catch (Exception e) {
+            log.warn("Error stopping the Derby Network Server: {}", e.getMessage());
+        }
+        serverControl = null;
+    }
+
+    public String getHost() { return host; }
+    public int getPort() { return port; }
+}
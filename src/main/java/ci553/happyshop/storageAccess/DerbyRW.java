@@ -1,26 +1,63 @@
 package ci553.happyshop.storageAccess;
 
 import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.Logger;
+import ci553.happyshop.utility.Money;
 
 import java.sql.*;
 import java.util.ArrayList;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /** ProductTable definition
  * "CREATE TABLE ProductTable(" +
  *         "productID CHAR(4) PRIMARY KEY," +
  *         "description VARCHAR(100)," +
- *         "unitPrice DOUBLE," +
+ *         "unitPricePence BIGINT NOT NULL," +  (the price in pence, eg 2999 for £29.99, see Money)
  *         "image VARCHAR(100)," +
  *         "inStock INT," +
  *         "CHECK (inStock >= 0)" +
  *           ")",
+ *
+ * Every change of inStock is also appended to the StockMovement ledger (see StockLedger),
+ * in the same transaction as the ProductTable update.
  */
 
 public class DerbyRW implements DatabaseRW {
-    private static String dbURL = DatabaseRWFactory.dbURL; // Shared by all instances
-    private  Lock lock = new ReentrantLock(); // Each instance has its own lock
+    private static final Logger log = Logger.getLogger(DerbyRW.class);
+
+    private final ConnectionPool pool; // Shared by all instances, owned by DatabaseRWFactory
+    // Process-wide product locks, shared by all instances so that writes from different clients are serialised
+    // per product, while checkouts of unrelated products run in parallel
+    private final ProductLockManager lockManager = ProductLockManager.getInstance();
+    // In-memory word index over product descriptions, shared by all instances and kept up to date by the writes below
+    private final ProductNameIndex nameIndex;
+    // Append-only history of stock changes, written in the same transaction as ProductTable; null if not in use
+    private final StockLedger ledger;
+
+    private static final int FETCH_CHUNK_SIZE = 500; // max product IDs per  WHERE productID IN (...)  query
+    // the IN list lengths used, a chunk is padded up to the next one, so only these 4 statements are ever cached
+    private static final int[] IN_LIST_SIZES = {8, 32, 128, FETCH_CHUNK_SIZE};
+
+    public DerbyRW(ConnectionPool pool, ProductNameIndex nameIndex, StockLedger ledger) {
+        this.pool = pool;
+        this.nameIndex = nameIndex;
+        this.ledger = ledger;
+    }
+
+    public DerbyRW(ConnectionPool pool, ProductNameIndex nameIndex) {
+        this(pool, nameIndex, null);
+    }
+
+    public DerbyRW() {
+        this(DatabaseRWFactory.getConnectionPool(), DatabaseRWFactory.getLocalNameIndex(), DatabaseRWFactory.getStockLedger());
+    }
 
     //search product by product Id or name, return a list of products or null
     //search by Id at first, if get null, search by product name
@@ -37,9 +74,9 @@ public class DerbyRW implements DatabaseRW {
             productList = searchByProName(keyword);
         }
 
-        // If still no products found, print a message
+        // If still no products found, log a message
         if (productList.isEmpty()) {
-            System.out.println("Product " + keyword + " not found.");
+            log.debug("Product {} not found.", keyword);
         }
         return productList;
     }
@@ -49,35 +86,232 @@ public class DerbyRW implements DatabaseRW {
         Product product = null;
         String query = "SELECT * FROM ProductTable WHERE productID = ?";
 
-        try (Connection conn = DriverManager.getConnection(dbURL);
-             PreparedStatement pstmt = conn.prepareStatement(query)) {
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement pstmt = pooled.prepareStatement(query); // cached, do not close
             // Set the productId parameter
             pstmt.setString(1, proId);
 
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()){
                     product= makeProObjFromDbRecord(rs);
-                    System.out.println("Product " + proId + " found.");
+                    log.debug("Product {} found.", proId);
                 }else{
-                    System.out.println("Product " + proId + " not found.");
+                    log.debug("Product {} not found.", proId);
                 }
 
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            log.error("Database query error, search by ID: " + proId, e);
         }
         return product;
     }
 
+    //one page of searchProduct, see DatabaseRW.searchProductPage
+    //the continuation token is the last product ID of the previous page
+    public ProductPage searchProductPage(String keyword, int pageSize, String continuationToken) throws SQLException {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        if (continuationToken == null) {
+            Product product = searchByProductId(keyword); // an exact ID wins, as in searchProduct
+            if (product != null) {
+                ArrayList<Product> productList = new ArrayList<>();
+                productList.add(product);
+                return new ProductPage(productList, null);
+            }
+        }
+
+        // ask for one extra match, it tells us whether there is another page
+        if (nameIndex != null && nameIndex.isLoaded()) {
+            List<String> productIds = nameIndex.searchPage(keyword, continuationToken, pageSize + 1);
+            boolean hasMore = productIds.size() > pageSize;
+            if (hasMore) {
+                productIds = productIds.subList(0, pageSize);
+            }
+            String nextToken = hasMore ? productIds.get(pageSize - 1) : null;
+            return new ProductPage(searchByProductIds(productIds), nextToken);
+        }
+        return searchByProNameScanPage(keyword, pageSize, continuationToken);
+    }
+
+    //streams the results of searchProduct, see DatabaseRW.streamProducts
+    public Stream<Product> streamProducts(String keyword) throws SQLException {
+        Product product = searchByProductId(keyword); // an exact ID wins, as in searchProduct
+        if (product != null) {
+            return Stream.of(product);
+        }
+
+        if (nameIndex != null && nameIndex.isLoaded()) {
+            // the IDs are known up front, the rows are read one chunk at a time as the stream is consumed
+            List<String> productIds = nameIndex.search(keyword);
+            int chunkCount = (productIds.size() + FETCH_CHUNK_SIZE - 1) / FETCH_CHUNK_SIZE;
+            return IntStream.range(0, chunkCount)
+                    .mapToObj(i -> productIds.subList(i * FETCH_CHUNK_SIZE,
+                            Math.min((i + 1) * FETCH_CHUNK_SIZE, productIds.size())))
+                    .flatMap(chunk -> {
+                        try {
+                            return searchByProductIds(chunk).stream();
+                        } catch (SQLException e) {
+                            throw new RuntimeException("Database query error, stream by name: " + keyword, e);
+                        }
+                    });
+        }
+
+        // no index: keep one query open and read its ResultSet as the stream is consumed
+        String query = "SELECT * FROM ProductTable WHERE LOWER(description) LIKE LOWER(?) ORDER BY productID";
+        PooledConnection pooled = pool.borrow();
+        try {
+            PreparedStatement stmt = pooled.prepareStatement(query); // cached, do not close
+            stmt.setString(1, "%" + keyword.toLowerCase() + "%");
+            ProductCursor cursor = new ProductCursor(pooled, stmt.executeQuery());
+            return StreamSupport.stream(cursor, false).onClose(cursor::close);
+        } catch (SQLException e) {
+            pooled.close();
+            throw e;
+        }
+    }
+
     //helper method
     //search  by product name, return a List of products or null
+    //the matching product IDs come from the in-memory ProductNameIndex, only those rows are read from the database
     private ArrayList<Product> searchByProName(String name) {
+        if (nameIndex == null || !nameIndex.isLoaded()) {
+            return searchByProNameScan(name); // no index available, fall back to scanning the table
+        }
         ArrayList<Product> productList = new ArrayList<>();
-        String query = "SELECT * FROM ProductTable WHERE LOWER(description) LIKE LOWER(?)";
+        try {
+            productList = searchByProductIds(nameIndex.search(name));
+            if (productList.isEmpty()) {
+                log.debug("Product {} not found.", name);
+            }
+        } catch (SQLException e) {
+            log.warn("Database query error, search by name: {} {}", name, e.getMessage());
+        }
+        return productList; // could be empty if no matches
+    }
+
+    //type-ahead search, see DatabaseRW.searchByPrefix
+    //the index picks the (at most limit) product IDs, only those rows are read from the database
+    public ArrayList<Product> searchByPrefix(String prefix, int limit) throws SQLException {
+        if (prefix == null || prefix.isBlank() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        if (nameIndex == null || !nameIndex.isLoaded()) {
+            return searchByPrefixScan(prefix.trim(), limit); // no index available, fall back to the table
+        }
+        return searchByProductIds(nameIndex.searchPrefix(prefix, limit));
+    }
+
+    //helper method
+    //type-ahead without the name index: ID prefix or description word prefix, straight from the table
+    private ArrayList<Product> searchByPrefixScan(String prefix, int limit) throws SQLException {
+        ArrayList<Product> productList = new ArrayList<>();
+        String query = "SELECT * FROM ProductTable WHERE productID LIKE ? " +
+                "OR LOWER(description) LIKE ? OR LOWER(description) LIKE ? " +
+                "ORDER BY productID FETCH FIRST ? ROWS ONLY";
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement stmt = pooled.prepareStatement(query); // cached, do not close
+            String lower = prefix.toLowerCase();
+            stmt.setString(1, prefix + "%");
+            stmt.setString(2, lower + "%");      // first word of the description
+            stmt.setString(3, "% " + lower + "%"); // any later word
+            stmt.setInt(4, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    productList.add(makeProObjFromDbRecord(rs));
+                }
+            }
+        }
+        return productList;
+    }
+
+    //helper method
+    //reads the given products by primary key, in chunks, keeping the order of the given IDs
+    private ArrayList<Product> searchByProductIds(List<String> productIds) throws SQLException {
+        ArrayList<Product> productList = new ArrayList<>();
+        if (productIds.isEmpty()) {
+            return productList;
+        }
+        HashMap<String, Product> productsById = new HashMap<>();
+        try (PooledConnection pooled = pool.borrow()) {
+            for (int from = 0; from < productIds.size(); from += FETCH_CHUNK_SIZE) {
+                List<String> chunk = productIds.subList(from, Math.min(from + FETCH_CHUNK_SIZE, productIds.size()));
+                // the IN list length decides the SQL text: it is padded to one of IN_LIST_SIZES with the
+                // chunk's last ID repeated, so a search for any number of products shares a few cached statements
+                // instead of pushing the single-product statements out of the connection's statement cache
+                int size = inListSize(chunk.size());
+                PreparedStatement stmt = pooled.prepareStatement(inListQuery(size)); // cached, do not close
+                for (int i = 0; i < size; i++) {
+                    stmt.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        Product product = makeProObjFromDbRecord(rs);
+                        productsById.put(product.getProductId(), product);
+                    }
+                }
+            }
+        }
+        for (String productId : productIds) {
+            Product product = productsById.get(productId);
+            if (product != null) { // may have been deleted after the index was read
+                productList.add(product);
+            }
+        }
+        return productList;
+    }
 
-        try (Connection conn = DriverManager.getConnection(dbURL);
-             PreparedStatement stmt = conn.prepareStatement(query)) {
+    // The smallest of IN_LIST_SIZES that holds count IDs (count is at most FETCH_CHUNK_SIZE)
+    private static int inListSize(int count) {
+        for (int size : IN_LIST_SIZES) {
+            if (count <= size) {
+                return size;
+            }
+        }
+        return FETCH_CHUNK_SIZE;
+    }
+
+    private static String inListQuery(int size) {
+        StringBuilder sql = new StringBuilder("SELECT * FROM ProductTable WHERE productID IN (");
+        for (int i = 0; i < size; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(")").toString();
+    }
+
+    //helper method
+    //one page of the name search with a table scan, used only when the name index is not available
+    private ProductPage searchByProNameScanPage(String name, int pageSize, String afterProductId) throws SQLException {
+        ArrayList<Product> productList = new ArrayList<>();
+        String query = "SELECT * FROM ProductTable WHERE LOWER(description) LIKE LOWER(?) AND productID > ? " +
+                "ORDER BY productID FETCH FIRST ? ROWS ONLY";
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement stmt = pooled.prepareStatement(query); // cached, do not close
+            stmt.setString(1, "%" + name.toLowerCase() + "%");
+            stmt.setString(2, afterProductId == null ? "" : afterProductId); // every ID is greater than ""
+            stmt.setInt(3, pageSize + 1); // one extra row tells us whether there is another page
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    productList.add(makeProObjFromDbRecord(rs));
+                }
+            }
+        }
+        String nextToken = null;
+        if (productList.size() > pageSize) {
+            productList.remove(pageSize);
+            nextToken = productList.get(pageSize - 1).getProductId();
+        }
+        return new ProductPage(productList, nextToken);
+    }
+
+    //helper method
+    //search by product name with a full table scan, used only when the name index is not available
+    private ArrayList<Product> searchByProNameScan(String name) {
+        ArrayList<Product> productList = new ArrayList<>();
+        String query = "SELECT * FROM ProductTable WHERE LOWER(description) LIKE LOWER(?)";
 
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement stmt = pooled.prepareStatement(query); // cached, do not close
             stmt.setString(1, "%" + name.toLowerCase() + "%");
 
             try (ResultSet rs = stmt.executeQuery()) {
@@ -86,12 +320,12 @@ public class DerbyRW implements DatabaseRW {
                 }
 
                 if (productList.isEmpty()) {
-                    System.out.println("Product " + name + " not found.");
+                    log.debug("Product {} not found.", name);
                 }
             }
 
         } catch (SQLException e) {
-            System.out.println("Database query error, search by name: " + name + " " + e.getMessage());
+            log.warn("Database query error, search by name: {} {}", name, e.getMessage());
         }
 
         return productList; // could be empty if no matches
@@ -103,191 +337,257 @@ public class DerbyRW implements DatabaseRW {
         String productId = rs.getString("productID");
         String description = rs.getString("description");
         String imagePath = rs.getString("image");
-        double unitPrice = rs.getDouble("unitPrice");
+        long unitPrice = rs.getLong("unitPricePence");
         int inStock = rs.getInt("inStock");
         product =new Product(productId,description,imagePath,unitPrice,inStock);
 
-        // Show product details
-        System.out.println("Product ID: " + productId);
-        System.out.println("Description: " + description);
-        System.out.println("Image: " + imagePath);
-        System.out.println("unitPrice: " + unitPrice);
-
-        // Check availability and display message
-        if(inStock <= 0){
-            System.out.println("Product " + productId+ " is NOT in stock");
-        }
-        else if(inStock < 10) {
-            System.out.println("Product " + productId+ "low stock warning!" + inStock + " units left.");
-        }
-        else {
-            System.out.println("Product " + productId+ " is available");
+        // Show product details, called for every row read so only at TRACE level
+        if (log.isTraceEnabled()) {
+            log.trace("Product ID: {}, Description: {}, Image: {}, unitPrice: {}",
+                    productId, description, imagePath, Money.format(unitPrice));
+
+            // Check availability and log message
+            if (inStock <= 0) {
+                log.trace("Product {} is NOT in stock", productId);
+            } else if (inStock < 10) {
+                log.trace("Product {} low stock warning! {} units left.", productId, inStock);
+            } else {
+                log.trace("Product {} is available", productId);
+            }
         }
-
-        System.out.println("-----"); // Divider for readability
         return product;
     }
 
-    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException {
-        lock.lock();  // Lock the critical section to prevent concurrent access
+    /**
+     * Set-based purchase: the stock check and the stock update are the same statement.
+     *
+     * Every trolley line becomes one conditional update in a single JDBC batch:
+     *     UPDATE ProductTable SET inStock = inStock - ? WHERE productID = ? AND inStock >= ?
+     * A line whose update count is 1 had enough stock and has already been reduced.
+     * A line whose update count is 0 either had too little stock or no longer exists.
+     *
+     * Only when some line fails, one extra query (WHERE productID IN (...)) reads those lines
+     * to tell the two cases apart. Missing products are skipped, as before; if any product
+     * has too little stock the whole transaction is rolled back and those products are returned.
+     * So a successful checkout costs one batch and one commit, whatever the trolley size
+     * (plus one batch of SALE movements for the stock ledger, in the same transaction).
+     */
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList, Integer orderId) throws SQLException {
         ArrayList<Product> insufficientProducts = new ArrayList<>();
+        if (proList.isEmpty()) {
+            return insufficientProducts;
+        }
+        ArrayList<String> productIds = new ArrayList<>();
+        for (Product product : proList) {
+            productIds.add(product.getProductId());
+        }
 
-        String checkSql = "SELECT inStock FROM ProductTable WHERE productId = ?";
-        String updateSql = "UPDATE ProductTable SET inStock = inStock - ? WHERE productId = ?";
+        String updateSql = "UPDATE ProductTable SET inStock = inStock - ? WHERE productID = ? AND inStock >= ?";
 
-        // Use try-with-resources for Connection and PreparedStatements
-        try (Connection conn = DriverManager.getConnection(dbURL)) {
+        // Lock only the products in this trolley (all of them, in a fixed order, before the transaction starts),
+        // then use try-with-resources for the pooled Connection
+        try (ProductLockManager.Held held = lockManager.lockProducts(productIds);
+             PooledConnection pooled = pool.borrow()) {
+            Connection conn = pooled.getConnection();
             conn.setAutoCommit(false); // Turn off auto-commit for transaction
 
-            // Use a second try-with-resources for the PreparedStatements
-            try (PreparedStatement checkStmt = conn.prepareStatement(checkSql);
-                 PreparedStatement updateStmt = conn.prepareStatement(updateSql)) {
-
-                boolean allSufficient = true; // Flag to track if all products have sufficient stock
-
+            // The statement comes from the connection's statement cache, so it is not closed here
+            PreparedStatement updateStmt = pooled.prepareStatement(updateSql);
+            try {
                 for (Product product : proList) {
-                    checkStmt.setString(1, product.getProductId());
-                    ResultSet rs = checkStmt.executeQuery();
+                    updateStmt.setInt(1, product.getOrderedQuantity());
+                    updateStmt.setString(2, product.getProductId());
+                    updateStmt.setInt(3, product.getOrderedQuantity()); // only update if stock stays >= 0
+                    updateStmt.addBatch();
+                }
+                int[] updateCounts = updateStmt.executeBatch();
 
-                    if (rs.next()) {
-                        int currentStock = rs.getInt("inStock");
-                        int newStock = currentStock - product.getOrderedQuantity();
-
-                        // Debugging: Print values before update
-                        System.out.println("Product ID: " + product.getProductId());
-                        System.out.println("Before change: " + currentStock);
-                        System.out.println("Quantity Ordered: " + product.getOrderedQuantity());
-
-                        if (newStock >= 0) { // Ensure stock doesn't go negative
-                            updateStmt.setInt(1, product.getOrderedQuantity());
-                            updateStmt.setString(2, product.getProductId());
-                            updateStmt.addBatch();
-
-                            // Debugging: Print values after update
-                            System.out.println("After change: " + newStock);
-                            System.out.println("Update successful for Product ID: " + product.getProductId());
-                        } else {
-                            insufficientProducts.add(product);
-                            allSufficient = false; // Mark that there's at least one insufficient product
-                            System.out.println("Not enough stock for Product ID: " + product.getProductId());
-                        }
-                        System.out.println("--------------------------------");
+                // collect the lines that were not updated
+                ArrayList<Product> notUpdated = new ArrayList<>();
+                for (int i = 0; i < updateCounts.length; i++) {
+                    if (updateCounts[i] == 0) {
+                        notUpdated.add(proList.get(i));
                     }
                 }
+                if (!notUpdated.isEmpty()) {
+                    insufficientProducts = findInsufficient(pooled, notUpdated);
+                }
 
-                if (allSufficient) {
-                    // If all products have sufficient stock, execute the batch and commit
-                    updateStmt.executeBatch();
-                    conn.commit();  // Commit all updates if all updates succeed
-                    System.out.println("Database update successful.");
+                if (insufficientProducts.isEmpty()) {
+                    if (ledger != null) {
+                        // the orderId is leased before the purchase, so every sale row names its order
+                        ArrayList<StockMovement> sales = new ArrayList<>();
+                        for (Product product : proList) {
+                            sales.add(new StockMovement(product.getProductId(), -product.getOrderedQuantity(),
+                                    StockMovement.Reason.SALE, orderId));
+                        }
+                        ledger.append(pooled, sales);
+                    }
+                    conn.commit();  // Commit all updates if all products have sufficient stock
+                    log.info("Database update successful, {} products purchased.", proList.size());
                 } else {
                     // If there's insufficient stock for any product, rollback the entire transaction
                     conn.rollback();
-                    System.out.println("Insufficient stock for some products, all updates rolled back.");
+                    for (Product product : insufficientProducts) {
+                        log.info("Not enough stock for Product ID: {}", product.getProductId());
+                    }
+                    log.info("Insufficient stock for some products, all updates rolled back.");
                 }
 
             } catch (SQLException e) {
+                updateStmt.clearBatch(); // the cached statement must not keep a half-built batch
                 conn.rollback();  // Rollback if anything failed inside
-                System.out.println("Database update error, update failed");
+                log.error("Database update error, update failed", e);
             }
-        } finally {
-            lock.unlock(); // Always release the lock after the operation
-        }
+        } // the product locks are always released here, after the connection has been given back
 
         return insufficientProducts;
     }
 
+    // helper method for purchaseStocks
+    // Reads the products whose conditional update did not apply, in one query,
+    // and returns those that exist but have less stock than ordered (missing products are ignored).
+    private ArrayList<Product> findInsufficient(PooledConnection pooled, ArrayList<Product> notUpdated) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT productID FROM ProductTable WHERE productID IN (");
+        for (int i = 0; i < notUpdated.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")");
+
+        HashSet<String> existingIds = new HashSet<>();
+        // a one-off statement, the IN list length varies so it is not worth caching
+        try (PreparedStatement stmt = pooled.getConnection().prepareStatement(sql.toString())) {
+            for (int i = 0; i < notUpdated.size(); i++) {
+                stmt.setString(i + 1, notUpdated.get(i).getProductId());
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    existingIds.add(rs.getString("productID"));
+                }
+            }
+        }
+
+        ArrayList<Product> insufficient = new ArrayList<>();
+        for (Product product : notUpdated) {
+            if (existingIds.contains(product.getProductId())) {
+                insufficient.add(product);
+            }
+        }
+        return insufficient;
+    }
+
 
     //warehouse edits an existing product
-    public void updateProduct(String id, String des, double price, String iName, int stock) throws SQLException {
-        lock.lock();
+    public void updateProduct(String id, String des, long pricePence, String iName, int stock) throws SQLException {
         String selectSql = "SELECT * FROM ProductTable WHERE productID = ?";
+        // FOR UPDATE WITH RS keeps an update lock on the row until the commit, see readForChange
+        String lockSql = "SELECT * FROM ProductTable WHERE productID = ? FOR UPDATE WITH RS";
         String updateSql = "UPDATE ProductTable SET " +
                 "description = ?, " +
-                "unitPrice = ?, " +
+                "unitPricePence = ?, " +
                 "image = ?, "+
                 "inStock = ? " +
                 "WHERE productID = ?";
 
-        try (Connection conn = DriverManager.getConnection(dbURL);
-             PreparedStatement selectStmt = conn.prepareStatement(selectSql);
-             PreparedStatement updateStmt = conn.prepareStatement(updateSql)) {
-
-            // Print Before Update
-            selectStmt.setString(1, id);
-            try (ResultSet rs = selectStmt.executeQuery()) {
-                if (rs.next()) {
-                    System.out.println("Before Update:");
-                    System.out.println("ID: " + rs.getString("productID"));
-                    System.out.println("Description: " + rs.getString("description"));
-                    System.out.println("Unit Price: " + rs.getDouble("unitPrice"));
-                    System.out.println("Stock: " + rs.getInt("inStock"));
-                    System.out.println("Image: " + rs.getString("image"));
-                } else {
-                    System.out.println("Product not found: " + id);
+        try (ProductLockManager.Held held = lockManager.lockProduct(id);
+             PooledConnection pooled = pool.borrow()) {
+            PreparedStatement updateStmt = pooled.prepareStatement(updateSql); // cached, do not close
+
+            // Read the old stock, the update and the stock movement (if the stock changed) in one transaction
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            try {
+                // Check the product exists, and log it before the update
+                Integer oldStock = readForChange(pooled, lockSql, id, "Before Update:");
+                if (oldStock == null) {
+                    conn.rollback();
+                    log.warn("Product not found: {}", id);
                     return; // Exit if product doesn't exist
                 }
+                updateStmt.setString(1, des);
+                updateStmt.setLong(2, pricePence);
+                updateStmt.setString(3, iName);
+                updateStmt.setInt(4, stock);
+                updateStmt.setString(5, id);
+                updateStmt.executeUpdate();
+                if (ledger != null) {
+                    ledger.append(pooled, new StockMovement(id, stock - oldStock, StockMovement.Reason.ADJUSTMENT, null));
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+            if (nameIndex != null) {
+                nameIndex.put(id, des); // the description may have changed
             }
 
-            // Perform Update
-            updateStmt.setString(1, des);
-            updateStmt.setDouble(2, price);
-            updateStmt.setString(3, iName);
-            updateStmt.setInt(4, stock);
-            updateStmt.setString(5, id);
-            updateStmt.executeUpdate();
-
-            // Print After Update
-            try (ResultSet rs = selectStmt.executeQuery()) {
-                if (rs.next()) {
-                    System.out.println("After Update:");
-                    System.out.println("ID: " + rs.getString("productID"));
-                    System.out.println("Description: " + rs.getString("description"));
-                    System.out.println("Unit Price: " + rs.getDouble("unitPrice"));
-                    System.out.println("Stock: " + rs.getInt("inStock"));
-                    System.out.println("image: " + rs.getString("image"));
+            // Log After Update, the row is only read again if DEBUG is on
+            if (log.isDebugEnabled()) {
+                PreparedStatement selectStmt = pooled.prepareStatement(selectSql);
+                selectStmt.setString(1, id);
+                try (ResultSet rs = selectStmt.executeQuery()) {
+                    if (rs.next()) {
+                        logRecord("After Update:", rs);
+                    }
                 }
             }
         }
-        finally {
-            lock.unlock(); // Always release the lock after the operation
-        }
     }
 
 //warehouse delete an existing product
     public void deleteProduct(String proId) throws SQLException {
-        lock.lock();
-        String selectSql = "SELECT * FROM ProductTable WHERE productID = ?";
+        String lockSql = "SELECT * FROM ProductTable WHERE productID = ? FOR UPDATE WITH RS";
         String deleteSql = "DELETE FROM ProductTable WHERE productID = ?";
 
-        try (Connection conn = DriverManager.getConnection(dbURL);
-             PreparedStatement selectStmt = conn.prepareStatement(selectSql);
-             PreparedStatement deleteStmt = conn.prepareStatement(deleteSql)) {
-            conn.setAutoCommit(true); // Set auto-commit to true immediately
-
-            // print product details before deletion
-            selectStmt.setString(1, proId);
-            try (ResultSet rs = selectStmt.executeQuery()) {
-                if (rs.next()) {
-                    System.out.println("Before delete:");
-                    System.out.println("ID: " + rs.getString("productID"));
-                    System.out.println("Description: " + rs.getString("description"));
-                    System.out.println("Unit Price: " + rs.getDouble("unitPrice"));
-                    System.out.println("Stock: " + rs.getInt("inStock"));
-                } else {
-                    System.out.println("Product not found: " + proId);
+        try (ProductLockManager.Held held = lockManager.lockProduct(proId);
+             PooledConnection pooled = pool.borrow()) {
+            PreparedStatement deleteStmt = pooled.prepareStatement(deleteSql); // cached, do not close
+
+            // delete from database, its remaining stock (read in the same transaction) leaves the ledger with it
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            try {
+                // check the product exists, and log its details before deletion
+                Integer oldStock = readForChange(pooled, lockSql, proId, "Before delete:");
+                if (oldStock == null) {
+                    conn.rollback();
+                    log.warn("Product not found: {}", proId);
                     return; // Exit if product does not exist
                 }
+                deleteStmt.setString(1, proId);
+                deleteStmt.executeUpdate();
+                if (ledger != null) {
+                    ledger.append(pooled, new StockMovement(proId, -oldStock, StockMovement.Reason.REMOVED, null));
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
             }
-
-            // delete from database
-            deleteStmt.setString(1, proId);
-            deleteStmt.executeUpdate();
-            System.out.println("Product " + proId + " deleted from database.");
+            if (nameIndex != null) {
+                nameIndex.remove(proId);
+            }
+            log.info("Product {} deleted from database.", proId);
         }
+    }
 
-        finally {
-            lock.unlock(); // Always release the lock after the operation
+    /**
+     * Reads and logs a product's row inside the caller's transaction, and returns its stock (null if there is no such product).
+     * The ProductLockManager lock only keeps out other threads of this process. Another shop process on the same
+     * Derby Network Server can still buy the product, so the row is read with an update lock (FOR UPDATE WITH RS),
+     * which Derby holds until the commit: the stock can not change between this read and the caller's write,
+     * and the movement written from it matches what really happened.
+     */
+    private Integer readForChange(PooledConnection pooled, String lockSql, String proId, String logLabel) throws SQLException {
+        PreparedStatement lockStmt = pooled.prepareStatement(lockSql); // cached, do not close
+        lockStmt.setString(1, proId);
+        try (ResultSet rs = lockStmt.executeQuery()) {
+            if (!rs.next()) {
+                return null;
+            }
+            logRecord(logLabel, rs);
+            return rs.getInt("inStock");
         }
     }
 
@@ -296,10 +596,10 @@ public class DerbyRW implements DatabaseRW {
     public boolean isProIdAvailable(String proId) throws SQLException {
         String query = "SELECT COUNT(*) FROM ProductTable WHERE productID = ?";
                              //the count of records that match the given proId.
-        try (Connection conn = DriverManager.getConnection(dbURL);
-             PreparedStatement stmt = conn.prepareStatement(query)) {
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement stmt = pooled.prepareStatement(query); // cached, do not close
             stmt.setString(1, proId);
-            ResultSet rs = stmt.executeQuery();
+            try (ResultSet rs = stmt.executeQuery()) {
             // the rs is the COUNT(*) result (a single number): how many records that match the given proId.
             // If count > 0, the ID is already in the database, so it's not available, return false
             // If count = 0, the ID is available, return true
@@ -308,39 +608,105 @@ public class DerbyRW implements DatabaseRW {
                 if (count == 0) return true;
                 else return false;
             }
+            }
             return false; // Default case (should not happen)
         }
     }
 
     //   /images/0001TV.jpg
     //warehouse adds a new product to database
-    public void insertNewProduct(String id, String des,double price,String image,int stock) throws SQLException {
-        lock.lock();
-        String insertSql = "INSERT INTO ProductTable VALUES(?, ?, ?, ?, ?)";
+    public void insertNewProduct(String id, String des,long pricePence,String image,int stock) throws SQLException {
+        String insertSql = "INSERT INTO ProductTable(productID, description, unitPricePence, image, inStock) VALUES(?, ?, ?, ?, ?)";
         String selectSql = "SELECT * FROM ProductTable WHERE productID = ?";
-        try (Connection conn = DriverManager.getConnection(dbURL);
-        PreparedStatement insertStmt = conn.prepareStatement(insertSql);
-        PreparedStatement selectStmt = conn.prepareStatement(selectSql)) {
-            conn.setAutoCommit(true); // Set auto-commit to true immediately
+        try (ProductLockManager.Held held = lockManager.lockProduct(id);
+             PooledConnection pooled = pool.borrow()) {
+            PreparedStatement insertStmt = pooled.prepareStatement(insertSql); // cached, do not close
+            PreparedStatement selectStmt = pooled.prepareStatement(selectSql);
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false); // the product and its initial stock movement are committed together
             insertStmt.setString(1, id);
             insertStmt.setString(2, des);
-            insertStmt.setDouble(3, price);
+            insertStmt.setLong(3, pricePence);
             insertStmt.setString(4, image);
             insertStmt.setInt(5, stock);
             selectStmt.setString(1, id);
-            insertStmt.executeUpdate();
-            ResultSet rs = selectStmt.executeQuery();
-            if (rs.next()) { //print the inserted record
-                System.out.println("Insert successful for Product ID: \" + id");
-                System.out.println("ID: " + rs.getString("productID"));
-                System.out.println("Description: " + rs.getString("description"));
-                System.out.println("Unit Price: " + rs.getDouble("unitPrice"));
-                System.out.println("Stock: " + rs.getInt("inStock"));
+            try {
+                insertStmt.executeUpdate();
+                if (ledger != null) {
+                    ledger.append(pooled, new StockMovement(id, stock, StockMovement.Reason.INITIAL, null));
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+            if (nameIndex != null) {
+                nameIndex.put(id, des);
+            }
+            log.info("Insert successful for Product ID: {}", id);
+            if (log.isDebugEnabled()) {
+                try (ResultSet rs = selectStmt.executeQuery()) {
+                    if (rs.next()) { //log the inserted record
+                        logRecord("Inserted:", rs);
+                    }
+                }
             }
         }
-        finally {
-            lock.unlock(); // Always release the lock after the operation
+    }
+
+    //logs a ProductTable row at DEBUG level, eg before and after an update
+    private void logRecord(String heading, ResultSet rs) throws SQLException {
+        if (log.isDebugEnabled()) {
+            log.debug("{} ID: {}, Description: {}, Unit Price: {}, Stock: {}, Image: {}",
+                    heading, rs.getString("productID"), rs.getString("description"),
+                    Money.format(rs.getLong("unitPricePence")), rs.getInt("inStock"), rs.getString("image"));
         }
     }
 
+    /**
+     * Reads products from an open ResultSet one row at a time, for streamProducts.
+     * The ResultSet is closed and the connection returned to the pool when the last row has been read,
+     * or when the stream is closed, whichever happens first.
+     */
+    private class ProductCursor extends Spliterators.AbstractSpliterator<Product> {
+        private final PooledConnection pooled;
+        private final ResultSet rs;
+        private boolean closed = false;
+
+        private ProductCursor(PooledConnection pooled, ResultSet rs) {
+            super(Long.MAX_VALUE, ORDERED | NONNULL);
+            this.pooled = pooled;
+            this.rs = rs;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Product> action) {
+            if (closed) {
+                return false;
+            }
+            try {
+                if (rs.next()) {
+                    action.accept(makeProObjFromDbRecord(rs));
+                    return true;
+                }
+            } catch (SQLException e) {
+                close();
+                throw new RuntimeException("Database query error, stream by name: " + e.getMessage(), e);
+            }
+            close(); // no more rows
+            return false;
+        }
+
+        private void close() {
+            if (!closed) {
+                closed = true;
+                try {
+                    rs.close();
+                } catch (SQLException e) {
+                    log.warn("Error closing streamed ResultSet: {}", e.getMessage());
+                }
+                pooled.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,152 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.orderManagement.OrderState;
+import ci553.happyshop.utility.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * FileOrderStore keeps every order in its own text file (eg 12.txt), in the folder of its state:
+ *     orders/ordered      orders in the Ordered state
+ *     orders/progressing  orders in the Progressing state
+ *     orders/collected    orders in the Collected state
+ * A state change updates the state and time in the file (in place, in its fixed-width header) and moves
+ * it to the next folder (see OrderFileManager).
+ *
+ * This is the original order layout. OrderHub now uses the OrderJournal, which imports these files
+ * when it is opened and moves them to orders/imported; FileOrderStore is still used for that,
+ * and when OrderHub is set to -Dhappyshop.orders.store=files.
+ */
+
+public class FileOrderStore implements OrderStore {
+    private static final Logger log = Logger.getLogger(FileOrderStore.class);
+
+    private final Path orderedPath;
+    private final Path progressingPath;
+    private final Path collectedPath;
+    private final Path importedPath; // orders/imported, next to the state folders
+
+    public FileOrderStore(Path orderedPath, Path progressingPath, Path collectedPath) {
+        this.orderedPath = orderedPath;
+        this.progressingPath = progressingPath;
+        this.collectedPath = collectedPath;
+        this.importedPath = orderedPath.resolveSibling("imported");
+    }
+
+    @Override
+    public void createOrder(int orderId, String orderDetail) throws IOException {
+        OrderFileManager.createOrderFile(orderedPath, orderId, orderDetail);
+    }
+
+    // Ordered -> Progressing moves the file from ordered to progressing, Progressing -> Collected from progressing to collected.
+    @Override
+    public boolean changeState(int orderId, OrderState newState) throws IOException {
+        switch (newState) {
+            case Progressing:
+                return OrderFileManager.updateAndMoveOrderFile(orderId, newState, orderedPath, progressingPath);
+            case Collected:
+                return OrderFileManager.updateAndMoveOrderFile(orderId, newState, progressingPath, collectedPath);
+            default:
+                return false; // an order never goes back to Ordered, no file move needed
+        }
+    }
+
+    @Override
+    public String readOrder(int orderId) throws IOException {
+        Path dir = folderOf(orderId);
+        if (dir == null) {
+            throw new IOException("Order file not found: " + orderId);
+        }
+        return OrderFileManager.readOrderFile(dir, orderId);
+    }
+
+    @Override
+    public TreeMap<Integer, OrderState> loadOpenOrders() {
+        TreeMap<Integer, OrderState> orders = new TreeMap<>();
+        for (int orderId : listOrderIds(orderedPath)) {
+            orders.put(orderId, OrderState.Ordered);
+        }
+        for (int orderId : listOrderIds(progressingPath)) {
+            orders.put(orderId, OrderState.Progressing);
+        }
+        return orders;
+    }
+
+    // The IDs of the orders in the given state, eg to import them into the OrderJournal
+    public List<Integer> listOrderIds(OrderState state) {
+        return listOrderIds(folderFor(state));
+    }
+
+    /**
+     * Moves the order's file from the folder of its state to the same folder under orders/imported
+     * (eg orders/collected/12.txt to orders/imported/collected/12.txt), once the OrderJournal has a copy of it.
+     * A file that can not be moved is left where it is, it is skipped again the next time.
+     */
+    public void moveToImported(int orderId, OrderState state) {
+        Path dir = folderFor(state);
+        Path target = importedPath.resolve(dir.getFileName());
+        try {
+            Files.createDirectories(target);
+            Files.move(dir.resolve(orderId + ".txt"), target.resolve(orderId + ".txt"),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.warn("Could not move the imported order file {}: {}", orderId, e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        // nothing is kept open
+    }
+
+    private Path folderFor(OrderState state) {
+        return switch (state) {
+            case Ordered -> orderedPath;
+            case Progressing -> progressingPath;
+            case Collected -> collectedPath;
+        };
+    }
+
+    // the folder the order's file is in now, null if there is no such order
+    private Path folderOf(int orderId) {
+        for (OrderState state : OrderState.values()) {
+            Path dir = folderFor(state);
+            if (Files.exists(dir.resolve(orderId + ".txt"))) {
+                return dir;
+            }
+        }
+        return null;
+    }
+
+    // Loads the order IDs from the file names (eg 12.txt) in the given folder.
+    private static ArrayList<Integer> listOrderIds(Path dir) {
+        ArrayList<Integer> orderIds = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            log.warn("{} does not exist.", dir);
+            return orderIds;
+        }
+        try (Stream<Path> fileStream = Files.list(dir)) {
+            List<Path> files = fileStream.filter(Files::isRegularFile).toList();
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                if (fileName.endsWith(".txt")) { // Ensure it's a .txt file
+                    try {
+                        orderIds.add(Integer.parseInt(fileName.substring(0, fileName.lastIndexOf('.'))));
+                    } catch (NumberFormatException e) {
+                        log.warn("Invalid file name: {}", fileName);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error reading {}, {}", dir, e.getMessage());
+        }
+        return orderIds;
+    }
+}
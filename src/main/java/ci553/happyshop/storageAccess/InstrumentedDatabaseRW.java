@@ -0,0 +1,123 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.storageAccess.DatabaseRWMetrics.Operation;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+
+/**
+ * InstrumentedDatabaseRW measures every call to another DatabaseRW (the Decorator pattern)
+ * and records it in a DatabaseRWMetrics: how long it took, whether it threw an exception,
+ * and how many products it returned.
+ *
+ * It does not change what the wrapped DatabaseRW does, every call and exception is passed straight through.
+ * Measuring costs two System.nanoTime() calls and a few counter increments, well under a microsecond.
+ *
+ * DatabaseRWFactory puts it in front of whatever createDatabaseRW() returns (the catalogue cache,
+ * DerbyRW or LogStructuredRW), so the times are what the customer and warehouse models actually wait for.
+ * All instances share the factory's one DatabaseRWMetrics.
+ */
+
+public class InstrumentedDatabaseRW implements DatabaseRW {
+    private final DatabaseRW delegate;
+    private final DatabaseRWMetrics metrics;
+
+    /**
+     * @param delegate the DatabaseRW that does the work, eg DerbyRW
+     * @param metrics  where the measurements are recorded
+     */
+    public InstrumentedDatabaseRW(DatabaseRW delegate, DatabaseRWMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public ArrayList<Product> searchProduct(String keyword) throws SQLException {
+        return measure(Operation.SEARCH_PRODUCT, () -> delegate.searchProduct(keyword), ArrayList::size);
+    }
+
+    @Override
+    public ProductPage searchProductPage(String keyword, int pageSize, String continuationToken) throws SQLException {
+        return measure(Operation.SEARCH_PRODUCT_PAGE,
+                () -> delegate.searchProductPage(keyword, pageSize, continuationToken),
+                page -> page.getProducts().size());
+    }
+
+    // Only opening the stream is timed, the caller decides how much of it to read and when
+    @Override
+    public Stream<Product> streamProducts(String keyword) throws SQLException {
+        return measure(Operation.STREAM_PRODUCTS, () -> delegate.streamProducts(keyword), stream -> 0);
+    }
+
+    @Override
+    public Product searchByProductId(String productId) throws SQLException {
+        return measure(Operation.SEARCH_BY_PRODUCT_ID, () -> delegate.searchByProductId(productId),
+                product -> product == null ? 0 : 1);
+    }
+
+    @Override
+    public ArrayList<Product> searchByPrefix(String prefix, int limit) throws SQLException {
+        return measure(Operation.SEARCH_BY_PREFIX, () -> delegate.searchByPrefix(prefix, limit), ArrayList::size);
+    }
+
+    // The rows of a checkout are the products that were short of stock, 0 for a successful one
+    @Override
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList, Integer orderId) throws SQLException {
+        return measure(Operation.PURCHASE_STOCKS, () -> delegate.purchaseStocks(proList, orderId), ArrayList::size);
+    }
+
+    @Override
+    public void updateProduct(String id, String des, long pricePence, String imageName, int stock) throws SQLException {
+        measure(Operation.UPDATE_PRODUCT, () -> {
+            delegate.updateProduct(id, des, pricePence, imageName, stock);
+            return null;
+        }, none -> 0);
+    }
+
+    @Override
+    public void deleteProduct(String id) throws SQLException {
+        measure(Operation.DELETE_PRODUCT, () -> {
+            delegate.deleteProduct(id);
+            return null;
+        }, none -> 0);
+    }
+
+    @Override
+    public void insertNewProduct(String id, String des, long pricePence, String image, int stock) throws SQLException {
+        measure(Operation.INSERT_NEW_PRODUCT, () -> {
+            delegate.insertNewProduct(id, des, pricePence, image, stock);
+            return null;
+        }, none -> 0);
+    }
+
+    @Override
+    public boolean isProIdAvailable(String productId) throws SQLException {
+        return measure(Operation.IS_PRO_ID_AVAILABLE, () -> delegate.isProIdAvailable(productId), available -> 0);
+    }
+
+    public DatabaseRWMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Runs the call and records its time, its rows (from the result) or that it failed.
+    private <T> T measure(Operation operation, DatabaseCall<T> call, ToIntFunction<T> rows) throws SQLException {
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = call.run();
+        } catch (SQLException | RuntimeException | Error e) {
+            metrics.record(operation, System.nanoTime() - start, 0, true);
+            throw e;
+        }
+        metrics.record(operation, System.nanoTime() - start, rows.applyAsInt(result), false);
+        return result;
+    }
+
+    // A call on the wrapped DatabaseRW, returning null for the void methods.
+    private interface DatabaseCall<T> {
+        T run() throws SQLException;
+    }
+}
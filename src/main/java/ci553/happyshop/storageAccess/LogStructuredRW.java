@@ -0,0 +1,897 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.Logger;
+import ci553.happyshop.utility.Money;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * LogStructuredRW is a DatabaseRW that keeps the catalogue in an append-only log file instead of Derby.
+ * It is meant for the busiest tills: a search or a checkout never goes through JDBC or SQL.
+ *
+ * How it works:
+ * - Every change (insert, update, delete, purchase) is appended to the end of the log as one record,
+ *   nothing in the file is ever overwritten. The file is memory-mapped in 4MB chunks,
+ *   so appending a record is a memory copy.
+ * - An in-memory hash index maps each productID to the position of its latest version in the log.
+ *   Reading a product is one HashMap lookup plus decoding the record from the mapped file.
+ * - Name and type-ahead searches use a ProductNameIndex, like DerbyRW.
+ *
+ * Record layout:
+ *     int length | int CRC32C of the payload | payload
+ *     payload = int entryCount, then per entry:
+ *               byte PUT,    id, description, image, long price (pence), int stock
+ *               byte DELETE, id
+ *     (strings are written as an unsigned short byte count followed by the UTF-8 bytes)
+ * A length of 0 marks the end of the log, -1 means "the rest of this chunk is unused"
+ * (a record never spans two chunks).
+ * Version 1 files stored the price as a double (pounds); they are still read, and are rewritten
+ * as version 2 (a compaction) as soon as they are opened.
+ *
+ * All-or-nothing purchases:
+ * purchaseStocks checks every product first and then writes ALL the new stock levels as ONE record.
+ * A record is either replayed completely or (if its CRC does not match) not at all,
+ * so a crash can never leave half a checkout in the catalogue.
+ *
+ * Crash recovery:
+ * When the store is opened, the log is replayed from the start to rebuild the index.
+ * Replay stops at the first record that is incomplete or fails its CRC check (a write cut off by a crash);
+ * that record and anything after it is discarded and overwritten by the next append.
+ * Records are in the operating system's page cache as soon as they are written, so they survive
+ * the application crashing; with forceWrites they are also flushed to disk, so they survive a power cut.
+ *
+ * Compaction:
+ * Every update leaves the old version of the product behind in the log. Once these old versions
+ * outnumber the live products (and there are at least 10,000 of them), the live products are written
+ * to a new log file (the next "generation", eg products-00000002.log) and the old file is deleted.
+ * The new file is only used once it is complete and marked ready in its header,
+ * so a crash during compaction leaves the old file in use.
+ *
+ * Only one LogStructuredRW may use a log folder at a time: it holds a lock on products.lock in the folder
+ * while it is open, so a second one (in this or another process) fails instead of appending to the same file.
+ * DatabaseRWFactory shares one instance.
+ */
+
+public class LogStructuredRW implements DatabaseRW {
+    private static final Logger log = Logger.getLogger(LogStructuredRW.class);
+
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024; // the file is mapped (and grows) in chunks of this size
+    private static final int FILE_MAGIC = 0x48534C47;       // "HSLG", marks a HappyShop log file
+    private static final int FILE_VERSION = 2;               // 2: prices in pence (long), 1: prices in pounds (double)
+    private static final int FIRST_FILE_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 24;         // magic, version, generation (long), ready flag, spare
+    private static final int READY_FLAG_OFFSET = 16;
+    private static final int RECORD_HEADER_SIZE = 8;        // length and CRC
+    private static final int END_OF_LOG = 0;
+    private static final int CHUNK_PADDING = -1;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int COMPACT_MIN_GARBAGE = 10_000;  // old versions in the log before compaction is considered
+    private static final int COMPACT_ENTRIES_PER_RECORD = 1000;
+
+    private final Path folder;
+    private final boolean forceWrites;
+    private final FileChannel lockChannel;
+    private final FileLock folderLock;
+
+    private LogFile logFile;                                       // the current generation
+    private final HashMap<String, Long> index = new HashMap<>();   // productID -> position of its latest PUT entry
+    private final ProductNameIndex nameIndex = new ProductNameIndex();
+    private long garbageEntries = 0;                               // old versions and delete markers in the log
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(CHUNK_SIZE / 4); // builds one record, writers only
+    private final CRC32C crc = new CRC32C();                                 // writers and replay only
+
+    /**
+     * Opens the log in the given folder (creating it if needed) and replays it.
+     *
+     * @param folder      where the log files are kept, eg StorageLocation.productLogPath
+     * @param forceWrites true to flush every write to disk before returning (slower, survives a power cut)
+     * @throws IOException if the folder can not be used, or another LogStructuredRW has the log open
+     */
+    public LogStructuredRW(Path folder, boolean forceWrites) throws IOException {
+        this.folder = folder;
+        this.forceWrites = forceWrites;
+        Files.createDirectories(folder);
+        lockChannel = FileChannel.open(folder.resolve("products.lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; // already open in this process
+        }
+        folderLock = lock;
+        if (folderLock == null) {
+            lockChannel.close();
+            throw new IOException("The product log " + folder + " is already in use");
+        }
+        try {
+            open();
+        } catch (IOException | RuntimeException e) {
+            releaseLock();
+            throw e;
+        }
+    }
+
+    //search product by product Id or name, the same rules as DerbyRW.searchProduct
+    public ArrayList<Product> searchProduct(String keyword) {
+        ArrayList<Product> productList = new ArrayList<>();
+        Product product = searchByProductId(keyword);
+        if (product != null) {
+            productList.add(product);
+        } else {
+            productList = readProducts(nameIndex.search(keyword));
+        }
+        if (productList.isEmpty()) {
+            log.debug("Product {} not found.", keyword);
+        }
+        return productList;
+    }
+
+    //one page of searchProduct, the continuation token is the last product ID of the previous page
+    public ProductPage searchProductPage(String keyword, int pageSize, String continuationToken) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive: " + pageSize);
+        }
+        if (continuationToken == null) {
+            Product product = searchByProductId(keyword); // an exact ID wins, as in searchProduct
+            if (product != null) {
+                ArrayList<Product> productList = new ArrayList<>();
+                productList.add(product);
+                return new ProductPage(productList, null);
+            }
+        }
+        // ask for one extra match, it tells us whether there is another page
+        List<String> productIds = nameIndex.searchPage(keyword, continuationToken, pageSize + 1);
+        boolean hasMore = productIds.size() > pageSize;
+        if (hasMore) {
+            productIds = productIds.subList(0, pageSize);
+        }
+        String nextToken = hasMore ? productIds.get(pageSize - 1) : null;
+        return new ProductPage(readProducts(productIds), nextToken);
+    }
+
+    //streams the results of searchProduct, products are decoded as the stream is consumed
+    public Stream<Product> streamProducts(String keyword) {
+        Product product = searchByProductId(keyword);
+        if (product != null) {
+            return Stream.of(product);
+        }
+        return nameIndex.search(keyword).stream()
+                .map(this::searchByProductId)
+                .filter(p -> p != null); // deleted since the search
+    }
+
+    //search by product Id, return a product or null
+    public Product searchByProductId(String productId) {
+        rwLock.readLock().lock();
+        try {
+            Long position = index.get(productId);
+            return position == null ? null : logFile.readProduct(position);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    //type-ahead search, see DatabaseRW.searchByPrefix
+    public ArrayList<Product> searchByPrefix(String prefix, int limit) {
+        if (prefix == null || prefix.isBlank() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        return readProducts(nameIndex.searchPrefix(prefix, limit));
+    }
+
+    /**
+     * Checks every product of the trolley and, only if all of them have enough stock,
+     * writes all the new stock levels as one record. See DatabaseRW.purchaseStocks.
+     * As in DerbyRW, products that do not exist (any more) are ignored.
+     * The log keeps no stock ledger, so the orderId is not stored.
+     */
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList, Integer orderId) throws SQLException {
+        ArrayList<Product> insufficientProducts = new ArrayList<>();
+        if (proList.isEmpty()) {
+            return insufficientProducts;
+        }
+        // the same product may be in the trolley more than once, check the total
+        LinkedHashMap<String, Integer> totals = new LinkedHashMap<>();
+        for (Product product : proList) {
+            totals.merge(product.getProductId(), product.getOrderedQuantity(), Integer::sum);
+        }
+
+        rwLock.writeLock().lock();
+        try {
+            ArrayList<Product> updated = new ArrayList<>();
+            for (Map.Entry<String, Integer> total : totals.entrySet()) {
+                Long position = index.get(total.getKey());
+                if (position == null) {
+                    continue; // not in the catalogue
+                }
+                Product current = logFile.readProduct(position);
+                int newStock = current.getStockQuantity() - total.getValue();
+                if (newStock < 0) {
+                    for (Product product : proList) {
+                        if (product.getProductId().equals(total.getKey())) {
+                            insufficientProducts.add(product);
+                        }
+                    }
+                } else {
+                    updated.add(new Product(current.getProductId(), current.getProductDescription(),
+                            current.getProductImageName(), current.getUnitPricePence(), newStock));
+                }
+            }
+
+            if (insufficientProducts.isEmpty()) {
+                appendPuts(updated, false); // one record: all or nothing
+                log.info("Log update successful, {} products purchased.", updated.size());
+            } else {
+                log.info("Insufficient stock for some products, nothing was updated.");
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+        return insufficientProducts;
+    }
+
+    //warehouse edits an existing product
+    public void updateProduct(String id, String des, long pricePence, String imageName, int stock) throws SQLException {
+        rwLock.writeLock().lock();
+        try {
+            if (!index.containsKey(id)) {
+                log.warn("Product not found: {}", id);
+                return;
+            }
+            appendPuts(List.of(new Product(id, des, imageName, pricePence, stock)), true);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    //warehouse deletes an existing product
+    public void deleteProduct(String id) throws SQLException {
+        rwLock.writeLock().lock();
+        try {
+            if (!index.containsKey(id)) {
+                log.warn("Product not found: {}", id);
+                return;
+            }
+            recordBuffer.clear();
+            recordBuffer.position(RECORD_HEADER_SIZE);
+            recordBuffer.putInt(1);
+            recordBuffer.put(DELETE);
+            putString(id);
+            appendRecord();
+
+            index.remove(id);
+            nameIndex.remove(id);
+            garbageEntries += 2; // the old version and the delete marker itself
+            log.info("Product {} deleted from log.", id);
+            compactIfNeeded();
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    //warehouse adds a new product, the ID must not be in use
+    public void insertNewProduct(String id, String des, long pricePence, String image, int stock) throws SQLException {
+        rwLock.writeLock().lock();
+        try {
+            if (index.containsKey(id)) {
+                throw new SQLException("Product ID " + id + " is already in use");
+            }
+            appendPuts(List.of(new Product(id, des, image, pricePence, stock)), true);
+            log.info("Insert successful for Product ID: {}", id);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    public boolean isProIdAvailable(String productId) {
+        rwLock.readLock().lock();
+        try {
+            return !index.containsKey(productId);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies every product of the Derby ProductTable into this (empty) store,
+     * used by DatabaseRWFactory the first time the log store is selected.
+     *
+     * @return the number of products copied
+     */
+    public int importFrom(ConnectionPool pool) throws SQLException {
+        ArrayList<Product> products = new ArrayList<>();
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement stmt = pooled.prepareStatement("SELECT * FROM ProductTable"); // cached, do not close
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    products.add(new Product(rs.getString("productID"), rs.getString("description"),
+                            rs.getString("image"), rs.getLong("unitPricePence"), rs.getInt("inStock")));
+                }
+            }
+        }
+        rwLock.writeLock().lock();
+        try {
+            for (int from = 0; from < products.size(); from += COMPACT_ENTRIES_PER_RECORD) {
+                appendPuts(products.subList(from, Math.min(from + COMPACT_ENTRIES_PER_RECORD, products.size())), true);
+            }
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+        log.info("{} products imported into the product log from the database", products.size());
+        return products.size();
+    }
+
+    // the number of products in the store
+    public int size() {
+        rwLock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the live products to a new log file and deletes the old one. Normally started
+     * automatically once the log holds more old versions than live products.
+     */
+    public void compact() throws SQLException {
+        rwLock.writeLock().lock();
+        try {
+            compactLocked();
+        } catch (IOException e) {
+            throw new SQLException("Compaction of the product log failed", e);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    // Flushes the log to disk and closes it, eg when the application shuts down.
+    public void close() {
+        rwLock.writeLock().lock();
+        try {
+            logFile.force();
+            logFile.close();
+            releaseLock();
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    private void releaseLock() {
+        try {
+            if (folderLock.isValid()) {
+                folderLock.release();
+            }
+            lockChannel.close();
+        } catch (IOException e) {
+            log.warn("Error closing the product log lock: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        rwLock.readLock().lock();
+        try {
+            return String.format("LogStructuredRW[%s, products: %d, old versions: %d, log size: %dKB]",
+                    logFile.path.getFileName(), index.size(), garbageEntries, logFile.writePosition / 1024);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // reading
+
+    //looks the given IDs up, keeping their order (deleted products are skipped)
+    private ArrayList<Product> readProducts(List<String> productIds) {
+        ArrayList<Product> productList = new ArrayList<>(productIds.size());
+        rwLock.readLock().lock();
+        try {
+            for (String id : productIds) {
+                Long position = index.get(id);
+                if (position != null) {
+                    productList.add(logFile.readProduct(position));
+                }
+            }
+        } finally {
+            rwLock.readLock().unlock();
+        }
+        return productList;
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // writing, all called with the write lock held
+
+    // Appends the given products (full new versions) as one record and points the index at them.
+    // newDescriptions: false if only the stock changed, then the name index is left as it is
+    private void appendPuts(List<Product> products, boolean newDescriptions) throws SQLException {
+        if (products.isEmpty()) {
+            return;
+        }
+        recordBuffer.clear();
+        recordBuffer.position(RECORD_HEADER_SIZE);
+        recordBuffer.putInt(products.size());
+        int[] entryOffsets = new int[products.size()];
+        for (int i = 0; i < products.size(); i++) {
+            entryOffsets[i] = recordBuffer.position();
+            encodePut(products.get(i));
+        }
+        long recordPosition = appendRecord();
+
+        for (int i = 0; i < products.size(); i++) {
+            Product product = products.get(i);
+            if (index.put(product.getProductId(), recordPosition + entryOffsets[i]) != null) {
+                garbageEntries++; // the previous version is now an old version
+            }
+            if (newDescriptions) {
+                nameIndex.put(product.getProductId(), product.getProductDescription());
+            }
+        }
+        compactIfNeeded();
+    }
+
+    private void encodePut(Product product) throws SQLException {
+        try {
+            recordBuffer.put(PUT);
+            putString(product.getProductId());
+            putString(product.getProductDescription());
+            putString(product.getProductImageName());
+            recordBuffer.putLong(product.getUnitPricePence());
+            recordBuffer.putInt(product.getStockQuantity());
+        } catch (BufferOverflowException e) {
+            throw new SQLException("Too many products in one change for the product log", e);
+        }
+    }
+
+    private void putString(String value) throws SQLException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF || recordBuffer.remaining() < bytes.length + 2) {
+            throw new SQLException("Product record too large for the product log");
+        }
+        recordBuffer.putShort((short) bytes.length);
+        recordBuffer.put(bytes);
+    }
+
+    // Fills in the length and CRC of the record in recordBuffer and appends it, returns its position.
+    private long appendRecord() throws SQLException {
+        int length = recordBuffer.position() - RECORD_HEADER_SIZE;
+        crc.reset();
+        crc.update(recordBuffer.array(), RECORD_HEADER_SIZE, length);
+        recordBuffer.putInt(0, length);
+        recordBuffer.putInt(4, (int) crc.getValue());
+        try {
+            long position = logFile.append(recordBuffer.array(), RECORD_HEADER_SIZE + length);
+            if (forceWrites) {
+                logFile.force(position, RECORD_HEADER_SIZE + length);
+            }
+            return position;
+        } catch (IOException e) {
+            throw new SQLException("Could not write to the product log " + logFile.path, e);
+        }
+    }
+
+    private void compactIfNeeded() throws SQLException {
+        if (garbageEntries >= COMPACT_MIN_GARBAGE && garbageEntries > index.size()) {
+            try {
+                compactLocked();
+            } catch (IOException e) {
+                // the current log is still complete, so keep using it and try again after the next write
+                log.error("Compaction of the product log failed", e);
+            }
+        }
+    }
+
+    private void compactLocked() throws IOException {
+        long start = System.nanoTime();
+        LogFile oldFile = logFile;
+        LogFile newFile = LogFile.create(folder, oldFile.generation + 1);
+        HashMap<String, Long> newIndex = new HashMap<>();
+        try {
+            logFile = newFile; // appendRecord writes to logFile
+            ArrayList<Product> batch = new ArrayList<>(COMPACT_ENTRIES_PER_RECORD);
+            for (Long position : index.values()) {
+                batch.add(oldFile.readProduct(position));
+                if (batch.size() == COMPACT_ENTRIES_PER_RECORD) {
+                    copyBatch(batch, newIndex);
+                }
+            }
+            copyBatch(batch, newIndex);
+            newFile.markReady(); // from now on, opening the folder uses the new file
+        } catch (SQLException | RuntimeException e) {
+            logFile = oldFile; // the old file is untouched, carry on with it
+            newFile.close();
+            deleteQuietly(newFile.path);
+            throw new IOException(e);
+        }
+
+        index.clear();
+        index.putAll(newIndex);
+        long removed = garbageEntries;
+        garbageEntries = 0;
+        oldFile.close();
+        deleteQuietly(oldFile.path); // may fail on Windows while the old mapping is alive, removed on next open
+        log.info("Product log compacted into {}: {} products kept, {} old versions removed, took {}ms",
+                newFile.path.getFileName(), index.size(), removed, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // writes one compaction batch to the new log file, the index positions go into newIndex
+    private void copyBatch(ArrayList<Product> batch, HashMap<String, Long> newIndex) throws SQLException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        recordBuffer.clear();
+        recordBuffer.position(RECORD_HEADER_SIZE);
+        recordBuffer.putInt(batch.size());
+        int[] entryOffsets = new int[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            entryOffsets[i] = recordBuffer.position();
+            encodePut(batch.get(i));
+        }
+        long recordPosition = appendRecord();
+        for (int i = 0; i < batch.size(); i++) {
+            newIndex.put(batch.get(i).getProductId(), recordPosition + entryOffsets[i]);
+        }
+        batch.clear();
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // opening and replay
+
+    // Opens the newest complete log file (or creates the first one) and rebuilds the index from it.
+    private void open() throws IOException {
+        Path newest = null;
+        long newestGeneration = -1;
+        ArrayList<Path> others = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "products-*.log*")) {
+            for (Path file : files) {
+                long generation = LogFile.readyGeneration(file); // -1 if incomplete, a temp file or not a log
+                if (generation > newestGeneration) {
+                    if (newest != null) {
+                        others.add(newest);
+                    }
+                    newest = file;
+                    newestGeneration = generation;
+                } else {
+                    others.add(file);
+                }
+            }
+        }
+        for (Path file : others) {
+            deleteQuietly(file); // older generations and unfinished compactions
+        }
+
+        if (newest == null) {
+            logFile = LogFile.create(folder, 1);
+            logFile.markReady();
+            log.info("New product log created: {}", logFile.path);
+            return;
+        }
+
+        long start = System.nanoTime();
+        logFile = LogFile.open(newest);
+        HashMap<String, String> descriptions = new HashMap<>();
+        replay(descriptions);
+        nameIndex.loadAll(descriptions);
+        log.info("Product log {} replayed: {} products in {}ms", newest.getFileName(), index.size(),
+                (System.nanoTime() - start) / 1_000_000);
+        if (logFile.version < FILE_VERSION) {
+            // new records are always written in the current layout, so an old file is rewritten before any append
+            log.info("Product log {} is version {}, rewriting it as version {}", newest.getFileName(),
+                    logFile.version, FILE_VERSION);
+            compactLocked();
+        }
+    }
+
+    private void replay(HashMap<String, String> descriptions) throws IOException {
+        long position = FILE_HEADER_SIZE;
+        while (true) {
+            position = logFile.skipToRecordStart(position);
+            if (position / CHUNK_SIZE >= logFile.chunkCount()) {
+                break; // every chunk is full, the next append starts a new one
+            }
+            MappedByteBuffer chunk = logFile.chunkFor(position);
+            int offset = (int) (position % CHUNK_SIZE);
+            int length = chunk.getInt(offset);
+            if (length == END_OF_LOG) {
+                break;
+            }
+            if (length == CHUNK_PADDING) {
+                position = (position / CHUNK_SIZE + 1) * CHUNK_SIZE;
+                continue;
+            }
+            int payloadStart = offset + RECORD_HEADER_SIZE;
+            if (length < 4 || payloadStart + length > CHUNK_SIZE || !crcMatches(chunk, payloadStart, length)) {
+                log.warn("Product log {}: damaged record at position {} (the last write before a crash?), "
+                        + "it and anything after it are discarded", logFile.path.getFileName(), position);
+                logFile.truncateAt(position);
+                break;
+            }
+            applyRecord(chunk, position - offset, payloadStart, descriptions);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        logFile.writePosition = position;
+    }
+
+    private boolean crcMatches(MappedByteBuffer chunk, int payloadStart, int length) {
+        crc.reset();
+        crc.update(chunk.slice(payloadStart, length));
+        return (int) crc.getValue() == chunk.getInt(payloadStart - 4);
+    }
+
+    // applies the entries of one record to the index
+    private void applyRecord(MappedByteBuffer chunk, long chunkStart, int payloadStart,
+                             HashMap<String, String> descriptions) {
+        int entryCount = chunk.getInt(payloadStart);
+        int offset = payloadStart + 4;
+        for (int i = 0; i < entryCount; i++) {
+            byte op = chunk.get(offset);
+            String id = LogFile.getString(chunk, offset + 1);
+            if (op == PUT) {
+                if (index.put(id, chunkStart + offset) != null) {
+                    garbageEntries++;
+                }
+                int descriptionOffset = offset + 1 + 2 + LogFile.stringSize(chunk, offset + 1);
+                descriptions.put(id, LogFile.getString(chunk, descriptionOffset));
+                offset = LogFile.skipPut(chunk, offset);
+            } else {
+                if (index.remove(id) != null) {
+                    garbageEntries++;
+                }
+                descriptions.remove(id);
+                garbageEntries++;
+                offset += 1 + 2 + LogFile.stringSize(chunk, offset + 1);
+            }
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.debug("Could not delete {} yet: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * One generation of the log: the file, its mapped chunks and the position of the next append.
+     * Positions are offsets from the start of the file.
+     */
+    private static class LogFile {
+        final Path path;
+        final long generation;
+        final int version;  // the record layout of this file, see FILE_VERSION
+        private final FileChannel channel;
+        private final ArrayList<MappedByteBuffer> chunks = new ArrayList<>();
+        long writePosition = FILE_HEADER_SIZE;
+        private boolean dirty = false; // written since the last force()
+        // for force(position, length): what the last appends changed besides their own record
+        private long paddingPosition = -1; // the end-of-chunk marker written when a record moved on to the next chunk
+        private boolean grown = false;     // a chunk was added, so the file is longer than on disk
+
+        private LogFile(Path path, long generation, int version, FileChannel channel) {
+            this.path = path;
+            this.generation = generation;
+            this.version = version;
+            this.channel = channel;
+        }
+
+        static String fileName(long generation) {
+            return String.format("products-%08d.log", generation);
+        }
+
+        // Creates a new, empty (not yet ready) log file of the given generation.
+        static LogFile create(Path folder, long generation) throws IOException {
+            Path path = folder.resolve(fileName(generation));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            LogFile file = new LogFile(path, generation, FILE_VERSION, channel);
+            MappedByteBuffer first = file.mapChunk(0);
+            first.putInt(0, FILE_MAGIC);
+            first.putInt(4, FILE_VERSION);
+            first.putLong(8, generation);
+            first.putInt(READY_FLAG_OFFSET, 0);
+            return file;
+        }
+
+        static LogFile open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(8);
+            channel.read(header, 0);
+            LogFile file = new LogFile(path, readyGeneration(path), header.getInt(4), channel);
+            long chunkCount = Math.max(1, (channel.size() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            for (int i = 0; i < chunkCount; i++) {
+                file.mapChunk(i);
+            }
+            return file;
+        }
+
+        // Returns the generation of a complete log file, or -1 for anything else.
+        static long readyGeneration(Path path) {
+            if (!path.getFileName().toString().endsWith(".log")) {
+                return -1;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                while (header.hasRemaining() && channel.read(header) >= 0) {
+                    // read the whole header
+                }
+                if (header.position() < FILE_HEADER_SIZE || header.getInt(0) != FILE_MAGIC
+                        || header.getInt(4) < FIRST_FILE_VERSION || header.getInt(4) > FILE_VERSION
+                        || header.getInt(READY_FLAG_OFFSET) != 1) {
+                    return -1;
+                }
+                return header.getLong(8);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        // Marks the file complete: it is flushed to disk first, so "ready" always means "all there".
+        void markReady() {
+            force();
+            chunks.get(0).putInt(READY_FLAG_OFFSET, 1);
+            chunks.get(0).force();
+        }
+
+        MappedByteBuffer chunkFor(long position) {
+            return chunks.get((int) (position / CHUNK_SIZE));
+        }
+
+        // Mapping past the end of the file makes the file longer, so this also grows the log.
+        private MappedByteBuffer mapChunk(int chunkIndex) throws IOException {
+            MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, (long) chunkIndex * CHUNK_SIZE, CHUNK_SIZE);
+            chunks.add(chunk);
+            return chunk;
+        }
+
+        // Appends a record (length and CRC already filled in), returns its position.
+        long append(byte[] record, int length) throws IOException {
+            if (length > CHUNK_SIZE - FILE_HEADER_SIZE - 4) {
+                throw new IOException("Record of " + length + " bytes is larger than a log chunk");
+            }
+            int offset = (int) (writePosition % CHUNK_SIZE);
+            // keep 4 bytes for the end marker after the record
+            if (offset + length + 4 > CHUNK_SIZE) {
+                chunkFor(writePosition).putInt(offset, CHUNK_PADDING);
+                paddingPosition = writePosition;
+                writePosition = (writePosition / CHUNK_SIZE + 1) * CHUNK_SIZE;
+                offset = 0;
+            }
+            int chunkIndex = (int) (writePosition / CHUNK_SIZE);
+            while (chunks.size() <= chunkIndex) {
+                mapChunk(chunks.size());
+                grown = true;
+            }
+            MappedByteBuffer chunk = chunks.get(chunkIndex);
+            // write everything but the length first, the record only becomes visible to replay once its length is set
+            chunk.put(offset + 4, record, 4, length - 4);
+            chunk.putInt(offset, ByteBuffer.wrap(record).getInt(0));
+            long position = writePosition;
+            writePosition += length;
+            dirty = true;
+            return position;
+        }
+
+        // Returns where the next record may start: the given position, or the next chunk if too little is left.
+        long skipToRecordStart(long position) {
+            if (position % CHUNK_SIZE > CHUNK_SIZE - RECORD_HEADER_SIZE) {
+                position = (position / CHUNK_SIZE + 1) * CHUNK_SIZE;
+            }
+            return position;
+        }
+
+        int chunkCount() {
+            return chunks.size();
+        }
+
+        // Zeroes everything from the given position to the end of the file, later chunks included,
+        // so the next appends overwrite the damaged record and no old record after it can ever be replayed again.
+        // (The file is not made shorter: a mapped file can not be truncated on every platform.)
+        void truncateAt(long position) {
+            int chunkIndex = (int) (position / CHUNK_SIZE);
+            int offset = (int) (position % CHUNK_SIZE);
+            byte[] zeroes = new byte[CHUNK_SIZE];
+            chunks.get(chunkIndex).put(offset, zeroes, 0, CHUNK_SIZE - offset);
+            for (int i = chunkIndex + 1; i < chunks.size(); i++) {
+                chunks.get(i).put(0, zeroes);
+            }
+            dirty = true;
+            force();
+        }
+
+        Product readProduct(long position) {
+            MappedByteBuffer chunk = chunkFor(position);
+            int offset = (int) (position % CHUNK_SIZE) + 1; // skip the PUT byte
+            String id = getString(chunk, offset);
+            offset += 2 + stringSize(chunk, offset);
+            String description = getString(chunk, offset);
+            offset += 2 + stringSize(chunk, offset);
+            String image = getString(chunk, offset);
+            offset += 2 + stringSize(chunk, offset);
+            long price = version == 1 ? Money.fromPounds(chunk.getDouble(offset)) : chunk.getLong(offset);
+            int stock = chunk.getInt(offset + 8);
+            return new Product(id, description, image, price, stock);
+        }
+
+        static int stringSize(MappedByteBuffer chunk, int offset) {
+            return Short.toUnsignedInt(chunk.getShort(offset));
+        }
+
+        static String getString(MappedByteBuffer chunk, int offset) {
+            byte[] bytes = new byte[stringSize(chunk, offset)];
+            chunk.get(offset + 2, bytes); // absolute get, safe for concurrent readers
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // returns the offset just after the PUT entry at the given offset
+        static int skipPut(MappedByteBuffer chunk, int offset) {
+            offset += 1;
+            for (int i = 0; i < 3; i++) { // id, description, image
+                offset += 2 + stringSize(chunk, offset);
+            }
+            return offset + 8 + 4; // price (a long, or a double in version 1), stock
+        }
+
+        /**
+         * Flushes one record to disk, used with forceWrites. If the record was the first in a new chunk,
+         * the file's new length and the end marker of the chunk before are flushed too: replay only reaches
+         * the new chunk through that marker, so without it the record would be lost after a crash.
+         */
+        void force(long position, int length) throws IOException {
+            if (grown) {
+                channel.force(true); // the file's length is metadata, the mapped chunks do not flush it
+                grown = false;
+            }
+            if (paddingPosition >= 0) {
+                chunkFor(paddingPosition).force((int) (paddingPosition % CHUNK_SIZE), 4);
+                paddingPosition = -1;
+            }
+            chunkFor(position).force((int) (position % CHUNK_SIZE), length);
+        }
+
+        void force() {
+            if (dirty) {
+                for (MappedByteBuffer chunk : chunks) {
+                    chunk.force();
+                }
+                dirty = false;
+                paddingPosition = -1; // flushed with its chunk
+            }
+        }
+
+        void close() {
+            try {
+                channel.close(); // the mappings stay valid until they are garbage collected
+            } catch (IOException e) {
+                log.warn("Error closing {}: {}", path, e.getMessage());
+            }
+        }
+    }
+}
@@ -1,14 +1,18 @@
 package ci553.happyshop.storageAccess;
 
 import ci553.happyshop.orderManagement.OrderState;
+import ci553.happyshop.utility.Logger;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -40,24 +44,53 @@ import java.time.format.DateTimeFormatter;
  *  1. update state from Ordered to Progressing, (then move the file to progressing folder)
  *  2. update state from Progressing to Collected (then move the file to collected folder)
  * </p>
+ *
+ * <p>
+ * File format versions:
+ * Version 1 (above) has the state and the times only in the text, so a state change rewrote every line of
+ * the file into a temp file and renamed it over the order file.
+ * Version 2, written for all new orders, starts with one fixed-width header line:
+ *  <pre>
+ *  #HSO2 P 2025-03-11 19:53:45 2025-03-11 19:55:02 -------------------
+ *        |  OrderedDateTime     ProgressingDateTime CollectedDateTime ('-' while not reached)
+ *        state: O (Ordered), P (Progressing), C (Collected)
+ *  </pre>
+ * followed by the order text as it was created. Every field is at a fixed position, so a state change is one
+ * read and one write of the 68-byte header in place, with no temp file. The State and time lines of the text
+ * are never rewritten, readOrderFile fills them in from the header, so both versions read the same.
+ * Version 1 files are still read and updated the old way.
+ * </p>
  */
 
 public class OrderFileManager {
+    private static final Logger log = Logger.getLogger(OrderFileManager.class);
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
-    //Creates a new order file in the specified directory with the given content.
+    // Version 2 header, every field at a fixed byte offset
+    private static final String V2_MAGIC = "#HSO2 ";
+    private static final int STATE_OFFSET = 6;
+    private static final int ORDERED_OFFSET = 8;
+    private static final int PROGRESSING_OFFSET = 28;
+    private static final int COLLECTED_OFFSET = 48;
+    private static final int TIME_LENGTH = 19;      // yyyy-MM-dd HH:mm:ss
+    private static final int HEADER_LENGTH = 68;    // including the newline
+    private static final String NO_TIME = "-".repeat(TIME_LENGTH);
+
+    //Creates a new order file (version 2) in the specified directory with the given content.
     public static void createOrderFile(Path dir, int orderId, String orderDetail) throws IOException {
         String orderFileName = String.valueOf(orderId)+".txt";
         Path path = dir.resolve(orderFileName); // eg. orders/ordered/12.txt
         if(Files.notExists(path)) {
             Files.createFile(path);
-            try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                writer.write(newHeader(orderDetail));
                 writer.write(orderDetail);
                 writer.newLine();
-                System.out.println(path + " created");
+                log.info("{} created", path);
             }
         }
         else{
-            System.out.println(path + " already exists");
+            log.warn("{} already exists", path);
         }
     }
 
@@ -70,19 +103,51 @@ public class OrderFileManager {
         Path sourcePath = sourceDir.resolve(orderFileName);
         Path targetPath = targetDir.resolve(orderFileName);
         if (Files.exists(sourcePath)) {
-            updateOrderStateAndTime(sourceDir,orderId,newState); //Edit the file to update order state and add time
+            //Edit the file to update order state and add time, in place for a version 2 file
+            if (!updateHeader(sourcePath, newState)) {
+                updateOrderStateAndTime(sourceDir,orderId,newState); // version 1
+            }
             if(!sourceDir.equals(targetDir)) //Move the file only if the source and destination are different
                 Files.move(sourcePath,targetPath);
             return true;
         }
         else{
-            System.out.println(sourcePath + " not found in ");
+            log.warn("{} not found", sourcePath);
             return false;
         }
     }
 
     /**
-     * Updates the state and timestamp field inside the order file.
+     * Updates the state and timestamp in the header of a version 2 order file: one positional read and one
+     * positional write of the header, the rest of the file is not touched.
+     *
+     * @return false if the file is not a version 2 file (nothing is changed then)
+     */
+    private static boolean updateHeader(Path path, OrderState newState) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+                // a short read only happens for a file shorter than the header, ie a version 1 file
+            }
+            if (header.hasRemaining() || !isV2Header(header.array())) {
+                return false;
+            }
+            header.put(STATE_OFFSET, stateCode(newState));
+            int timeOffset = newState == OrderState.Progressing ? PROGRESSING_OFFSET
+                    : newState == OrderState.Collected ? COLLECTED_OFFSET : -1;
+            if (timeOffset > 0) {
+                header.put(timeOffset, LocalDateTime.now().format(DATE_TIME).getBytes(StandardCharsets.US_ASCII));
+            }
+            header.rewind();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Updates the state and timestamp field inside a version 1 order file.
      * This method creates a temporary file with the updated content and replaces
      * the original file once updates are complete.
      */
@@ -99,9 +164,9 @@ public class OrderFileManager {
                 if (line.startsWith("State")) {
                     line = "State: " + newState;
                 } else if (newState.equals(OrderState.Progressing) && line.startsWith("ProgressingDateTime")) {
-                    line = "ProgressingDateTime: " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+                    line = "ProgressingDateTime: " + LocalDateTime.now().format(DATE_TIME);
                 } else if (newState.equals(OrderState.Collected) && line.startsWith("CollectedDateTime")) {
-                    line = "CollectedDateTime: " + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+                    line = "CollectedDateTime: " + LocalDateTime.now().format(DATE_TIME);
                 }
                 writer.write(line);
                 writer.newLine();
@@ -112,12 +177,12 @@ public class OrderFileManager {
         try {
             Files.move(tempFilePath, sourcePath, StandardCopyOption.REPLACE_EXISTING);
         } catch (IOException e) {
-            System.err.println("Move failed: " + e.getMessage());
+            log.error("Move failed: {}", e.getMessage());
             Files.deleteIfExists(tempFilePath); // Delete temp file ONLY IF move failed and it still exists
         }
     }
 
-    //Reads the content of an order file as a single string.
+    //Reads the content of an order file (either version) as a single string, with its current state and times.
     public static String readOrderFile(Path dir, int orderId) throws IOException {
         String orderFileName = String.valueOf(orderId)+".txt";
         Path path = dir.resolve(orderFileName);
@@ -125,6 +190,84 @@ public class OrderFileManager {
         if (!Files.exists(path)) {
             throw new IOException("Order file not found: " + path);
         }
-        return String.join("\n", Files.readAllLines(path));
+        byte[] content = Files.readAllBytes(path);
+        if (content.length < HEADER_LENGTH || !isV2Header(content)) {
+            return String.join("\n", Files.readAllLines(path)); // version 1, the text is up to date
+        }
+        String header = new String(content, 0, HEADER_LENGTH, StandardCharsets.US_ASCII);
+        String text = new String(content, HEADER_LENGTH, content.length - HEADER_LENGTH, StandardCharsets.UTF_8);
+        if (text.endsWith("\n")) {
+            text = text.substring(0, text.length() - 1); // like readAllLines, no newline after the last line
+        }
+        return withStateAndTimes(text, stateOf(content[STATE_OFFSET]),
+                timeAt(header, PROGRESSING_OFFSET), timeAt(header, COLLECTED_OFFSET));
+    }
+
+    /**
+     * Returns the order text with its State line set to the given state, and the ProgressingDateTime and
+     * CollectedDateTime lines set to the given times (a null time leaves its line as it is).
+     * Used for the order files of version 2 and by the OrderJournal, which both keep the state apart from the text.
+     */
+    static String withStateAndTimes(String text, OrderState state, String progressingTime, String collectedTime) {
+        StringBuilder sb = new StringBuilder(text.length() + 40);
+        for (String line : text.split("\n", -1)) {
+            if (line.startsWith("State")) {
+                line = "State: " + state;
+            } else if (progressingTime != null && line.startsWith("ProgressingDateTime")) {
+                line = "ProgressingDateTime: " + progressingTime;
+            } else if (collectedTime != null && line.startsWith("CollectedDateTime")) {
+                line = "CollectedDateTime: " + collectedTime;
+            }
+            sb.append(line).append('\n');
+        }
+        sb.setLength(sb.length() - 1); // split kept the text's last line, no newline after it
+        return sb.toString();
+    }
+
+    // The version 2 header of a new order: Ordered, with the ordered time taken from the order text
+    private static String newHeader(String orderDetail) {
+        String orderedTime = null;
+        for (String line : orderDetail.split("\n")) {
+            if (line.startsWith("OrderedDateTime:")) {
+                orderedTime = line.substring("OrderedDateTime:".length()).trim();
+                break;
+            }
+        }
+        if (orderedTime == null || orderedTime.length() != TIME_LENGTH) {
+            orderedTime = LocalDateTime.now().format(DATE_TIME);
+        }
+        return V2_MAGIC + (char) stateCode(OrderState.Ordered) + " " + orderedTime + " " + NO_TIME + " " + NO_TIME + "\n";
+    }
+
+    private static boolean isV2Header(byte[] header) {
+        for (int i = 0; i < V2_MAGIC.length(); i++) {
+            if (header[i] != V2_MAGIC.charAt(i)) {
+                return false;
+            }
+        }
+        return header[HEADER_LENGTH - 1] == '\n';
+    }
+
+    // the time in the slot at the offset, null if the order has not reached that state
+    private static String timeAt(String header, int offset) {
+        String time = header.substring(offset, offset + TIME_LENGTH);
+        return time.equals(NO_TIME) ? null : time;
+    }
+
+    private static byte stateCode(OrderState state) {
+        return switch (state) {
+            case Ordered -> 'O';
+            case Progressing -> 'P';
+            case Collected -> 'C';
+        };
+    }
+
+    private static OrderState stateOf(byte code) throws IOException {
+        return switch (code) {
+            case 'O' -> OrderState.Ordered;
+            case 'P' -> OrderState.Progressing;
+            case 'C' -> OrderState.Collected;
+            default -> throw new IOException("Unknown order state in the order file header: " + (char) code);
+        };
     }
 }
@@ -0,0 +1,461 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.orderManagement.OrderState;
+import ci553.happyshop.utility.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32C;
+
+/**
+ * OrderJournal keeps all orders in an append-only journal instead of one text file per order.
+ *
+ * Why:
+ * With one file per order, every new order creates a file, and every state change rewrites the whole file
+ * through a temp file and moves it to another folder: several directory operations per change, which are slow
+ * and get slower as the folders fill up. In the journal a new order or a state change is one small record
+ * appended to a memory-mapped file, a memory copy, whatever the number of orders.
+ *
+ * How it works:
+ * - The journal is a series of segment files in orders/journal/ (orders-00000001.journal, ...), each
+ *   segmentSize bytes (8MB by default) and memory-mapped whole. When a record does not fit in the current
+ *   segment, a new segment is started ("rolled").
+ * - An in-memory index maps each orderId to the position of its CREATED record (segment and offset)
+ *   and its current state and state-change times, so readOrder is one HashMap lookup plus one read
+ *   from the mapped segment, and a state change never reads the journal at all.
+ *
+ * Record layout:
+ *     int length | int CRC32C of the payload | payload
+ *     payload = byte type, int orderId, long time (epoch milliseconds), byte state (OrderState ordinal)
+ *               CREATED records then have: int byte count, the order text (UTF-8, from Order.orderDetails())
+ * A length of 0 marks the end of a segment's records.
+ *
+ * Crash recovery:
+ * When the journal is opened every segment is replayed to rebuild the index. Replay stops at the first
+ * record that is incomplete or fails its CRC check (a write cut off by a crash), which is then overwritten
+ * by the next append. Records are in the operating system's page cache as soon as they are written, so they
+ * survive the application crashing; with forceWrites they are also flushed to disk, so they survive a power cut.
+ *
+ * Old order files:
+ * importFrom(FileOrderStore) copies the orders of orders/ordered, progressing and collected that are not
+ * in the journal yet, with their state, so orders made before the journal (or by a process that still uses
+ * order files) are not lost. Each imported file is then moved to orders/imported, so the next start does
+ * not read (or even list) it again.
+ *
+ * Segments are never deleted, the journal is the order history. Only one OrderJournal may use a journal
+ * folder at a time, opening it a second time (in this or another process) throws an IOException.
+ */
+
+public class OrderJournal implements OrderStore {
+    private static final Logger log = Logger.getLogger(OrderJournal.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final int SEGMENT_MAGIC = 0x48534F4A;   // "HSOJ", marks a HappyShop order journal segment
+    private static final int SEGMENT_VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 16;     // magic, version, segment number (long)
+    private static final int RECORD_HEADER_SIZE = 8;       // length and CRC
+    private static final int FIXED_PAYLOAD_SIZE = 1 + 4 + 8 + 1; // type, orderId, time, state
+    private static final int END_OF_SEGMENT = 0;
+    private static final byte CREATED = 1;
+    private static final byte STATE_CHANGED = 2;
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final OrderState[] STATES = OrderState.values();
+
+    private final Path folder;
+    private final int segmentSize;
+    private final boolean forceWrites;
+    private final FileChannel lockChannel;
+    private final FileLock folderLock;
+
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private final HashMap<Integer, OrderEntry> index = new HashMap<>(); // orderId -> where it is and its state
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(64 * 1024); // builds one record, grows for a large order
+
+    /**
+     * Opens the journal in the given folder (creating it if needed) and replays it.
+     *
+     * @param folder      where the segments are kept, eg StorageLocation.orderJournalPath
+     * @param segmentSize the size of a segment file in bytes
+     * @param forceWrites true to flush every record to disk before returning (slower, survives a power cut)
+     * @throws IOException if the folder can not be used, or another process has the journal open
+     */
+    public OrderJournal(Path folder, int segmentSize, boolean forceWrites) throws IOException {
+        if (segmentSize < 64 * 1024) {
+            throw new IllegalArgumentException("segmentSize must be at least 64KB: " + segmentSize);
+        }
+        this.folder = folder;
+        this.segmentSize = segmentSize;
+        this.forceWrites = forceWrites;
+        Files.createDirectories(folder);
+        lockChannel = FileChannel.open(folder.resolve("journal.lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; // already open in this process
+        }
+        folderLock = lock;
+        if (folderLock == null) {
+            lockChannel.close();
+            throw new IOException("The order journal " + folder + " is already in use");
+        }
+        try {
+            open();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void createOrder(int orderId, String orderDetail) throws IOException {
+        if (index.containsKey(orderId)) {
+            log.warn("Order {} already exists", orderId);
+            return;
+        }
+        append(orderId, CREATED, OrderState.Ordered, System.currentTimeMillis(), orderDetail);
+    }
+
+    @Override
+    public synchronized boolean changeState(int orderId, OrderState newState) throws IOException {
+        OrderEntry entry = index.get(orderId);
+        if (entry == null) {
+            log.warn("Order {} not found", orderId);
+            return false;
+        }
+        if (entry.state == newState) {
+            return false;
+        }
+        append(orderId, STATE_CHANGED, newState, System.currentTimeMillis(), null);
+        return true;
+    }
+
+    @Override
+    public synchronized String readOrder(int orderId) throws IOException {
+        OrderEntry entry = index.get(orderId);
+        if (entry == null) {
+            throw new IOException("Order not found in the journal: " + orderId);
+        }
+        MappedByteBuffer map = segments.get(entry.segment).map;
+        int textOffset = entry.offset + RECORD_HEADER_SIZE + FIXED_PAYLOAD_SIZE;
+        byte[] text = new byte[map.getInt(textOffset)];
+        map.get(textOffset + 4, text);
+        return withStateAndTimes(new String(text, StandardCharsets.UTF_8), entry);
+    }
+
+    @Override
+    public synchronized TreeMap<Integer, OrderState> loadOpenOrders() {
+        TreeMap<Integer, OrderState> orders = new TreeMap<>();
+        for (var order : index.entrySet()) {
+            if (order.getValue().state != OrderState.Collected) {
+                orders.put(order.getKey(), order.getValue().state);
+            }
+        }
+        return orders;
+    }
+
+    /**
+     * Copies the orders of the order files that are not in the journal yet, keeping their text and state,
+     * and moves the files out of the way (see FileOrderStore.moveToImported).
+     *
+     * @return the number of orders imported
+     */
+    public synchronized int importFrom(FileOrderStore files) throws IOException {
+        int imported = 0;
+        for (OrderState state : STATES) {
+            for (int orderId : files.listOrderIds(state)) {
+                // an order already in the journal was imported just before a crash, only its file is left to move
+                if (!index.containsKey(orderId)) {
+                    // the file's text already has its state and times, the record just has to say which state it is in
+                    append(orderId, CREATED, state, System.currentTimeMillis(), files.readOrder(orderId));
+                    index.get(orderId).importedText = true;
+                    imported++;
+                }
+                files.moveToImported(orderId, state);
+            }
+        }
+        if (imported > 0) {
+            log.info("{} orders imported from the order files into the journal", imported);
+        }
+        return imported;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.force();
+            segment.close();
+        }
+        try {
+            if (folderLock != null && folderLock.isValid()) {
+                folderLock.release();
+            }
+            lockChannel.close();
+        } catch (IOException e) {
+            log.warn("Error closing the order journal lock: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        Segment current = segments.get(segments.size() - 1);
+        return String.format("OrderJournal[%s, orders: %d, segments: %d, current segment: %dKB of %dKB]",
+                folder, index.size(), segments.size(), current.writePosition / 1024, current.map.capacity() / 1024);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // writing
+
+    // Builds one record, appends it to the current segment (rolling to a new one if it does not fit) and indexes it.
+    private void append(int orderId, byte type, OrderState state, long time, String text) throws IOException {
+        byte[] textBytes = text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = FIXED_PAYLOAD_SIZE + (textBytes == null ? 0 : 4 + textBytes.length);
+        int recordLength = RECORD_HEADER_SIZE + payloadLength;
+        if (recordBuffer.capacity() < recordLength) {
+            recordBuffer = ByteBuffer.allocate(recordLength);
+        }
+        recordBuffer.clear();
+        recordBuffer.position(RECORD_HEADER_SIZE);
+        recordBuffer.put(type).putInt(orderId).putLong(time).put((byte) state.ordinal());
+        if (textBytes != null) {
+            recordBuffer.putInt(textBytes.length).put(textBytes);
+        }
+        crc.reset();
+        crc.update(recordBuffer.array(), RECORD_HEADER_SIZE, payloadLength);
+        recordBuffer.putInt(0, payloadLength);
+        recordBuffer.putInt(4, (int) crc.getValue());
+
+        Segment segment = segments.get(segments.size() - 1);
+        if (!segment.fits(recordLength)) {
+            segment.force(); // a full segment is flushed once, it is never written again
+            segment = Segment.create(folder, segment.number + 1, Math.max(segmentSize, SEGMENT_HEADER_SIZE + recordLength + 4));
+            segments.add(segment);
+            log.info("Order journal rolled to {}", segment.path.getFileName());
+        }
+        int offset = segment.append(recordBuffer.array(), recordLength);
+        if (forceWrites) {
+            segment.map.force(offset, recordLength);
+        }
+        apply(segments.size() - 1, offset, type, orderId, time, state);
+    }
+
+    // Updates the index with one record, when it is written and when it is replayed.
+    private void apply(int segmentIndex, int offset, byte type, int orderId, long time, OrderState state) {
+        if (type == CREATED) {
+            index.put(orderId, new OrderEntry(segmentIndex, offset, state));
+            return;
+        }
+        OrderEntry entry = index.get(orderId);
+        if (entry == null) {
+            log.warn("Order journal: state change of unknown order {}, ignored", orderId);
+            return;
+        }
+        entry.state = state;
+        if (state == OrderState.Progressing) {
+            entry.progressingTime = time;
+        } else if (state == OrderState.Collected) {
+            entry.collectedTime = time;
+        }
+    }
+
+    // The order text with the State line and the time of each state change brought up to date
+    private static String withStateAndTimes(String text, OrderEntry entry) {
+        if (entry.importedText && entry.progressingTime == 0 && entry.collectedTime == 0) {
+            return text; // imported from an order file, which is already up to date
+        }
+        return OrderFileManager.withStateAndTimes(text, entry.state,
+                entry.progressingTime == 0 ? null : format(entry.progressingTime),
+                entry.collectedTime == 0 ? null : format(entry.collectedTime));
+    }
+
+    private static String format(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault()).format(DATE_TIME);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // opening and replay
+
+    private void open() throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>(); // by segment number
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "orders-*.journal")) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    files.put(Long.parseLong(name.substring(7, name.length() - 8)), file);
+                } catch (NumberFormatException e) {
+                    log.warn("Not an order journal segment: {}", name);
+                }
+            }
+        }
+        if (files.isEmpty()) {
+            segments.add(Segment.create(folder, 1, segmentSize));
+            log.info("New order journal created in {}", folder);
+            return;
+        }
+        long start = System.nanoTime();
+        for (Path file : files.values()) {
+            Segment segment = Segment.open(file);
+            segments.add(segment);
+            replay(segments.size() - 1, segment);
+        }
+        log.info("Order journal replayed: {} orders in {} segments in {}ms", index.size(), segments.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void replay(int segmentIndex, Segment segment) {
+        MappedByteBuffer map = segment.map;
+        int offset = SEGMENT_HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= map.capacity()) {
+            int length = map.getInt(offset);
+            if (length == END_OF_SEGMENT) {
+                break;
+            }
+            int payloadStart = offset + RECORD_HEADER_SIZE;
+            if (length < FIXED_PAYLOAD_SIZE || payloadStart + length > map.capacity()
+                    || !crcMatches(map, payloadStart, length)) {
+                log.warn("Order journal {}: damaged record at position {} (the last write before a crash?), "
+                        + "it and anything after it in the segment are discarded", segment.path.getFileName(), offset);
+                segment.truncateAt(offset);
+                break;
+            }
+            byte type = map.get(payloadStart);
+            int orderId = map.getInt(payloadStart + 1);
+            long time = map.getLong(payloadStart + 5);
+            OrderState state = STATES[map.get(payloadStart + 13)];
+            apply(segmentIndex, offset, type, orderId, time, state);
+            if (type == CREATED && state != OrderState.Ordered) {
+                index.get(orderId).importedText = true; // only imported orders start in a later state
+            }
+            offset = payloadStart + length;
+        }
+        segment.writePosition = offset;
+    }
+
+    private boolean crcMatches(MappedByteBuffer map, int payloadStart, int length) {
+        crc.reset();
+        crc.update(map.slice(payloadStart, length));
+        return (int) crc.getValue() == map.getInt(payloadStart - 4);
+    }
+
+    // Where an order's CREATED record is, and what has happened to the order since
+    private static class OrderEntry {
+        final int segment;        // index in segments
+        final int offset;         // of the CREATED record in the segment
+        OrderState state;
+        long progressingTime = 0; // epoch milliseconds, 0 if not (yet) in that state
+        long collectedTime = 0;
+        boolean importedText = false; // the text came from an order file, its state lines were already filled in
+
+        OrderEntry(int segment, int offset, OrderState state) {
+            this.segment = segment;
+            this.offset = offset;
+            this.state = state;
+        }
+    }
+
+    /**
+     * One segment file, mapped whole, and the position of the next append.
+     */
+    private static class Segment {
+        final Path path;
+        final long number;
+        final MappedByteBuffer map;
+        private final FileChannel channel;
+        int writePosition = SEGMENT_HEADER_SIZE;
+        private boolean dirty = false; // written since the last force()
+
+        private Segment(Path path, long number, FileChannel channel, MappedByteBuffer map) {
+            this.path = path;
+            this.number = number;
+            this.channel = channel;
+            this.map = map;
+        }
+
+        static Segment create(Path folder, long number, int size) throws IOException {
+            Path path = folder.resolve(String.format("orders-%08d.journal", number));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size); // the file grows to size, all zeros
+            map.putInt(0, SEGMENT_MAGIC).putInt(4, SEGMENT_VERSION).putLong(8, number);
+            map.force(0, SEGMENT_HEADER_SIZE);
+            return new Segment(path, number, channel, map);
+        }
+
+        static Segment open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            if (size < SEGMENT_HEADER_SIZE || size > Integer.MAX_VALUE) {
+                channel.close();
+                throw new IOException("Not an order journal segment: " + path);
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (map.getInt(0) != SEGMENT_MAGIC || map.getInt(4) != SEGMENT_VERSION) {
+                channel.close();
+                throw new IOException("Not an order journal segment (or a newer version): " + path);
+            }
+            return new Segment(path, map.getLong(8), channel, map);
+        }
+
+        // true if a record of this length, plus the end marker after it, still fits
+        boolean fits(int recordLength) {
+            return writePosition + recordLength + 4 <= map.capacity();
+        }
+
+        // Appends a record (length and CRC filled in), returns its offset.
+        int append(byte[] record, int length) {
+            int offset = writePosition;
+            // write everything but the length first, the record only becomes visible to replay once its length is set
+            map.put(offset + 4, record, 4, length - 4);
+            map.putInt(offset, ByteBuffer.wrap(record).getInt(0));
+            writePosition += length;
+            dirty = true;
+            return offset;
+        }
+
+        // Zeroes everything from the given offset on, so the next append overwrites the damaged record.
+        void truncateAt(int offset) {
+            for (int i = offset; i < map.capacity(); i++) {
+                map.put(i, (byte) 0);
+            }
+            dirty = true;
+            force();
+        }
+
+        void force() {
+            if (dirty) {
+                map.force();
+                dirty = false;
+            }
+        }
+
+        void close() {
+            try {
+                channel.close(); // the mapping stays valid until it is garbage collected
+            } catch (IOException e) {
+                log.warn("Error closing {}: {}", path, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.orderManagement.OrderState;
+
+import java.io.IOException;
+import java.util.TreeMap;
+
+/**
+ * The OrderStore interface defines where OrderHub keeps its orders.
+ *
+ * Implementations:
+ * - OrderJournal:   all orders in an append-only, memory-mapped journal (orders/journal/), the default.
+ * - FileOrderStore: one text file per order, moved between orders/ordered, progressing and collected
+ *                   (the original layout, see OrderFileManager).
+ *
+ * An order is created in the Ordered state, and then moves to Progressing and Collected.
+ * readOrder always returns the order in the same text layout (see Order.orderDetails()),
+ * with its current state and the time of every state change filled in.
+ */
+
+public interface OrderStore {
+
+    /**
+     * Stores a new order in the Ordered state.
+     *
+     * @param orderId     the new order's ID (from OrderCounter)
+     * @param orderDetail the order as text, from Order.orderDetails()
+     */
+    void createOrder(int orderId, String orderDetail) throws IOException;
+
+    /**
+     * Moves an order to a new state and records the time of the change.
+     *
+     * @return true if the order was changed, false if it does not exist or is already in that state
+     */
+    boolean changeState(int orderId, OrderState newState) throws IOException;
+
+    /**
+     * Returns the order as text, with its current state and timestamps.
+     *
+     * @throws IOException if there is no such order
+     */
+    String readOrder(int orderId) throws IOException;
+
+    // The orders that are not collected yet (Ordered and Progressing), orderId -> state, as loaded at startup.
+    TreeMap<Integer, OrderState> loadOpenOrders() throws IOException;
+
+    // Flushes and releases the store, eg when the application shuts down.
+    void close();
+}
@@ -0,0 +1,115 @@
+package ci553.happyshop.storageAccess;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A connection borrowed from the ConnectionPool.
+ *
+ * It wraps the real JDBC Connection. Closing a PooledConnection does not close the
+ * real connection, it hands it back to the pool so that it can be reused.
+ * This lets DerbyRW keep using try-with-resources exactly as it did before:
+ *
+ *     try (PooledConnection pooled = pool.borrow()) {
+ *         PreparedStatement stmt = pooled.prepareStatement(sql);
+ *         ...
+ *     } // returned to the pool here
+ *
+ * Prepared statement cache:
+ * Each pooled connection keeps its own cache of PreparedStatements keyed by the SQL text.
+ * The catalogue queries are always the same few SQL strings, so after the first call
+ * a search or checkout reuses the already parsed and compiled statement.
+ * The cache is bounded, when it is full the least recently used statement is closed and removed.
+ *
+ * Statements returned by prepareStatement(sql) belong to the cache:
+ * callers must NOT close them (but they should still close their ResultSets).
+ */
+
+public class PooledConnection implements AutoCloseable {
+    private final Connection connection;
+    private final ConnectionPool pool;
+    private final LinkedHashMap<String, PreparedStatement> statementCache;
+    private boolean returned = false;
+    private long returnedAtNanos = System.nanoTime(); // when it was last put back into the idle queue
+
+    PooledConnection(Connection connection, ConnectionPool pool, int statementCacheSize) {
+        this.connection = connection;
+        this.pool = pool;
+        // accessOrder = true turns the LinkedHashMap into an LRU list, the eldest entry is the least recently used one
+        this.statementCache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > statementCacheSize) {
+                    closeQuietly(eldest.getValue());
+                    pool.recordStatementEviction();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Returns a cached PreparedStatement for the given SQL, preparing it only on a cache miss.
+     * Do not close the returned statement, it is closed by the cache.
+     */
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement stmt = statementCache.get(sql);
+        if (stmt != null && !stmt.isClosed()) {
+            pool.recordStatementHit();
+            return stmt;
+        }
+        pool.recordStatementMiss();
+        stmt = connection.prepareStatement(sql);
+        statementCache.put(sql, stmt);
+        return stmt;
+    }
+
+    // Returns the connection to the pool. Calling close() more than once has no further effect.
+    @Override
+    public void close() {
+        if (!returned) {
+            returned = true;
+            pool.giveBack(this);
+        }
+    }
+
+    // Marks the connection as borrowed again, used by the pool on checkout.
+    void markBorrowed() {
+        returned = false;
+    }
+
+    // Records when the connection went back into the idle queue, used by the pool.
+    void markReturned() {
+        returnedAtNanos = System.nanoTime();
+    }
+
+    // How long the connection has been idle, the pool only validates connections idle for a while.
+    long getIdleNanos() {
+        return System.nanoTime() - returnedAtNanos;
+    }
+
+    // Really closes the cached statements and the underlying JDBC connection, only used by the pool.
+    void closePhysically() throws SQLException {
+        for (PreparedStatement stmt : statementCache.values()) {
+            closeQuietly(stmt);
+        }
+        statementCache.clear();
+        connection.close();
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            // the statement is being thrown away anyway
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.utility.Money;
+import ci553.happyshop.utility.ProductValidator;
+import ci553.happyshop.utility.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ProductCsvImporter adds a whole supplier catalogue to ProductTable in one go.
+ *
+ * The CSV file has one product per line, with the columns
+ *     id, description, price, image, stock
+ * eg  0101,"Kettle, 1.7 litre",24.99,kettle.jpg,40
+ * A first line starting with "id" is treated as a header and skipped. Fields containing commas
+ * can be put in double quotes ("" inside quotes is a literal quote). The image column is a file name
+ * relative to the folder of the CSV file (or an absolute path).
+ *
+ * How it works:
+ * - The file is read line by line, so a large catalogue is never held in memory at once.
+ * - Every row is checked with the same rules as the "add new product" form (ProductValidator).
+ *   The product IDs and image names already in the database are read once at the start, an ID may
+ *   only appear once in the file, and a row is rejected if its image name (the product ID plus the
+ *   extension, as the warehouse form names it) is the image of another product.
+ * - Valid rows are collected into batches of {@code batchSize}. The images of a batch are copied
+ *   into the image folder in parallel, under a temporary name (eg 0101.jpg.importing), then the rows
+ *   are sent to the database as one JDBC batch.
+ * - The transaction is committed every {@code commitInterval} rows, not after every row.
+ *   If a batch fails (eg another client inserted the same ID meanwhile), the uncommitted rows are
+ *   rolled back and inserted again one by one, so only the failing rows are rejected.
+ * - The stock of every imported product is recorded in the stock ledger (an IMPORT movement),
+ *   in the same transaction as the products themselves.
+ * - Only after a commit are the copied images renamed to their real name, so an image file is never
+ *   replaced for a row that did not make it into the database. The copies of rejected rows, and of
+ *   the uncommitted rows if the import fails, are deleted.
+ * - Rejected rows are written to a rejects file next to the CSV (eg catalogue.csv.rejects.csv)
+ *   with their line number and the reasons, so they can be corrected and imported again.
+ *
+ * Note: Derby's SYSCS_UTIL.SYSCS_IMPORT_TABLE would be faster still, but it reads the file on the
+ * database side and cannot validate rows or copy images, so batched inserts are used instead.
+ */
+
+public class ProductCsvImporter {
+    private static final Logger log = Logger.getLogger(ProductCsvImporter.class);
+    private static final String INSERT_SQL = // same SQL as DerbyRW
+            "INSERT INTO ProductTable(productID, description, unitPricePence, image, inStock) VALUES(?, ?, ?, ?, ?)";
+
+    private final ConnectionPool pool;
+    private final ProductNameIndex nameIndex; // updated with the imported products, may be null
+    private final StockLedger ledger;         // records the imported stock, may be null
+    private final Path imageFolder;
+
+    private int batchSize = 500;         // rows per JDBC batch
+    private int commitInterval = 5000;   // rows per transaction
+    private int imageCopyThreads = 4;    // images copied at the same time
+
+    /**
+     * @param pool        the connection pool to borrow the connection from
+     * @param nameIndex   the name index to keep up to date, or null if there is none (eg a setup tool)
+     * @param ledger      the stock ledger to record the imported stock in, or null if there is none
+     * @param imageFolder the folder the product images are copied to, eg StorageLocation.imageFolderPath
+     */
+    public ProductCsvImporter(ConnectionPool pool, ProductNameIndex nameIndex, StockLedger ledger, Path imageFolder) {
+        this.pool = pool;
+        this.nameIndex = nameIndex;
+        this.ledger = ledger;
+        this.imageFolder = imageFolder;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public void setCommitInterval(int commitInterval) {
+        if (commitInterval <= 0) {
+            throw new IllegalArgumentException("commitInterval must be positive: " + commitInterval);
+        }
+        this.commitInterval = commitInterval;
+    }
+
+    public void setImageCopyThreads(int imageCopyThreads) {
+        if (imageCopyThreads <= 0) {
+            throw new IllegalArgumentException("imageCopyThreads must be positive: " + imageCopyThreads);
+        }
+        this.imageCopyThreads = imageCopyThreads;
+    }
+
+    /**
+     * Imports all valid rows of the CSV file.
+     *
+     * @return a summary of the import (rows read, inserted, rejected and where the rejects were written)
+     * @throws IOException  if the CSV file can not be read or the rejects file can not be written
+     * @throws SQLException if the database fails in a way that is not caused by a single row
+     */
+    public ImportSummary importFile(Path csvFile) throws IOException, SQLException {
+        long start = System.currentTimeMillis();
+        Path csvFolder = csvFile.toAbsolutePath().getParent();
+        ImportSummary summary = new ImportSummary(csvFile.resolveSibling(csvFile.getFileName() + ".rejects.csv"));
+        ExecutorService imageCopier = Executors.newFixedThreadPool(imageCopyThreads);
+
+        try (BufferedReader reader = Files.newBufferedReader(csvFile, StandardCharsets.UTF_8);
+             RejectsWriter rejects = new RejectsWriter(summary.rejectsFile);
+             PooledConnection pooled = pool.borrow()) {
+            pooled.getConnection().setAutoCommit(false);
+            HashMap<String, String> imageOwners = new HashMap<>(); // image name -> productID
+            HashSet<String> usedIds = loadExistingProducts(pooled, imageOwners); // IDs in the database and earlier in the file
+            Session session = new Session(pooled, imageCopier, rejects, summary);
+
+            try {
+                String line;
+                int lineNumber = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    List<String> fields = parseCsvLine(line);
+                    if (summary.rowsRead == 0 && lineNumber == 1 && fields.get(0).trim().equalsIgnoreCase("id")) {
+                        continue; // header line
+                    }
+                    summary.rowsRead++;
+
+                    ImportRow row = validate(lineNumber, line, fields, csvFolder, usedIds, imageOwners, rejects, summary);
+                    if (row != null) {
+                        usedIds.add(row.id);
+                        imageOwners.put(row.imageName, row.id);
+                        session.add(row);
+                    }
+                }
+                session.finish();
+            } finally {
+                session.discardStagedImages(); // only left if the import failed, the rows are rolled back
+            }
+        } finally {
+            imageCopier.shutdown();
+        }
+
+        DatabaseRWFactory.clearCatalogueCache(); // many products changed at once, nothing cached is reliable
+        summary.elapsedMillis = System.currentTimeMillis() - start;
+        log.info("{}", summary);
+        return summary;
+    }
+
+    // Checks one CSV row, returns the row to insert, or null if it was rejected.
+    private ImportRow validate(int lineNumber, String line, List<String> fields, Path csvFolder,
+                               HashSet<String> usedIds, HashMap<String, String> imageOwners,
+                               RejectsWriter rejects, ImportSummary summary) throws IOException {
+        if (fields.size() != 5) {
+            summary.rejected++;
+            rejects.write(lineNumber, "\u2022 Expected 5 columns (id, description, price, image, stock) but found "
+                    + fields.size() + ".", line);
+            return null;
+        }
+        String id = fields.get(0).trim();
+        String description = fields.get(1).trim();
+        String txPrice = fields.get(2).trim();
+        String image = fields.get(3).trim();
+        String txStock = fields.get(4).trim();
+
+        Path imagePath = image.isEmpty() ? null : csvFolder.resolve(image);
+        String imageUri = imagePath != null && Files.isRegularFile(imagePath) ? imagePath.toString() : null;
+
+        String errorMessage = ProductValidator.validateNewProduct(id, !usedIds.contains(id),
+                txPrice, txStock, description, imageUri);
+        if (!errorMessage.isEmpty()) {
+            summary.rejected++;
+            rejects.write(lineNumber, errorMessage, line);
+            return null;
+        }
+
+        // the image is named after the product ID, so it only clashes with a product that has an odd image name
+        String imageName = imageNameFor(id, imagePath);
+        String owner = imageOwners.get(imageName);
+        if (owner != null && !owner.equals(id)) {
+            summary.rejected++;
+            rejects.write(lineNumber, "\u2022 Image name " + imageName + " is already used by product " + owner + ".", line);
+            return null;
+        }
+        return new ImportRow(lineNumber, line, id, description, Money.parsePence(txPrice),
+                imagePath, imageName, Integer.parseInt(txStock));
+    }
+
+    // The name the image gets in the image folder: the product ID with the extension of the source file
+    private static String imageNameFor(String id, Path imagePath) {
+        String sourceFileName = imagePath.getFileName().toString();
+        int dot = sourceFileName.lastIndexOf('.');
+        return dot < 0 ? id : id + sourceFileName.substring(dot);
+    }
+
+    // Reads the IDs of the products in the database, and fills imageOwners with the image name of each of them
+    private HashSet<String> loadExistingProducts(PooledConnection pooled, HashMap<String, String> imageOwners)
+            throws SQLException {
+        HashSet<String> ids = new HashSet<>();
+        PreparedStatement stmt = pooled.prepareStatement("SELECT productID, image FROM ProductTable"); // cached, do not close
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                String id = rs.getString("productID").trim();
+                ids.add(id);
+                String image = rs.getString("image");
+                if (image != null && !image.isBlank()) {
+                    imageOwners.put(image.trim(), id);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Splits one CSV line into its fields. Fields may be quoted with double quotes,
+     * a quoted field may contain commas, and "" inside quotes stands for one quote.
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean inQuotes = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (inQuotes) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    inQuotes = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                inQuotes = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * The state of one running import: the current batch and the rows not committed yet.
+     */
+    private class Session {
+        private final PooledConnection pooled;
+        private final PreparedStatement insertStmt;
+        private final ExecutorService imageCopier;
+        private final RejectsWriter rejects;
+        private final ImportSummary summary;
+
+        private final List<ImportRow> batch = new ArrayList<>();       // waiting for images and executeBatch
+        private final List<ImportRow> uncommitted = new ArrayList<>(); // inserted, waiting for commit
+        private final List<ImportRow> staged = new ArrayList<>();      // image copied, not renamed or deleted yet
+
+        private Session(PooledConnection pooled, ExecutorService imageCopier, RejectsWriter rejects,
+                        ImportSummary summary) throws SQLException {
+            this.pooled = pooled;
+            this.insertStmt = pooled.prepareStatement(INSERT_SQL); // cached, do not close
+            this.imageCopier = imageCopier;
+            this.rejects = rejects;
+            this.summary = summary;
+        }
+
+        private void add(ImportRow row) throws IOException, SQLException {
+            batch.add(row);
+            if (batch.size() >= batchSize) {
+                flushBatch();
+            }
+        }
+
+        private void finish() throws IOException, SQLException {
+            flushBatch();
+            commit();
+        }
+
+        // Copies the images of the batch in parallel under their temporary name, then inserts the rows whose image was copied.
+        private void flushBatch() throws IOException, SQLException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<Future<Path>> copies = new ArrayList<>();
+            for (ImportRow row : batch) {
+                copies.add(imageCopier.submit(() -> stageImage(row)));
+            }
+
+            List<ImportRow> toInsert = new ArrayList<>();
+            for (int i = 0; i < batch.size(); i++) {
+                ImportRow row = batch.get(i);
+                try {
+                    row.stagedImage = copies.get(i).get();
+                    staged.add(row);
+                    toInsert.add(row);
+                } catch (ExecutionException e) {
+                    summary.rejected++;
+                    rejects.write(row.lineNumber, "\u2022 Image could not be copied: " + e.getCause().getMessage(), row.line);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while copying images", e);
+                }
+            }
+            batch.clear();
+
+            try {
+                for (ImportRow row : toInsert) {
+                    setParameters(row);
+                    insertStmt.addBatch();
+                }
+                insertStmt.executeBatch();
+                uncommitted.addAll(toInsert);
+            } catch (SQLException e) {
+                // some row failed, retry everything since the last commit one row at a time
+                insertStmt.clearBatch();
+                pooled.getConnection().rollback();
+                List<ImportRow> retry = new ArrayList<>(uncommitted);
+                retry.addAll(toInsert);
+                uncommitted.clear();
+                insertRowByRow(retry);
+            }
+
+            if (uncommitted.size() >= commitInterval) {
+                commit();
+            }
+        }
+
+        // Inserts the rows one at a time, rejecting the ones the database refuses.
+        private void insertRowByRow(List<ImportRow> rows) throws IOException, SQLException {
+            for (ImportRow row : rows) {
+                try {
+                    setParameters(row);
+                    insertStmt.executeUpdate(); // Derby only undoes the failed statement, not the transaction
+                    uncommitted.add(row);
+                } catch (SQLException e) {
+                    summary.rejected++;
+                    rejects.write(row.lineNumber, "\u2022 Database refused the row: " + e.getMessage(), row.line);
+                    discardStagedImage(row);
+                }
+            }
+        }
+
+        private void commit() throws SQLException {
+            if (ledger != null) {
+                // the movements are written last, so a row retried or rejected above never gets one
+                ArrayList<StockMovement> movements = new ArrayList<>();
+                for (ImportRow row : uncommitted) {
+                    movements.add(new StockMovement(row.id, row.stock, StockMovement.Reason.IMPORT, null));
+                }
+                ledger.append(pooled, movements);
+            }
+            pooled.getConnection().commit();
+            for (ImportRow row : uncommitted) {
+                publishImage(row);
+                if (nameIndex != null) {
+                    nameIndex.put(row.id, row.description);
+                }
+            }
+            summary.inserted += uncommitted.size();
+            log.info("Imported {} products so far", summary.inserted);
+            uncommitted.clear();
+        }
+
+        // Copies the image of the row to the image folder under a temporary name, so no existing image is replaced yet
+        private Path stageImage(ImportRow row) throws IOException {
+            Path target = imageFolder.resolve(row.imageName + ".importing");
+            try {
+                return Files.copy(row.imagePath, target, StandardCopyOption.REPLACE_EXISTING); // the temporary file is ours
+            } catch (IOException e) {
+                Files.deleteIfExists(target); // do not leave a half-copied file
+                throw e;
+            }
+        }
+
+        // Renames the copied image of a committed row to its real name. The name was checked against the other
+        // products' images in validate(), so a file already there is a leftover of an earlier product with this ID.
+        private void publishImage(ImportRow row) {
+            staged.remove(row);
+            try {
+                Files.move(row.stagedImage, imageFolder.resolve(row.imageName),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                summary.imagesCopied++;
+            } catch (IOException e) {
+                log.warn("Imported the product but could not rename its image {}", row.stagedImage, e);
+            }
+        }
+
+        private void discardStagedImage(ImportRow row) {
+            staged.remove(row);
+            try {
+                Files.deleteIfExists(row.stagedImage);
+            } catch (IOException e) {
+                log.warn("Could not delete the copied image {}", row.stagedImage, e);
+            }
+        }
+
+        // Deletes the copied images of the rows not committed, eg when the import stops with an exception
+        private void discardStagedImages() {
+            for (ImportRow row : new ArrayList<>(staged)) {
+                discardStagedImage(row);
+            }
+        }
+
+        private void setParameters(ImportRow row) throws SQLException {
+            insertStmt.setString(1, row.id);
+            insertStmt.setString(2, row.description);
+            insertStmt.setLong(3, row.price);
+            insertStmt.setString(4, row.imageName);
+            insertStmt.setInt(5, row.stock);
+        }
+    }
+
+    // One valid CSV row, waiting to be inserted.
+    private static class ImportRow {
+        private final int lineNumber;
+        private final String line; // the original text, written to the rejects file if the row fails later
+        private final String id;
+        private final String description;
+        private final long price; // in pence
+        private final Path imagePath;
+        private final String imageName; // the name in the image folder, eg 0101.jpg
+        private final int stock;
+        private Path stagedImage;       // set once the image has been copied, eg images/0101.jpg.importing
+
+        private ImportRow(int lineNumber, String line, String id, String description, long price,
+                          Path imagePath, String imageName, int stock) {
+            this.lineNumber = lineNumber;
+            this.line = line;
+            this.id = id;
+            this.description = description;
+            this.price = price;
+            this.imagePath = imagePath;
+            this.imageName = imageName;
+            this.stock = stock;
+        }
+    }
+
+    // Writes rejected rows as CSV: line number, reasons, original line. The file is only created if needed.
+    private static class RejectsWriter implements AutoCloseable {
+        private final Path file;
+        private BufferedWriter writer;
+
+        private RejectsWriter(Path file) {
+            this.file = file;
+        }
+
+        private void write(int lineNumber, String reasons, String line) throws IOException {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+                writer.write("line,reasons,original");
+                writer.newLine();
+            }
+            writer.write(lineNumber + "," + quote(reasons.replace("\n", " ")) + "," + quote(line));
+            writer.newLine();
+        }
+
+        private static String quote(String text) {
+            return "\"" + text.replace("\"", "\"\"") + "\"";
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * The result of an import.
+     */
+    public static class ImportSummary {
+        private final Path rejectsFile;
+        private int rowsRead = 0;
+        private int inserted = 0;
+        private int rejected = 0;
+        private int imagesCopied = 0;
+        private long elapsedMillis = 0;
+
+        private ImportSummary(Path rejectsFile) {
+            this.rejectsFile = rejectsFile;
+        }
+
+        public int getRowsRead() { return rowsRead; }
+        public int getInserted() { return inserted; }
+        public int getRejected() { return rejected; }
+        public int getImagesCopied() { return imagesCopied; }
+        public long getElapsedMillis() { return elapsedMillis; }
+
+        // The file the rejected rows were written to, it only exists if getRejected() > 0
+        public Path getRejectsFile() { return rejectsFile; }
+
+        @Override
+        public String toString() {
+            return String.format("Import finished in %dms: %d rows read, %d inserted, %d rejected%s",
+                    elapsedMillis, rowsRead, inserted, rejected,
+                    rejected > 0 ? " (see " + rejectsFile + ")" : "");
+        }
+    }
+}
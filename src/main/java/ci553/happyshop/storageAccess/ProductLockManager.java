@@ -0,0 +1,112 @@
+package ci553.happyshop.storageAccess;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ProductLockManager provides process-wide locks for products, striped by productID.
+ *
+ * Why:
+ * DerbyRW used to guard every write with one ReentrantLock per DerbyRW instance.
+ * Each client gets its own DerbyRW, so that lock did not protect one client from another,
+ * while inside one instance it made unrelated checkouts wait for each other.
+ *
+ * How it works:
+ * - There is a fixed array of locks (stripes). A productID is mapped to a stripe by its hash,
+ *   so two products usually use different locks and can be updated in parallel,
+ *   while the same product always uses the same lock, in every DerbyRW instance.
+ * - A trolley with several products locks all the stripes it needs before the transaction
+ *   starts. The stripes are always taken in ascending stripe order (and each stripe only once),
+ *   so two trolleys that share products can never wait for each other in a circle (no deadlock).
+ *
+ * This class follows the Singleton pattern, there is one lock table for the whole application.
+ *
+ * Example Usage:
+ *     try (ProductLockManager.Held held = ProductLockManager.getInstance().lockProducts(ids)) {
+ *         ... update the products ...
+ *     } // all stripes released here
+ */
+
+public class ProductLockManager {
+    private static final int STRIPE_COUNT = 64; // a power of two, so the index can be taken with a bit mask
+    private static final ProductLockManager instance = new ProductLockManager();
+
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPE_COUNT];
+
+    private ProductLockManager() {
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public static ProductLockManager getInstance() {
+        return instance;
+    }
+
+    // Locks the stripe of a single product.
+    public Held lockProduct(String productId) {
+        int[] stripeIndexes = {stripeIndex(productId)};
+        return lockStripes(stripeIndexes);
+    }
+
+    // Locks the stripes of all given products, in ascending stripe order.
+    public Held lockProducts(Collection<String> productIds) {
+        int[] stripeIndexes = productIds.stream()
+                .mapToInt(this::stripeIndex)
+                .distinct()
+                .sorted()
+                .toArray();
+        return lockStripes(stripeIndexes);
+    }
+
+    private Held lockStripes(int[] stripeIndexes) {
+        int locked = 0;
+        try {
+            for (int index : stripeIndexes) {
+                stripes[index].lock();
+                locked++;
+            }
+        } catch (RuntimeException | Error e) {
+            // release whatever was taken before the failure, then rethrow
+            for (int i = locked - 1; i >= 0; i--) {
+                stripes[stripeIndexes[i]].unlock();
+            }
+            throw e;
+        }
+        return new Held(stripeIndexes);
+    }
+
+    private int stripeIndex(String productId) {
+        int h = productId.trim().hashCode();
+        h ^= (h >>> 16); // spread the high bits, short IDs like "0001" differ mostly in the low bits
+        return h & (STRIPE_COUNT - 1);
+    }
+
+    /**
+     * The set of stripes held by one caller. Closing it releases the stripes in reverse order.
+     */
+    public class Held implements AutoCloseable {
+        private final int[] stripeIndexes;
+        private boolean released = false;
+
+        private Held(int[] stripeIndexes) {
+            this.stripeIndexes = stripeIndexes;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                for (int i = stripeIndexes.length - 1; i >= 0; i--) {
+                    stripes[stripeIndexes[i]].unlock();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Held stripes " + Arrays.toString(stripeIndexes);
+        }
+    }
+}
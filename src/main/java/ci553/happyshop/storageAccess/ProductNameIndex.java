@@ -0,0 +1,486 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.utility.Logger;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * ProductNameIndex is an in-memory inverted index over ProductTable.description.
+ *
+ * Searching with  LOWER(description) LIKE '%kw%'  makes Derby read every row of the table,
+ * so keyword searches get slower as the catalogue grows. Instead, each description is split into
+ * words (tokens) and the index remembers, for every word, which products contain it:
+ *
+ *     "usb"    -> {0007, 0008}
+ *     "drive"  -> {0007, 0008, 0009}
+ *     "radio"  -> {0002}
+ *
+ * and, for every suffix of every word, which words end with it, so the words containing any text
+ * are found with a range lookup ("adio" -> "adio..." suffixes -> "radio"):
+ *
+ *     "radio" -> {radio},  "adio" -> {radio},  "dio" -> {radio},  "io" -> {radio},  "o" -> {radio}
+ *
+ * How a search (search, searchPage) is answered, with the same results as the LIKE search:
+ * - The keyword is lower-cased and split into words the same way, eg "usb dr" -> ["usb", "dr"].
+ * - A product can only contain the keyword if each of its words is inside one of the product's words,
+ *   so each query word gives a candidate list: the posting lists of the words containing it.
+ * - The candidate lists are intersected by walking the smallest one in product ID order and checking each
+ *   candidate's lower-cased description contains the whole keyword (which also checks the other words,
+ *   their order and the spaces or punctuation between them). The result is sorted by product ID.
+ * - A keyword found in most products (eg "a"), or with no letters or digits (eg "-"), is answered by
+ *   checking the descriptions in ID order instead, which is cheaper then and stops as soon as a page is full.
+ * The keyword is matched literally: % and _ are not wildcards as they were in LIKE.
+ *
+ * Type-ahead (searchPrefix):
+ * The customer and warehouse search fields ask for suggestions on every keystroke, so searchPrefix
+ * matches by word prefix ("dr" finds "drive") and only walks the sorted maps until it has collected
+ * {@code limit} product IDs and then stops. It never builds the full match set (a one-letter prefix can
+ * match most of the catalogue), also for several words, so its cost and allocation depend on the limit,
+ * not on the size of the catalogue.
+ * Budget per keystroke (searchPrefix, limit 10, 100k products): p99 below 100 microseconds and at most 2 KB
+ * allocated, checked by ProductNameIndexBenchmark (in the benchmarks folder) with -prof gc.
+ *
+ * The index is built once from the database (load) and then kept up to date by DerbyRW
+ * whenever a product is inserted, updated or deleted. It is shared by all DerbyRW instances
+ * and owned by DatabaseRWFactory. Reads and writes are guarded by a read-write lock,
+ * so many searches can run at the same time.
+ */
+
+public class ProductNameIndex {
+    private static final Logger log = Logger.getLogger(ProductNameIndex.class);
+    private static final int DRIVER_MAX_WORDS = 64; // how far type-ahead counts the words a query word starts
+    private final TreeMap<String, TreeSet<String>> postings = new TreeMap<>();    // word -> sorted product IDs
+    private final TreeMap<String, HashSet<String>> wordsBySuffix = new TreeMap<>(); // word suffix -> words ending with it
+    private final TreeMap<String, IndexedProduct> productsById = new TreeMap<>(); // product ID -> its text, sorted by ID
+    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+    private volatile boolean loaded = false;
+
+    /**
+     * Builds the index from all rows of ProductTable, replacing anything indexed before.
+     */
+    public void load(ConnectionPool pool) throws SQLException {
+        String query = "SELECT productID, description FROM ProductTable";
+        rwLock.writeLock().lock();
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement stmt = pooled.prepareStatement(query); // cached, do not close
+            clearLocked();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    addLocked(rs.getString("productID"), rs.getString("description"));
+                }
+            }
+            loaded = true;
+            log.info("Product name index built: {} products, {} words.", productsById.size(), postings.size());
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /** Loads the given (productID -> description) pairs, used when the rows are already in memory. */
+    public void loadAll(Map<String, String> descriptionsById) {
+        rwLock.writeLock().lock();
+        try {
+            clearLocked();
+            for (Map.Entry<String, String> entry : descriptionsById.entrySet()) {
+                addLocked(entry.getKey(), entry.getValue());
+            }
+            loaded = true;
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // Adds a product, or re-indexes it if its description changed.
+    public void put(String productId, String description) {
+        rwLock.writeLock().lock();
+        try {
+            removeLocked(productId);
+            addLocked(productId, description);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    // Removes a product from the index.
+    public void remove(String productId) {
+        rwLock.writeLock().lock();
+        try {
+            removeLocked(productId);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the IDs of all products whose description contains the keyword (ignoring case),
+     * sorted by product ID. Empty if nothing matches.
+     */
+    public List<String> search(String keyword) {
+        if (keyword == null) {
+            return new ArrayList<>();
+        }
+        rwLock.readLock().lock();
+        try {
+            return matchLocked(keyword, null, Integer.MAX_VALUE);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * One page of search(keyword): at most {@code limit} IDs greater than {@code afterId}
+     * (null for the first page), sorted by product ID.
+     */
+    public List<String> searchPage(String keyword, String afterId, int limit) {
+        if (keyword == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+        rwLock.readLock().lock();
+        try {
+            return matchLocked(keyword, afterId, limit);
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Type-ahead lookup: returns at most {@code limit} product IDs, in this order:
+     * 1. products whose ID starts with the text (eg "00" -> 0001, 0002, ...), in ID order;
+     * 2. products with a description word starting with the text, in word order, so an exact
+     *    word ("usb") comes before longer ones ("usb3"), and in ID order within a word.
+     * If the text has several words ("usb dr"), every word must start one of the product's words, and the
+     * products come in the word order of the query word that starts the fewest indexed words (usually the
+     * longest one), and in ID order within a word.
+     */
+    public List<String> searchPrefix(String text, int limit) {
+        List<String> result = new ArrayList<>(Math.min(Math.max(limit, 0), 16));
+        String prefix = text == null ? "" : text.trim();
+        if (prefix.isEmpty() || limit <= 0) {
+            return result;
+        }
+        String[] queryWords = tokenize(prefix);
+
+        rwLock.readLock().lock();
+        try {
+            for (String id : productsById.subMap(prefix, true, prefix + Character.MAX_VALUE, false).keySet()) {
+                if (result.size() >= limit) {
+                    return result;
+                }
+                result.add(id);
+            }
+
+            if (queryWords.length == 1) {
+                // walk the matching words in order and stop as soon as we have enough IDs
+                for (TreeSet<String> ids : wordRange(queryWords[0]).values()) {
+                    for (String id : ids) {
+                        if (result.size() >= limit) {
+                            return result;
+                        }
+                        if (!result.contains(id)) { // the list is short, a linear check is cheaper than a set
+                            result.add(id);
+                        }
+                    }
+                }
+            } else if (queryWords.length > 1) {
+                // walk the query word starting the fewest indexed words (counted up to DRIVER_MAX_WORDS,
+                // a tie goes to the later word, the one being typed) as above, keeping the products
+                // that match the other words too: only as many products are checked as it takes to fill the list
+                NavigableMap<String, TreeSet<String>> driver = null;
+                int fewest = Integer.MAX_VALUE;
+                for (String word : queryWords) {
+                    NavigableMap<String, TreeSet<String>> range = wordRange(word);
+                    int count = countUpTo(range.keySet(), DRIVER_MAX_WORDS);
+                    if (count <= fewest) {
+                        driver = range;
+                        fewest = count;
+                    }
+                }
+                for (TreeSet<String> ids : driver.values()) {
+                    for (String id : ids) {
+                        if (result.size() >= limit) {
+                            return result;
+                        }
+                        if (!result.contains(id) && hasWordPrefixes(productsById.get(id).words, queryWords)) {
+                            result.add(id);
+                        }
+                    }
+                }
+            }
+            return result;
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    // The IDs of the products containing the keyword, after afterId (null: from the start), at most limit of them.
+    // The caller holds the read lock.
+    private List<String> matchLocked(String keyword, String afterId, int limit) {
+        String text = keyword.toLowerCase(Locale.ROOT);
+        List<String> result = new ArrayList<>(Math.min(limit, 16));
+        Predicate<String> contains = id -> productsById.get(id).text.contains(text);
+
+        // the candidate list of each query word: the posting lists of the words containing it
+        List<Collection<TreeSet<String>>> candidateLists = new ArrayList<>();
+        long smallest = Long.MAX_VALUE;
+        int smallestIndex = -1;
+        for (String word : tokenize(text)) {
+            List<TreeSet<String>> lists = new ArrayList<>();
+            long size = 0;
+            for (String containing : wordsContaining(word)) {
+                TreeSet<String> ids = postings.get(containing);
+                lists.add(ids);
+                size += ids.size();
+            }
+            if (size == 0) {
+                return result; // one word is in no product, so nothing contains the keyword
+            }
+            if (size < smallest) {
+                smallest = size;
+                smallestIndex = candidateLists.size();
+            }
+            candidateLists.add(lists);
+        }
+
+        if (smallestIndex < 0 || smallest > productsById.size() / 4) {
+            // no words, or the keyword is in a large part of the catalogue: check the descriptions in ID order
+            Collection<String> ids = afterId == null ? productsById.keySet()
+                                                     : productsById.tailMap(afterId, false).keySet();
+            for (String id : ids) {
+                if (result.size() >= limit) {
+                    break;
+                }
+                if (contains.test(id)) {
+                    result.add(id);
+                }
+            }
+            return result;
+        }
+        // intersect: walk the smallest candidate list in ID order, the description check covers the others
+        mergeInIdOrder(candidateLists.get(smallestIndex), afterId, limit, result, contains);
+        return result;
+    }
+
+    /**
+     * Adds to result the IDs of the sorted lists that pass the check, in ID order and without duplicates,
+     * starting after afterId (null: from the start), until limit IDs were added.
+     * The lists are merged with a heap of their next IDs, so only as many IDs are read as are needed.
+     */
+    private static void mergeInIdOrder(Collection<TreeSet<String>> lists, String afterId, int limit,
+                                       List<String> result, Predicate<String> check) {
+        if (limit <= 0) {
+            return;
+        }
+        PriorityQueue<IdCursor> heap = new PriorityQueue<>(Math.max(1, lists.size()));
+        for (TreeSet<String> ids : lists) {
+            Iterator<String> it = (afterId == null ? ids : ids.tailSet(afterId, false)).iterator();
+            if (it.hasNext()) {
+                heap.add(new IdCursor(it));
+            }
+        }
+        String previous = null;
+        int added = 0;
+        while (!heap.isEmpty() && added < limit) {
+            IdCursor cursor = heap.poll();
+            String id = cursor.current;
+            if (!id.equals(previous) && check.test(id)) { // an ID in several lists comes out of the heap together
+                result.add(id);
+                added++;
+            }
+            previous = id;
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+        }
+    }
+
+    // The indexed words containing the text, found through the suffixes that start with it.
+    private Set<String> wordsContaining(String text) {
+        NavigableMap<String, HashSet<String>> range =
+                wordsBySuffix.subMap(text, true, text + Character.MAX_VALUE, false);
+        if (range.size() == 1) {
+            return range.firstEntry().getValue();
+        }
+        Set<String> words = new HashSet<>();
+        for (HashSet<String> endingWith : range.values()) {
+            words.addAll(endingWith);
+        }
+        return words;
+    }
+
+    // The number of elements, counting no further than max
+    private static int countUpTo(Collection<String> elements, int max) {
+        int count = 0;
+        for (Iterator<String> it = elements.iterator(); it.hasNext() && count < max; it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    // true if every query word starts one of the product's words
+    private static boolean hasWordPrefixes(String[] productWords, String[] queryWords) {
+        for (String queryWord : queryWords) {
+            boolean found = false;
+            for (String word : productWords) {
+                if (word.startsWith(queryWord)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // All indexed words starting with the prefix, with their posting lists, in word order.
+    private NavigableMap<String, TreeSet<String>> wordRange(String prefix) {
+        return postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private void clearLocked() {
+        postings.clear();
+        wordsBySuffix.clear();
+        productsById.clear();
+    }
+
+    private void addLocked(String productId, String description) {
+        String text = description == null ? "" : description.toLowerCase(Locale.ROOT);
+        String[] words = tokenize(text);
+        productsById.put(productId, new IndexedProduct(text, words));
+        for (String word : words) {
+            TreeSet<String> ids = postings.get(word);
+            if (ids == null) {
+                ids = new TreeSet<>();
+                postings.put(word, ids);
+                for (int i = 0; i < word.length(); i++) { // a new word, remember its suffixes
+                    wordsBySuffix.computeIfAbsent(word.substring(i), suffix -> new HashSet<>()).add(word);
+                }
+            }
+            ids.add(productId);
+        }
+    }
+
+    private void removeLocked(String productId) {
+        IndexedProduct old = productsById.remove(productId);
+        if (old == null) {
+            return;
+        }
+        for (String word : old.words) {
+            TreeSet<String> ids = postings.get(word);
+            if (ids != null) {
+                ids.remove(productId);
+                if (ids.isEmpty()) {
+                    postings.remove(word); // keep the word map free of empty entries
+                    for (int i = 0; i < word.length(); i++) {
+                        HashSet<String> endingWith = wordsBySuffix.get(word.substring(i));
+                        if (endingWith != null && endingWith.remove(word) && endingWith.isEmpty()) {
+                            wordsBySuffix.remove(word.substring(i));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Splits text into lower-case words made of letters and digits, eg "40 inch TV" -> ["40", "inch", "tv"]
+    static String[] tokenize(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+        return words.stream().distinct().toArray(String[]::new);
+    }
+
+    // a set of getter methods for index statistics
+    public int getProductCount() {
+        rwLock.readLock().lock();
+        try {
+            return productsById.size();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    public int getWordCount() {
+        rwLock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            rwLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ProductNameIndex[products: " + getProductCount() + ", words: " + getWordCount() + "]";
+    }
+
+    // An indexed product: its lower-cased description, and the words in it
+    private static class IndexedProduct {
+        final String text;
+        final String[] words;
+
+        IndexedProduct(String text, String[] words) {
+            this.text = text;
+            this.words = words;
+        }
+    }
+
+    // The next ID of one sorted posting list, ordered by that ID in mergeInIdOrder's heap
+    private static class IdCursor implements Comparable<IdCursor> {
+        private final Iterator<String> iterator;
+        private String current;
+
+        IdCursor(Iterator<String> iterator) {
+            this.iterator = iterator;
+            this.current = iterator.next();
+        }
+
+        boolean advance() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            current = iterator.next();
+            return true;
+        }
+
+        @Override
+        public int compareTo(IdCursor other) {
+            return current.compareTo(other.current);
+        }
+    }
+}
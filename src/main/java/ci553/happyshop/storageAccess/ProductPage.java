@@ -0,0 +1,49 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+
+import java.util.ArrayList;
+
+/**
+ * One page of search results, returned by DatabaseRW.searchProductPage.
+ *
+ * Pages use keyset pagination on productID: the results are sorted by product ID and the
+ * continuation token remembers the last ID of this page, so the next page is simply
+ * "the matches with an ID greater than the token". Unlike an offset, this costs the same
+ * for page 1 and page 1000, and does not skip or repeat rows when products are added or deleted
+ * between two pages.
+ *
+ * Example Usage:
+ *     ProductPage page = databaseRW.searchProductPage("usb", 50, null);   // first page
+ *     while (page.hasMore()) {
+ *         page = databaseRW.searchProductPage("usb", 50, page.getContinuationToken());
+ *     }
+ */
+
+public class ProductPage {
+    private final ArrayList<Product> products;
+    private final String continuationToken; // null on the last page
+
+    public ProductPage(ArrayList<Product> products, String continuationToken) {
+        this.products = products;
+        this.continuationToken = continuationToken;
+    }
+
+    public ArrayList<Product> getProducts() {
+        return products;
+    }
+
+    // Pass this to searchProductPage to get the next page, null if this is the last page.
+    public String getContinuationToken() {
+        return continuationToken;
+    }
+
+    public boolean hasMore() {
+        return continuationToken != null;
+    }
+
+    @Override
+    public String toString() {
+        return "ProductPage[products: " + products.size() + ", next: " + continuationToken + "]";
+    }
+}
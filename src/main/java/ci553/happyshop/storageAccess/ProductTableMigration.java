@@ -0,0 +1,66 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.utility.Logger;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * ProductTableMigration brings a ProductTable made by an older version of HappyShop up to date.
+ *
+ * Prices in pence:
+ * Older databases store the price as  unitPrice DOUBLE  (pounds). The current code reads and writes
+ *  unitPricePence BIGINT  (whole pence, see Money). The migration, in one transaction:
+ *     1. adds the unitPricePence column
+ *     2. fills it with the old price rounded to the nearest penny (29.99 -> 2999)
+ *     3. drops the unitPrice column
+ * so either the whole table is converted or nothing changes. The new column is added at the end of the table,
+ * which is why every INSERT into ProductTable names its columns.
+ *
+ * DatabaseRWFactory runs the migration once, when the connection pool is created.
+ * Running it on a table that is already up to date does nothing.
+ */
+
+public class ProductTableMigration {
+    private static final Logger log = Logger.getLogger(ProductTableMigration.class);
+
+    /**
+     * Converts ProductTable.unitPrice (DOUBLE, pounds) to unitPricePence (BIGINT, pence) if it has not been done yet.
+     *
+     * @return true if the table was converted now, false if there was nothing to do
+     */
+    public static boolean migratePricesToPence(ConnectionPool pool) throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            Connection conn = pooled.getConnection();
+            if (!hasColumn(conn, "PRODUCTTABLE", "UNITPRICE")) {
+                return false; // already in pence, or there is no ProductTable yet (SetDatabase creates it in pence)
+            }
+            conn.setAutoCommit(false); // Derby DDL is transactional, the three steps succeed or fail together
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("ALTER TABLE ProductTable ADD COLUMN unitPricePence BIGINT NOT NULL DEFAULT 0");
+                // Derby has no ROUND(), FLOOR(x + 0.5) rounds a positive price to the nearest penny
+                int rows = stmt.executeUpdate(
+                        "UPDATE ProductTable SET unitPricePence = CAST(FLOOR(unitPrice * 100 + 0.5) AS BIGINT)");
+                stmt.executeUpdate("ALTER TABLE ProductTable DROP COLUMN unitPrice");
+                conn.commit();
+                log.info("ProductTable migrated to prices in pence, {} products converted", rows);
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                if (!hasColumn(conn, "PRODUCTTABLE", "UNITPRICE")) {
+                    return false; // another process migrated the table at the same time
+                }
+                throw e;
+            }
+        }
+    }
+
+    // Derby keeps unquoted names in upper case
+    private static boolean hasColumn(Connection conn, String table, String column) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getColumns(null, null, table, column)) {
+            return rs.next();
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.utility.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StockLedger keeps an append-only history of every stock change, next to ProductTable.
+ *
+ * Why:
+ * purchaseStocks and updateProduct overwrite ProductTable.inStock in place, so the database only knows
+ * the current stock. The ledger also records how it got there, one StockMovement row per change:
+ *     StockMovement(movementId, productID, delta, reason, orderId, movedAt)
+ * The rows are written by DerbyRW (and ProductCsvImporter) in the SAME transaction as the ProductTable
+ * update, as one JDBC batch, so the ledger and the table can never disagree after a commit or a rollback.
+ *
+ * Reads:
+ * - Current stock is still read from ProductTable.inStock, one primary key lookup (nothing changes for the shop).
+ * - "How fast is product X selling" is a range scan of the index on (productID, movedAt), see unitsSold/salesPerDay.
+ * - Rebuilding stock from the ledger (eg after an incident, or to reconcile) starts from the last snapshot:
+ *     StockSnapshot(productID, inStock, lastMovementId, takenAt)
+ *   holds the ledger stock of every product up to movement lastMovementId, so a rebuild only adds up
+ *   the movements after it (a range scan of the primary key), not the whole history.
+ *   takeSnapshot() moves the snapshot forward, DatabaseRWFactory calls it periodically.
+ *
+ * Example Usage:
+ *     StockLedger ledger = DatabaseRWFactory.getStockLedger();
+ *     int sold = ledger.unitsSold("0001", LocalDateTime.now().minusDays(7), LocalDateTime.now());
+ *     List<StockLedger.Discrepancy> problems = ledger.reconcile(); // empty if ProductTable agrees with the ledger
+ */
+
+public class StockLedger {
+    private static final Logger log = Logger.getLogger(StockLedger.class);
+
+    // Table definitions, also used by SetDatabase
+    public static final String CREATE_MOVEMENT_TABLE = "CREATE TABLE StockMovement(" +
+            "movementId BIGINT GENERATED ALWAYS AS IDENTITY CONSTRAINT StockMovementPK PRIMARY KEY," +
+            "productID CHAR(4) NOT NULL," +
+            "delta INT NOT NULL," +
+            "reason VARCHAR(12) NOT NULL," +
+            "orderId INT," +
+            "movedAt TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP" +
+            ")";
+    public static final String CREATE_MOVEMENT_INDEX =
+            "CREATE INDEX StockMovementByProductTime ON StockMovement(productID, movedAt)";
+    public static final String CREATE_SNAPSHOT_TABLE = "CREATE TABLE StockSnapshot(" +
+            "productID CHAR(4) PRIMARY KEY," +
+            "inStock INT NOT NULL," +
+            "lastMovementId BIGINT NOT NULL," +
+            "takenAt TIMESTAMP NOT NULL" +
+            ")";
+    // Opening balances: the stock already in ProductTable when the ledger starts
+    public static final String INSERT_OPENING_BALANCES =
+            "INSERT INTO StockMovement(productID, delta, reason) " +
+            "SELECT productID, inStock, '" + StockMovement.Reason.INITIAL + "' FROM ProductTable WHERE inStock <> 0";
+
+    private static final String INSERT_SQL = "INSERT INTO StockMovement(productID, delta, reason, orderId) VALUES(?, ?, ?, ?)";
+    // Makes Derby read "movementId > cut" as a range of the primary key; otherwise it may pick the productID index
+    // and read the product's whole history. The hint is a comment, so it has to end the line.
+    private static final String AFTER_CUT_HINT = "--DERBY-PROPERTIES constraint=StockMovementPK\n";
+    private static final String TABLE_EXISTS_SQL_STATE = "X0Y32";
+
+    private final ConnectionPool pool;
+    // the lastMovementId of the current snapshot, 0 before the first one;
+    // an older value is still correct for a rebuild, only slower, so it is safe to read while another process moves it on
+    private volatile long snapshotCut = 0;
+    private ScheduledExecutorService snapshotTimer; // null unless periodic snapshots are running
+
+    public StockLedger(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Creates the ledger tables if the database does not have them yet (a database made before the ledger existed),
+     * with an opening balance movement for the current stock of every product.
+     * Safe to call every time the shop starts, and from several processes at once.
+     */
+    public void ensureTables() throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            Connection conn = pooled.getConnection();
+            boolean exists;
+            try (ResultSet rs = conn.getMetaData().getTables(null, null, "STOCKMOVEMENT", null)) {
+                exists = rs.next();
+            }
+            if (!exists) {
+                conn.setAutoCommit(false); // Derby DDL is transactional, so the tables and balances appear together
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.executeUpdate(CREATE_MOVEMENT_TABLE);
+                    stmt.executeUpdate(CREATE_MOVEMENT_INDEX);
+                    stmt.executeUpdate(CREATE_SNAPSHOT_TABLE);
+                    int products = stmt.executeUpdate(INSERT_OPENING_BALANCES);
+                    conn.commit();
+                    log.info("Stock ledger created, opening balances for {} products", products);
+                } catch (SQLException e) {
+                    conn.rollback();
+                    if (!TABLE_EXISTS_SQL_STATE.equals(e.getSQLState())) {
+                        throw e;
+                    } // else another process created the tables at the same time, they are there now
+                }
+            }
+            PreparedStatement stmt = pooled.prepareStatement("SELECT MAX(lastMovementId) FROM StockSnapshot"); // cached, do not close
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    snapshotCut = rs.getLong(1); // 0 (SQL NULL) if there is no snapshot yet
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends the movements as one JDBC batch on the caller's connection, inside the caller's transaction:
+     * they are committed or rolled back together with the caller's ProductTable update.
+     * Movements with a delta of 0 are skipped.
+     */
+    void append(PooledConnection pooled, List<StockMovement> movements) throws SQLException {
+        PreparedStatement stmt = pooled.prepareStatement(INSERT_SQL); // cached, do not close
+        int rows = 0;
+        try {
+            for (StockMovement movement : movements) {
+                if (movement.getDelta() == 0) {
+                    continue;
+                }
+                stmt.setString(1, movement.getProductId());
+                stmt.setInt(2, movement.getDelta());
+                stmt.setString(3, movement.getReason().name());
+                if (movement.getOrderId() == null) {
+                    stmt.setNull(4, Types.INTEGER);
+                } else {
+                    stmt.setInt(4, movement.getOrderId());
+                }
+                stmt.addBatch();
+                rows++;
+            }
+            if (rows > 0) {
+                stmt.executeBatch();
+            }
+        } catch (SQLException e) {
+            stmt.clearBatch(); // the cached statement must not keep a half-built batch
+            throw e;
+        }
+    }
+
+    // Appends a single movement, see append(pooled, movements)
+    void append(PooledConnection pooled, StockMovement movement) throws SQLException {
+        append(pooled, List.of(movement));
+    }
+
+    /**
+     * Moves the snapshot forward to the latest movement: snapshot stock + movements since the last snapshot.
+     * Only the movements since the last snapshot are read (a range scan of the primary key).
+     *
+     * A movement of a transaction that is still running is locked by it, so the scan waits for that
+     * transaction to commit or roll back; a snapshot never skips a movement that commits later.
+     * The snapshot table is locked for the whole update, so two processes never take one at the same time.
+     *
+     * @return the number of movements added to the snapshot (0 if nothing changed)
+     */
+    public synchronized int takeSnapshot() throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("LOCK TABLE StockSnapshot IN EXCLUSIVE MODE");
+
+                long oldCut = 0;
+                HashMap<String, Integer> stock = new HashMap<>();
+                try (ResultSet rs = stmt.executeQuery("SELECT productID, inStock, lastMovementId FROM StockSnapshot")) {
+                    while (rs.next()) {
+                        stock.put(rs.getString(1), rs.getInt(2));
+                        oldCut = Math.max(oldCut, rs.getLong(3));
+                    }
+                }
+                long newCut = oldCut;
+                try (ResultSet rs = stmt.executeQuery("SELECT MAX(movementId) FROM StockMovement")) {
+                    if (rs.next()) {
+                        newCut = Math.max(oldCut, rs.getLong(1));
+                    }
+                }
+                if (newCut == oldCut) {
+                    conn.commit();
+                    snapshotCut = oldCut;
+                    return 0;
+                }
+
+                int movements = 0;
+                PreparedStatement sumStmt = pooled.prepareStatement("SELECT productID, SUM(delta), COUNT(*) FROM StockMovement " +
+                        AFTER_CUT_HINT + "WHERE movementId > ? AND movementId <= ? GROUP BY productID"); // cached, do not close
+                sumStmt.setLong(1, oldCut);
+                sumStmt.setLong(2, newCut);
+                try (ResultSet rs = sumStmt.executeQuery()) {
+                    while (rs.next()) {
+                        stock.merge(rs.getString(1), rs.getInt(2), Integer::sum);
+                        movements += rs.getInt(3);
+                    }
+                }
+
+                // replace the whole snapshot, every row gets the new cut
+                stmt.executeUpdate("DELETE FROM StockSnapshot");
+                PreparedStatement insertStmt = pooled.prepareStatement(
+                        "INSERT INTO StockSnapshot VALUES(?, ?, ?, ?)"); // cached, do not close
+                Timestamp takenAt = Timestamp.valueOf(LocalDateTime.now());
+                try {
+                    for (Map.Entry<String, Integer> entry : stock.entrySet()) {
+                        insertStmt.setString(1, entry.getKey());
+                        insertStmt.setInt(2, entry.getValue());
+                        insertStmt.setLong(3, newCut);
+                        insertStmt.setTimestamp(4, takenAt);
+                        insertStmt.addBatch();
+                    }
+                    insertStmt.executeBatch();
+                } catch (SQLException e) {
+                    insertStmt.clearBatch();
+                    throw e;
+                }
+                conn.commit();
+                snapshotCut = newCut;
+                log.debug("Stock snapshot taken up to movement {}, {} new movements", newCut, movements);
+                return movements;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot every intervalMinutes on a background thread, until stopPeriodicSnapshots().
+     */
+    public synchronized void startPeriodicSnapshots(long intervalMinutes) {
+        if (snapshotTimer != null || intervalMinutes <= 0) {
+            return;
+        }
+        snapshotTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "happyshop-stock-snapshot");
+            thread.setDaemon(true); // never keeps the application running
+            return thread;
+        });
+        snapshotTimer.scheduleWithFixedDelay(() -> {
+            try {
+                takeSnapshot();
+            } catch (SQLException e) {
+                log.warn("Stock snapshot failed, it is tried again later: {}", e.getMessage());
+            }
+        }, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    public synchronized void stopPeriodicSnapshots() {
+        if (snapshotTimer != null) {
+            snapshotTimer.shutdownNow();
+            snapshotTimer = null;
+        }
+    }
+
+    /**
+     * Returns the stock of the product according to the ledger: its snapshot stock plus the movements after the snapshot.
+     */
+    public int rebuildStock(String productId) throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            int stock = 0;
+            long cut = snapshotCut;
+            PreparedStatement snapshotStmt = pooled.prepareStatement(
+                    "SELECT inStock, lastMovementId FROM StockSnapshot WHERE productID = ?"); // cached, do not close
+            snapshotStmt.setString(1, productId);
+            try (ResultSet rs = snapshotStmt.executeQuery()) {
+                if (rs.next()) {
+                    stock = rs.getInt(1);
+                    cut = rs.getLong(2);
+                }
+            } // no row: the product had no movements up to the snapshot, so it starts at 0
+
+            PreparedStatement sumStmt = pooled.prepareStatement("SELECT COALESCE(SUM(delta), 0) FROM StockMovement " +
+                    AFTER_CUT_HINT + "WHERE movementId > ? AND productID = ?"); // cached, do not close
+            sumStmt.setLong(1, cut);
+            sumStmt.setString(2, productId);
+            try (ResultSet rs = sumStmt.executeQuery()) {
+                rs.next();
+                return stock + rs.getInt(1);
+            }
+        }
+    }
+
+    /**
+     * Compares ProductTable.inStock of every product with the stock rebuilt from the ledger.
+     * Reads the snapshot, the movements since the snapshot and ProductTable, one query each.
+     *
+     * @return the products where the two differ, empty if everything agrees
+     */
+    public List<Discrepancy> reconcile() throws SQLException {
+        HashMap<String, Integer> ledgerStock = new HashMap<>();
+        HashMap<String, Integer> recordedStock = new HashMap<>();
+        try (PooledConnection pooled = pool.borrow();
+             Statement stmt = pooled.getConnection().createStatement()) {
+            long cut = 0;
+            try (ResultSet rs = stmt.executeQuery("SELECT productID, inStock, lastMovementId FROM StockSnapshot")) {
+                while (rs.next()) {
+                    ledgerStock.put(rs.getString(1), rs.getInt(2));
+                    cut = Math.max(cut, rs.getLong(3));
+                }
+            }
+            PreparedStatement sumStmt = pooled.prepareStatement("SELECT productID, SUM(delta) FROM StockMovement " +
+                    AFTER_CUT_HINT + "WHERE movementId > ? GROUP BY productID"); // cached, do not close
+            sumStmt.setLong(1, cut);
+            try (ResultSet rs = sumStmt.executeQuery()) {
+                while (rs.next()) {
+                    ledgerStock.merge(rs.getString(1), rs.getInt(2), Integer::sum);
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT productID, inStock FROM ProductTable")) {
+                while (rs.next()) {
+                    recordedStock.put(rs.getString(1), rs.getInt(2));
+                }
+            }
+        }
+
+        List<Discrepancy> discrepancies = new ArrayList<>();
+        TreeSet<String> productIds = new TreeSet<>(recordedStock.keySet());
+        productIds.addAll(ledgerStock.keySet());
+        for (String productId : productIds) {
+            int recorded = recordedStock.getOrDefault(productId, 0); // a deleted product should have 0 in the ledger
+            int rebuilt = ledgerStock.getOrDefault(productId, 0);
+            if (recorded != rebuilt) {
+                discrepancies.add(new Discrepancy(productId.trim(), recorded, rebuilt));
+            }
+        }
+        if (!discrepancies.isEmpty()) {
+            log.warn("Stock reconciliation found {} products that differ from the ledger", discrepancies.size());
+        }
+        return discrepancies;
+    }
+
+    /**
+     * Returns the number of units of the product sold (SALE movements) from 'from' (inclusive) to 'to' (exclusive).
+     */
+    public int unitsSold(String productId, LocalDateTime from, LocalDateTime to) throws SQLException {
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement stmt = pooled.prepareStatement("SELECT COALESCE(SUM(delta), 0) FROM StockMovement " +
+                    "WHERE productID = ? AND movedAt >= ? AND movedAt < ? AND reason = '"
+                    + StockMovement.Reason.SALE + "'"); // cached, do not close
+            stmt.setString(1, productId);
+            stmt.setTimestamp(2, Timestamp.valueOf(from));
+            stmt.setTimestamp(3, Timestamp.valueOf(to));
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return -rs.getInt(1); // sales are negative deltas
+            }
+        }
+    }
+
+    /**
+     * Returns the average number of units of the product sold per day from 'from' to 'to'.
+     */
+    public double salesPerDay(String productId, LocalDateTime from, LocalDateTime to) throws SQLException {
+        double days = Duration.between(from, to).toMillis() / (double) Duration.ofDays(1).toMillis();
+        if (days <= 0) {
+            throw new IllegalArgumentException("'to' must be after 'from': " + from + " " + to);
+        }
+        return unitsSold(productId, from, to) / days;
+    }
+
+    /**
+     * Returns the movements of the product from 'from' (inclusive) to 'to' (exclusive), oldest first.
+     */
+    public List<StockMovement> movements(String productId, LocalDateTime from, LocalDateTime to) throws SQLException {
+        List<StockMovement> movements = new ArrayList<>();
+        try (PooledConnection pooled = pool.borrow()) {
+            PreparedStatement stmt = pooled.prepareStatement("SELECT * FROM StockMovement " +
+                    "WHERE productID = ? AND movedAt >= ? AND movedAt < ? ORDER BY movedAt, movementId"); // cached, do not close
+            stmt.setString(1, productId);
+            stmt.setTimestamp(2, Timestamp.valueOf(from));
+            stmt.setTimestamp(3, Timestamp.valueOf(to));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int orderValue = rs.getInt("orderId");
+                    Integer orderId = rs.wasNull() ? null : orderValue; // must be checked straight after getInt
+                    movements.add(new StockMovement(rs.getLong("movementId"), rs.getString("productID").trim(),
+                            rs.getInt("delta"), StockMovement.Reason.valueOf(rs.getString("reason")),
+                            orderId, rs.getTimestamp("movedAt").toLocalDateTime()));
+                }
+            }
+        }
+        return movements;
+    }
+
+    /**
+     * A product whose ProductTable stock differs from the stock rebuilt from the ledger.
+     */
+    public static class Discrepancy {
+        private final String productId;
+        private final int recordedStock; // ProductTable.inStock (0 if the product no longer exists)
+        private final int ledgerStock;   // snapshot + movements since
+
+        Discrepancy(String productId, int recordedStock, int ledgerStock) {
+            this.productId = productId;
+            this.recordedStock = recordedStock;
+            this.ledgerStock = ledgerStock;
+        }
+
+        public String getProductId() { return productId; }
+        public int getRecordedStock() { return recordedStock; }
+        public int getLedgerStock() { return ledgerStock; }
+
+        @Override
+        public String toString() {
+            return String.format("%s: ProductTable %d, ledger %d", productId, recordedStock, ledgerStock);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ci553.happyshop.storageAccess;
+
+import java.time.LocalDateTime;
+
+/**
+ * One row of the StockMovement ledger: a change to the stock of one product.
+ *
+ * The delta is positive when stock arrives (a new product, a warehouse correction upwards, an import)
+ * and negative when it leaves (a sale, a correction downwards, a product being removed).
+ * The sum of all deltas of a product is its stock, which is how the ledger can rebuild ProductTable.inStock.
+ *
+ * Movements are created by DerbyRW and ProductCsvImporter (movementId 0 and movedAt null until stored)
+ * and read back by StockLedger.movements(...).
+ */
+
+public class StockMovement {
+
+    // Why the stock changed, stored as text in the reason column
+    public enum Reason {
+        INITIAL,     // stock of a new product, or the opening balance when the ledger was created
+        SALE,        // a customer checkout (purchaseStocks)
+        ADJUSTMENT,  // the warehouse changed the stock of an existing product
+        REMOVED,     // the product was deleted, its remaining stock leaves the ledger
+        IMPORT       // stock of a product added by the bulk CSV import
+    }
+
+    private final long movementId;      // assigned by the database, 0 for a movement not stored yet
+    private final String productId;
+    private final int delta;
+    private final Reason reason;
+    private final Integer orderId;      // the order that caused a sale, null for the other reasons (or a sale made outside an order)
+    private final LocalDateTime movedAt; // set by the database, null for a movement not stored yet
+
+    // a new movement, to be appended by StockLedger.append
+    public StockMovement(String productId, int delta, Reason reason, Integer orderId) {
+        this(0, productId, delta, reason, orderId, null);
+    }
+
+    StockMovement(long movementId, String productId, int delta, Reason reason, Integer orderId, LocalDateTime movedAt) {
+        this.movementId = movementId;
+        this.productId = productId;
+        this.delta = delta;
+        this.reason = reason;
+        this.orderId = orderId;
+        this.movedAt = movedAt;
+    }
+
+    public long getMovementId() { return movementId; }
+    public String getProductId() { return productId; }
+    public int getDelta() { return delta; }
+    public Reason getReason() { return reason; }
+    public Integer getOrderId() { return orderId; }
+    public LocalDateTime getMovedAt() { return movedAt; }
+
+    @Override
+    public String toString() {
+        return String.format("#%d %s %+d %s%s %s", movementId, productId, delta, reason,
+                orderId == null ? "" : " order " + orderId, movedAt == null ? "" : movedAt);
+    }
+}
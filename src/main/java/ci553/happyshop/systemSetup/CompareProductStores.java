@@ -0,0 +1,108 @@
+package ci553.happyshop.systemSetup;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.storageAccess.DatabaseRW;
+import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import ci553.happyshop.storageAccess.DerbyRW;
+import ci553.happyshop.storageAccess.LogStructuredRW;
+import ci553.happyshop.utility.LogLevel;
+import ci553.happyshop.utility.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class compares the speed of the two product stores, DerbyRW and LogStructuredRW,
+ * on the same catalogue, to help decide which one a till should use.
+ *
+ * Usage (from the application's working directory, with the shop clients closed):
+ *     CompareProductStores [iterations]
+ *
+ * The products of happyShopDB are copied into a temporary product log, then each store runs:
+ * 1. searchByProductId for every product in turn
+ * 2. searchProduct by the first word of each description
+ * 3. purchaseStocks of two products with a quantity of 0, so the stock levels do not change
+ *    (the write path, locking and transaction are the same as for a real checkout)
+ * The average time per call is printed for each store.
+ * The catalogue cache is not used, so both stores are measured directly.
+ */
+
+public class CompareProductStores {
+
+    public static void main(String[] args) throws IOException, SQLException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        Logger.setLevel("ci553.happyshop.storageAccess", LogLevel.WARN); // no log line per purchase
+
+        DerbyRW derby = new DerbyRW(DatabaseRWFactory.getConnectionPool(), DatabaseRWFactory.getProductNameIndex(),
+                DatabaseRWFactory.getStockLedger());
+        Path logFolder = Files.createTempDirectory("happyshop-productLog");
+        LogStructuredRW logStore = new LogStructuredRW(logFolder, false);
+        logStore.importFrom(DatabaseRWFactory.getConnectionPool());
+
+        List<String> ids = new ArrayList<>();
+        List<String> words = new ArrayList<>();
+        for (String id : new String[]{"0001", "0002", "0003", "0004", "0005", "0006", "0007", "0008", "0009"}) {
+            Product product = derby.searchByProductId(id);
+            if (product != null) {
+                ids.add(id);
+                words.add(product.getProductDescription().split(" ")[0]);
+            }
+        }
+        if (ids.size() < 2) {
+            System.out.println("The database needs at least two of the products 0001 to 0009, run SetDatabase first.");
+            return;
+        }
+
+        System.out.printf("%d iterations, %d products%n", iterations, logStore.size());
+        for (int round = 0; round < 2; round++) { // the first round warms up the JIT and the caches
+            boolean print = round == 1;
+            run("DerbyRW", derby, ids, words, iterations, print);
+            run("LogStructuredRW", logStore, ids, words, iterations, print);
+        }
+
+        logStore.close();
+        SetDatabase.deleteFilesInFolder(logFolder);
+        Files.deleteIfExists(logFolder);
+        DatabaseRWFactory.getConnectionPool().closeIdleConnections();
+    }
+
+    private static void run(String name, DatabaseRW store, List<String> ids, List<String> words,
+                            int iterations, boolean print) throws SQLException {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            store.searchByProductId(ids.get(i % ids.size()));
+        }
+        long searchById = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            store.searchProduct(words.get(i % words.size()));
+        }
+        long searchByName = System.nanoTime() - start;
+
+        int purchases = iterations / 4;
+        start = System.nanoTime();
+        for (int i = 0; i < purchases; i++) {
+            ArrayList<Product> trolley = new ArrayList<>();
+            trolley.add(trolleyLine(ids.get(i % ids.size())));
+            trolley.add(trolleyLine(ids.get((i + 1) % ids.size())));
+            store.purchaseStocks(trolley, null); // not a real order
+        }
+        long purchase = System.nanoTime() - start;
+
+        if (print) {
+            System.out.printf("%-16s searchByProductId %8.2f us   searchProduct %8.2f us   purchaseStocks %8.2f us%n",
+                    name, searchById / 1e3 / iterations, searchByName / 1e3 / iterations, purchase / 1e3 / purchases);
+        }
+    }
+
+    private static Product trolleyLine(String id) {
+        Product line = new Product(id, "", "", 0, 0);
+        line.setOrderedQuantity(0);
+        return line;
+    }
+}
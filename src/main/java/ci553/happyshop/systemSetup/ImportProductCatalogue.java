@@ -0,0 +1,52 @@
+package ci553.happyshop.systemSetup;
+
+import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import ci553.happyshop.storageAccess.ProductCsvImporter;
+import ci553.happyshop.utility.StorageLocation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+
+/**
+ * This class imports a supplier catalogue (a CSV file) into the product database.
+ *
+ * Usage (from the application's working directory):
+ *     ImportProductCatalogue <catalogue.csv> [commitInterval] [batchSize]
+ *
+ * The CSV columns are: id, description, price, image, stock (see ProductCsvImporter for details).
+ * Images named in the CSV are copied into the working image folder (images/).
+ * Rows that fail validation are written to <catalogue.csv>.rejects.csv.
+ *
+ * Existing products are never changed, a row whose ID is already in use is rejected.
+ * Derby's embedded database can only be opened by one program at a time,
+ * so run this while the shop clients are closed.
+ */
+
+public class ImportProductCatalogue {
+
+    public static void main(String[] args) throws IOException, SQLException {
+        if (args.length < 1) {
+            System.out.println("Usage: ImportProductCatalogue <catalogue.csv> [commitInterval] [batchSize]");
+            return;
+        }
+        Path csvFile = Paths.get(args[0]);
+
+        // no name index here: it is built from the database when the shop starts
+        ProductCsvImporter importer = new ProductCsvImporter(DatabaseRWFactory.getConnectionPool(), null,
+                DatabaseRWFactory.getStockLedger(), StorageLocation.imageFolderPath);
+        if (args.length > 1) {
+            importer.setCommitInterval(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            importer.setBatchSize(Integer.parseInt(args[2]));
+        }
+
+        try {
+            importer.importFile(csvFile);
+        } finally {
+            DatabaseRWFactory.getConnectionPool().closeIdleConnections();
+        }
+    }
+}
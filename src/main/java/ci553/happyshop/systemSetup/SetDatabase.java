@@ -1,6 +1,8 @@
 package ci553.happyshop.systemSetup;
 
 import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import ci553.happyshop.storageAccess.StockLedger;
+import ci553.happyshop.utility.Money;
 import ci553.happyshop.utility.StorageLocation;
 
 import java.io.IOException;
@@ -21,9 +23,11 @@ import java.util.concurrent.locks.ReentrantLock;
  * Key operations:
  * 1. Deletes all existing tables in the database.
  * 2. Recreates the database tables based on the initial schema.
- * 3. Inserts default values into the newly created tables.
+ * 3. Inserts default values into the newly created tables,
+ *    and the opening stock of every product into the stock ledger (StockMovement).
  * 4. Deletes all existing image files from the working image folder (images/).
  * 5. Copies all image files from the backup folder (images_resetDB/) into the working image folder.
+ * 6. Deletes the product log (productLog/), so LogStructuredRW is refilled from the reset database.
  */
 
 public class SetDatabase {
@@ -35,8 +39,8 @@ public class SetDatabase {
     private static Path imageWorkingFolderPath = StorageLocation.imageFolderPath;
     private static Path imageBackupFolderPath = StorageLocation.imageResetFolderPath;
 
-    private String[] tables = {"ProductTable"};
-    // Currently only "ProductTable" exists, but using an array allows easy expansion
+    private String[] tables = {"ProductTable", "StockMovement", "StockSnapshot"};
+    // ProductTable and the stock ledger tables (see StockLedger), using an array allows easy expansion
     // if more tables need to be processed in the future without changing the logic structure.
 
     private static final Lock lock = new ReentrantLock();    // Create a global lock
@@ -48,7 +52,7 @@ public class SetDatabase {
         setDB.queryTableAfterInitilization();
         deleteFilesInFolder(imageWorkingFolderPath);
         copyFolderContents(imageBackupFolderPath, imageWorkingFolderPath);
-
+        deleteFilesInFolder(StorageLocation.productLogPath);
     }
 
     //Deletes all existing tables in the database.
@@ -83,25 +87,25 @@ public class SetDatabase {
                 "CREATE TABLE ProductTable(" +
                         "productID CHAR(4) PRIMARY KEY," +
                         "description VARCHAR(100)," +
-                        "unitPrice DOUBLE," +
+                        "unitPricePence BIGINT NOT NULL," + // price in pence, eg 26900 for £269.00
                         "image VARCHAR(100)," +
                         "inStock INT," +
                         "CHECK (inStock >= 0)" +
                         ")",
 
                 // Insert data into ProductTable
-                "INSERT INTO ProductTable VALUES('0001', '40 inch TV', 269.00,'0001.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0002', 'DAB Radio', 29.99, '0002.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0003', 'Toaster', 19.99, '0003.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0004', 'Watch', 29.99, '0004.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0005', 'Digital Camera', 89.99, '0005.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0006', 'MP3 player', 7.99, '0006.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0007', 'USB drive', 6.99, '0007.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0008', 'USB2 drive', 7.99, '0008.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0009', 'USB3 drive', 8.99, '0009.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0010', 'USB4 drive', 9.99, '0010.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0011', 'USB5 drive', 10.99, '0011.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0012', 'USB6 drive', 10.99, '0011.jpg',100)",
+                "INSERT INTO ProductTable VALUES('0001', '40 inch TV', 26900,'0001.jpg',100)",
+                "INSERT INTO ProductTable VALUES('0002', 'DAB Radio', 2999, '0002.jpg',100)",
+                "INSERT INTO ProductTable VALUES('0003', 'Toaster', 1999, '0003.jpg',100)",
+                "INSERT INTO ProductTable VALUES('0004', 'Watch', 2999, '0004.jpg',100)",
+                "INSERT INTO ProductTable VALUES('0005', 'Digital Camera', 8999, '0005.jpg',100)",
+                "INSERT INTO ProductTable VALUES('0006', 'MP3 player', 799, '0006.jpg',100)",
+                "INSERT INTO ProductTable VALUES('0007', 'USB drive', 699, '0007.jpg',100)",
+                "INSERT INTO ProductTable VALUES('0008', 'USB2 drive', 799, '0008.jpg',100)",
+                "INSERT INTO ProductTable VALUES('0009', 'USB3 drive', 899, '0009.jpg',100)",
+                "INSERT INTO ProductTable VALUES('0010', 'USB4 drive', 999, '0010.jpg',100)",
+                "INSERT INTO ProductTable VALUES('0011', 'USB5 drive', 1099, '0011.jpg',100)",
+                "INSERT INTO ProductTable VALUES('0012', 'USB6 drive', 1099, '0011.jpg',100)",
         };
 
         try (Connection connection = DriverManager.getConnection(dbURL)) {
@@ -109,8 +113,11 @@ public class SetDatabase {
             connection.setAutoCommit(false); // Disable auto-commit for the batch
 
             try (Statement statement = connection.createStatement()) {
-                // First, create the table (DDL) - Execute this one separately from DML
+                // First, create the tables (DDL) - Execute these separately from DML
                 statement.executeUpdate(iniTableSQL[0]);  // Execute Create Table SQL
+                statement.executeUpdate(StockLedger.CREATE_MOVEMENT_TABLE);
+                statement.executeUpdate(StockLedger.CREATE_MOVEMENT_INDEX);
+                statement.executeUpdate(StockLedger.CREATE_SNAPSHOT_TABLE);
 
                 // Prepare and execute the insert operations (DML)
                 for (int i = 1; i < iniTableSQL.length; i++) {
@@ -119,6 +126,7 @@ public class SetDatabase {
 
                 // Execute all the insert statements in the batch
                 statement.executeBatch();
+                statement.executeUpdate(StockLedger.INSERT_OPENING_BALANCES); // the ledger starts with the initial stock
                 connection.commit(); // Commit the transaction if everything was successful
 
                 System.out.println("Table and data initialized successfully.");
@@ -153,10 +161,10 @@ public class SetDatabase {
             while (resultSet.next()) {
                 String productID = resultSet.getString("productID");
                 String description = resultSet.getString("description");
-                double unitPrice = resultSet.getDouble("unitPrice");
+                long unitPrice = resultSet.getLong("unitPricePence");
                 String image = resultSet.getString("image");
                 int inStock = resultSet.getInt("inStock");
-                String record = String.format("%-12s %-20s %-10.2f %-10d %s", productID, description, unitPrice, inStock, image);
+                String record = String.format("%-12s %-20s %-10s %-10d %s", productID, description, Money.format(unitPrice), inStock, image);
                 System.out.println(record);  // Print formatted output
             }
         }
@@ -0,0 +1,240 @@
+package ci553.happyshop.utility;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AsyncLogAppender collects log events in a fixed-size ring buffer and writes them out on one background thread.
+ *
+ * Why:
+ * System.out is a synchronized PrintStream, so when many threads print at the same time they queue up on its lock,
+ * and every caller also pays for formatting the text and for the console write.
+ * Here a caller only claims a slot in the ring (one compare-and-set), stores the message template and its
+ * arguments in the slot, and returns. The drain thread builds the text and prints it.
+ *
+ * How the ring works (a bounded multi-producer, single-consumer queue without locks):
+ * - Every slot has a sequence number. Slot i starts with sequence i.
+ * - A producer that wants position p may use slot (p % capacity) once its sequence equals p.
+ *   It claims p by moving the shared tail from p to p + 1 with compareAndSet, fills the slot,
+ *   then sets the sequence to p + 1 to tell the drain thread the slot is ready.
+ * - The drain thread reads slot (head % capacity) once its sequence is head + 1, writes the event out,
+ *   clears it and sets the sequence to head + capacity, which hands the slot back to producers for the next lap.
+ * - If the ring is full, the event is dropped and counted instead of making the caller wait.
+ *   Logging must never slow the shop down; the number of dropped events is printed by the drain thread.
+ *
+ * The event objects are created once with the ring and reused, so logging does not allocate.
+ * Used only by Logger.
+ */
+
+class AsyncLogAppender {
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+    private static final long IDLE_PARK_NANOS = 1_000_000; // the drain thread checks for new events every 1ms when idle
+
+    // marks an unused argument position (null is a valid argument)
+    static final Object NO_ARGUMENT = new Object();
+
+    private final int mask;
+    private final LogEvent[] events;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(0); // next position producers will claim
+    private long head = 0;                              // next position the drain thread reads, only used by it
+    private volatile long drained = 0;                  // every position below this has been written out
+    private final AtomicLong dropped = new AtomicLong(0);
+    private long droppedReported = 0;
+
+    private final PrintStream out;
+    private final StringBuilder text = new StringBuilder(256); // reused by the drain thread
+    private final Thread drainThread;
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity the number of events the ring can hold, rounded up to a power of two
+     * @param out      where the log lines are written, eg System.out
+     */
+    AsyncLogAppender(int capacity, PrintStream out) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1; // power of two, so % is a bit mask
+        this.mask = size - 1;
+        this.events = new LogEvent[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            events[i] = new LogEvent();
+            sequences.set(i, i);
+        }
+        this.out = out;
+
+        drainThread = new Thread(this::drainLoop, "happyshop-log-drain");
+        drainThread.setDaemon(true); // never keeps the application alive
+        drainThread.start();
+        // write out whatever is still in the ring when the application exits
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "happyshop-log-shutdown"));
+    }
+
+    // Puts an event into the ring. Returns false (and counts it) if the ring was full.
+    boolean append(LogLevel level, String loggerName, String template,
+                   Object arg1, Object arg2, Object arg3, Object[] moreArgs, Throwable thrown) {
+        long position;
+        int index;
+        while (true) {
+            position = tail.get();
+            index = (int) (position & mask);
+            long sequence = sequences.get(index);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break; // the slot is ours
+                }
+            } else if (sequence < position) {
+                dropped.incrementAndGet(); // the drain thread has not emptied this slot yet: the ring is full
+                return false;
+            }
+            // else another producer took this position first, try the next one
+        }
+
+        LogEvent event = events[index];
+        event.timeMillis = System.currentTimeMillis();
+        event.level = level;
+        event.loggerName = loggerName;
+        event.threadName = Thread.currentThread().getName();
+        event.template = template;
+        event.arg1 = arg1;
+        event.arg2 = arg2;
+        event.arg3 = arg3;
+        event.moreArgs = moreArgs;
+        event.thrown = thrown;
+        sequences.set(index, position + 1); // publish: the drain thread may read the slot now
+        return true;
+    }
+
+    // Waits (up to the timeout) until every event appended so far has been written out.
+    void flush(long timeoutMillis) {
+        long target = tail.get();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (drained < target && System.currentTimeMillis() < deadline) {
+            LockSupport.unpark(drainThread);
+            Thread.onSpinWait();
+        }
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void drainLoop() {
+        while (running) {
+            if (!drainAvailable()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    // Writes out every ready event, returns false if there was none.
+    private synchronized boolean drainAvailable() {
+        boolean any = false;
+        while (true) {
+            int index = (int) (head & mask);
+            if (sequences.get(index) != head + 1) {
+                break; // not published yet
+            }
+            LogEvent event = events[index];
+            write(event);
+            event.clear();
+            sequences.set(index, head + mask + 1); // give the slot back for the next lap
+            head++;
+            any = true;
+        }
+        if (any) {
+            reportDropped();
+            out.flush();
+            drained = head;
+        }
+        return any;
+    }
+
+    private void reportDropped() {
+        long nowDropped = dropped.get();
+        if (nowDropped != droppedReported) {
+            out.println(TIME_FORMAT.format(Instant.now()) + " WARN  Logger - " + (nowDropped - droppedReported)
+                    + " log messages were dropped, the log buffer was full");
+            droppedReported = nowDropped;
+        }
+    }
+
+    // eg "14:03:27.512 INFO  DerbyRW [main] - Product 0001 found."
+    private void write(LogEvent event) {
+        text.setLength(0);
+        text.append(TIME_FORMAT.format(Instant.ofEpochMilli(event.timeMillis))).append(' ');
+        String levelName = event.level.name();
+        text.append(levelName).append("     ", 0, 6 - levelName.length());
+        text.append(event.loggerName).append(" [").append(event.threadName).append("] - ");
+        formatMessage(event);
+        out.println(text);
+        if (event.thrown != null) {
+            event.thrown.printStackTrace(out);
+        }
+    }
+
+    // Replaces each "{}" in the template with the next argument.
+    private void formatMessage(LogEvent event) {
+        String template = event.template;
+        int argIndex = 0;
+        int start = 0;
+        int placeholder;
+        while ((placeholder = template.indexOf("{}", start)) >= 0) {
+            Object arg = event.argument(argIndex++);
+            if (arg == NO_ARGUMENT) {
+                break; // more placeholders than arguments, leave the rest as it is
+            }
+            text.append(template, start, placeholder).append(arg);
+            start = placeholder + 2;
+        }
+        text.append(template, start, template.length());
+    }
+
+    private void shutdown() {
+        running = false;
+        LockSupport.unpark(drainThread);
+        drainAvailable();
+    }
+
+    /**
+     * One slot of the ring. Reused for every lap, so the fields are not final.
+     */
+    private static class LogEvent {
+        long timeMillis;
+        LogLevel level;
+        String loggerName;
+        String threadName;
+        String template;
+        Object arg1 = NO_ARGUMENT;
+        Object arg2 = NO_ARGUMENT;
+        Object arg3 = NO_ARGUMENT;
+        Object[] moreArgs; // only used by the varargs methods
+        Throwable thrown;
+
+        Object argument(int i) {
+            if (moreArgs != null) {
+                return i < moreArgs.length ? moreArgs[i] : NO_ARGUMENT;
+            }
+            switch (i) {
+                case 0: return arg1;
+                case 1: return arg2;
+                case 2: return arg3;
+                default: return NO_ARGUMENT;
+            }
+        }
+
+        void clear() { // drop the references, so logged objects can be garbage collected
+            loggerName = null;
+            threadName = null;
+            template = null;
+            arg1 = arg2 = arg3 = NO_ARGUMENT;
+            moreArgs = null;
+            thrown = null;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package ci553.happyshop.utility;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * HashedTimingWheel runs tasks after a delay, and is built for a very large number of timeouts
+ * that are mostly cancelled or moved before they fire (eg one expiry per customer trolley).
+ *
+ * Why not a ScheduledExecutorService:
+ * Its queue is a heap, so every schedule and cancel costs O(log n), and a cancelled task stays in the
+ * heap until its time comes. With hundreds of thousands of reservations that are pushed back on every
+ * click, that is a lot of work and memory for timers that almost never fire.
+ *
+ * How it works:
+ * Time is cut into ticks (eg 100 ms). The wheel is an array of wheelSize buckets, and a timeout goes into
+ * the bucket of the tick it is due in, modulo wheelSize, together with the number of full turns of the
+ * wheel still to wait (its rounds). One background thread moves to the next bucket every tick and runs
+ * the timeouts in it whose rounds are used up, the others have their rounds counted down.
+ *     schedule: O(1), the timeout is put in a queue, the wheel thread puts it in its bucket on the next tick
+ *     cancel:   O(1), the timeout is marked cancelled and unlinked from its bucket on the next tick
+ * A timeout fires up to one tick late, never early.
+ *
+ * Tasks run on the wheel thread, one after another, so they must be short (eg releasing a reservation).
+ * An exception thrown by a task is logged and does not stop the wheel.
+ */
+
+public class HashedTimingWheel {
+    private static final Logger log = Logger.getLogger(HashedTimingWheel.class);
+
+    private final String threadName;
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask; // wheelSize - 1, wheelSize is a power of two so (tick & mask) is the bucket
+
+    private final ConcurrentLinkedQueue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong(); // scheduled, not yet fired or cancelled
+
+    private Thread worker;            // started by the first schedule, guarded by this
+    private volatile boolean stopped = false;
+    private volatile long startTime;  // System.nanoTime() when the wheel started, deadlines are relative to it
+
+    /**
+     * @param threadName the name of the wheel's background thread
+     * @param tickMillis the length of a tick, the precision of the timeouts
+     * @param wheelSize  the number of buckets, rounded up to a power of two;
+     *                   tickMillis * wheelSize is one turn of the wheel
+     */
+    public HashedTimingWheel(String threadName, long tickMillis, int wheelSize) {
+        if (tickMillis <= 0 || wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("tickMillis and wheelSize must be positive: " + tickMillis + ", " + wheelSize);
+        }
+        this.threadName = threadName;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Runs the task once, after the delay (rounded up to the next tick).
+     *
+     * @return the Timeout, which can be cancelled until the task has started
+     * @throws IllegalStateException if the wheel has been stopped
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (stopped) {
+            throw new IllegalStateException(threadName + " has been stopped");
+        }
+        startIfNeeded();
+        long deadline = System.nanoTime() + unit.toNanos(Math.max(delay, 0)) - startTime;
+        Timeout timeout = new Timeout(this, task, deadline);
+        pending.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    // Stops the wheel thread, the timeouts that have not fired yet never will.
+    public synchronized void stop() {
+        stopped = true;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    // The number of timeouts that are waiting to fire
+    public long getPendingCount() {
+        return pending.get();
+    }
+
+    private synchronized void startIfNeeded() {
+        if (worker == null) {
+            startTime = System.nanoTime();
+            worker = new Thread(this::run, threadName);
+            worker.setDaemon(true); // never keeps the application running
+            worker.start();
+        }
+    }
+
+    // The wheel thread: every tick, add the new timeouts, drop the cancelled ones, and fire the due ones.
+    private void run() {
+        long tick = 0;
+        while (!stopped) {
+            long deadline = waitForTick(tick + 1);
+            if (deadline < 0) {
+                break; // stopped while waiting
+            }
+            removeCancelled();
+            addNewTimeouts(tick);
+            fireDue(wheel[(int) (tick & mask)], deadline);
+            tick++;
+        }
+    }
+
+    // Sleeps until the start of the given tick, returns the time since startTime, or -1 if stopped.
+    private long waitForTick(long tick) {
+        long deadline = tickNanos * tick;
+        while (true) {
+            long now = System.nanoTime() - startTime;
+            long sleepMillis = (deadline - now + 999_999) / 1_000_000;
+            if (sleepMillis <= 0) {
+                return now;
+            }
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                if (stopped) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void addNewTimeouts(long currentTick) {
+        // at most 100,000 per tick, so a flood of new timeouts can not stop the wheel from turning
+        for (int i = 0; i < 100_000; i++) {
+            Timeout timeout = newTimeouts.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state.get() != Timeout.WAITING) {
+                continue; // cancelled before it reached the wheel
+            }
+            long dueTick = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (dueTick - currentTick) / wheel.length;
+            long tick = Math.max(dueTick, currentTick); // a timeout that is already due goes into this tick
+            wheel[(int) (tick & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void fireDue(Bucket bucket, long deadline) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.remainingRounds <= 0) {
+                bucket.remove(timeout);
+                if (timeout.deadline <= deadline) {
+                    timeout.fire();
+                } else {
+                    // can not happen, a timeout only goes into the bucket of its own tick
+                    log.warn("Timeout in the wrong bucket, deadline {} after tick end {}", timeout.deadline, deadline);
+                }
+            } else if (timeout.state.get() == Timeout.CANCELLED) {
+                bucket.remove(timeout);
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * A scheduled task. cancel() stops it from running if it has not started yet.
+     */
+    public static class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int FIRED = 2;
+
+        private final HashedTimingWheel wheel;
+        private final Runnable task;
+        private final long deadline; // nanoseconds after the wheel's startTime
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        // only used by the wheel thread
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(HashedTimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return true if the task will now never run, false if it has already run (or was already cancelled)
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(WAITING, CANCELLED)) {
+                return false;
+            }
+            wheel.pending.decrementAndGet();
+            wheel.cancelledTimeouts.add(this); // unlinked from its bucket by the wheel thread
+            return true;
+        }
+
+        public boolean isCancelled() { return state.get() == CANCELLED; }
+        public boolean isFired() { return state.get() == FIRED; }
+
+        private void fire() {
+            if (!state.compareAndSet(WAITING, FIRED)) {
+                return; // cancelled meanwhile
+            }
+            wheel.pending.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable e) {
+                log.error("Timed task failed in " + wheel.threadName, e);
+            }
+        }
+    }
+
+    // The timeouts of one slot of the wheel, a doubly linked list so a timeout is unlinked in O(1).
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return; // already removed
+            }
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.next = null;
+            timeout.prev = null;
+            timeout.bucket = null;
+        }
+    }
+}
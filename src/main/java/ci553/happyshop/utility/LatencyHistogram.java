@@ -0,0 +1,138 @@
+package ci553.happyshop.utility;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in nanoseconds, used to report percentiles such as p50, p99 and p99.9.
+ *
+ * How it works (the same idea as HdrHistogram):
+ * Keeping every measured value would need unbounded memory, so values are counted in buckets instead.
+ * Small values (below 256 ns) each have their own bucket. Above that, every power of two
+ * (256-511, 512-1023, 1024-2047, ...) is split into 128 equal buckets, so a bucket is never wider than
+ * 1/128 of the values in it. A percentile read from the histogram is therefore at most 0.8% too high,
+ * whether it is 3 microseconds or 3 seconds, with a fixed array of about 4,500 counters.
+ * Values above MAX_VALUE (about 18 minutes) are counted as MAX_VALUE.
+ *
+ * record() only increments counters in an AtomicLongArray, so many threads can record at the same time
+ * without locking. snapshot() copies the counters; a value recorded during the copy may or may not be in it.
+ */
+
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 8;                      // 256 buckets below the first split
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;   // buckets per power of two
+    public static final long MAX_VALUE = (1L << 40) - 1;               // about 18 minutes in nanoseconds
+    static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    // Records one duration in nanoseconds, negative durations are counted as 0.
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        totalNanos.addAndGet(value);
+        maxNanos.accumulateAndGet(value, Math::max);
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, totalCount.get(), totalNanos.get(), maxNanos.get());
+    }
+
+    // The bucket of a value: the value itself below 256, then 128 buckets for every power of two.
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return (shift * SUB_BUCKET_HALF) + (int) (value >>> shift);
+    }
+
+    // The largest value that falls into the bucket, so percentiles are never reported too low.
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF - 1;
+        long lowest = (long) (index - shift * SUB_BUCKET_HALF) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    // A duration for a report, eg "840us" below a millisecond, "12.6ms" above
+    public static String formatDuration(long nanos) {
+        if (nanos < 1_000_000) {
+            return String.format("%.0fus", nanos / 1_000.0);
+        }
+        return String.format("%.1fms", nanos / 1_000_000.0);
+    }
+
+    /**
+     * The counts of a histogram at one moment. It never changes, so it can be read while
+     * the histogram keeps recording, and two snapshots can be subtracted to get the values
+     * recorded between them (eg for the last minute only).
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long totalCount;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        private Snapshot(long[] counts, long totalCount, long totalNanos, long maxNanos) {
+            this.counts = counts;
+            this.totalCount = totalCount;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * The values recorded after the earlier snapshot of the same histogram.
+         * The maximum can not be subtracted, the maximum of the whole histogram is kept.
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] difference = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                difference[i] = counts[i] - earlier.counts[i];
+            }
+            return new Snapshot(difference, totalCount - earlier.totalCount,
+                    totalNanos - earlier.totalNanos, maxNanos);
+        }
+
+        public long getCount() { return totalCount; }
+        public long getMaxNanos() { return maxNanos; }
+
+        public double getMeanNanos() {
+            return totalCount == 0 ? 0 : (double) totalNanos / totalCount;
+        }
+
+        /**
+         * The value that the given percentage of the recorded values is at or below, eg 99.9 for p99.9.
+         * Returns 0 if nothing was recorded.
+         */
+        public long getValueAtPercentile(double percentile) {
+            long recorded = 0;
+            for (long count : counts) {
+                recorded += count; // the counters, not totalCount, in case a value arrived during the copy
+            }
+            if (recorded == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * recorded));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package ci553.happyshop.utility;
+
+/**
+ * The severity of a log message, from the most detailed (TRACE) to the most serious (ERROR).
+ * A logger only records messages at or above its threshold, eg a threshold of INFO
+ * drops TRACE and DEBUG messages. OFF as a threshold drops everything.
+ */
+
+public enum LogLevel {
+    TRACE,
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    OFF
+}
@@ -0,0 +1,202 @@
+package ci553.happyshop.utility;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Logger writes levelled diagnostic messages without holding up the calling thread.
+ *
+ * Why not System.out:
+ * - System.out.println takes a lock and writes to the console before it returns, so the database threads
+ *   and the JavaFX thread wait on each other and on the terminal every time they print.
+ * - Messages were always built (String concatenation, Product.toString...) even when nobody read them.
+ *
+ * How it works:
+ * - Every message has a level (see LogLevel). A message below the logger's threshold is dropped
+ *   straight away, before any text is built.
+ * - Messages use "{}" placeholders, eg log.debug("Product {} found, stock {}", id, stock).
+ *   The arguments are stored as they are and the text is only built later by the background thread
+ *   of AsyncLogAppender, which writes the lines to the console.
+ *
+ * Thresholds (the default for every logger is INFO):
+ * - whole application:  -Dhappyshop.log.level=DEBUG
+ * - one package/class:  -Dhappyshop.log.level.ci553.happyshop.storageAccess=DEBUG
+ *   The longest matching name wins, so a class setting overrides its package setting.
+ * - from code:          Logger.setLevel("ci553.happyshop.storageAccess", LogLevel.WARN);
+ *
+ * Example Usage:
+ *     private static final Logger log = Logger.getLogger(DerbyRW.class);
+ *     log.info("Database product search by keyword: {}", keyword);
+ *     if (log.isDebugEnabled()) {   // only needed if working out the arguments is itself costly
+ *         log.debug("Basket: {}", ProductListFormatter.buildString(trolley));
+ *     }
+ *
+ * Note: arguments that are primitives (int, double...) are still boxed before the level check
+ * passes them on, so a debug call with an int argument allocates a little even when DEBUG is off;
+ * guard it with isDebugEnabled() on code that runs very often.
+ */
+
+public class Logger {
+    private static final String PROPERTY_PREFIX = "happyshop.log.level";
+    private static final int BUFFER_CAPACITY = 8192; // log events waiting for the background thread
+    private static final long FLUSH_TIMEOUT_MILLIS = 2000;
+    private static final Object NONE = AsyncLogAppender.NO_ARGUMENT; // fills the unused argument positions
+
+    // System.out is captured once, the appender writes to it from its own thread
+    private static final AsyncLogAppender appender = new AsyncLogAppender(BUFFER_CAPACITY, System.out);
+
+    private static final Map<String, Logger> loggers = new ConcurrentHashMap<>();
+    // thresholds set with setLevel, they take priority over the system properties
+    private static final Map<String, LogLevel> configuredLevels = new ConcurrentHashMap<>();
+    // increased by setLevel, a logger whose cached threshold is older works it out again
+    private static volatile int configVersion = 0;
+
+    private final String name;       // fully qualified class name, used to find the threshold
+    private final String shortName;  // simple class name, printed in each line
+    private volatile LogLevel threshold;
+    private volatile int thresholdVersion = -1;
+
+    private Logger(String name) {
+        this.name = name;
+        this.shortName = name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Returns the logger of the given class. There is one logger per class, so keep it in a static field.
+     */
+    public static Logger getLogger(Class<?> clazz) {
+        return loggers.computeIfAbsent(clazz.getName(), Logger::new);
+    }
+
+    /**
+     * Sets the threshold of every logger whose class name starts with the given prefix.
+     * An empty prefix sets the threshold of the whole application.
+     */
+    public static synchronized void setLevel(String prefix, LogLevel level) {
+        configuredLevels.put(prefix, level);
+        configVersion++;
+    }
+
+    /**
+     * Waits (for up to 2 seconds) until every message logged so far has been written to the console.
+     * Useful before a program exits or right before it prints something with System.out itself.
+     */
+    public static void flush() {
+        appender.flush(FLUSH_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * The number of messages dropped because the background thread could not keep up.
+     */
+    public static long getDroppedCount() {
+        return appender.getDroppedCount();
+    }
+
+    public boolean isEnabled(LogLevel level) {
+        return level.compareTo(threshold()) >= 0;
+    }
+
+    public boolean isTraceEnabled() {
+        return isEnabled(LogLevel.TRACE);
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(LogLevel.DEBUG);
+    }
+
+    // There are separate methods for 0 to 3 arguments, so the usual calls do not create a varargs array.
+
+    public void trace(String message) { log(LogLevel.TRACE, message, NONE, NONE, NONE); }
+    public void trace(String message, Object arg) { log(LogLevel.TRACE, message, arg, NONE, NONE); }
+    public void trace(String message, Object arg1, Object arg2) { log(LogLevel.TRACE, message, arg1, arg2, NONE); }
+    public void trace(String message, Object arg1, Object arg2, Object arg3) { log(LogLevel.TRACE, message, arg1, arg2, arg3); }
+    public void trace(String message, Object... args) { logArray(LogLevel.TRACE, message, args, null); }
+
+    public void debug(String message) { log(LogLevel.DEBUG, message, NONE, NONE, NONE); }
+    public void debug(String message, Object arg) { log(LogLevel.DEBUG, message, arg, NONE, NONE); }
+    public void debug(String message, Object arg1, Object arg2) { log(LogLevel.DEBUG, message, arg1, arg2, NONE); }
+    public void debug(String message, Object arg1, Object arg2, Object arg3) { log(LogLevel.DEBUG, message, arg1, arg2, arg3); }
+    public void debug(String message, Object... args) { logArray(LogLevel.DEBUG, message, args, null); }
+
+    public void info(String message) { log(LogLevel.INFO, message, NONE, NONE, NONE); }
+    public void info(String message, Object arg) { log(LogLevel.INFO, message, arg, NONE, NONE); }
+    public void info(String message, Object arg1, Object arg2) { log(LogLevel.INFO, message, arg1, arg2, NONE); }
+    public void info(String message, Object arg1, Object arg2, Object arg3) { log(LogLevel.INFO, message, arg1, arg2, arg3); }
+    public void info(String message, Object... args) { logArray(LogLevel.INFO, message, args, null); }
+
+    public void warn(String message) { log(LogLevel.WARN, message, NONE, NONE, NONE); }
+    public void warn(String message, Object arg) { log(LogLevel.WARN, message, arg, NONE, NONE); }
+    public void warn(String message, Object arg1, Object arg2) { log(LogLevel.WARN, message, arg1, arg2, NONE); }
+    public void warn(String message, Throwable thrown) { logArray(LogLevel.WARN, message, null, thrown); }
+    public void warn(String message, Object arg, Throwable thrown) { logThrown(LogLevel.WARN, message, arg, thrown); }
+
+    public void error(String message) { log(LogLevel.ERROR, message, NONE, NONE, NONE); }
+    public void error(String message, Object arg) { log(LogLevel.ERROR, message, arg, NONE, NONE); }
+    public void error(String message, Object arg1, Object arg2) { log(LogLevel.ERROR, message, arg1, arg2, NONE); }
+    public void error(String message, Throwable thrown) { logArray(LogLevel.ERROR, message, null, thrown); }
+    public void error(String message, Object arg, Throwable thrown) { logThrown(LogLevel.ERROR, message, arg, thrown); }
+
+    private void log(LogLevel level, String message, Object arg1, Object arg2, Object arg3) {
+        if (isEnabled(level)) {
+            appender.append(level, shortName, message, arg1, arg2, arg3, null, null);
+        }
+    }
+
+    // One {} argument and the exception, whose stack trace is written after the message.
+    private void logThrown(LogLevel level, String message, Object arg, Throwable thrown) {
+        if (isEnabled(level)) {
+            appender.append(level, shortName, message, arg, NONE, NONE, null, thrown);
+        }
+    }
+
+    private void logArray(LogLevel level, String message, Object[] args, Throwable thrown) {
+        if (isEnabled(level)) {
+            Object[] moreArgs = args != null ? args : new Object[0];
+            appender.append(level, shortName, message, null, null, null, moreArgs, thrown);
+        }
+    }
+
+    // The cached threshold, worked out again only after setLevel was called.
+    private LogLevel threshold() {
+        int version = configVersion;
+        if (thresholdVersion != version) {
+            threshold = findThreshold();
+            thresholdVersion = version;
+        }
+        return threshold;
+    }
+
+    // Uses the setting with the longest prefix of the class name: "a.b.C", then "a.b", "a", then the root.
+    private LogLevel findThreshold() {
+        String prefix = name;
+        while (true) {
+            LogLevel level = configuredLevel(prefix);
+            if (level != null) {
+                return level;
+            }
+            if (prefix.isEmpty()) {
+                return LogLevel.INFO;
+            }
+            int dot = prefix.lastIndexOf('.');
+            prefix = dot > 0 ? prefix.substring(0, dot) : "";
+        }
+    }
+
+    private static LogLevel configuredLevel(String prefix) {
+        LogLevel level = configuredLevels.get(prefix);
+        if (level != null) {
+            return level;
+        }
+        String property = prefix.isEmpty() ? PROPERTY_PREFIX : PROPERTY_PREFIX + "." + prefix;
+        String value = System.getProperty(property);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return LogLevel.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown log level " + value + " in " + property + ", using INFO");
+            return LogLevel.INFO;
+        }
+    }
+}
@@ -18,6 +18,7 @@ public class LogoutManager {
     private static LogoutManager instance;
     private List<Stage> openWindows = new ArrayList<>();
     private Runnable onLogoutCallback;
+    private List<Runnable> logoutListeners = new ArrayList<>();
     
     private LogoutManager() {}
     
@@ -44,10 +45,24 @@ public class LogoutManager {
         this.onLogoutCallback = callback;
     }
     
+    /**
+     * Adds a task run at the next logout, before the windows close
+     * (eg a customer window giving back the stock reserved for its trolley)
+     */
+    public void addLogoutListener(Runnable listener) {
+        logoutListeners.add(listener);
+    }
+
     /**
      * Performs logout - closes all windows and shows login screen
      */
     public void logout() {
+        // Let the windows clean up first, each listener only runs for the session it was added in
+        for (Runnable listener : logoutListeners) {
+            listener.run();
+        }
+        logoutListeners.clear();
+
         // Clear the current session
         SessionManager.getInstance().clearSession();
         
@@ -0,0 +1,110 @@
+package ci553.happyshop.utility;
+
+/**
+ * Money amounts in HappyShop are a long number of pence (minor units), eg £29.99 is 2999.
+ *
+ * Why not double:
+ * A double can not hold most decimal prices exactly (29.99 is really 29.989999...), so adding up a trolley
+ * drifts by fractions of a penny and two totals that should be equal may not be. Whole pence add up exactly,
+ * and a long is a primitive, so line sums and totals need no objects (unlike BigDecimal).
+ *
+ * This class only has static helpers to turn text into pence and pence into text:
+ *     long price = Money.parsePence("29.99");      // 2999
+ *     String text = Money.format(price);           // "29.99"
+ *     long line = Money.times(price, 3);           // 8997
+ *     Money.appendPounds(sb, line, 7);             // appends "  89.97" (right-aligned, 7 characters)
+ */
+
+public class Money {
+    public static final int PENCE_PER_POUND = 100;
+
+    /**
+     * Reads a price written in pounds with up to two decimal places, eg "29.99", "5", "0.5" (50 pence).
+     * No floating point is involved, so the result is exact.
+     *
+     * @throws NumberFormatException if the text is not a number with at most two decimal places,
+     *                               or is too large for a long number of pence
+     */
+    public static long parsePence(String text) {
+        if (text == null) {
+            throw new NumberFormatException("Price is missing");
+        }
+        String value = text.trim();
+        boolean negative = value.startsWith("-");
+        if (negative) {
+            value = value.substring(1);
+        }
+        int point = value.indexOf('.');
+        String pounds = point < 0 ? value : value.substring(0, point);
+        String pence = point < 0 ? "" : value.substring(point + 1);
+        if ((pounds.isEmpty() && pence.isEmpty()) || pence.length() > 2
+                || !isDigits(pounds) || !isDigits(pence)) {
+            throw new NumberFormatException("Not a price with at most two decimal places: " + text);
+        }
+        long amount = pounds.isEmpty() ? 0 : Long.parseLong(pounds);
+        long minor = pence.isEmpty() ? 0 : Long.parseLong(pence) * (pence.length() == 1 ? 10 : 1);
+        try {
+            amount = Math.addExact(Math.multiplyExact(amount, PENCE_PER_POUND), minor);
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Price is too large: " + text);
+        }
+        return negative ? -amount : amount;
+    }
+
+    /**
+     * Converts an amount in pounds held as a double (eg an old DOUBLE column) to pence, rounding to the nearest penny.
+     */
+    public static long fromPounds(double pounds) {
+        return Math.round(pounds * PENCE_PER_POUND);
+    }
+
+    // The price of quantity units, throws ArithmeticException instead of silently overflowing.
+    public static long times(long pence, int quantity) {
+        return Math.multiplyExact(pence, quantity);
+    }
+
+    // Writes the amount in pounds with two decimal places, eg 2999 -> "29.99", -5 -> "-0.05".
+    public static String format(long pence) {
+        return appendPounds(new StringBuilder(12), pence, 0).toString();
+    }
+
+    /**
+     * Appends the amount in pounds with two decimal places, right-aligned in at least width characters
+     * (the same as String.format("%7.2f", pounds) for width 7), without creating any other objects.
+     */
+    public static StringBuilder appendPounds(StringBuilder sb, long pence, int width) {
+        long abs = Math.abs(pence);
+        long pounds = abs / PENCE_PER_POUND;
+        int minor = (int) (abs % PENCE_PER_POUND);
+        int length = digitCount(pounds) + 3 + (pence < 0 ? 1 : 0); // digits, point, two decimals, sign
+        for (int i = length; i < width; i++) {
+            sb.append(' ');
+        }
+        if (pence < 0) {
+            sb.append('-');
+        }
+        sb.append(pounds).append('.');
+        if (minor < 10) {
+            sb.append('0');
+        }
+        return sb.append(minor);
+    }
+
+    private static int digitCount(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private static boolean isDigits(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
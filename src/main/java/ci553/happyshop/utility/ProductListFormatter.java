@@ -15,32 +15,49 @@ public class ProductListFormatter {
     /**
      * Builds a formatted string showing each product's ID, description,
      * quantity ordered, and total price. Also includes a total price at the end.
+     * Prices are whole pence (see Money), so the line sums and the total are exact,
+     * and the lines are appended to one StringBuilder instead of formatting each with String.format.
      * @param proList a List of products
      * @return A nicely formatted string representation of the product list with totals
      */
     public static String buildString(ArrayList<Product> proList) {
-        StringBuilder sb = new StringBuilder();
-        double totalPrice=0;
+        StringBuilder sb = new StringBuilder((proList.size() + 2) * 48);
+        long totalPrice=0; // in pence
         for (Product pr : proList) {
             int orderedQuantity = pr.getOrderedQuantity();
-            //%-18.18s, format the argument as a String,
+            long linePrice = Money.times(pr.getUnitPricePence(), orderedQuantity);
+            // the same layout as String.format(" %-7s %-18.18s (%2d) £%7.2f\n", ...)
             // -18 → Left-align the string in 18-character wide space.
             //.18 → Truncate the string to at most 18 characters
-            String aProduct=String.format(" %-7s %-18.18s (%2d) £%7.2f\n",
-                    pr.getProductId(),
-                    pr.getProductDescription(),
-                    pr.getOrderedQuantity(),
-                    pr.getUnitPrice() * orderedQuantity);
+            sb.append(' ');
+            appendLeft(sb, pr.getProductId(), 7, Integer.MAX_VALUE);
+            sb.append(' ');
+            appendLeft(sb, pr.getProductDescription(), 18, 18);
+            sb.append(" (");
+            if (orderedQuantity >= 0 && orderedQuantity < 10) {
+                sb.append(' ');
+            }
+            sb.append(orderedQuantity).append(") £");
+            Money.appendPounds(sb, linePrice, 7).append('\n');
 
-            sb.append(aProduct);
-            totalPrice = totalPrice + pr.getUnitPrice() * orderedQuantity;
+            totalPrice = totalPrice + linePrice;
         }
 
-        String lineSeparator = "-".repeat(44) + "\n";
-        String total = String.format(" %-35s £%7.2f\n", "Total", totalPrice);
-
-        sb.append(lineSeparator);
-        sb.append(total);
+        sb.append("-".repeat(44)).append('\n');
+        sb.append(' ');
+        appendLeft(sb, "Total", 35, Integer.MAX_VALUE);
+        sb.append(" £");
+        Money.appendPounds(sb, totalPrice, 7).append('\n');
         return sb.toString();
     }
+
+    // appends the text cut to at most maxLength characters, then spaces up to width (like %-width.maxLengths)
+    private static void appendLeft(StringBuilder sb, String text, int width, int maxLength) {
+        String value = String.valueOf(text);
+        int length = Math.min(value.length(), maxLength);
+        sb.append(value, 0, length);
+        for (int i = length; i < width; i++) {
+            sb.append(' ');
+        }
+    }
 }
@@ -0,0 +1,110 @@
+package ci553.happyshop.utility;
+
+/**
+ * This class holds the validation rules for product details typed in by warehouse staff
+ * or read from a supplier catalogue. It is used by:
+ * 1. WarehouseModel – to check the "edit product" and "add new product" forms
+ * 2. ProductCsvImporter – to check every row of a bulk import before it is inserted
+ *
+ * Each method returns the error messages as a bullet list, one error per line,
+ * or an empty String if the input is valid. eg
+ *     "• Invalid price format.
+ *      • Product description cannot be empty."
+ *
+ * The rules only look at the given values. Whether a product ID is still free needs the database,
+ * so the caller checks it and passes the answer in (idAvailable).
+ */
+
+public class ProductValidator {
+    public static final int MAX_DESCRIPTION_LENGTH = 100; // ProductTable.description is VARCHAR(100)
+
+    /**
+     * Validates the details of an existing product being edited.
+     */
+    public static String validateEditProduct(String txPrice, String txStock, String description) {
+        StringBuilder errorMessage = new StringBuilder();
+        validatePrice(txPrice, errorMessage);
+        validateStock(txStock, errorMessage);
+        validateDescription(description, errorMessage);
+        return finish(errorMessage);
+    }
+
+    /**
+     * Validates the details of a new product.
+     *
+     * @param idAvailable whether the ID is not used by any product yet (checked by the caller)
+     * @param imageUri    the chosen image, null if none was chosen or it does not exist
+     */
+    public static String validateNewProduct(String id, boolean idAvailable, String txPrice, String txStock,
+                                            String description, String imageUri) {
+        StringBuilder errorMessage = new StringBuilder();
+        // Validate Id (must be exactly 4 digits)
+        if (id == null || !id.matches("\\d{4}"))
+            errorMessage.append("\u2022 Product ID must be exactly 4 digits.\n");
+
+        //check Id is unique
+        if (!idAvailable)
+            errorMessage.append("\u2022 Product ID " + id + " is not available.\n");
+
+        validatePrice(txPrice, errorMessage);
+        validateStock(txStock, errorMessage);
+        validateDescription(description, errorMessage);
+
+        // Validate Image Path
+        if (imageUri == null)
+            errorMessage.append("\u2022 An image must be selected.\n");
+
+        return finish(errorMessage);
+    }
+
+    // Price must be a positive number with at most two decimal places,
+    // so that Money.parsePence can read it exactly as a number of pence
+    private static void validatePrice(String txPrice, StringBuilder errorMessage) {
+        if (txPrice == null || !txPrice.matches("^-?([0-9]+(\\.[0-9]*)?|\\.[0-9]+)$")) {
+            errorMessage.append("\u2022 Invalid price format.\n");
+            return;
+        }
+
+        // Validate: Ensure at most two decimal places
+        int point = txPrice.indexOf('.');
+        if (point >= 0 && txPrice.length() - point - 1 > 2) {
+            errorMessage.append("\u2022 Price can have at most two decimal places.\n");
+            return;
+        }
+
+        try {
+            if (Money.parsePence(txPrice) <= 0) {
+                errorMessage.append("\u2022 Price must be a positive number.\n");
+            }
+        } catch (NumberFormatException e) {
+            errorMessage.append("\u2022 Price is too large.\n");
+        }
+    }
+
+    // Stock quantity must be a non-negative integer
+    private static void validateStock(String txStock, StringBuilder errorMessage) {
+        try {
+            int stock = Integer.parseInt(txStock);
+            if (stock < 0) {
+                errorMessage.append("\u2022 Stock quantity cannot be negative.\n");
+            }
+        } catch (NumberFormatException e) {
+            errorMessage.append("\u2022 Invalid stock quantity format.\n");
+        }
+    }
+
+    private static void validateDescription(String description, StringBuilder errorMessage) {
+        if (description == null || description.isEmpty())
+            errorMessage.append("\u2022 Product description cannot be empty.\n");
+        else if (description.length() > MAX_DESCRIPTION_LENGTH)
+            errorMessage.append("\u2022 Product description cannot be longer than " + MAX_DESCRIPTION_LENGTH + " characters.\n");
+    }
+
+    // drop the line break after the last message
+    private static String finish(StringBuilder errorMessage) {
+        if (errorMessage.length() > 0 && errorMessage.charAt(errorMessage.length() - 1) == '\n') {
+            errorMessage.setLength(errorMessage.length() - 1);
+        }
+        return errorMessage.toString();
+    }
+}
@@ -25,8 +25,16 @@ import java.nio.file.Paths;
  *         Subfolder to store orders in the "Progressing" state (e.g., being prepared by a picker).
  *    - collectedPath:
  *         Subfolder to store orders in the "Collected" state (e.g., customer collected).
+ *    - orderJournalPath:
+ *         The folder of the order journal (OrderJournal), which OrderHub uses to keep all orders
+ *         instead of the three state folders above.
  *
- * 3. Order ID Tracking:
+ * 3. Product Log:
+ *    - productLogFolder / productLogPath:
+ *         The folder of the log-structured product store (LogStructuredRW),
+ *         only used when it is selected instead of the Derby database.
+ *
+ * 4. Order ID Tracking:
  *    - orderCounterFile / orderCounterPath:
  *         A text file (orders/orderCounter.txt) used to track and increment the unique order ID
  *         when a new order is created.
@@ -40,6 +48,8 @@ import java.nio.file.Paths;
  *
  * All paths are relative to the application's working directory to ensure portability
  * across different computers and installations.
+ * The system property happyshop.home moves them all to another folder, eg a temporary folder
+ * used by the benchmarks (-Dhappyshop.home=/tmp/shop). It must be set before this class is first used.
  */
 
 public class StorageLocation {
@@ -49,8 +59,10 @@ public class StorageLocation {
      * such as: String relativeImageUrl = StorageLocation.imageFolder + imageName;
      */
 
-    // Base directory for all application data (current working directory)
-    public static final Path appBaseDir = Paths.get("").toAbsolutePath();
+    public static final String HOME_PROPERTY = "happyshop.home";
+
+    // Base directory for all application data (the happyshop.home folder, otherwise the current working directory)
+    public static final Path appBaseDir = Paths.get(System.getProperty(HOME_PROPERTY, "")).toAbsolutePath();
 
     // working Image folder
     public static final String imageFolder = "images/";
@@ -66,6 +78,11 @@ public class StorageLocation {
     public static final Path orderedPath = ordersPath.resolve("ordered");//orders/ordered to store orders at Ordered state
     public static final Path progressingPath = ordersPath.resolve("progressing");// orders/progressing to store orders at Progressing state
     public static final Path collectedPath = ordersPath.resolve("collected");//orders/collected to store orders at Collected state
+    public static final Path orderJournalPath = ordersPath.resolve("journal");//orders/journal, the segments of the OrderJournal
+
+    // Product log folder, used by LogStructuredRW
+    public static final String productLogFolder = "productLog";
+    public static final Path productLogPath = appBaseDir.resolve("productLog");
 
     //OrderCounter File and its Path, ie orders/orderCounter.txt
     public static final String orderCounterFile = "orderCounter.txt";
@@ -3,6 +3,7 @@ module ci553.happyshop {
     requires javafx.controls;
     requires javafx.fxml;
     requires java.sql;
+    requires org.apache.derby.server;
     requires transitive javafx.graphics;
 
     opens ci553.happyshop to javafx.fxml;
@@ -0,0 +1,93 @@
+package ci553.happyshop.orderManagement;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * LocalOrderMap applies OrderChanges in version order: old changes are ignored, a change that arrives
+ * before an earlier one waits for it, and too many waiting changes mean one was lost and a snapshot is needed.
+ */
+class LocalOrderMapTest {
+
+    @Test
+    void appliesChangesInVersionOrder() {
+        LocalOrderMap map = new LocalOrderMap(false);
+        map.reset(Map.of(1, OrderState.Ordered), 5);
+        assertTrue(map.apply(new OrderChange(2, null, OrderState.Ordered, 6)));
+        assertTrue(map.apply(new OrderChange(1, OrderState.Ordered, OrderState.Progressing, 7)));
+        assertTrue(map.apply(new OrderChange(2, OrderState.Ordered, null, 8)));
+        assertEquals(Map.of(1, OrderState.Progressing), map.getOrders());
+        assertEquals(8, map.getVersion());
+    }
+
+    @Test
+    void changesAlreadyInTheSnapshotAreIgnored() {
+        LocalOrderMap map = new LocalOrderMap(false);
+        map.reset(Map.of(1, OrderState.Progressing), 10);
+        assertTrue(map.apply(new OrderChange(1, null, OrderState.Ordered, 9)));
+        assertTrue(map.apply(new OrderChange(1, OrderState.Ordered, OrderState.Progressing, 10)));
+        assertEquals(Map.of(1, OrderState.Progressing), map.getOrders());
+        assertEquals(10, map.getVersion());
+    }
+
+    @Test
+    void changeAfterAGapWaitsForTheMissingOne() {
+        LocalOrderMap map = new LocalOrderMap(false);
+        map.reset(Map.of(), 0);
+        assertTrue(map.applyAll(List.of(
+                new OrderChange(1, null, OrderState.Ordered, 1),
+                new OrderChange(1, OrderState.Ordered, OrderState.Progressing, 3)))); // 2 not here yet
+        assertEquals(Map.of(1, OrderState.Ordered), map.getOrders());
+        assertEquals(1, map.getVersion());
+
+        assertTrue(map.apply(new OrderChange(2, null, OrderState.Ordered, 2)));
+        assertEquals(Map.of(1, OrderState.Progressing, 2, OrderState.Ordered), map.getOrders());
+        assertEquals(3, map.getVersion());
+    }
+
+    @Test
+    void changesBeforeTheFirstSnapshotWait() {
+        LocalOrderMap map = new LocalOrderMap(false);
+        assertTrue(map.apply(new OrderChange(1, null, OrderState.Ordered, 4)));
+        assertTrue(map.apply(new OrderChange(2, null, OrderState.Ordered, 5)));
+        assertTrue(map.getOrders().isEmpty());
+
+        map.reset(Map.of(1, OrderState.Ordered), 4); // version 4 is covered, 5 follows on from it
+        assertEquals(Map.of(1, OrderState.Ordered, 2, OrderState.Ordered), map.getOrders());
+        assertEquals(5, map.getVersion());
+    }
+
+    @Test
+    void tooManyWaitingChangesNeedASnapshot() {
+        LocalOrderMap map = new LocalOrderMap(false);
+        map.reset(Map.of(), 0);
+        boolean applied = true;
+        int version = 2; // version 1 never arrives
+        for (; version <= 1001; version++) {
+            applied = map.apply(new OrderChange(version, null, OrderState.Ordered, version));
+            assertTrue(applied, "change " + version);
+        }
+        applied = map.apply(new OrderChange(version, null, OrderState.Ordered, version));
+        assertFalse(applied);
+        assertEquals(0, map.getVersion());
+
+        map.reset(Map.of(7, OrderState.Ordered), version); // the snapshot the observer asks for
+        assertTrue(map.apply(new OrderChange(8, null, OrderState.Ordered, version + 1)));
+        assertEquals(Map.of(7, OrderState.Ordered, 8, OrderState.Ordered), map.getOrders());
+    }
+
+    @Test
+    void dropCollectedRemovesCollectedOrders() {
+        LocalOrderMap map = new LocalOrderMap(true);
+        map.reset(Map.of(1, OrderState.Ordered, 2, OrderState.Progressing, 3, OrderState.Collected), 3);
+        assertEquals(new TreeMap<>(Map.of(1, OrderState.Ordered, 2, OrderState.Progressing)), map.getOrders());
+        assertTrue(map.apply(new OrderChange(2, OrderState.Progressing, OrderState.Collected, 4)));
+        assertEquals(Map.of(1, OrderState.Ordered), map.getOrders());
+        assertEquals("1  Ordered\n", map.toText(2));
+    }
+}
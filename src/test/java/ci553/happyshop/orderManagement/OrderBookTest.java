@@ -0,0 +1,104 @@
+package ci553.happyshop.orderManagement;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * OrderBook is checked against a TreeMap given the same random changes,
+ * and an older version must stay exactly as it was while newer versions are made from it.
+ */
+class OrderBookTest {
+    private static final OrderState[] STATES = OrderState.values();
+
+    @Test
+    void matchesTreeMapUnderRandomChanges() {
+        Random random = new Random(7);
+        OrderBook book = OrderBook.EMPTY;
+        TreeMap<Integer, OrderState> expected = new TreeMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            int orderId = random.nextInt(500);
+            OrderState state = random.nextInt(4) == 0 ? null : STATES[random.nextInt(STATES.length)];
+            book = book.with(orderId, state);
+            if (state == null) {
+                expected.remove(orderId);
+            } else {
+                expected.put(orderId, state);
+            }
+            if (i % 1000 == 0) {
+                assertSameOrders(expected, book);
+            }
+        }
+        assertSameOrders(expected, book);
+        assertEquals(20_000, book.version());
+    }
+
+    @Test
+    void olderVersionsNeverChange() {
+        OrderBook book = OrderBook.EMPTY;
+        for (int orderId = 1; orderId <= 100; orderId++) {
+            book = book.with(orderId, OrderState.Ordered);
+        }
+        OrderBook before = book;
+        Map<Integer, OrderState> view = before.orders();
+
+        OrderBook after = before.with(50, OrderState.Progressing).with(51, null).with(101, OrderState.Ordered);
+
+        assertEquals(OrderState.Ordered, before.get(50));
+        assertEquals(OrderState.Ordered, view.get(51));
+        assertNull(view.get(101));
+        assertEquals(100, view.size());
+        assertEquals(100, before.count(OrderState.Ordered));
+        assertEquals(OrderState.Progressing, after.get(50));
+        assertNull(after.get(51));
+        assertEquals(100, before.orderIds(OrderState.Ordered).size()); // the per-state trees of before are kept too
+        assertEquals(List.of(), before.orderIds(OrderState.Progressing));
+        assertEquals(List.of(50), after.orderIds(OrderState.Progressing));
+        assertFalse(after.orderIds(OrderState.Ordered).contains(51));
+        assertEquals(before.version() + 3, after.version());
+    }
+
+    @Test
+    void viewOfSomeStatesSkipsTheOthers() {
+        OrderBook book = OrderBook.EMPTY
+                .with(3, OrderState.Collected)
+                .with(1, OrderState.Progressing)
+                .with(2, OrderState.Ordered);
+        Map<Integer, OrderState> picker = book.ordersIn(OrderState.Ordered, OrderState.Progressing);
+        assertEquals(List.of(1, 2), new ArrayList<>(picker.keySet()));
+        assertEquals(2, picker.size());
+        assertFalse(picker.containsKey(3));
+        assertEquals(List.of(3), book.orderIds(OrderState.Collected));
+        assertThrows(UnsupportedOperationException.class, () -> book.orders().put(4, OrderState.Ordered));
+    }
+
+    private static void assertSameOrders(TreeMap<Integer, OrderState> expected, OrderBook book) {
+        assertEquals(expected, new LinkedHashMap<>(book.orders()));
+        assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(book.orders().keySet())); // in orderId order
+        for (OrderState state : STATES) {
+            List<Integer> orderIds = new ArrayList<>();
+            expected.forEach((orderId, s) -> {
+                if (s == state) {
+                    orderIds.add(orderId);
+                }
+            });
+            assertEquals(orderIds, book.orderIds(state));
+            assertEquals(orderIds.size(), book.count(state));
+        }
+        TreeMap<Integer, OrderState> open = new TreeMap<>(expected); // the pickers' view, merged from two state trees
+        open.values().removeIf(state -> state == OrderState.Collected);
+        Map<Integer, OrderState> view = book.ordersIn(OrderState.Ordered, OrderState.Progressing);
+        assertEquals(new ArrayList<>(open.entrySet()), new ArrayList<>(view.entrySet()));
+        assertEquals(open.size(), view.size());
+        for (int orderId = 0; orderId < 500; orderId++) {
+            assertEquals(expected.get(orderId), book.get(orderId));
+        }
+    }
+}
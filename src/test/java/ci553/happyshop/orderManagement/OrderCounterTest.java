@@ -0,0 +1,92 @@
+package ci553.happyshop.orderManagement;
+
+import ci553.happyshop.utility.StorageLocation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * OrderCounter leases blocks of order IDs: the mark in the counter file moves up by a whole block under the
+ * file lock, and the IDs of the block are then handed out from memory, never twice, also by several threads.
+ */
+class OrderCounterTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void leaseMovesTheMarkUpByOneBlock() throws Exception {
+        Path counter = Files.writeString(folder.resolve("orderCounter.txt"), "41\n");
+        OrderCounter.Block first = OrderCounter.leaseBlock(counter, 10);
+        assertEquals(42, first.next.get());
+        assertEquals(51, first.last);
+        assertEquals("51", Files.readString(counter)); // the newline is gone, the mark is on its own
+
+        OrderCounter.Block second = OrderCounter.leaseBlock(counter, 10); // eg another process, or after a restart
+        assertEquals(52, second.next.get());
+        assertEquals(61, second.last);
+        assertEquals("61", Files.readString(counter));
+    }
+
+    @Test
+    void lastBlockStopsAtTheLargestOrderId() throws Exception {
+        Path counter = Files.writeString(folder.resolve("orderCounter.txt"), String.valueOf(Integer.MAX_VALUE - 3));
+        OrderCounter.Block last = OrderCounter.leaseBlock(counter, 10);
+        assertEquals(Integer.MAX_VALUE, last.last);
+        assertThrows(IOException.class, () -> OrderCounter.leaseBlock(counter, 10));
+    }
+
+    @Test
+    void generatedIdsAreUniqueAcrossThreadsAndBlocks() throws Exception {
+        Files.createDirectories(StorageLocation.ordersPath);
+        if (!Files.exists(StorageLocation.orderCounterPath)) {
+            Files.writeString(StorageLocation.orderCounterPath, "0");
+        }
+        long markBefore = Long.parseLong(Files.readString(StorageLocation.orderCounterPath).trim());
+
+        int threads = 4;
+        int idsPerThread = 1500; // 6000 IDs in all, more than one block of the default 1000
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Integer>>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    List<Integer> ids = new ArrayList<>(idsPerThread);
+                    for (int i = 0; i < idsPerThread; i++) {
+                        ids.add(OrderCounter.generateOrderId());
+                    }
+                    return ids;
+                }));
+            }
+            Set<Integer> all = new HashSet<>();
+            int maxId = 0;
+            for (Future<List<Integer>> result : results) {
+                List<Integer> ids = result.get();
+                for (int i = 1; i < ids.size(); i++) {
+                    assertTrue(ids.get(i) > ids.get(i - 1), "IDs of one thread go up");
+                }
+                all.addAll(ids);
+                maxId = Math.max(maxId, ids.get(ids.size() - 1));
+            }
+            assertEquals(threads * idsPerThread, all.size(), "an ID was handed out twice");
+
+            long markAfter = Long.parseLong(Files.readString(StorageLocation.orderCounterPath).trim());
+            assertTrue(markAfter > markBefore, "no block was leased from the counter file");
+            assertTrue(markAfter >= maxId, "an ID above the mark on disk was handed out");
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ci553.happyshop.orderManagement;
+
+import ci553.happyshop.client.orderTracker.OrderTrackerObserver;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * OrderEventDispatcher: the changes that queue up while an observer is busy reach it in one update,
+ * an observer whose queue overflows gets a snapshot instead of the dropped changes,
+ * and an observer that throws still gets the later changes.
+ */
+class OrderEventDispatcherTest {
+
+    @Test
+    void slowObserverGetsCoalescedChangesThenASnapshotOnOverflow() throws Exception {
+        OrderEventDispatcher dispatcher = new OrderEventDispatcher("test-order-events", 1, 4);
+        RecordingObserver observer = new RecordingObserver(true);
+        dispatcher.register(observer, () -> observer.events.add("snapshot"));
+        assertEquals("snapshot", observer.next());
+
+        dispatcher.publish(change(1));
+        assertEquals("[1]", observer.next()); // the observer is now busy with order 1
+        dispatcher.publish(change(2));
+        dispatcher.publish(change(3));
+        dispatcher.publish(change(4));
+        observer.gate.release();
+        assertEquals("[2, 3, 4]", observer.next()); // queued while it was busy, delivered in one call
+
+        for (int orderId = 5; orderId <= 8; orderId++) {
+            dispatcher.publish(change(orderId)); // fills the queue of 4
+        }
+        dispatcher.publish(change(9)); // overflows: 5 to 9 are dropped
+        observer.gate.release();
+        assertEquals("snapshot", observer.next());
+
+        observer.gate.release(100); // not busy any more
+        dispatcher.publish(change(10));
+        assertEquals("[10]", observer.next());
+
+        OrderEventDispatcher.ObserverStats stats = dispatcher.getStats().get(0);
+        for (int wait = 0; wait < 500 && stats.getDeliveries() < 3; wait++) {
+            Thread.sleep(10); // the last update is counted just after the observer returns
+            stats = dispatcher.getStats().get(0);
+        }
+        assertEquals(10, stats.getPublished());
+        assertEquals(5, stats.getDelivered());
+        assertEquals(3, stats.getDeliveries());
+        assertEquals(2, stats.getCoalesced());
+        assertEquals(5, stats.getDropped());
+        assertEquals(2, stats.getSnapshots());
+        assertEquals(4, stats.getMaxQueueDepth());
+        assertTrue(observer.events.isEmpty(), observer.events.toString());
+    }
+
+    @Test
+    void throwingObserverStillGetsLaterChanges() throws Exception {
+        OrderEventDispatcher dispatcher = new OrderEventDispatcher("test-order-events", 2, 16);
+        RecordingObserver failing = new RecordingObserver(false) {
+            @Override
+            public void ordersChanged(List<OrderChange> changes) {
+                super.ordersChanged(changes);
+                if (changes.get(0).getOrderId() == 1) {
+                    throw new IllegalStateException("expected by the test");
+                }
+            }
+        };
+        RecordingObserver healthy = new RecordingObserver(false);
+        dispatcher.register(failing, () -> failing.events.add("snapshot"));
+        dispatcher.register(healthy, () -> healthy.events.add("snapshot"));
+        assertEquals("snapshot", failing.next());
+        assertEquals("snapshot", healthy.next());
+
+        dispatcher.publish(change(1));
+        assertEquals("[1]", failing.next());
+        assertEquals("[1]", healthy.next());
+        dispatcher.publish(change(2));
+        assertEquals("[2]", failing.next());
+        assertEquals("[2]", healthy.next());
+    }
+
+    private static OrderChange change(int orderId) {
+        return new OrderChange(orderId, null, OrderState.Ordered, orderId);
+    }
+
+    // Records the snapshots and updates it gets; a blocking one waits for a gate permit after each update
+    private static class RecordingObserver implements OrderTrackerObserver {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        final Semaphore gate = new Semaphore(0);
+        private final boolean blocking;
+
+        RecordingObserver(boolean blocking) {
+            this.blocking = blocking;
+        }
+
+        @Override
+        public void setOrderMap(Map<Integer, OrderState> om, long version) {
+            events.add("snapshot");
+        }
+
+        @Override
+        public void ordersChanged(List<OrderChange> changes) {
+            List<Integer> orderIds = new ArrayList<>();
+            for (OrderChange change : changes) {
+                orderIds.add(change.getOrderId());
+            }
+            events.add(orderIds.toString());
+            if (blocking) {
+                gate.acquireUninterruptibly();
+            }
+        }
+
+        String next() throws InterruptedException {
+            String event = events.poll(5, TimeUnit.SECONDS);
+            assertNotNull(event, "nothing delivered");
+            return event;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package ci553.happyshop.orderManagement;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.StorageLocation;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The state changes of OrderHub: only Ordered -> Progressing -> Collected is allowed (OrderState.canMoveTo),
+ * and of several pickers taking the same order at the same time exactly one succeeds.
+ * OrderHub keeps its journal under happyshop.home, which the build points at target/test-home.
+ */
+class OrderHubTest {
+    private static OrderHub orderHub;
+
+    @BeforeAll
+    static void emptyOrdersFolder() throws IOException {
+        if (Files.exists(StorageLocation.ordersPath)) {
+            try (Stream<Path> files = Files.walk(StorageLocation.ordersPath)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(file);
+                }
+            }
+        }
+        orderHub = OrderHub.getOrderHub();
+    }
+
+    @Test
+    void onlyForwardChangesAreAllowed() {
+        for (OrderState from : OrderState.values()) {
+            for (OrderState to : OrderState.values()) {
+                boolean forward = (from == OrderState.Ordered && to == OrderState.Progressing)
+                        || (from == OrderState.Progressing && to == OrderState.Collected);
+                assertEquals(forward, from.canMoveTo(to), from + " -> " + to);
+            }
+        }
+    }
+
+    @Test
+    void collectedOrderCanNotGoBack() throws Exception {
+        orderHub.newOrder(101, trolley(), "alice");
+        assertFalse(orderHub.changeOrderState(101, OrderState.Ordered, OrderState.Collected)); // skips Progressing
+        assertTrue(orderHub.changeOrderState(101, OrderState.Ordered, OrderState.Progressing));
+        assertTrue(orderHub.changeOrderState(101, OrderState.Progressing, OrderState.Collected));
+
+        assertFalse(orderHub.changeOrderState(101, OrderState.Collected, OrderState.Progressing));
+        assertFalse(orderHub.changeOrderStateMoveFile(101, OrderState.Progressing));
+        assertFalse(orderHub.changeOrderState(101, OrderState.Progressing, OrderState.Collected)); // already collected
+        assertEquals(OrderState.Collected, orderHub.getOrders().get(101));
+    }
+
+    @Test
+    void onlyOnePickerTakesAnOrder() throws Exception {
+        orderHub.newOrder(102, trolley(), "bob");
+        int pickers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(pickers);
+        try {
+            ArrayList<Future<Boolean>> claims = new ArrayList<>();
+            for (int i = 0; i < pickers; i++) {
+                claims.add(executor.submit(() -> {
+                    start.await();
+                    return orderHub.changeOrderState(102, OrderState.Ordered, OrderState.Progressing);
+                }));
+            }
+            start.countDown();
+            int won = 0;
+            for (Future<Boolean> claim : claims) {
+                won += claim.get() ? 1 : 0;
+            }
+            assertEquals(1, won);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(OrderState.Progressing, orderHub.getOrders().get(102));
+    }
+
+    @Test
+    void ordersReadEarlierAreNotChangedLater() throws Exception {
+        Map<Integer, OrderState> before = orderHub.getOrders();
+        orderHub.newOrder(103, trolley(), "carol");
+        assertFalse(before.containsKey(103));
+        assertEquals(OrderState.Ordered, orderHub.getOrders().get(103));
+    }
+
+    private static ArrayList<Product> trolley() {
+        ArrayList<Product> trolley = new ArrayList<>();
+        trolley.add(new Product("0001", "Radio", "0001.jpg", 1999, 10));
+        return trolley;
+    }
+}
@@ -0,0 +1,65 @@
+package ci553.happyshop.orderManagement;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * StockReservations: units held by one customer can not be reserved by another, and units sold by a confirmed
+ * checkout can not be reserved again by a customer whose search result is from before the sale.
+ */
+class StockReservationsTest {
+    private final StockReservations reservations = new StockReservations(60_000, 100);
+
+    @Test
+    void unitsHeldByOthersCanNotBeReserved() {
+        StockReservations.Session alice = reservations.openSession("alice");
+        StockReservations.Session bob = reservations.openSession("bob");
+        long sold = reservations.getSoldCount("0001");
+        assertTrue(alice.reserve("0001", 2, 3, sold));
+        assertFalse(bob.reserve("0001", 2, 3, sold));
+        assertEquals(1, reservations.getAvailable("0001", 3, sold));
+        assertTrue(bob.reserve("0001", 1, 3, sold));
+
+        alice.releaseAll();
+        assertEquals(1, reservations.getReserved("0001"));
+        assertTrue(bob.reserve("0001", 2, 3, sold));
+    }
+
+    @Test
+    void soldUnitsCanNotBeReservedFromAnOldSearch() {
+        StockReservations.Session alice = reservations.openSession("alice");
+        StockReservations.Session bob = reservations.openSession("bob");
+
+        // both searched while 2 were in stock
+        long soldAtSearch = reservations.getSoldCount("0001");
+        int stockAtSearch = 2;
+        assertTrue(alice.reserve("0001", 2, stockAtSearch, soldAtSearch));
+        assertFalse(bob.reserve("0001", 1, stockAtSearch, soldAtSearch));
+
+        alice.confirm(); // alice checks out, the database now has 0 in stock
+        assertEquals(0, reservations.getReserved("0001"));
+        assertEquals(2, reservations.getSoldCount("0001"));
+
+        // bob adds it again from the old search result: the units are sold, not free
+        assertFalse(bob.reserve("0001", 1, stockAtSearch, soldAtSearch));
+        assertEquals(0, reservations.getAvailable("0001", stockAtSearch, soldAtSearch));
+        assertEquals(0, bob.getHeld("0001"));
+
+        // after the warehouse restocks to 5, a new search sees 5 and the new sold count
+        long soldAtNewSearch = reservations.getSoldCount("0001");
+        assertTrue(bob.reserve("0001", 1, 5, soldAtNewSearch));
+        assertEquals(4, reservations.getAvailable("0001", 5, soldAtNewSearch));
+    }
+
+    @Test
+    void releasedUnitsAreNotCountedAsSold() {
+        StockReservations.Session alice = reservations.openSession("alice");
+        StockReservations.Session bob = reservations.openSession("bob");
+        long sold = reservations.getSoldCount("0002");
+        assertTrue(alice.reserve("0002", 1, 1, sold));
+        alice.releaseAll(); // cancel, the unit is still in stock
+        assertEquals(0, reservations.getSoldCount("0002"));
+        assertTrue(bob.reserve("0002", 1, 1, sold));
+    }
+}
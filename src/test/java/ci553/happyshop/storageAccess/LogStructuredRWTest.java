@@ -0,0 +1,121 @@
+package ci553.happyshop.storageAccess;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Replay of a LogStructuredRW after a crash: a damaged last record (a torn write) and everything after it
+ * is discarded, the log stays usable, and only one LogStructuredRW can have a log folder open.
+ * The log file is damaged by hand, by changing one byte of a product's description.
+ */
+class LogStructuredRWTest {
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024; // as LogStructuredRW.CHUNK_SIZE
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void tornLastRecordIsDiscardedAndOverwritten() throws Exception {
+        LogStructuredRW store = new LogStructuredRW(folder, false);
+        store.insertNewProduct("0001", "Radio", 1000, "0001.jpg", 5);
+        store.insertNewProduct("0002", "Toaster", 2000, "0002.jpg", 5);
+        store.insertNewProduct("0003", "Kettle", 3000, "0003.jpg", 5);
+        store.close();
+
+        damage(logFile(), "Kettle");
+
+        store = new LogStructuredRW(folder, false);
+        assertEquals(2, store.size());
+        assertNotNull(store.searchByProductId("0002"));
+        assertNull(store.searchByProductId("0003"));
+        store.insertNewProduct("0004", "Lamp", 4000, "0004.jpg", 5); // takes the place of the damaged record
+        store.close();
+
+        store = new LogStructuredRW(folder, false);
+        assertEquals(3, store.size());
+        assertEquals("Lamp", store.searchByProductId("0004").getProductDescription());
+        assertNull(store.searchByProductId("0003"));
+        store.close();
+    }
+
+    @Test
+    void laterChunksAreZeroedWhenAnEarlierRecordIsDamaged() throws Exception {
+        LogStructuredRW store = new LogStructuredRW(folder, false);
+        String filler = "x".repeat(1000);
+        int count = 6000; // about 6MB, so the log runs into its second chunk
+        for (int i = 1; i <= count; i++) {
+            store.insertNewProduct(String.format("%05d", i), "item" + i + " " + filler, 100, "none.jpg", 1);
+        }
+        store.close();
+        assertTrue(Files.size(logFile()) > CHUNK_SIZE);
+
+        damage(logFile(), "item10 ");
+
+        store = new LogStructuredRW(folder, false);
+        assertEquals(9, store.size());
+        store.close();
+        byte[] bytes = Files.readAllBytes(logFile());
+        for (int i = CHUNK_SIZE; i < bytes.length; i++) {
+            assertEquals(0, bytes[i], "byte " + i + " of a later chunk was not zeroed");
+        }
+    }
+
+    @Test
+    void forcedWritesContinueIntoTheNextChunk() throws Exception {
+        LogStructuredRW store = new LogStructuredRW(folder, true); // every record flushed before it is acknowledged
+        String filler = "x".repeat(1000);
+        int count = 4500; // about 4.5MB, so a record moves on to the second chunk after an end marker
+        for (int i = 1; i <= count; i++) {
+            store.insertNewProduct(String.format("%05d", i), "item" + i + " " + filler, 100, "none.jpg", 1);
+        }
+        store.close();
+        assertTrue(Files.size(logFile()) > CHUNK_SIZE);
+
+        store = new LogStructuredRW(folder, true);
+        assertEquals(count, store.size());
+        assertNotNull(store.searchByProductId(String.format("%05d", count)));
+        store.close();
+    }
+
+    @Test
+    void secondStoreOnTheSameFolderFails() throws Exception {
+        LogStructuredRW store = new LogStructuredRW(folder, false);
+        assertThrows(IOException.class, () -> new LogStructuredRW(folder, false));
+        store.close();
+
+        LogStructuredRW reopened = new LogStructuredRW(folder, false); // free again once closed
+        reopened.close();
+    }
+
+    private Path logFile() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "products-*.log")) {
+            return files.iterator().next();
+        }
+    }
+
+    // changes one byte of the first occurrence of the given text, so its record no longer matches its CRC
+    private static void damage(Path file, String text) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        byte[] target = text.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i + target.length <= bytes.length; i++) {
+            int j = 0;
+            while (j < target.length && bytes[i + j] == target[j]) {
+                j++;
+            }
+            if (j == target.length) {
+                bytes[i] ^= 0x20;
+                Files.write(file, bytes);
+                return;
+            }
+        }
+        fail(text + " not found in " + file);
+    }
+}
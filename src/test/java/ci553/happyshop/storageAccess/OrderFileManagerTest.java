@@ -0,0 +1,114 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Order;
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.orderManagement.OrderState;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The order files of OrderFileManager: the 68-byte version 2 header (magic at 0-5, state at 6, times at 8, 28
+ * and 48, newline at 67) written, updated in place and read back, and the version 1 files still read and updated.
+ */
+class OrderFileManagerTest {
+    private static final int HEADER_LENGTH = 68;
+    private static final String NO_TIME = "-".repeat(19);
+    private static final String TIME = "\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}";
+
+    @TempDir
+    Path home;
+
+    @Test
+    void headerIsWrittenAndReadBack() throws Exception {
+        Path ordered = Files.createDirectories(home.resolve("ordered"));
+        String text = orderText(12);
+        OrderFileManager.createOrderFile(ordered, 12, text);
+
+        byte[] content = Files.readAllBytes(ordered.resolve("12.txt"));
+        String header = new String(content, 0, HEADER_LENGTH, StandardCharsets.US_ASCII);
+        assertEquals("#HSO2 O 2025-03-11 19:53:45 " + NO_TIME + " " + NO_TIME + "\n", header);
+        assertEquals(text + "\n", new String(content, HEADER_LENGTH, content.length - HEADER_LENGTH, StandardCharsets.UTF_8));
+
+        // the same text, only the State line is written again from the header; the times not reached keep their lines
+        assertEquals(text.replace("\nState: Ordered \n", "\nState: Ordered\n"), OrderFileManager.readOrderFile(ordered, 12));
+    }
+
+    @Test
+    void stateChangesUpdateTheHeaderInPlaceAndMoveTheFile() throws Exception {
+        Path ordered = Files.createDirectories(home.resolve("ordered"));
+        Path progressing = Files.createDirectories(home.resolve("progressing"));
+        Path collected = Files.createDirectories(home.resolve("collected"));
+        OrderFileManager.createOrderFile(ordered, 7, orderText(7));
+        byte[] created = Files.readAllBytes(ordered.resolve("7.txt"));
+
+        assertTrue(OrderFileManager.updateAndMoveOrderFile(7, OrderState.Progressing, ordered, progressing));
+        assertFalse(Files.exists(ordered.resolve("7.txt")));
+        byte[] moved = Files.readAllBytes(progressing.resolve("7.txt"));
+        assertEquals(created.length, moved.length);
+        assertEquals('P', moved[6]);
+        String header = new String(moved, 0, HEADER_LENGTH, StandardCharsets.US_ASCII);
+        assertEquals("2025-03-11 19:53:45", header.substring(8, 27));
+        assertTrue(header.substring(28, 47).matches(TIME), header);
+        assertEquals(NO_TIME, header.substring(48, 67));
+        assertEquals('\n', moved[67]);
+        assertArrayEquals(Arrays.copyOfRange(created, HEADER_LENGTH, created.length),
+                Arrays.copyOfRange(moved, HEADER_LENGTH, moved.length)); // the order text is not rewritten
+
+        String read = OrderFileManager.readOrderFile(progressing, 7);
+        assertTrue(read.contains("\nState: Progressing\n"), read);
+        assertTrue(read.contains("\nProgressingDateTime: " + header.substring(28, 47) + "\n"), read);
+
+        assertTrue(OrderFileManager.updateAndMoveOrderFile(7, OrderState.Collected, progressing, collected));
+        byte[] done = Files.readAllBytes(collected.resolve("7.txt"));
+        assertEquals('C', done[6]);
+        assertEquals(header.substring(28, 47), new String(done, 28, 19, StandardCharsets.US_ASCII)); // kept
+        assertTrue(new String(done, 48, 19, StandardCharsets.US_ASCII).matches(TIME));
+        read = OrderFileManager.readOrderFile(collected, 7);
+        assertTrue(read.contains("\nState: Collected\n"), read);
+        assertTrue(read.matches("(?s).*\nCollectedDateTime: " + TIME + "\n.*"), read);
+
+        assertFalse(OrderFileManager.updateAndMoveOrderFile(7, OrderState.Collected, progressing, collected)); // gone
+    }
+
+    @Test
+    void versionOneFilesAreReadAndUpdatedTheOldWay() throws Exception {
+        Path ordered = Files.createDirectories(home.resolve("ordered"));
+        Path progressing = Files.createDirectories(home.resolve("progressing"));
+        String v1 = "OrderId: 3\n" +
+                "State: Ordered\n" +
+                "OrderedDateTime: 2025-03-11 19:53:45\n" +
+                "ProgressingDateTime:\n" +
+                "CollectedDateTime:\n" +
+                "Items:\n" +
+                " 0001    Radio              ( 1) £  19.99\n";
+        Files.writeString(ordered.resolve("3.txt"), v1);
+
+        assertEquals(v1.substring(0, v1.length() - 1), OrderFileManager.readOrderFile(ordered, 3));
+
+        assertTrue(OrderFileManager.updateAndMoveOrderFile(3, OrderState.Progressing, ordered, progressing));
+        String read = OrderFileManager.readOrderFile(progressing, 3);
+        assertTrue(read.startsWith("OrderId: 3\nState: Progressing\n"), read); // still version 1, no header added
+        assertTrue(read.matches("(?s).*\nProgressingDateTime: " + TIME + "\nCollectedDateTime:\n.*"), read);
+        assertTrue(read.endsWith("£  19.99"));
+        try (Stream<Path> files = Files.list(ordered)) {
+            assertEquals(0, files.count()); // no temp file left behind
+        }
+    }
+
+    private static String orderText(int orderId) {
+        ArrayList<Product> products = new ArrayList<>();
+        Product radio = new Product("0001", "Radio", "0001.jpg", 1999, 10);
+        radio.setOrderedQuantity(1);
+        products.add(radio);
+        return new Order(orderId, OrderState.Ordered, "2025-03-11 19:53:45", "alice", products).orderDetails();
+    }
+}
@@ -0,0 +1,121 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Order;
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.orderManagement.OrderState;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Replay of an OrderJournal after a crash (a damaged last record is discarded and overwritten),
+ * the lock on its folder, and the import of the old order files, which are moved out of the way.
+ */
+class OrderJournalTest {
+    private static final int SEGMENT_SIZE = 64 * 1024; // the smallest allowed, so the tests stay small
+
+    @TempDir
+    Path home;
+
+    @Test
+    void tornLastRecordIsDiscardedAndOverwritten() throws Exception {
+        Path folder = home.resolve("journal");
+        OrderJournal journal = new OrderJournal(folder, SEGMENT_SIZE, false);
+        journal.createOrder(1, orderText(1, "alice"));
+        journal.createOrder(2, orderText(2, "bob"));
+        journal.changeState(1, OrderState.Progressing);
+        journal.createOrder(3, orderText(3, "carol"));
+        journal.close();
+
+        damage(segment(folder), "carol");
+
+        OrderJournal replayed = new OrderJournal(folder, SEGMENT_SIZE, false);
+        assertEquals(2, replayed.size());
+        assertEquals(OrderState.Progressing, replayed.loadOpenOrders().get(1)); // records before the damage are kept
+        assertThrows(IOException.class, () -> replayed.readOrder(3));
+        replayed.createOrder(4, orderText(4, "dave")); // takes the place of the damaged record
+        replayed.close();
+
+        OrderJournal reopened = new OrderJournal(folder, SEGMENT_SIZE, false);
+        assertEquals(List.of(1, 2, 4), new ArrayList<>(reopened.loadOpenOrders().keySet()));
+        assertTrue(reopened.readOrder(4).contains("dave"));
+        reopened.close();
+    }
+
+    @Test
+    void secondJournalOnTheSameFolderFails() throws Exception {
+        Path folder = home.resolve("journal");
+        OrderJournal journal = new OrderJournal(folder, SEGMENT_SIZE, false);
+        assertThrows(IOException.class, () -> new OrderJournal(folder, SEGMENT_SIZE, false));
+        journal.close();
+        new OrderJournal(folder, SEGMENT_SIZE, false).close(); // free again once closed
+    }
+
+    @Test
+    void importedOrderFilesAreMovedAndNotImportedAgain() throws Exception {
+        Path ordered = Files.createDirectories(home.resolve("ordered"));
+        Path progressing = Files.createDirectories(home.resolve("progressing"));
+        Path collected = Files.createDirectories(home.resolve("collected"));
+        FileOrderStore files = new FileOrderStore(ordered, progressing, collected);
+        files.createOrder(7, orderText(7, "erin"));
+        files.createOrder(8, orderText(8, "frank"));
+        files.changeState(8, OrderState.Progressing);
+
+        Path folder = home.resolve("journal");
+        OrderJournal journal = new OrderJournal(folder, SEGMENT_SIZE, false);
+        assertEquals(2, journal.importFrom(files));
+        assertTrue(files.listOrderIds(OrderState.Ordered).isEmpty());
+        assertTrue(files.listOrderIds(OrderState.Progressing).isEmpty());
+        assertTrue(Files.exists(home.resolve("imported").resolve("ordered").resolve("7.txt")));
+        assertTrue(Files.exists(home.resolve("imported").resolve("progressing").resolve("8.txt")));
+        journal.close();
+
+        journal = new OrderJournal(folder, SEGMENT_SIZE, false);
+        assertEquals(0, journal.importFrom(files));
+        TreeMap<Integer, OrderState> open = journal.loadOpenOrders();
+        assertEquals(OrderState.Ordered, open.get(7));
+        assertEquals(OrderState.Progressing, open.get(8));
+        assertTrue(journal.readOrder(8).contains("frank"));
+        journal.close();
+    }
+
+    private static String orderText(int orderId, String customer) {
+        ArrayList<Product> products = new ArrayList<>();
+        products.add(new Product("0001", "Radio", "0001.jpg", 1999, 10));
+        return new Order(orderId, OrderState.Ordered, "2025-01-01 10:00:00", customer, products).orderDetails();
+    }
+
+    private static Path segment(Path folder) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "orders-*.journal")) {
+            return files.iterator().next();
+        }
+    }
+
+    // changes one byte of the first occurrence of the given text, so its record no longer matches its CRC
+    private static void damage(Path file, String text) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        byte[] target = text.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i + target.length <= bytes.length; i++) {
+            int j = 0;
+            while (j < target.length && bytes[i + j] == target[j]) {
+                j++;
+            }
+            if (j == target.length) {
+                bytes[i] ^= 0x20;
+                Files.write(file, bytes);
+                return;
+            }
+        }
+        fail(text + " not found in " + file);
+    }
+}
@@ -0,0 +1,95 @@
+package ci553.happyshop.storageAccess;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ProductCsvImporter and the image folder, on an in-memory Derby database: only the rows that were committed
+ * leave an image behind, and the image of another product is never replaced.
+ */
+class ProductCsvImporterTest {
+    private static final String DB_URL = "jdbc:derby:memory:csvImportTest";
+
+    @TempDir
+    Path folder;
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void createTable() throws SQLException {
+        try (Connection connection = DriverManager.getConnection(DB_URL + ";create=true");
+             Statement stmt = connection.createStatement()) {
+            // the columns of SetDatabase, and a price limit so a row can pass the checks and still be refused
+            stmt.executeUpdate("CREATE TABLE ProductTable(productID CHAR(4) PRIMARY KEY, description VARCHAR(100), "
+                    + "unitPricePence BIGINT NOT NULL CHECK (unitPricePence < 100000), image VARCHAR(100), "
+                    + "inStock INT, CHECK (inStock >= 0))");
+            stmt.executeUpdate("INSERT INTO ProductTable VALUES('0001', 'Radio', 1999, '0101.jpg', 10)");
+        }
+        pool = new ConnectionPool(DB_URL, 2, 5000, 20);
+    }
+
+    @AfterEach
+    void dropDatabase() {
+        pool.closeIdleConnections();
+        try {
+            DriverManager.getConnection(DB_URL + ";drop=true");
+        } catch (SQLException e) {
+            // Derby reports a successful drop as an exception
+        }
+    }
+
+    @Test
+    void onlyCommittedRowsLeaveAnImage() throws Exception {
+        Path images = Files.createDirectories(folder.resolve("images"));
+        Files.writeString(images.resolve("0101.jpg"), "radio"); // the image of product 0001
+        Files.writeString(folder.resolve("kettle.jpg"), "kettle");
+        Files.writeString(folder.resolve("toaster.jpg"), "toaster");
+        Files.writeString(folder.resolve("piano.jpg"), "piano");
+        Path csv = Files.writeString(folder.resolve("catalogue.csv"),
+                "id,description,price,image,stock\n"
+                        + "0101,Kettle,24.99,kettle.jpg,40\n"   // would be named 0101.jpg, which is the radio's
+                        + "0102,Toaster,19.99,toaster.jpg,5\n"
+                        + "0103,Piano,2000.00,piano.jpg,1\n"); // refused by the database
+
+        ProductCsvImporter.ImportSummary summary = new ProductCsvImporter(pool, null, null, images).importFile(csv);
+
+        assertEquals(3, summary.getRowsRead());
+        assertEquals(1, summary.getInserted());
+        assertEquals(2, summary.getRejected());
+        assertEquals(1, summary.getImagesCopied());
+        assertEquals("radio", Files.readString(images.resolve("0101.jpg")));
+        assertEquals("toaster", Files.readString(images.resolve("0102.jpg")));
+        try (Stream<Path> files = Files.list(images)) {
+            assertEquals(List.of("0101.jpg", "0102.jpg"), files.map(f -> f.getFileName().toString()).sorted().toList());
+        }
+
+        String rejects = Files.readString(summary.getRejectsFile());
+        assertTrue(rejects.contains("Image name 0101.jpg is already used by product 0001"), rejects);
+        assertTrue(rejects.contains("Database refused the row"), rejects);
+
+        try (PooledConnection pooled = pool.borrow();
+             Statement stmt = pooled.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT productID, image FROM ProductTable ORDER BY productID")) {
+            assertTrue(rs.next());
+            assertEquals("0001", rs.getString("productID"));
+            assertTrue(rs.next());
+            assertEquals("0102", rs.getString("productID"));
+            assertEquals("0102.jpg", rs.getString("image"));
+            assertFalse(rs.next());
+        }
+    }
+}
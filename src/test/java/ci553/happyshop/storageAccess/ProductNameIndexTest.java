@@ -0,0 +1,124 @@
+package ci553.happyshop.storageAccess;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that ProductNameIndex answers name searches exactly like  LOWER(description) LIKE '%kw%'
+ * (compared with a plain contains() over every description), and the type-ahead order of searchPrefix.
+ */
+class ProductNameIndexTest {
+    private final TreeMap<String, String> descriptions = new TreeMap<>();
+    private final ProductNameIndex index = new ProductNameIndex();
+
+    @BeforeEach
+    void setUp() {
+        descriptions.put("0001", "40 inch TV");
+        descriptions.put("0002", "DAB Radio");
+        descriptions.put("0003", "Toaster");
+        descriptions.put("0004", "Watch");
+        descriptions.put("0005", "Digital Camera");
+        descriptions.put("0006", "MP3 player");
+        descriptions.put("0007", "USB drive 32GB");
+        descriptions.put("0008", "USB3 drive-64GB");
+        descriptions.put("0009", "Hard drive");
+        descriptions.put("0010", "Radiator, oil filled");
+        index.loadAll(descriptions);
+    }
+
+    // what the old table scan returned, in product ID order
+    private List<String> likeScan(String keyword) {
+        List<String> ids = new ArrayList<>();
+        String text = keyword.toLowerCase(Locale.ROOT);
+        for (Map.Entry<String, String> entry : descriptions.entrySet()) {
+            if (entry.getValue().toLowerCase(Locale.ROOT).contains(text)) {
+                ids.add(entry.getKey());
+            }
+        }
+        return ids;
+    }
+
+    @Test
+    void searchMatchesSubstringsLikeTheTableScan() {
+        String[] keywords = {"radio", "adio", "RAD", "dio", "usb", "usb dr", "b dr", "usb drive", "drive usb",
+                "drive-6", "-", " ", ",", "", "gb", "3", "inch tv", "o", "a", "zzz", "er, oil"};
+        for (String keyword : keywords) {
+            assertEquals(likeScan(keyword), index.search(keyword), "keyword '" + keyword + "'");
+        }
+    }
+
+    @Test
+    void searchInsideAWord() {
+        assertEquals(List.of("0002"), index.search("adio"));
+        assertEquals(List.of("0002", "0010"), index.search("adi"));
+        assertEquals(List.of("0008"), index.search("drive-"));
+    }
+
+    @Test
+    void searchPagesAreSlicesOfTheFullSearch() {
+        for (String keyword : new String[] {"a", "drive", "o", "-", "usb dr"}) {
+            List<String> all = index.search(keyword);
+            List<String> paged = new ArrayList<>();
+            String after = null;
+            while (true) {
+                List<String> page = index.searchPage(keyword, after, 2);
+                paged.addAll(page);
+                if (page.size() < 2) {
+                    break;
+                }
+                after = page.get(page.size() - 1);
+            }
+            assertEquals(all, paged, "keyword '" + keyword + "'");
+        }
+    }
+
+    @Test
+    void putAndRemoveKeepTheIndexUpToDate() {
+        index.put("0002", "FM Tuner");
+        assertEquals(List.of("0010"), index.search("adi"));
+        assertEquals(List.of("0002"), index.search("uner"));
+
+        index.remove("0010");
+        assertTrue(index.search("adi").isEmpty());
+        assertTrue(index.search("radiator").isEmpty());
+
+        index.put("0011", "Radio alarm clock");
+        assertEquals(List.of("0011"), index.search("adio"));
+        assertEquals(List.of("0011"), index.search("alarm c"));
+    }
+
+    @Test
+    void searchPrefixPutsIdMatchesFirstThenWordOrder() {
+        assertEquals(List.of("0001", "0002", "0003"), index.searchPrefix("000", 3));
+        // "usb" before "usb3", ID order within a word
+        assertEquals(List.of("0007", "0008"), index.searchPrefix("usb", 10));
+        assertEquals(List.of("0007", "0008", "0009"), index.searchPrefix("dr", 10));
+        // every word must start a word of the product, by prefix and not inside a word
+        assertEquals(List.of("0007", "0008"), index.searchPrefix("dr us", 10));
+        assertTrue(index.searchPrefix("adio", 10).isEmpty());
+    }
+
+    @Test
+    void searchPrefixStopsAtTheLimit() {
+        assertEquals(List.of("0002"), index.searchPrefix("d", 1));
+        assertEquals(List.of("0007"), index.searchPrefix("drive 32", 1));
+        assertTrue(index.searchPrefix("drive gb", 1).isEmpty()); // "gb" is inside "32gb", not its start
+        assertTrue(index.searchPrefix("d", 0).isEmpty());
+        assertTrue(index.searchPrefix("  ", 5).isEmpty());
+    }
+
+    @Test
+    void tokenizeSplitsOnAnythingButLettersAndDigits() {
+        assertEquals(List.of("usb3", "drive", "64gb"), List.of(ProductNameIndex.tokenize("USB3 drive-64GB")));
+        assertEquals(0, ProductNameIndex.tokenize(" - , ").length);
+    }
+}
@@ -0,0 +1,97 @@
+package ci553.happyshop.utility;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A HashedTimingWheel timeout may fire up to a tick late but never early, also when it waits several turns
+ * of the wheel, and a cancelled timeout never fires. The wheels here are small (8 buckets of 10 ms),
+ * so most delays need more than one turn.
+ */
+class HashedTimingWheelTest {
+    private final HashedTimingWheel wheel = new HashedTimingWheel("test-wheel", 10, 8);
+
+    @AfterEach
+    void stopWheel() {
+        wheel.stop();
+    }
+
+    @Test
+    void neverFiresEarly() throws Exception {
+        long[] delaysMillis = {0, 1, 9, 10, 11, 45, 79, 80, 81, 160, 250, 333};
+        CountDownLatch fired = new CountDownLatch(delaysMillis.length);
+        List<AtomicLong> firedAfter = new ArrayList<>();
+        for (long delay : delaysMillis) {
+            AtomicLong elapsed = new AtomicLong(-1);
+            firedAfter.add(elapsed);
+            long scheduled = System.nanoTime();
+            wheel.schedule(() -> {
+                elapsed.set(System.nanoTime() - scheduled);
+                fired.countDown();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        assertTrue(fired.await(5, TimeUnit.SECONDS), "not every timeout fired");
+        for (int i = 0; i < delaysMillis.length; i++) {
+            long elapsed = firedAfter.get(i).get();
+            assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(delaysMillis[i]),
+                    "a " + delaysMillis[i] + " ms timeout fired after " + elapsed + " ns");
+        }
+        assertEquals(0, wheel.getPendingCount());
+    }
+
+    @Test
+    void cancelledTimeoutsNeverFire() throws Exception {
+        Set<Integer> ran = ConcurrentHashMap.newKeySet();
+        List<HashedTimingWheel.Timeout> timeouts = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int task = i;
+            timeouts.add(wheel.schedule(() -> ran.add(task), 200 + i, TimeUnit.MILLISECONDS));
+        }
+        for (int i = 0; i < timeouts.size(); i += 2) {
+            assertTrue(timeouts.get(i).cancel());
+            assertFalse(timeouts.get(i).cancel()); // only once
+        }
+        assertEquals(100, wheel.getPendingCount());
+
+        CountDownLatch last = new CountDownLatch(1);
+        wheel.schedule(last::countDown, 600, TimeUnit.MILLISECONDS); // after all the others
+        assertTrue(last.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < timeouts.size(); i++) {
+            HashedTimingWheel.Timeout timeout = timeouts.get(i);
+            if (i % 2 == 0) {
+                assertFalse(ran.contains(i), "cancelled timeout " + i + " fired");
+                assertTrue(timeout.isCancelled());
+            } else {
+                assertTrue(ran.contains(i), "timeout " + i + " did not fire");
+                assertTrue(timeout.isFired());
+                assertFalse(timeout.cancel()); // too late
+            }
+        }
+        assertEquals(0, wheel.getPendingCount());
+    }
+
+    @Test
+    void failingTaskDoesNotStopTheWheel() throws Exception {
+        wheel.schedule(() -> { throw new IllegalStateException("expected by the test"); }, 5, TimeUnit.MILLISECONDS);
+        CountDownLatch later = new CountDownLatch(1);
+        wheel.schedule(later::countDown, 50, TimeUnit.MILLISECONDS);
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void stoppedWheelTakesNoTimeouts() {
+        wheel.stop();
+        assertThrows(IllegalStateException.class, () -> wheel.schedule(() -> { }, 1, TimeUnit.MILLISECONDS));
+    }
+}
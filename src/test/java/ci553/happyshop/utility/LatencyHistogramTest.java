@@ -0,0 +1,128 @@
+package ci553.happyshop.utility;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The bucket math of LatencyHistogram: every value up to 255 has its own bucket, above that every power of two has
+ * 128 buckets, a bucket's highest value is never below a value in it and at most 1/128 above it, and percentiles
+ * read from a snapshot are within that relative error of the exact ones.
+ */
+class LatencyHistogramTest {
+    private static final double RELATIVE_ERROR = 1.0 / 128;
+
+    @Test
+    void bucketsAtTheSubBucketBoundaries() {
+        assertEquals(255, LatencyHistogram.indexOf(255));
+        assertEquals(255, LatencyHistogram.highestValueOf(255));
+        assertEquals(256, LatencyHistogram.indexOf(256)); // first split: 256 and 257 share a bucket
+        assertEquals(256, LatencyHistogram.indexOf(257));
+        assertEquals(257, LatencyHistogram.highestValueOf(256));
+        assertEquals(257, LatencyHistogram.indexOf(258));
+        assertEquals(383, LatencyHistogram.indexOf(511));
+        assertEquals(511, LatencyHistogram.highestValueOf(383));
+        assertEquals(384, LatencyHistogram.indexOf(512)); // 512-1023: buckets 4 wide
+        assertEquals(384, LatencyHistogram.indexOf(515));
+        assertEquals(515, LatencyHistogram.highestValueOf(384));
+        assertEquals(385, LatencyHistogram.indexOf(516));
+    }
+
+    @Test
+    void everyValueIsInTheRightBucket() {
+        Random random = new Random(17);
+        long[] values = new long[200_000];
+        for (int i = 0; i < 5000; i++) {
+            values[i] = i; // all the small values and the first few powers of two
+        }
+        for (int bit = 8; bit < 40; bit++) { // around every power of two
+            for (int d = -2; d <= 2; d++) {
+                values[5000 + (bit - 8) * 5 + d + 2] = (1L << bit) + d;
+            }
+        }
+        for (int i = 6000; i < values.length; i++) {
+            values[i] = random.nextLong(LatencyHistogram.MAX_VALUE + 1);
+        }
+        for (long value : values) {
+            int index = LatencyHistogram.indexOf(value);
+            long highest = LatencyHistogram.highestValueOf(index);
+            assertTrue(highest >= value, value + " above the highest value of its bucket " + highest);
+            assertTrue(highest - value <= value * RELATIVE_ERROR, value + " in a bucket up to " + highest);
+            assertEquals(index + 1, LatencyHistogram.indexOf(highest + 1), "buckets of " + value + " are not next to each other");
+        }
+    }
+
+    @Test
+    void largestValueIsInTheLastBucket() {
+        long max = LatencyHistogram.MAX_VALUE;
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.indexOf(max));
+        assertEquals(max, LatencyHistogram.highestValueOf(LatencyHistogram.BUCKET_COUNT - 1));
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE); // counted as MAX_VALUE
+        histogram.record(-5);             // counted as 0
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(2, snapshot.getCount());
+        assertEquals(max, snapshot.getMaxNanos());
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+        assertEquals(max, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    void percentilesAreWithinTheRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(3);
+        long[] exact = new long[100_000];
+        for (int i = 0; i < exact.length; i++) {
+            exact[i] = (long) Math.exp(random.nextDouble() * 20); // 1 ns to about 0.5 s, spread over many powers of two
+            histogram.record(exact[i]);
+        }
+        Arrays.sort(exact);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        for (double percentile : new double[] {1, 10, 50, 90, 99, 99.9, 99.99, 100}) {
+            long expected = exact[(int) Math.ceil(percentile / 100 * exact.length) - 1];
+            long reported = snapshot.getValueAtPercentile(percentile);
+            assertTrue(reported >= expected, "p" + percentile + " " + reported + " below " + expected);
+            assertTrue(reported - expected <= expected * RELATIVE_ERROR, "p" + percentile + " " + reported + " for " + expected);
+        }
+        assertEquals(exact[exact.length - 1], snapshot.getMaxNanos());
+    }
+
+    @Test
+    void knownPercentilesOfEvenlySpreadValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 1; nanos <= 100_000; nanos++) {
+            histogram.record(nanos);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(50_000, snapshot.getValueAtPercentile(50), 50_000 * RELATIVE_ERROR);
+        assertEquals(99_000, snapshot.getValueAtPercentile(99), 99_000 * RELATIVE_ERROR);
+        assertEquals(99_900, snapshot.getValueAtPercentile(99.9), 99_900 * RELATIVE_ERROR);
+        assertEquals(100_000, snapshot.getValueAtPercentile(100));
+        assertEquals(50_000.5, snapshot.getMeanNanos(), 0.001);
+    }
+
+    @Test
+    void snapshotsCanBeSubtracted() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_000);
+        LatencyHistogram.Snapshot earlier = histogram.snapshot();
+        histogram.record(10);
+        histogram.record(20);
+        LatencyHistogram.Snapshot lastMinute = histogram.snapshot().since(earlier);
+        assertEquals(2, lastMinute.getCount());
+        assertEquals(20, lastMinute.getValueAtPercentile(99));
+        assertEquals(0, new LatencyHistogram().snapshot().getValueAtPercentile(99));
+    }
+
+    @Test
+    void durationsAreFormattedInMicrosecondsOrMilliseconds() {
+        assertEquals("840us", LatencyHistogram.formatDuration(840_000));
+        assertEquals("0us", LatencyHistogram.formatDuration(0));
+        assertEquals("1.0ms", LatencyHistogram.formatDuration(1_000_000));
+        assertEquals("12.6ms", LatencyHistogram.formatDuration(12_600_000));
+    }
+}
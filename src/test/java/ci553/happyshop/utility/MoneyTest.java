@@ -0,0 +1,64 @@
+package ci553.happyshop.utility;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Money turns price text into a long number of pence and back, exactly, with no floating point in between.
+ * appendPounds must lay out an amount the same way as String.format("%7.2f"), which the receipts used before.
+ */
+class MoneyTest {
+
+    @Test
+    void parsesPoundsAndPence() {
+        assertEquals(2999, Money.parsePence("29.99"));
+        assertEquals(500, Money.parsePence("5"));
+        assertEquals(50, Money.parsePence("0.5"));
+        assertEquals(50, Money.parsePence(".5"));
+        assertEquals(500, Money.parsePence("5."));
+        assertEquals(7, Money.parsePence("0.07"));
+        assertEquals(1999, Money.parsePence(" 19.99 "));
+        assertEquals(-5, Money.parsePence("-0.05"));
+        assertEquals(0, Money.parsePence("0"));
+    }
+
+    @Test
+    void rejectsTextThatIsNotAPrice() {
+        for (String text : new String[] {null, "", " ", ".", "-", "1.999", "1,99", "£5", "abc", "1.2.3", "+5", "1e3", "--5"}) {
+            assertThrows(NumberFormatException.class, () -> Money.parsePence(text), String.valueOf(text));
+        }
+        assertThrows(NumberFormatException.class, () -> Money.parsePence("99999999999999999999"));
+        assertThrows(NumberFormatException.class, () -> Money.parsePence("92233720368547759.00")); // too many pence for a long
+    }
+
+    @Test
+    void formatsWithTwoDecimalPlaces() {
+        assertEquals("29.99", Money.format(2999));
+        assertEquals("0.05", Money.format(5));
+        assertEquals("-0.05", Money.format(-5));
+        assertEquals("-12.30", Money.format(-1230));
+        assertEquals("0.00", Money.format(0));
+        assertEquals("1000000.00", Money.format(100_000_000));
+        assertEquals(1234, Money.parsePence(Money.format(1234)));
+    }
+
+    @Test
+    void appendPoundsLaysOutLikeStringFormat() {
+        long[] amounts = {0, 1, 9, 10, 99, 100, 2999, -5, -2999, 999_999, 1_000_000, 12_345_678_901L};
+        for (long pence : amounts) {
+            for (int width : new int[] {0, 7, 12}) {
+                String expected = String.format(Locale.UK, "%" + (width == 0 ? "" : width) + ".2f", pence / 100.0);
+                assertEquals(expected, Money.appendPounds(new StringBuilder(), pence, width).toString(), pence + " pence");
+            }
+        }
+    }
+
+    @Test
+    void timesFailsInsteadOfOverflowing() {
+        assertEquals(8997, Money.times(2999, 3));
+        assertThrows(ArithmeticException.class, () -> Money.times(Long.MAX_VALUE / 2, 3));
+    }
+}
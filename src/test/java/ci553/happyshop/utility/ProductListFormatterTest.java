@@ -0,0 +1,70 @@
+package ci553.happyshop.utility;
+
+import ci553.happyshop.catalogue.Product;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * ProductListFormatter appends its lines by hand instead of with String.format, but a receipt (and so an order file)
+ * must come out byte for byte as it did before. oldBuildString is the earlier String.format version, kept as the reference.
+ */
+class ProductListFormatterTest {
+
+    @Test
+    void sameTextAsTheStringFormatVersion() {
+        ArrayList<Product> trolley = new ArrayList<>();
+        trolley.add(product("0001", "40 inch TV", 26999, 1));
+        trolley.add(product("0002", "DAB Radio", 2999, 12));
+        trolley.add(product("0003", "A very long product description that is cut", 5, 3));
+        trolley.add(product("12345678", "Short", 100_000, 99));
+        trolley.add(product("0005", "", 0, 100));
+        trolley.add(product("0006", "Exactly eighteen c", 1, 0));
+        trolley.add(product("0007", "Refund", -250, 2));
+        assertEquals(oldBuildString(trolley), ProductListFormatter.buildString(trolley));
+    }
+
+    @Test
+    void emptyTrolleyHasOnlyTheTotal() {
+        ArrayList<Product> trolley = new ArrayList<>();
+        assertEquals(oldBuildString(trolley), ProductListFormatter.buildString(trolley));
+        assertTrue(ProductListFormatter.buildString(trolley).endsWith(" £   0.00\n"));
+    }
+
+    @Test
+    void totalIsExactPence() {
+        ArrayList<Product> trolley = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            trolley.add(product("000" + i, "Sweet", 10, 1)); // ten times 0.10, which is not exactly 1.00 in doubles
+        }
+        assertTrue(ProductListFormatter.buildString(trolley).endsWith(" £   1.00\n"));
+    }
+
+    private static Product product(String id, String description, long pricePence, int orderedQuantity) {
+        Product product = new Product(id, description, id + ".jpg", pricePence, 100);
+        product.setOrderedQuantity(orderedQuantity);
+        return product;
+    }
+
+    // the layout of ProductListFormatter.buildString before prices were held in pence
+    private static String oldBuildString(ArrayList<Product> proList) {
+        StringBuilder sb = new StringBuilder();
+        double totalPrice = 0;
+        for (Product pr : proList) {
+            int orderedQuantity = pr.getOrderedQuantity();
+            double unitPrice = pr.getUnitPricePence() / 100.0;
+            sb.append(String.format(Locale.UK, " %-7s %-18.18s (%2d) £%7.2f\n",
+                    pr.getProductId(),
+                    pr.getProductDescription(),
+                    orderedQuantity,
+                    unitPrice * orderedQuantity));
+            totalPrice = totalPrice + unitPrice * orderedQuantity;
+        }
+        sb.append("-".repeat(44)).append("\n");
+        sb.append(String.format(Locale.UK, " %-35s £%7.2f\n", "Total", totalPrice));
+        return sb.toString();
+    }
+}